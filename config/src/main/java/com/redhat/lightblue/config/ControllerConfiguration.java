@@ -42,6 +42,7 @@ public class ControllerConfiguration implements JsonInitializable, Serializable
     private Class<? extends ControllerFactory> controllerFactory;
     private ObjectNode extensions;
     private ObjectNode options;
+    private boolean documentCache;
 
     public ControllerConfiguration() {
     }
@@ -51,6 +52,7 @@ public class ControllerConfiguration implements JsonInitializable, Serializable
         controllerFactory = c.controllerFactory;
         extensions = c.extensions;
         options=c.options;
+        documentCache = c.documentCache;
     }
 
     /**
@@ -109,6 +111,22 @@ public class ControllerConfiguration implements JsonInitializable, Serializable
         options = node;
     }
 
+    /**
+     * If true, the finds of cacheable entities of this backend are cached
+     * when the document cache is enabled in the CRUD configuration
+     */
+    public boolean isDocumentCache() {
+        return documentCache;
+    }
+
+    /**
+     * If true, the finds of cacheable entities of this backend are cached
+     * when the document cache is enabled in the CRUD configuration
+     */
+    public void setDocumentCache(boolean documentCache) {
+        this.documentCache = documentCache;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public void initializeFromJson(JsonNode node) {
@@ -125,6 +143,10 @@ public class ControllerConfiguration implements JsonInitializable, Serializable
                 }
                 extensions = (ObjectNode) node.get("extensions");
                 options = (ObjectNode) node.get("options");
+                x = node.get("documentCache");
+                if (x != null) {
+                    documentCache = x.asBoolean();
+                }
                 LOGGER.debug("Initialized: source={} backend={} controllerFactory={} extensions={} options={}", node, backend, controllerFactory, extensions,options);
             }
         } catch (Exception e) {
@@ -28,6 +28,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import com.redhat.lightblue.hooks.AsyncHookDispatcher;
 import com.redhat.lightblue.util.JsonInitializable;
 
 /**
@@ -48,11 +49,37 @@ public class CrudConfiguration implements JsonInitializable, Serializable {
     private SavedSearchConfiguration savedSearch;
     private boolean validateRequests = false;
     private int bulkParallelExecutions = 3;
+    private int bulkThreadPoolSize = 32;
+    private int bulkQueueSize = 1024;
     private int memoryIndexThreshold = 16;
     private int maxResultSetSizeForReadsB = 50 * 1024 * 1024; // 50 MB
     private int maxResultSetSizeForWritesB = 50 * 1024 * 1024; // 50 MB
     private int maxExecutionContextSizeForCompositeFindB = 100 * 1024 * 1024; // 100mb
     private int warnResultSetSizeB = 10 * 1024 * 1024; // 10 MB
+    private int compositeFindParallelism = 9;
+    private int compositeFindThreadPoolSize = 64;
+    private int compositeFindQueueSize = 1024;
+    private int queryPlanCacheSize = 1024;
+    private int queryPlanSearchBudget = 1024;
+    private int maxBruteForceQueryPlanEdges = 8;
+    private int compositeMetadataCacheSize = 512;
+    private long metadataCacheTTLMS = 60 * 1000; // 1 minute
+    private int fieldAccessCacheSize = 512;
+    private int constraintPlanCacheSize = 512;
+    private int assembleWindowSize = 256;
+    private int assembleCacheSize = 10000;
+    private int joinSearchBatchSize = 256;
+    private int joinSearchPrefetchDepth = 1;
+    private int sortMemoryBudgetB = 32 * 1024 * 1024; // 32 MB
+    private int parallelValidationThreshold = 1000;
+    private int parallelValidationChunks = 4;
+    private int documentCacheSize = 0;
+    private int documentCacheTTLMS = 60 * 1000; // 1 minute
+    private int documentCacheMaxResultSize = 100;
+    private int asyncHookThreadPoolSize = 4;
+    private int asyncHookQueueSize = 1024;
+    private long asyncHookQueueSizeB = 64 * 1024 * 1024;
+    private AsyncHookDispatcher.OverflowPolicy asyncHookOverflowPolicy = AsyncHookDispatcher.OverflowPolicy.callerRuns;
 
     public boolean isValidateRequests() {
         return validateRequests;
@@ -70,6 +97,22 @@ public class CrudConfiguration implements JsonInitializable, Serializable {
         bulkParallelExecutions = i;
     }
 
+    public int getBulkThreadPoolSize() {
+        return bulkThreadPoolSize;
+    }
+
+    public void setBulkThreadPoolSize(int bulkThreadPoolSize) {
+        this.bulkThreadPoolSize = bulkThreadPoolSize;
+    }
+
+    public int getBulkQueueSize() {
+        return bulkQueueSize;
+    }
+
+    public void setBulkQueueSize(int bulkQueueSize) {
+        this.bulkQueueSize = bulkQueueSize;
+    }
+
     public SavedSearchConfiguration getSavedSearch() {
         return savedSearch;
     }
@@ -128,6 +171,14 @@ public class CrudConfiguration implements JsonInitializable, Serializable {
             if (x != null) {
                 bulkParallelExecutions = x.intValue();
             }
+            x = node.get("bulkThreadPoolSize");
+            if (x != null) {
+                bulkThreadPoolSize = x.intValue();
+            }
+            x = node.get("bulkQueueSize");
+            if (x != null) {
+                bulkQueueSize = x.intValue();
+            }
 
             x = node.get("savedSearch");
             if(x instanceof ObjectNode) {
@@ -159,6 +210,126 @@ public class CrudConfiguration implements JsonInitializable, Serializable {
             if (x != null) {
                 maxExecutionContextSizeForCompositeFindB = x.intValue();
             }
+
+            x = node.get("compositeFindParallelism");
+            if (x != null) {
+                compositeFindParallelism = x.intValue();
+            }
+
+            x = node.get("compositeFindThreadPoolSize");
+            if (x != null) {
+                compositeFindThreadPoolSize = x.intValue();
+            }
+
+            x = node.get("compositeFindQueueSize");
+            if (x != null) {
+                compositeFindQueueSize = x.intValue();
+            }
+
+            x = node.get("queryPlanCacheSize");
+            if (x != null) {
+                queryPlanCacheSize = x.intValue();
+            }
+
+            x = node.get("queryPlanSearchBudget");
+            if (x != null) {
+                queryPlanSearchBudget = x.intValue();
+            }
+
+            x = node.get("maxBruteForceQueryPlanEdges");
+            if (x != null) {
+                maxBruteForceQueryPlanEdges = x.intValue();
+            }
+
+            x = node.get("compositeMetadataCacheSize");
+            if (x != null) {
+                compositeMetadataCacheSize = x.intValue();
+            }
+
+            x = node.get("metadataCacheTTLMS");
+            if (x != null) {
+                metadataCacheTTLMS = x.longValue();
+            }
+
+            x = node.get("fieldAccessCacheSize");
+            if (x != null) {
+                fieldAccessCacheSize = x.intValue();
+            }
+
+            x = node.get("constraintPlanCacheSize");
+            if (x != null) {
+                constraintPlanCacheSize = x.intValue();
+            }
+
+            x = node.get("assembleWindowSize");
+            if (x != null) {
+                assembleWindowSize = x.intValue();
+            }
+
+            x = node.get("assembleCacheSize");
+            if (x != null) {
+                assembleCacheSize = x.intValue();
+            }
+
+            x = node.get("joinSearchBatchSize");
+            if (x != null) {
+                joinSearchBatchSize = x.intValue();
+            }
+
+            x = node.get("joinSearchPrefetchDepth");
+            if (x != null) {
+                joinSearchPrefetchDepth = x.intValue();
+            }
+
+            x = node.get("sortMemoryBudgetB");
+            if (x != null) {
+                sortMemoryBudgetB = x.intValue();
+            }
+
+            x = node.get("parallelValidationThreshold");
+            if (x != null) {
+                parallelValidationThreshold = x.intValue();
+            }
+
+            x = node.get("parallelValidationChunks");
+            if (x != null) {
+                parallelValidationChunks = x.intValue();
+            }
+
+            x = node.get("documentCacheSize");
+            if (x != null) {
+                documentCacheSize = x.intValue();
+            }
+
+            x = node.get("documentCacheTTLMS");
+            if (x != null) {
+                documentCacheTTLMS = x.intValue();
+            }
+
+            x = node.get("documentCacheMaxResultSize");
+            if (x != null) {
+                documentCacheMaxResultSize = x.intValue();
+            }
+
+            x = node.get("asyncHookThreadPoolSize");
+            if (x != null) {
+                asyncHookThreadPoolSize = x.intValue();
+            }
+
+            x = node.get("asyncHookQueueSize");
+            if (x != null) {
+                asyncHookQueueSize = x.intValue();
+            }
+
+            x = node.get("asyncHookQueueSizeB");
+            if (x != null) {
+                asyncHookQueueSizeB = x.longValue();
+            }
+
+            x = node.get("asyncHookOverflowPolicy");
+            if (x != null) {
+                asyncHookOverflowPolicy = AsyncHookDispatcher.OverflowPolicy.valueOf(x.asText());
+            }
         }
     }
 
@@ -201,4 +372,196 @@ public class CrudConfiguration implements JsonInitializable, Serializable {
     public void setMaxExecutionContextSizeForCompositeFindB(int maxExecutionContextSizeForCompositeFindB) {
         this.maxExecutionContextSizeForCompositeFindB = maxExecutionContextSizeForCompositeFindB;
     }
+
+    public int getCompositeFindParallelism() {
+        return compositeFindParallelism;
+    }
+
+    public void setCompositeFindParallelism(int compositeFindParallelism) {
+        this.compositeFindParallelism = compositeFindParallelism;
+    }
+
+    public int getCompositeFindThreadPoolSize() {
+        return compositeFindThreadPoolSize;
+    }
+
+    public void setCompositeFindThreadPoolSize(int compositeFindThreadPoolSize) {
+        this.compositeFindThreadPoolSize = compositeFindThreadPoolSize;
+    }
+
+    public int getCompositeFindQueueSize() {
+        return compositeFindQueueSize;
+    }
+
+    public void setCompositeFindQueueSize(int compositeFindQueueSize) {
+        this.compositeFindQueueSize = compositeFindQueueSize;
+    }
+
+    public int getQueryPlanCacheSize() {
+        return queryPlanCacheSize;
+    }
+
+    public void setQueryPlanCacheSize(int queryPlanCacheSize) {
+        this.queryPlanCacheSize = queryPlanCacheSize;
+    }
+
+    public int getQueryPlanSearchBudget() {
+        return queryPlanSearchBudget;
+    }
+
+    public void setQueryPlanSearchBudget(int queryPlanSearchBudget) {
+        this.queryPlanSearchBudget = queryPlanSearchBudget;
+    }
+
+    public int getMaxBruteForceQueryPlanEdges() {
+        return maxBruteForceQueryPlanEdges;
+    }
+
+    public void setMaxBruteForceQueryPlanEdges(int maxBruteForceQueryPlanEdges) {
+        this.maxBruteForceQueryPlanEdges = maxBruteForceQueryPlanEdges;
+    }
+
+    public int getCompositeMetadataCacheSize() {
+        return compositeMetadataCacheSize;
+    }
+
+    public void setCompositeMetadataCacheSize(int compositeMetadataCacheSize) {
+        this.compositeMetadataCacheSize = compositeMetadataCacheSize;
+    }
+
+    public long getMetadataCacheTTLMS() {
+        return metadataCacheTTLMS;
+    }
+
+    public void setMetadataCacheTTLMS(long metadataCacheTTLMS) {
+        this.metadataCacheTTLMS = metadataCacheTTLMS;
+    }
+
+    public int getFieldAccessCacheSize() {
+        return fieldAccessCacheSize;
+    }
+
+    public void setFieldAccessCacheSize(int fieldAccessCacheSize) {
+        this.fieldAccessCacheSize = fieldAccessCacheSize;
+    }
+
+    public int getConstraintPlanCacheSize() {
+        return constraintPlanCacheSize;
+    }
+
+    public void setConstraintPlanCacheSize(int constraintPlanCacheSize) {
+        this.constraintPlanCacheSize = constraintPlanCacheSize;
+    }
+
+    public int getAssembleWindowSize() {
+        return assembleWindowSize;
+    }
+
+    public void setAssembleWindowSize(int assembleWindowSize) {
+        this.assembleWindowSize = assembleWindowSize;
+    }
+
+    public int getAssembleCacheSize() {
+        return assembleCacheSize;
+    }
+
+    public void setAssembleCacheSize(int assembleCacheSize) {
+        this.assembleCacheSize = assembleCacheSize;
+    }
+
+    public int getJoinSearchBatchSize() {
+        return joinSearchBatchSize;
+    }
+
+    public void setJoinSearchBatchSize(int joinSearchBatchSize) {
+        this.joinSearchBatchSize = joinSearchBatchSize;
+    }
+
+    public int getJoinSearchPrefetchDepth() {
+        return joinSearchPrefetchDepth;
+    }
+
+    public void setJoinSearchPrefetchDepth(int joinSearchPrefetchDepth) {
+        this.joinSearchPrefetchDepth = joinSearchPrefetchDepth;
+    }
+
+    public int getSortMemoryBudgetB() {
+        return sortMemoryBudgetB;
+    }
+
+    public void setSortMemoryBudgetB(int sortMemoryBudgetB) {
+        this.sortMemoryBudgetB = sortMemoryBudgetB;
+    }
+
+    public int getParallelValidationThreshold() {
+        return parallelValidationThreshold;
+    }
+
+    public void setParallelValidationThreshold(int parallelValidationThreshold) {
+        this.parallelValidationThreshold = parallelValidationThreshold;
+    }
+
+    public int getParallelValidationChunks() {
+        return parallelValidationChunks;
+    }
+
+    public void setParallelValidationChunks(int parallelValidationChunks) {
+        this.parallelValidationChunks = parallelValidationChunks;
+    }
+
+    public int getDocumentCacheSize() {
+        return documentCacheSize;
+    }
+
+    public void setDocumentCacheSize(int documentCacheSize) {
+        this.documentCacheSize = documentCacheSize;
+    }
+
+    public int getDocumentCacheTTLMS() {
+        return documentCacheTTLMS;
+    }
+
+    public void setDocumentCacheTTLMS(int documentCacheTTLMS) {
+        this.documentCacheTTLMS = documentCacheTTLMS;
+    }
+
+    public int getDocumentCacheMaxResultSize() {
+        return documentCacheMaxResultSize;
+    }
+
+    public void setDocumentCacheMaxResultSize(int documentCacheMaxResultSize) {
+        this.documentCacheMaxResultSize = documentCacheMaxResultSize;
+    }
+
+    public int getAsyncHookThreadPoolSize() {
+        return asyncHookThreadPoolSize;
+    }
+
+    public void setAsyncHookThreadPoolSize(int asyncHookThreadPoolSize) {
+        this.asyncHookThreadPoolSize = asyncHookThreadPoolSize;
+    }
+
+    public int getAsyncHookQueueSize() {
+        return asyncHookQueueSize;
+    }
+
+    public void setAsyncHookQueueSize(int asyncHookQueueSize) {
+        this.asyncHookQueueSize = asyncHookQueueSize;
+    }
+
+    public long getAsyncHookQueueSizeB() {
+        return asyncHookQueueSizeB;
+    }
+
+    public void setAsyncHookQueueSizeB(long asyncHookQueueSizeB) {
+        this.asyncHookQueueSizeB = asyncHookQueueSizeB;
+    }
+
+    public AsyncHookDispatcher.OverflowPolicy getAsyncHookOverflowPolicy() {
+        return asyncHookOverflowPolicy;
+    }
+
+    public void setAsyncHookOverflowPolicy(AsyncHookDispatcher.OverflowPolicy asyncHookOverflowPolicy) {
+        this.asyncHookOverflowPolicy = asyncHookOverflowPolicy;
+    }
 }
@@ -36,11 +36,13 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.redhat.lightblue.Request;
 import com.redhat.lightblue.crud.BulkRequest;
 import com.redhat.lightblue.crud.CRUDController;
+import com.redhat.lightblue.crud.CachingCRUDController;
 import com.redhat.lightblue.crud.CrudConstants;
 import com.redhat.lightblue.crud.DeleteRequest;
 import com.redhat.lightblue.crud.Factory;
 import com.redhat.lightblue.crud.FindRequest;
 import com.redhat.lightblue.crud.InsertionRequest;
+import com.redhat.lightblue.crud.NotifyingMetadata;
 import com.redhat.lightblue.crud.SaveRequest;
 import com.redhat.lightblue.crud.UpdateRequest;
 import com.redhat.lightblue.crud.interceptors.UIDInterceptor;
@@ -60,6 +62,8 @@ import com.redhat.lightblue.metadata.parser.Extensions;
 import com.redhat.lightblue.metadata.parser.JSONMetadataParser;
 import com.redhat.lightblue.metadata.types.DefaultTypes;
 import com.redhat.lightblue.util.JsonUtils;
+import com.redhat.lightblue.util.metrics.DropwizardRequestMetrics;
+import com.redhat.lightblue.util.metrics.MetricRegistryFactory;
 
 /**
  * Manager class that creates instances of Mediator, Factory, Metadata, etc.
@@ -171,12 +175,39 @@ public final class LightblueFactory implements Serializable {
 
             Factory f = new Factory();
             f.setBulkParallelExecutions(crudConfiguration.getBulkParallelExecutions());
+            f.setBulkThreadPoolSize(crudConfiguration.getBulkThreadPoolSize());
+            f.setBulkQueueSize(crudConfiguration.getBulkQueueSize());
             f.setMemoryIndexThreshold(crudConfiguration.getMemoryIndexThreshold());
             f.addFieldConstraintValidators(new DefaultFieldConstraintValidators());
             f.setMaxResultSetSizeForReadsB(crudConfiguration.getMaxResultSetSizeForReadsB());
             f.setWarnResultSetSizeB(crudConfiguration.getWarnResultSetSizeB());
             f.setMaxResultSetSizeForWritesB(crudConfiguration.getMaxResultSetSizeForWritesB());
             f.setMaxExecutionContextSizeForCompositeFindB(crudConfiguration.getMaxExecutionContextSizeForCompositeFindB());
+            f.setCompositeFindParallelism(crudConfiguration.getCompositeFindParallelism());
+            f.setCompositeFindThreadPoolSize(crudConfiguration.getCompositeFindThreadPoolSize());
+            f.setCompositeFindQueueSize(crudConfiguration.getCompositeFindQueueSize());
+            f.getCompositeFindExecutor().registerGauges(MetricRegistryFactory.getJmxMetricRegistry(), "executor.compositeFind");
+            f.getBulkExecutor().registerGauges(MetricRegistryFactory.getJmxMetricRegistry(), "executor.bulk");
+            f.setAsyncHookThreadPoolSize(crudConfiguration.getAsyncHookThreadPoolSize());
+            f.setAsyncHookQueueSize(crudConfiguration.getAsyncHookQueueSize());
+            f.setAsyncHookQueueSizeB(crudConfiguration.getAsyncHookQueueSizeB());
+            f.setAsyncHookOverflowPolicy(crudConfiguration.getAsyncHookOverflowPolicy());
+            f.registerAsyncHookGauges(MetricRegistryFactory.getJmxMetricRegistry(), "executor.asyncHooks");
+            f.setQueryPlanCacheSize(crudConfiguration.getQueryPlanCacheSize());
+            f.setQueryPlanSearchBudget(crudConfiguration.getQueryPlanSearchBudget());
+            f.setMaxBruteForceQueryPlanEdges(crudConfiguration.getMaxBruteForceQueryPlanEdges());
+            f.setCompositeMetadataCacheSize(crudConfiguration.getCompositeMetadataCacheSize());
+            f.setMetadataCacheTTLMS(crudConfiguration.getMetadataCacheTTLMS());
+            f.setFieldAccessCacheSize(crudConfiguration.getFieldAccessCacheSize());
+            f.setConstraintPlanCacheSize(crudConfiguration.getConstraintPlanCacheSize());
+            f.setAssembleWindowSize(crudConfiguration.getAssembleWindowSize());
+            f.setAssembleCacheSize(crudConfiguration.getAssembleCacheSize());
+            f.setJoinSearchBatchSize(crudConfiguration.getJoinSearchBatchSize());
+            f.setJoinSearchPrefetchDepth(crudConfiguration.getJoinSearchPrefetchDepth());
+            f.setSortMemoryBudgetB(crudConfiguration.getSortMemoryBudgetB());
+            f.setParallelValidationThreshold(crudConfiguration.getParallelValidationThreshold());
+            f.setParallelValidationChunks(crudConfiguration.getParallelValidationChunks());
+            f.setRequestMetrics(new DropwizardRequestMetrics(MetricRegistryFactory.getJmxMetricRegistry()));
 
             // Add default interceptors
             new UIDInterceptor().register(f.getInterceptors());
@@ -186,6 +217,12 @@ public final class LightblueFactory implements Serializable {
                 ControllerFactory cfactory = x.getControllerFactory().newInstance();
                 CRUDController controller = cfactory.createController(x, datasources);
                 injectDependencies(controller);
+                if (x.isDocumentCache() && crudConfiguration.getDocumentCacheSize() > 0) {
+                    controller = new CachingCRUDController(controller,
+                            crudConfiguration.getDocumentCacheSize(),
+                            crudConfiguration.getDocumentCacheTTLMS(),
+                            crudConfiguration.getDocumentCacheMaxResultSize());
+                }
                 f.addCRUDController(x.getBackend(), controller);
             }
             // Make sure we assign factory after it is initialized. (factory is volatile, there's a memory barrier here)
@@ -206,7 +243,8 @@ public final class LightblueFactory implements Serializable {
             getJsonTranslator().setValidation(EntitySchema.class, cfg.isValidateRequests());
             getJsonTranslator().setValidation(EntityInfo.class, cfg.isValidateRequests());
 
-            metadata = cfg.createMetadata(datasources, getJSONParser(), this);
+            // Metadata changes evict the entries of the factory caches
+            metadata = new NotifyingMetadata(cfg.createMetadata(datasources, getJSONParser(), this), factory);
 
             factory.setHookResolver(new SimpleHookResolver(cfg.getHookConfigurationParsers(), this));
         }
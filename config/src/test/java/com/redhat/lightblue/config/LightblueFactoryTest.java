@@ -19,6 +19,7 @@
 package com.redhat.lightblue.config;
 
 import com.redhat.lightblue.crud.Factory;
+import com.redhat.lightblue.crud.NotifyingMetadata;
 import com.redhat.lightblue.metadata.Metadata;
 import com.redhat.lightblue.mediator.Mediator;
 import org.junit.Assert;
@@ -38,7 +39,8 @@ public class LightblueFactoryTest {
         LightblueFactory mgr = new LightblueFactory(new DataSourcesConfiguration());
         Metadata m = mgr.getMetadata();
         Assert.assertNotNull(m);
-        Assert.assertTrue(m instanceof DatabaseMetadata);
+        Assert.assertTrue(m instanceof NotifyingMetadata);
+        Assert.assertTrue(((NotifyingMetadata) m).getDelegate() instanceof DatabaseMetadata);
     }
 
     @Test
@@ -22,27 +22,32 @@ import java.util.Set;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Arrays;
-
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
 import com.redhat.lightblue.query.QueryExpression;
 
 import com.redhat.lightblue.crud.CRUDFindResponse;
 import com.redhat.lightblue.crud.CRUDFindRequest;
 import com.redhat.lightblue.crud.DocCtx;
+import com.redhat.lightblue.crud.Factory;
 import com.redhat.lightblue.crud.ListDocumentStream;
 
 import com.redhat.lightblue.metadata.CompositeMetadata;
+import com.redhat.lightblue.metadata.ResolvedReferenceField;
 
 import com.redhat.lightblue.mediator.Finder;
 import com.redhat.lightblue.mediator.OperationContext;
 import com.redhat.lightblue.mediator.Mediator;
 
 import com.redhat.lightblue.assoc.scorers.IndexedFieldScorer;
-import com.redhat.lightblue.assoc.iterators.BruteForceQueryPlanIterator;
+import com.redhat.lightblue.assoc.iterators.CostBasedQueryPlanIterator;
 import com.redhat.lightblue.assoc.scorers.SimpleScorer;
 import com.redhat.lightblue.assoc.iterators.First;
 
@@ -87,7 +92,14 @@ public class CompositeFindImpl implements Finder {
     private transient QueryPlan searchQPlan;
     private transient QueryPlan retrievalQPlan;
 
+    /**
+     * Name of the entity info property that overrides the configured
+     * maximum parallelism for composite finds on that entity
+     */
+    public static final String PROP_PARALLELISM = "compositeFindParallelism";
+
     private transient ExecutionPlan executionPlan;
+    private int maxParallelism = -1;
     private int parallelism = 1;
 
     public CompositeFindImpl(CompositeMetadata md) {
@@ -95,17 +107,22 @@ public class CompositeFindImpl implements Finder {
     }
 
     /**
-     * Set maximum number of threads that can run in parallel. There's a hard
-     * limit on 10
+     * Set maximum number of threads that can run in parallel. If not set, the
+     * maximum is read from the entity info property
+     * {@link #PROP_PARALLELISM}, or from the factory. The number of threads
+     * used is further limited by the size of the execution plan, and the size
+     * of the composite find thread pool.
      */
     public void setParallelism(int n) {
-        parallelism = n;
-        if (parallelism < 1) {
-            parallelism = 1;
-        }
-        if (parallelism > 10) {
-            parallelism = 10;
-        }
+        maxParallelism = n < 1 ? 1 : n;
+    }
+
+    /**
+     * Returns the number of threads that can run in parallel for this
+     * request. This is determined when the execution plan is built.
+     */
+    public int getParallelism() {
+        return parallelism;
     }
 
     private void initialize(OperationContext ctx,
@@ -124,7 +141,7 @@ public class CompositeFindImpl implements Finder {
             Set<CompositeMetadata> minimalTree = findMinimalSetOfQueryEntities(req.getQuery(),
                                                                                ctx.getTopLevelEntityMetadata());
             
-            selectQueryPlan(req.getQuery(), minimalTree);
+            selectQueryPlan(ctx.getFactory(), req.getQuery(), minimalTree);
             LOGGER.debug("Search query plan:{}, retrieval query plan:{}", searchQPlan, retrievalQPlan);
             
             executionPlan = new ExecutionPlan(req.getQuery(),
@@ -136,7 +153,36 @@ public class CompositeFindImpl implements Finder {
                                               searchQPlan,
                                               retrievalQPlan,
                                               ctx);
+            parallelism = computeParallelism(ctx.getFactory());
+            LOGGER.debug("Parallelism:{}", parallelism);
+        }
+    }
+
+    /**
+     * Determines the number of tasks of this request that can run in
+     * parallel. Every block except the root block of the execution plan is
+     * run as a separate task, so a plan with n blocks runs at most n-1 tasks
+     * at the same time.
+     */
+    private int computeParallelism(Factory factory) {
+        int max = maxParallelism > 0 ? maxParallelism : getConfiguredParallelism(factory);
+        int n = Math.min(max, executionPlan.getNumBlocks() - 1);
+        n = Math.min(n, factory.getCompositeFindThreadPoolSize());
+        return n < 1 ? 1 : n;
+    }
+
+    private int getConfiguredParallelism(Factory factory) {
+        Object value = root.getEntityInfo().getProperties().get(PROP_PARALLELISM);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        } else if (value != null) {
+            try {
+                return Integer.parseInt(value.toString());
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Invalid {} for {}: {}", PROP_PARALLELISM, root.getName(), value);
+            }
         }
+        return factory.getCompositeFindParallelism();
     }
     
     @Override
@@ -144,7 +190,11 @@ public class CompositeFindImpl implements Finder {
                         CRUDFindRequest req) {
         initialize(ctx,req);
         ExecutionContext executionContext = new ExecutionContext(ctx,null);
-        JsonDoc doc=new JsonDoc(executionPlan.explain(executionContext));
+        JsonNode explanation=executionPlan.explain(executionContext);
+        if(explanation instanceof ObjectNode) {
+            ((ObjectNode)explanation).put("parallelism",parallelism);
+        }
+        JsonDoc doc=new JsonDoc(explanation);
         ctx.setDocumentStream(new ListDocumentStream<DocCtx>(Arrays.asList(new DocCtx(doc))));
     }
     
@@ -159,17 +209,25 @@ public class CompositeFindImpl implements Finder {
         LOGGER.debug("Execution plan:{}", executionPlan);
 
         CRUDFindResponse response = new CRUDFindResponse();
+        // Tasks of this request run in the shared composite find
+        // executor, at most 'parallelism' of them at a time
         ExecutionContext executionContext = new ExecutionContext(ctx,
-                Executors.newWorkStealingPool(parallelism));
+                ctx.getFactory().getCompositeFindExecutor().newSession(parallelism));
+        boolean streaming = false;
         try {
             StepResult<ResultDocument> results = executionPlan.getResults(executionContext);
-            ctx.setDocumentStream(new StepResultDocumentStream(new MakeDocCtx(results)));            	
+            // Results may still be assembled while they are streamed, so
+            // the execution context is closed with the document stream
+            ctx.setDocumentStream(new StepResultDocumentStream(new MakeDocCtx(results), executionContext::close));
+            streaming = true;
             response.setSize(executionContext.getMatchCount());
             LOGGER.debug("executionCtxMemoryUsed={} request={}", executionContext.memoryUsedB(), req);
             LOGGER.debug("Composite find: end");
             return response;
         } finally {
-            executionContext.close();
+            if (!streaming) {
+                executionContext.close();
+            }
         }
     }
 
@@ -186,19 +244,32 @@ public class CompositeFindImpl implements Finder {
      *
      *
      */
-    private void selectQueryPlan(QueryExpression requestQuery,
+    private void selectQueryPlan(Factory factory,
+                                 QueryExpression requestQuery,
                                  Set<CompositeMetadata> minimalTree) {
         searchQPlan = retrievalQPlan = null;
 
         if (minimalTree.size() > 1) {
             // There are multiple entities required to evaluate the query
+            // Choosing a plan requires scoring all possible plans, so
+            // use the plan chosen before for the same query structure
+            QueryPlanCache cache = factory.getQueryPlanCache();
+            QueryPlanCache.Key key = QueryPlanCache.key(root, requestQuery);
+            QueryPlanCache.CachedPlan cached = cache.get(key, factory.getRequestMetrics());
+            if (cached != null && applyCachedPlan(cached, requestQuery, minimalTree)) {
+                LOGGER.debug("Using cached query plan {}", cached);
+                return;
+            }
 
             // Choose a query plan
+            Map<ResolvedReferenceField, List<Conjunct>> associationClauses = new ConcurrentHashMap<>();
+            IndexedFieldScorer scorer = new IndexedFieldScorer();
             QueryPlan searchQP = new QueryPlanChooser(root,
-                    new BruteForceQueryPlanIterator(),
-                    new IndexedFieldScorer(),
+                    newQueryPlanIterator(factory, scorer),
+                    scorer,
                     requestQuery,
-                    minimalTree).choose();
+                    minimalTree,
+                    associationClauses).choose();
             LOGGER.debug("Candidate plan: {}", searchQP);
             // If the query plan has only one source, and that source is the root, then
             // we don't need to search and retrieve in two separate steps, we can simply
@@ -209,11 +280,13 @@ public class CompositeFindImpl implements Finder {
                 // Build a new query plan containing all entities. This plan should
                 // have the same root as before. If not, something must be
                 // wrong, and we fall back to a search/retrieve query
+                scorer = new IndexedFieldScorer();
                 QueryPlan fullPlan = new QueryPlanChooser(root,
-                        new BruteForceQueryPlanIterator(),
-                        new IndexedFieldScorer(),
+                        newQueryPlanIterator(factory, scorer),
+                        scorer,
                         requestQuery,
-                        null).choose();
+                        null,
+                        associationClauses).choose();
                 // This plan must also have a single root
                 roots = fullPlan.getSources();
                 if (roots.length == 1 && roots[0].getMetadata() == root) {
@@ -228,28 +301,86 @@ public class CompositeFindImpl implements Finder {
                 // Multiple roots, search and retrieve in separate phases
                 searchQPlan = searchQP;
             }
+            if (searchQPlan == null) {
+                cache.put(key, new QueryPlanCache.CachedPlan(null, new QueryPlanShape(retrievalQPlan), associationClauses));
+            } else {
+                cache.put(key, new QueryPlanCache.CachedPlan(new QueryPlanShape(searchQPlan), null, associationClauses));
+                selectDefaultRetrievalPlan(requestQuery, associationClauses);
+            }
         } else {
             // Minimal tree has only one entity. That entity must be the root entity
             // That means, a single retrieval plan can search and retrieve            
             searchQPlan = null;
+            selectDefaultRetrievalPlan(requestQuery, null);
         }
-        if (retrievalQPlan == null) {
-            if (searchQPlan == null) {
-                // Search and retrieve
-                retrievalQPlan = new QueryPlanChooser(root,
-                        new First(),
-                        new SimpleScorer(),
-                        requestQuery,
-                        null).choose();
-            } else {
-                // No search, only retrieve. No query.
-                retrievalQPlan = new QueryPlanChooser(root,
-                        new First(),
-                        new SimpleScorer(),
-                        null,
-                        null).choose();
+    }
+
+    /**
+     * Returns the iterator used to search for the best query plan. Small
+     * query plans are searched exhaustively, larger ones are searched using
+     * plan scores, within the configured budget.
+     */
+    private QueryPlanIterator newQueryPlanIterator(Factory factory, QueryPlanScorer scorer) {
+        return new CostBasedQueryPlanIterator(scorer,
+                factory.getQueryPlanSearchBudget(),
+                factory.getMaxBruteForceQueryPlanEdges());
+    }
+
+    /**
+     * Builds the search and retrieval plans for the request query using a
+     * cached plan. Returns false if the cached plan does not fit the query
+     * plans.
+     */
+    private boolean applyCachedPlan(QueryPlanCache.CachedPlan cached,
+                                    QueryExpression requestQuery,
+                                    Set<CompositeMetadata> minimalTree) {
+        // The plans are not scored, and only the request query is rewritten
+        if (cached.getSearchPlan() != null) {
+            searchQPlan = new QueryPlanChooser(root,
+                    null,
+                    new IndexedFieldScorer(),
+                    requestQuery,
+                    minimalTree,
+                    cached.getAssociationClauses()).choose(cached.getSearchPlan());
+            if (searchQPlan != null) {
+                selectDefaultRetrievalPlan(requestQuery, cached.getAssociationClauses());
+                return true;
+            }
+        } else {
+            retrievalQPlan = new QueryPlanChooser(root,
+                    null,
+                    new IndexedFieldScorer(),
+                    requestQuery,
+                    null,
+                    cached.getAssociationClauses()).choose(cached.getRetrievalPlan());
+            if (retrievalQPlan != null) {
+                return true;
             }
         }
+        LOGGER.debug("Cached plan {} does not match the query plan", cached);
+        searchQPlan = retrievalQPlan = null;
+        return false;
+    }
+
+    private void selectDefaultRetrievalPlan(QueryExpression requestQuery,
+                                            Map<ResolvedReferenceField, List<Conjunct>> associationClauses) {
+        if (searchQPlan == null) {
+            // Search and retrieve
+            retrievalQPlan = new QueryPlanChooser(root,
+                    new First(),
+                    new SimpleScorer(),
+                    requestQuery,
+                    null,
+                    associationClauses).choose();
+        } else {
+            // No search, only retrieve. No query.
+            retrievalQPlan = new QueryPlanChooser(root,
+                    new First(),
+                    new SimpleScorer(),
+                    null,
+                    null,
+                    associationClauses).choose();
+        }
     }
 
     /**
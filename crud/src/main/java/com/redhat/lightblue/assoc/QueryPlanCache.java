@@ -0,0 +1,256 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.assoc;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.redhat.lightblue.crud.AbstractEntityCache;
+import com.redhat.lightblue.metadata.CompositeMetadata;
+import com.redhat.lightblue.metadata.ResolvedReferenceField;
+
+import com.redhat.lightblue.query.QueryExpression;
+
+import com.redhat.lightblue.util.Path;
+import com.redhat.lightblue.util.metrics.RequestMetrics;
+
+/**
+ * An LRU cache of the query plans chosen for composite finds.
+ *
+ * Choosing a query plan for a composite entity requires scoring every
+ * possible orientation of the query plan edges. The chosen orientation
+ * depends only on the composite metadata and on the structure of the
+ * request query, not on the values in it. So the cache is keyed by the names
+ * and versions of all entities in the composite metadata, and the request
+ * query with all its values replaced by placeholders. The number of values
+ * of an <code>$in</code> or <code>$nin</code> expression is not part of the
+ * key. The cached plans are {@link QueryPlanShape}s, and they are applied to
+ * query plans built using the actual request query, so the values of the
+ * request are bound to the plan for every request. The association query
+ * clauses are kept with the plan, so only the request query is rewritten
+ * when a cached plan is used.
+ */
+public class QueryPlanCache extends AbstractEntityCache<QueryPlanCache.Key, QueryPlanCache.CachedPlan> {
+
+    /**
+     * The cache name used for hit/miss metrics
+     */
+    public static final String CACHE_NAME = "compositeQueryPlan";
+
+    private static final JsonNodeFactory NODE_FACTORY = JsonNodeFactory.instance;
+    private static final String PLACEHOLDER = "?";
+
+    /**
+     * The plans chosen for a composite find. If searchPlan is null, the
+     * retrieval plan both searches and retrieves the documents. Otherwise,
+     * the search plan searches the documents, and the retrieval plan is the
+     * default plan that retrieves them.
+     */
+    public static class CachedPlan {
+        private final QueryPlanShape searchPlan;
+        private final QueryPlanShape retrievalPlan;
+        private final Map<ResolvedReferenceField, List<Conjunct>> associationClauses;
+
+        public CachedPlan(QueryPlanShape searchPlan, QueryPlanShape retrievalPlan) {
+            this(searchPlan, retrievalPlan, new ConcurrentHashMap<>());
+        }
+
+        /**
+         * @param associationClauses The association query clauses of the
+         * composite metadata, shared by the query plans built for this plan.
+         * Must be thread safe.
+         */
+        public CachedPlan(QueryPlanShape searchPlan,
+                          QueryPlanShape retrievalPlan,
+                          Map<ResolvedReferenceField, List<Conjunct>> associationClauses) {
+            this.searchPlan = searchPlan;
+            this.retrievalPlan = retrievalPlan;
+            this.associationClauses = associationClauses;
+        }
+
+        public QueryPlanShape getSearchPlan() {
+            return searchPlan;
+        }
+
+        public QueryPlanShape getRetrievalPlan() {
+            return retrievalPlan;
+        }
+
+        public Map<ResolvedReferenceField, List<Conjunct>> getAssociationClauses() {
+            return associationClauses;
+        }
+
+        @Override
+        public String toString() {
+            return "search:" + searchPlan + " retrieval:" + retrievalPlan;
+        }
+    }
+
+    /**
+     * Cache key, built from the composite metadata and request query
+     */
+    public static final class Key {
+        private final String key;
+        private final Set<String> entities;
+
+        private Key(String key, Set<String> entities) {
+            this.key = key;
+            this.entities = entities;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).key.equals(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+
+    /**
+     * Constructs a query plan cache whose entries don't expire
+     *
+     * @param maxSize Maximum number of plans in the cache. If 0 or less,
+     * caching is disabled.
+     */
+    public QueryPlanCache(int maxSize) {
+        this(maxSize, 0);
+    }
+
+    /**
+     * Constructs a query plan cache
+     *
+     * @param maxSize Maximum number of plans in the cache. If 0 or less,
+     * caching is disabled.
+     * @param ttlMS Time in milliseconds a plan is kept. If 0 or less, plans
+     * don't expire.
+     */
+    public QueryPlanCache(int maxSize, long ttlMS) {
+        super(CACHE_NAME, maxSize, ttlMS);
+    }
+
+    /**
+     * Builds the cache key for the given composite metadata and request
+     * query
+     */
+    public static Key key(CompositeMetadata root, QueryExpression query) {
+        StringBuilder bld = new StringBuilder(128);
+        Set<String> entities = new HashSet<>();
+        appendEntities(bld, entities, root);
+        bld.append('|');
+        if (query != null) {
+            bld.append(shapeOf(query.toJson()).toString());
+        }
+        return new Key(bld.toString(), entities);
+    }
+
+    private static void appendEntities(StringBuilder bld, Set<String> entities, CompositeMetadata md) {
+        entities.add(md.getName());
+        bld.append(md.getEntityPath()).append('=').append(md.getName()).append(':');
+        if (md.getVersion() != null) {
+            bld.append(md.getVersion().getValue());
+        }
+        bld.append(';');
+        for (Path child : md.getChildPaths()) {
+            CompositeMetadata c = md.getChildMetadata(child);
+            if (c != null) {
+                appendEntities(bld, entities, c);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the query JSON with all the values replaced by
+     * placeholders. A value list is replaced by a single placeholder.
+     */
+    private static JsonNode shapeOf(JsonNode node) {
+        if (node instanceof ObjectNode) {
+            ObjectNode ret = NODE_FACTORY.objectNode();
+            for (Iterator<Map.Entry<String, JsonNode>> itr = node.fields(); itr.hasNext();) {
+                Map.Entry<String, JsonNode> entry = itr.next();
+                if ("rvalue".equals(entry.getKey())) {
+                    ret.put(entry.getKey(), PLACEHOLDER);
+                } else if ("values".equals(entry.getKey()) && entry.getValue() instanceof ArrayNode) {
+                    ret.set(entry.getKey(), NODE_FACTORY.arrayNode().add(PLACEHOLDER));
+                } else {
+                    ret.set(entry.getKey(), shapeOf(entry.getValue()));
+                }
+            }
+            return ret;
+        } else if (node instanceof ArrayNode) {
+            ArrayNode ret = NODE_FACTORY.arrayNode();
+            for (JsonNode x : node) {
+                ret.add(shapeOf(x));
+            }
+            return ret;
+        } else {
+            return node;
+        }
+    }
+
+    /**
+     * Returns the cached plan for the key, or null if there isn't one.
+     * Records a hit or miss in the given metrics.
+     */
+    public CachedPlan get(Key key, RequestMetrics metrics) {
+        if (!isEnabled()) {
+            return null;
+        }
+        CachedPlan plan = getEntry(key);
+        if (plan == null) {
+            miss(metrics);
+        } else {
+            hit(metrics);
+        }
+        return plan;
+    }
+
+    /**
+     * Stores the plan for the key
+     */
+    public void put(Key key, CachedPlan plan) {
+        if (isEnabled()) {
+            putEntry(key, plan);
+        }
+    }
+
+    /**
+     * A plan contains all entities of its composite entity
+     */
+    @Override
+    protected boolean containsEntity(Key key, CachedPlan plan, String entityName) {
+        return key.entities.contains(entityName);
+    }
+}
@@ -20,6 +20,7 @@ package com.redhat.lightblue.assoc;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
 import java.util.Set;
 import java.util.Iterator;
 
@@ -49,6 +50,7 @@ public class QueryPlanChooser {
     private final QueryExpression requestQuery;
     private final QueryPlanIterator qplanIterator;
     private final QueryPlanScorer scorer;
+    private final Map<ResolvedReferenceField, List<Conjunct>> associationClauses;
 
     private QueryPlan qplan;
 
@@ -60,12 +62,30 @@ public class QueryPlanChooser {
                             QueryPlanScorer scorer,
                             QueryExpression requestQuery,
                             Set<CompositeMetadata> filter) {
+        this(cmd, qpitr, scorer, requestQuery, filter, null);
+    }
+
+    /**
+     * Constructs a query plan chooser that reuses association query
+     * clauses. The association queries don't depend on the request, so
+     * their clauses in conjunctive normal form are taken from
+     * associationClauses if they are there, and added to it otherwise. If
+     * qpitr is null, the initial plan is not scored, and only
+     * {@link #choose(QueryPlanShape)} can be used.
+     */
+    public QueryPlanChooser(CompositeMetadata cmd,
+                            QueryPlanIterator qpitr,
+                            QueryPlanScorer scorer,
+                            QueryExpression requestQuery,
+                            Set<CompositeMetadata> filter,
+                            Map<ResolvedReferenceField, List<Conjunct>> associationClauses) {
         LOGGER.debug("QueryPlanChooser.ctor");
         Error.push("QueryPlanChooser");
         try {
             this.compositeMetadata = cmd;
             this.qplanIterator = qpitr;
             this.scorer = scorer;
+            this.associationClauses = associationClauses;
             qplan = new QueryPlan(compositeMetadata, scorer, filter);
             LOGGER.debug("Initial query plan:{}", qplan);
 
@@ -86,7 +106,9 @@ public class QueryPlanChooser {
             // assign them to nodes/edges
             iterateReferences(compositeMetadata, qplan.getUnassignedClauses());
 
-            reset();
+            if (qplanIterator != null) {
+                reset();
+            }
 
         } catch (Error e) {
             LOGGER.error("During construction:{}", e);
@@ -159,8 +181,14 @@ public class QueryPlanChooser {
                         ReferenceField ref = rrf.getReferenceField();
                         if (ref.getQuery() != null) {
                             LOGGER.debug("Association query:{}", ref.getQuery());
-                            List<Conjunct> refQueryClauses = new ArrayList<>();
-                            rewriteQuery(ref.getQuery(), refQueryClauses, qplan, rrf);
+                            List<Conjunct> refQueryClauses = associationClauses == null ? null : associationClauses.get(rrf);
+                            if (refQueryClauses == null) {
+                                refQueryClauses = new ArrayList<>();
+                                rewriteQuery(ref.getQuery(), refQueryClauses, qplan, rrf);
+                                if (associationClauses != null) {
+                                    associationClauses.put(rrf, refQueryClauses);
+                                }
+                            }
                             LOGGER.debug("Association query clauses:{}", refQueryClauses);
                             assignQueriesToPlanNodesAndEdges(refQueryClauses, unassignedClauses,true);
                         }
@@ -288,13 +316,14 @@ public class QueryPlanChooser {
         bestPlan = null;
         bestPlanScore = null;
 
-        qplanIterator.reset(qplan);
         scorer.reset(this);
 
         bestPlan = qplan.deepCopy();
         bestPlanScore = scorer.score(bestPlan);
         LOGGER.debug("Storing initial plan as the best plan:{}", bestPlan);
 
+        qplanIterator.reset(qplan, bestPlanScore);
+
     }
 
     /**
@@ -302,8 +331,12 @@ public class QueryPlanChooser {
      */
     public QueryPlan choose() {
         while (qplanIterator.next()) {
-            LOGGER.debug("Scoring plan {}", qplan);
-            Comparable score = scorer.score(qplan);
+            // Use the score of the iterator if it scored the plan
+            Comparable score = qplanIterator.getScore();
+            if (score == null) {
+                LOGGER.debug("Scoring plan {}", qplan);
+                score = scorer.score(qplan);
+            }
             if (null != score && score.compareTo(bestPlanScore) < 0) {
                 LOGGER.debug("Score is better, storing this plan");
                 bestPlan = qplan.deepCopy();
@@ -314,4 +347,18 @@ public class QueryPlanChooser {
 
         return bestPlan;
     }
+
+    /**
+     * Returns the query plan configured into the given shape, without
+     * scoring other plans. Returns null if the query plan cannot be
+     * configured into that shape. The chooser cannot be used after this
+     * call.
+     */
+    public QueryPlan choose(QueryPlanShape shape) {
+        if (shape.apply(qplan)) {
+            LOGGER.debug("Using plan {}", qplan);
+            return qplan;
+        }
+        return null;
+    }
 }
@@ -35,6 +35,16 @@ public interface QueryPlanIterator {
      */
     void reset(QueryPlan p);
 
+    /**
+     * Resets the query plan iterator with the given copy of the query plan,
+     * and the score of the query plan in its initial state, as computed by
+     * the query plan chooser. Iterators that score plans can use it instead
+     * of scoring the initial plan again.
+     */
+    default void reset(QueryPlan p, Comparable initialScore) {
+        reset(p);
+    }
+
     /**
      * Modifies the query plan into a unique tree.
      *
@@ -43,4 +53,14 @@ public interface QueryPlanIterator {
      * iterator construction, and the iteration is expected to stop.
      */
     public boolean next();
+
+    /**
+     * Returns the score of the query plan configured by the last call to
+     * <code>next</code>, if the iterator scored it using the scorer of the
+     * query plan chooser. Returns null if the iterator did not score the
+     * plan, and then the chooser scores it.
+     */
+    default Comparable getScore() {
+        return null;
+    }
 }
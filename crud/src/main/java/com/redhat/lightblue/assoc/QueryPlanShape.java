@@ -0,0 +1,90 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.assoc;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The orientation of the edges of a query plan, independent of the query
+ * plan instance and the query clauses assigned to it. Nodes are identified by
+ * the entity paths of their metadata, so a shape captured from one query plan
+ * can be applied to another query plan built for the same composite metadata
+ * and the same set of entities.
+ */
+public class QueryPlanShape implements Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    private final Set<String> edges = new HashSet<>();
+
+    /**
+     * Captures the shape of the given query plan
+     */
+    public QueryPlanShape(QueryPlan qp) {
+        for (QueryPlanNode from : qp.getAllNodes()) {
+            for (QueryPlanNode to : from.getDestinations()) {
+                edges.add(edgeName(from, to));
+            }
+        }
+    }
+
+    /**
+     * Flips the edges of the given query plan so that it has this shape.
+     *
+     * @return true if the query plan has this shape, false if the query plan
+     * has different nodes or edges, and cannot be configured into this shape.
+     * If false, the query plan is not modified.
+     */
+    public boolean apply(QueryPlan qp) {
+        List<QueryPlanNode[]> flips = new ArrayList<>();
+        int n = 0;
+        for (QueryPlanNode from : qp.getAllNodes()) {
+            for (QueryPlanNode to : from.getDestinations()) {
+                if (edges.contains(edgeName(from, to))) {
+                    n++;
+                } else if (edges.contains(edgeName(to, from))) {
+                    flips.add(new QueryPlanNode[]{from, to});
+                    n++;
+                } else {
+                    return false;
+                }
+            }
+        }
+        if (n != edges.size()) {
+            return false;
+        }
+        for (QueryPlanNode[] edge : flips) {
+            qp.flip(edge[0], edge[1]);
+        }
+        return true;
+    }
+
+    private static String edgeName(QueryPlanNode from, QueryPlanNode to) {
+        return from.getMetadata().getEntityPath() + "->" + to.getMetadata().getEntityPath();
+    }
+
+    @Override
+    public String toString() {
+        return edges.toString();
+    }
+}
@@ -18,19 +18,26 @@
  */
 package com.redhat.lightblue.assoc.ep;
 
+import java.io.Closeable;
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 import java.util.concurrent.Future;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import com.google.common.base.Throwables;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,11 +59,12 @@ import com.redhat.lightblue.mindex.MemDocIndex;
 import com.redhat.lightblue.mindex.GetIndexLookupSpec;
 import com.redhat.lightblue.mindex.KeySpec;
 import com.redhat.lightblue.mindex.LookupSpec;
+import com.redhat.lightblue.mindex.SimpleKeySpec;
+import com.redhat.lightblue.mindex.SortedMemDocIndex;
 
 import com.redhat.lightblue.eval.QueryEvaluator;
 
 import com.redhat.lightblue.util.Path;
-import com.redhat.lightblue.util.JsonDoc;
 
 /**
  * There are two sides to an Assemble step: Assemble gets results from the
@@ -75,18 +83,51 @@ public class Assemble extends Step<ResultDocument> {
      */
     private int memoryIndexThreshold;
 
+    /**
+     * The number of source documents assembled at a time. If 0, all
+     * source documents are assembled at once.
+     */
+    private final int windowSize;
+
+    /**
+     * The maximum number of child documents, and the maximum number of
+     * association query results, kept for each destination block between
+     * batches. If 0, child documents are only shared within a batch.
+     */
+    private final int cacheSize;
+
     private final ExecutionBlock[] destinationBlocks;
     private final Source<ResultDocument> source;
     private Map<ExecutionBlock, Assemble> destinations;
+    private Map<ExecutionBlock, ChildDocumentCache> childDocuments;
 
     public Assemble(ExecutionBlock block,
                     Source<ResultDocument> source,
                     ExecutionBlock[] destinationBlocks,
                     int memoryIndexThreshold) {
+        this(block, source, destinationBlocks, memoryIndexThreshold, 0);
+    }
+
+    public Assemble(ExecutionBlock block,
+                    Source<ResultDocument> source,
+                    ExecutionBlock[] destinationBlocks,
+                    int memoryIndexThreshold,
+                    int windowSize) {
+        this(block, source, destinationBlocks, memoryIndexThreshold, windowSize, 0);
+    }
+
+    public Assemble(ExecutionBlock block,
+                    Source<ResultDocument> source,
+                    ExecutionBlock[] destinationBlocks,
+                    int memoryIndexThreshold,
+                    int windowSize,
+                    int cacheSize) {
         super(block);
         this.source = source;
         this.destinationBlocks = destinationBlocks;
         this.memoryIndexThreshold = memoryIndexThreshold;
+        this.windowSize = windowSize;
+        this.cacheSize = cacheSize;
     }
 
     private Stream<ResultDocument> getResultList(QueryExpression q, ExecutionContext ctx) {
@@ -104,10 +145,14 @@ public class Assemble extends Step<ResultDocument> {
     @Override
     public void initialize() {
         destinations = new HashMap<ExecutionBlock, Assemble>();
+        childDocuments = new HashMap<ExecutionBlock, ChildDocumentCache>();
         for (ExecutionBlock x : destinationBlocks) {
             Assemble a = x.getStep(Assemble.class);
             if (a != null) {
                 destinations.put(x, a);
+                if (cacheSize > 0) {
+                    childDocuments.put(x, new ChildDocumentCache());
+                }
             } else {
                 throw new IllegalArgumentException("No assemble step in " + x);
             }
@@ -118,30 +163,67 @@ public class Assemble extends Step<ResultDocument> {
     public StepResult<ResultDocument> getResults(ExecutionContext ctx) {
         LOGGER.debug("getResults, source:{}, destinations={}", source, destinations);
         // Get the results from the source
-        StepResult<ResultDocument> sourceResults = source.getStep().getResults(ctx);
-
-        // Aggregate all source results, to be "assembled" with associated documents, which are
-        // queried below. Since Assemble is always included within the plan of a composite find,
-        // streaming is ineffective at reducing memory footprint of a query: the assemble step
-        // merely "streams" an already aggregated list, fully loaded in memory. Thus, we count all
-        // results here toward memory consumption, despite that later GC cycles may recover some of
-        // this memory (in case of projections for example).
-        List<ResultDocument> results = sourceResults.stream()
-                .peek(ctx::monitorMemory)
-                .collect(Collectors.toList());
-
+        Stream<ResultDocument> sourceStream = source.getStep().getResults(ctx).stream();
+        Iterator<ResultDocument> sourceResults = sourceStream.iterator();
+
+        // Source documents are assembled in windows. The documents of a
+        // window are counted toward memory consumption, because they are
+        // aggregated until all their associated documents are
+        // retrieved. If all the source documents fit into one window, they
+        // are assembled here. Otherwise, the first window is assembled
+        // here, and the remaining windows are assembled while the
+        // documents of the previous window are streamed.
+        List<ResultDocument> window = readWindow(sourceResults, ctx);
         if (ctx.hasErrors()) {
+            sourceStream.close();
             return StepResult.EMPTY;
         }
+        assemble(window, ctx);
+        if (ctx.hasErrors()) {
+            sourceStream.close();
+            return StepResult.EMPTY;
+        }
+        if (!sourceResults.hasNext()) {
+            sourceStream.close();
+            return new ListStepResult<>(window);
+        }
+        WindowIterator itr = new WindowIterator(sourceStream, sourceResults, window, ctx);
+        // If the results are not read to the end, the pending window is
+        // released when the stream or the execution context is closed
+        ctx.addResource(itr);
+        return new StepResult<ResultDocument>() {
+            @Override
+            public Stream<ResultDocument> stream() {
+                return StreamSupport.stream(Spliterators.spliteratorUnknownSize(itr, Spliterator.IMMUTABLE), false).
+                    onClose(itr::close);
+            }
+        };
+    }
 
-        // Assemble results: retrieve results from associated
-        // execution blocks, and insert them into sourceResults
-        // documents
+    /**
+     * Reads the next window of documents from the source
+     */
+    private List<ResultDocument> readWindow(Iterator<ResultDocument> sourceResults, ExecutionContext ctx) {
+        List<ResultDocument> window = new ArrayList<>();
+        while ((windowSize <= 0 || window.size() < windowSize) && sourceResults.hasNext()) {
+            ResultDocument doc = sourceResults.next();
+            ctx.monitorMemory(doc);
+            window.add(doc);
+        }
+        return window;
+    }
+
+    /**
+     * Assemble results: retrieve results from associated execution blocks,
+     * and insert them into the documents of the window
+     */
+    private void assemble(List<ResultDocument> results, ExecutionContext ctx) {
         List<Future> assemblers = new ArrayList<>();
         for (Map.Entry<ExecutionBlock, Assemble> destination : destinations.entrySet()) {
             AssociationQuery aq = destination.getKey().getAssociationQueryForEdge(block);
             LOGGER.debug("Scheduling batch assembler with aq={} block={}", aq, destination.getKey());
-            BatchAssembler batchAssembler = new BatchAssembler(256, aq, destination.getValue(), ctx);
+            BatchAssembler batchAssembler = new BatchAssembler(256, aq, destination.getValue(),
+                    childDocuments.get(destination.getKey()), ctx);
             assemblers.add(ctx.getExecutor().submit(() -> {
                 if (aq.getQuery() == null) {
                     if(aq.isAlwaysTrue()) {
@@ -160,20 +242,121 @@ public class Assemble extends Step<ResultDocument> {
                 batchAssembler.commit();
             }));
         }
+        waitFor(assemblers);
+    }
+
+    private static void waitFor(List<? extends Future> futures) {
+        for (Future x : futures) {
+            await(x);
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
         try {
-            for (Future x : assemblers) {
-                x.get();
-            }
+            return future.get();
         } catch (ExecutionException ie) {
-            throw Throwables.propagate(ie.getCause());
+            Throwable cause = ie.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
         }
-        if (ctx.hasErrors()) {
-            return StepResult.EMPTY;
+    }
+
+    /**
+     * Streams assembled windows. When the documents of a window are
+     * requested, the next window is read from the source and assembled
+     * asynchronously. At most one window is being assembled at any given
+     * time, because the destination blocks are not reentrant. Closing the
+     * iterator cancels the window that is not started yet, and closes the
+     * source.
+     */
+    private class WindowIterator implements Iterator<ResultDocument>, Closeable {
+        private final Stream<ResultDocument> sourceStream;
+        private final Iterator<ResultDocument> sourceResults;
+        private final ExecutionContext ctx;
+        private Iterator<ResultDocument> current;
+        private Future<List<ResultDocument>> next;
+        private boolean closed = false;
+
+        public WindowIterator(Stream<ResultDocument> sourceStream,
+                              Iterator<ResultDocument> sourceResults,
+                              List<ResultDocument> first,
+                              ExecutionContext ctx) {
+            this.sourceStream = sourceStream;
+            this.sourceResults = sourceResults;
+            this.ctx = ctx;
+            this.current = first.iterator();
+            scheduleNext();
+        }
+
+        private void scheduleNext() {
+            List<ResultDocument> window = readWindow(sourceResults, ctx);
+            checkErrors();
+            if (window.isEmpty()) {
+                next = null;
+            } else {
+                next = ctx.getExecutor().submit(() -> {
+                    assemble(window, ctx);
+                    return window;
+                });
+            }
+        }
+
+        /**
+         * Some of the documents may already be streamed, so errors cannot
+         * be returned with an empty result
+         */
+        private void checkErrors() {
+            if (ctx.hasErrors()) {
+                throw ctx.getOperationContext().getErrors().get(0);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (next == null) {
+                    close();
+                    return false;
+                }
+                Future<List<ResultDocument>> f = next;
+                next = null;
+                current = await(f).iterator();
+                checkErrors();
+                scheduleNext();
+            }
+            return true;
+        }
+
+        @Override
+        public ResultDocument next() {
+            if (hasNext()) {
+                return current.next();
+            } else {
+                throw new NoSuchElementException();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                current = Collections.emptyIterator();
+                if (next != null) {
+                    LOGGER.debug("Results are not read to the end, cancelling the next window");
+                    next.cancel(false);
+                    next = null;
+                }
+                sourceStream.close();
+            }
         }
-        // Stream results
-        return new ListStepResult<>(results);
     }
 
     private static class DocAndQ {
@@ -191,12 +374,14 @@ public class Assemble extends Step<ResultDocument> {
         private final int batchSize;
         private final AssociationQuery aq;
         private final Assemble dest;
+        private final ChildDocumentCache cache;
         private final ExecutionContext ctx;
 
-        public BatchAssembler(int batchSize, AssociationQuery aq, Assemble dest, ExecutionContext ctx) {
+        public BatchAssembler(int batchSize, AssociationQuery aq, Assemble dest, ChildDocumentCache cache, ExecutionContext ctx) {
             this.batchSize = batchSize;
             this.dest = dest;
             this.aq = aq;
+            this.cache = cache;
             this.ctx = ctx;
         }
 
@@ -217,11 +402,34 @@ public class Assemble extends Step<ResultDocument> {
 
         public void commit() {
             if (!docs.isEmpty()) {
+                ChildDocumentCache children = cache;
+                if (children == null) {
+                    // Child documents are only shared within this batch
+                    children = new ChildDocumentCache();
+                } else {
+                    LOGGER.debug("Child document cache has {} documents, {} queries", children.size(), children.getNumQueries());
+                    children.trim(cacheSize, cacheSize);
+                }
+
+                // Retrieve children only for the queries whose results are
+                // not known. If there are no queries, all children are
+                // retrieved
+                boolean retrieve;
                 QueryExpression combinedQuery;
                 if (!queries.isEmpty()) {
-                    combinedQuery = Searches.combine(NaryLogicalOperator._or, queries);
+                    List<QueryExpression> newQueries = new ArrayList<>(queries.size());
+                    Set<String> newQueryStrings = new HashSet<>();
+                    for (QueryExpression q : queries) {
+                        if (!children.isRetrieved(q) && newQueryStrings.add(q.toString())) {
+                            newQueries.add(q);
+                        }
+                    }
+                    LOGGER.debug("{} of {} queries need retrieval", newQueries.size(), queries.size());
+                    retrieve = !newQueries.isEmpty();
+                    combinedQuery = retrieve ? Searches.combine(NaryLogicalOperator._or, newQueries) : null;
                     LOGGER.debug("Combined retrieval query:{}", combinedQuery);
                 } else {
+                    retrieve = !children.isRetrieved(null);
                     combinedQuery = null;
                 }
 
@@ -238,30 +446,42 @@ public class Assemble extends Step<ResultDocument> {
                 // The impact to clients is that projections that ultimately limit result size don't
                 // really help reduce your query footprint as far as server is concerned if it still
                 // requires examining a lot of documents to compute.
-                List<ResultDocument> destResults = dest.getResultList(combinedQuery, ctx)
-                        .peek(ctx::monitorMemory)
-                        .collect(Collectors.toList());
+                List<ResultDocument> destResults;
+                if (retrieve) {
+                    destResults = children.add(dest.getResultList(combinedQuery, ctx)
+                            .peek(ctx::monitorMemory)
+                            .collect(Collectors.toList()));
+                    if (queries.isEmpty()) {
+                        children.putResults(null, destResults);
+                    }
+                } else {
+                    destResults = new ArrayList<>();
+                }
                 int numSlots=0;
                 for (DocAndQ parentDocAndQ : docs) {
                     List<ChildSlot> slots=parentDocAndQ.doc.getSlots().get(aq.getReference());
                     if(slots!=null)
                         numSlots+=slots.size();
                 }
-                // Try to build an index from results
-                MemDocIndex docIndex=null;
-                if(aq.getQuery()!=null&&memoryIndexThreshold>=0&&numSlots>memoryIndexThreshold) {
+                // Try to build an index from results. Once built, the index
+                // is kept with the child documents
+                if(children.getIndex()==null&&aq.getQuery()!=null&&memoryIndexThreshold>=0&&numSlots>memoryIndexThreshold) {
                     KeySpec keySpec=aq.getIndexKeySpec();
                     LOGGER.debug("In-memory index key spec:{}",keySpec);
                     if(keySpec!=null) {
-                        // There is a key spec, meaning we can index the docs
-                        docIndex=new MemDocIndex(keySpec);
-                        for(ResultDocument child:destResults) {
-                            docIndex.add(child.getDoc());
+                        // There is a key spec, meaning we can index the docs.
+                        // Range and prefix lookups on a single field can seek
+                        // in a sorted index instead of scanning all keys
+                        if(aq.hasRangeLookups()&&keySpec instanceof SimpleKeySpec) {
+                            children.setIndex(new SortedMemDocIndex(keySpec));
+                        } else {
+                            children.setIndex(new MemDocIndex(keySpec));
                         }
                     }
                 }
+                CompositeMetadata childMetadata = dest.block.getMetadata();
                 for (DocAndQ parentDocAndQ : docs) {
-                    associateDocs(parentDocAndQ.doc, destResults, aq,docIndex);
+                    associateDocs(childMetadata, parentDocAndQ.doc, destResults, aq, children);
                 }
             }
             docs = new ArrayList<>();
@@ -289,35 +509,43 @@ public class Assemble extends Step<ResultDocument> {
     
     /**
      * Associates child documents obtained from 'aq' to all the slots in the
-     * parent document
+     * parent document. The children of a slot are looked up from the
+     * results of the slot query if they are known. Otherwise, the slot
+     * query is evaluated on the child documents, or on the indexed child
+     * documents if there is an index, and the results are recorded.
+     *
+     * @param childMetadata The metadata of the child documents
+     * @param parentDoc The parent document
+     * @param childDocs The child documents retrieved for this batch
+     * @param aq The association query
+     * @param children The known child documents and query results
      */
-    public void associateDocs(ResultDocument parentDoc,
-                              List<ResultDocument> childDocs,
-                              AssociationQuery aq,
-                              MemDocIndex childIndex) {
-        if(!childDocs.isEmpty()) {
-            CompositeMetadata childMetadata = childDocs.get(0).getBlock().getMetadata();
-            List<ChildSlot> slots = parentDoc.getSlots().get(aq.getReference());        
-            for (ChildSlot slot : slots) {
-                BindQuery binders = parentDoc.getBindersForSlot(slot, aq);
+    private void associateDocs(CompositeMetadata childMetadata,
+                               ResultDocument parentDoc,
+                               List<ResultDocument> childDocs,
+                               AssociationQuery aq,
+                               ChildDocumentCache children) {
+        List<ChildSlot> slots = parentDoc.getSlots().get(aq.getReference());
+        for (ChildSlot slot : slots) {
+            BindQuery binders = parentDoc.getBindersForSlot(slot, aq);
+            QueryExpression boundQuery = aq.getQuery() == null ? null : binders.iterate(aq.getQuery());
+            List<ResultDocument> docs = children.getResults(boundQuery);
+            if (docs == null) {
                 // No binders means all child docs will be added to the parent
                 // aq.always==true means query is always true, so add everything to the parent
-                if (binders.getBindings().isEmpty()||(aq.getAlways()!=null && aq.getAlways()) ) {
-                    associateAllDocs(parentDoc,childDocs,slot.getSlotFieldName());
-                } else if(aq.getAlways()==null||!aq.getAlways()) { // If query is not always false
-                    if(childIndex==null)
-                        associateDocs(childMetadata,parentDoc,slot.getSlotFieldName(),binders,childDocs,aq.getQuery());
-                    else 
-                        associateDocsWithIndex(childMetadata,parentDoc,slot.getSlotFieldName(),binders,childDocs,aq,childIndex);
+                if (binders.getBindings().isEmpty() || (aq.getAlways() != null && aq.getAlways())) {
+                    docs = childDocs;
+                } else {
+                    LOGGER.debug("Association query:{}", boundQuery);
+                    docs = findChildDocs(childMetadata, boundQuery, childDocs, aq, children);
                 }
+                children.putResults(boundQuery, docs);
+            }
+            ArrayNode destNode = null;
+            for (ResultDocument d : docs) {
+                destNode = ensureDestNodeExists(parentDoc, destNode, slot.getSlotFieldName());
+                destNode.add(d.getDoc().getRoot());
             }
-        }
-    }
-
-    private static void associateAllDocs(ResultDocument parentDoc,List<ResultDocument> childDocs,Path fieldName) {
-        ArrayNode destNode=ensureDestNodeExists(parentDoc,null,fieldName);
-        for (ResultDocument d : childDocs) {
-            destNode.add(d.getDoc().getRoot());
         }
     }
 
@@ -363,42 +591,35 @@ public class Assemble extends Step<ResultDocument> {
         }
     }
     
-    private void associateDocsWithIndex(CompositeMetadata childMetadata,
-                                        ResultDocument parentDoc,
-                                        Path destFieldName,
-                                        BindQuery binders,
-                                        List<ResultDocument> childDocs,
-                                        AssociationQuery aq,
-                                        MemDocIndex childIndex) {
-        LOGGER.debug("Associating docs using index");
-        QueryExpression boundQuery = binders.iterate(aq.getQuery());
-        LOGGER.debug("Association query:{}", boundQuery);
+    /**
+     * Returns the child documents matching the bound query, in the order
+     * they were retrieved
+     */
+    private List<ResultDocument> findChildDocs(CompositeMetadata childMetadata,
+                                               QueryExpression boundQuery,
+                                               List<ResultDocument> childDocs,
+                                               AssociationQuery aq,
+                                               ChildDocumentCache children) {
         QueryEvaluator qeval = QueryEvaluator.getInstance(boundQuery, childMetadata);
-        AnalyzeQuery analyzer=new AnalyzeQuery(block.rootMd,aq.getReference());
-        analyzer.iterate(boundQuery);
-        List<QueryFieldInfo> qfi=analyzer.getFieldInfo();
-        GetIndexLookupSpec gils=new GetIndexLookupSpec(qfi);
-        LookupSpec ls=gils.iterate(boundQuery);
-        LOGGER.debug("Lookup spec:"+ls);
-        List<ResultDocument> docs=reorder(childDocs,childIndex.find(ls));
-        ArrayNode destNode=null;
-        for (ResultDocument childDoc : docs) {
+        List<ResultDocument> candidates;
+        if (children.getIndex() == null) {
+            candidates = childDocs;
+        } else {
+            LOGGER.debug("Associating docs using index");
+            AnalyzeQuery analyzer=new AnalyzeQuery(block.rootMd,aq.getReference());
+            analyzer.iterate(boundQuery);
+            List<QueryFieldInfo> qfi=analyzer.getFieldInfo();
+            GetIndexLookupSpec gils=new GetIndexLookupSpec(qfi);
+            LookupSpec ls=gils.iterate(boundQuery);
+            LOGGER.debug("Lookup spec:"+ls);
+            candidates=children.find(ls);
+        }
+        List<ResultDocument> ret = new ArrayList<>();
+        for (ResultDocument childDoc : candidates) {
             if (qeval.evaluate(childDoc.getDoc()).getResult()) {
-                destNode=ensureDestNodeExists(parentDoc,destNode,destFieldName);
-                destNode.add(childDoc.getDoc().getRoot());
+                ret.add(childDoc);
             }
         }
-    }
-    
-    /**
-     * Returns the documents in foundList in the order of originalList
-     */
-    private static List<ResultDocument> reorder(List<ResultDocument> originalList,Set<JsonDoc> foundList) {
-        List<ResultDocument> ret=new ArrayList<>(foundList.size());
-        for(ResultDocument d:originalList) {
-            if(foundList.contains(d.getDoc()))
-                ret.add(d);
-        }
         return ret;
     }
 
@@ -30,6 +30,8 @@ public class AssociationQuery {
     private final List<QueryFieldInfo> qfi;
     // In-memory index key spec
     private final KeySpec keySpec;
+    // If true, the query has range or prefix comparisons
+    private final boolean rangeLookups;
 
     public AssociationQuery(CompositeMetadata root,
                             CompositeMetadata currentEntity,
@@ -67,10 +69,12 @@ public class AssociationQuery {
                 always=null;
             }
             keySpec=null;
+            rangeLookups=false;
         } else {
             query = Searches.and(queries);
             GetIndexKeySpec giks=new GetIndexKeySpec(qfi);
             keySpec=giks.iterate(query);
+            rangeLookups=giks.hasRangeLookups();
             always=null;
         }
     }
@@ -79,6 +83,14 @@ public class AssociationQuery {
         return keySpec;
     }
     
+    /**
+     * Returns true if the association query has range or prefix
+     * comparisons on the indexed fields
+     */
+    public boolean hasRangeLookups() {
+        return rangeLookups;
+    }
+
     public List<QueryFieldInfo> getQueryFieldInfo() {
         return qfi;
     }
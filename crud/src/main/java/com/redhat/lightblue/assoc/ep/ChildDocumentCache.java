@@ -0,0 +1,196 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.assoc.ep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.redhat.lightblue.metadata.DocId;
+import com.redhat.lightblue.mindex.LookupSpec;
+import com.redhat.lightblue.mindex.MemDocIndex;
+import com.redhat.lightblue.query.QueryExpression;
+import com.redhat.lightblue.util.JsonDoc;
+
+/**
+ * The child documents an Assemble step retrieved for a destination block,
+ * along with the results of the bound association queries.
+ *
+ * Child documents are kept by their identity, so a child retrieved again
+ * is replaced with the instance retrieved first, and it is added to the
+ * index only once. If the results of a bound query are known, the parent
+ * documents using the same query are assembled without retrieving the
+ * children again. Query results are kept in least recently used order, so
+ * they can be evicted one at a time. An instance is used by one batch
+ * assembler at a time.
+ */
+class ChildDocumentCache {
+
+    private final Map<DocId, ResultDocument> children = new HashMap<>();
+    private final Map<JsonDoc, Integer> order = new IdentityHashMap<>();
+    private final List<ResultDocument> childList = new ArrayList<>();
+    private final Map<String, List<ResultDocument>> queryResults = new LinkedHashMap<>(16, 0.75f, true);
+    private MemDocIndex index;
+
+    /**
+     * Returns the number of child documents
+     */
+    public int size() {
+        return childList.size();
+    }
+
+    /**
+     * Returns the number of queries with known results
+     */
+    public int getNumQueries() {
+        return queryResults.size();
+    }
+
+    /**
+     * Limits the cache to maxDocs child documents and maxQueries query
+     * results. The least recently used query results are evicted first. If
+     * there are more child documents, the cache is cleared, because the
+     * query results and the index refer to them. This is called between
+     * batches, so the results known when a batch is planned are kept until
+     * the batch is assembled.
+     */
+    public void trim(int maxDocs, int maxQueries) {
+        if (childList.size() > maxDocs) {
+            clear();
+        } else {
+            Iterator<String> itr = queryResults.keySet().iterator();
+            for (int n = queryResults.size(); n > maxQueries; n--) {
+                itr.next();
+                itr.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        children.clear();
+        order.clear();
+        childList.clear();
+        queryResults.clear();
+        index = null;
+    }
+
+    /**
+     * Adds the retrieved child documents. Returns the list of documents
+     * with the documents that are already known replaced with the known
+     * instances.
+     */
+    public List<ResultDocument> add(List<ResultDocument> docs) {
+        List<ResultDocument> ret = new ArrayList<>(docs.size());
+        Set<ResultDocument> added = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ResultDocument doc : docs) {
+            DocId id = doc.getDocId();
+            ResultDocument known = isIdentified(id) ? children.get(id) : null;
+            if (known == null) {
+                if (isIdentified(id)) {
+                    children.put(id, doc);
+                }
+                order.put(doc.getDoc(), childList.size());
+                childList.add(doc);
+                if (index != null) {
+                    index.add(doc.getDoc());
+                }
+                ret.add(doc);
+            } else if (added.add(known)) {
+                ret.add(known);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns true if the results of the query are known. A null query
+     * means all child documents.
+     */
+    public boolean isRetrieved(QueryExpression q) {
+        return queryResults.containsKey(key(q));
+    }
+
+    /**
+     * Returns the child documents matching the query, or null if the
+     * results of the query are not known
+     */
+    public List<ResultDocument> getResults(QueryExpression q) {
+        return queryResults.get(key(q));
+    }
+
+    public void putResults(QueryExpression q, List<ResultDocument> results) {
+        queryResults.put(key(q), results);
+    }
+
+    public MemDocIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Sets the index, and adds all the known child documents to it
+     */
+    public void setIndex(MemDocIndex index) {
+        this.index = index;
+        for (ResultDocument doc : childList) {
+            index.add(doc.getDoc());
+        }
+    }
+
+    /**
+     * Looks up the child documents from the index, and returns them in the
+     * order they were added
+     */
+    public List<ResultDocument> find(LookupSpec spec) {
+        Set<JsonDoc> found = index.find(spec);
+        int[] ix = new int[found.size()];
+        int n = 0;
+        for (JsonDoc doc : found) {
+            ix[n++] = order.get(doc);
+        }
+        Arrays.sort(ix);
+        List<ResultDocument> ret = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ret.add(childList.get(ix[i]));
+        }
+        return ret;
+    }
+
+    private static boolean isIdentified(DocId id) {
+        if (id == null) {
+            return false;
+        }
+        for (int i = 0; i < id.getSize(); i++) {
+            if (id.getValue(i) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String key(QueryExpression q) {
+        return q == null ? "" : q.toString();
+    }
+}
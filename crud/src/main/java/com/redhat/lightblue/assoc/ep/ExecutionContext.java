@@ -18,6 +18,10 @@
  */
 package com.redhat.lightblue.assoc.ep;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 
 import com.redhat.lightblue.Request;
@@ -41,9 +45,19 @@ public class ExecutionContext {
     private final ExecutorService executor;
     private int matchCount;
     private final MemoryMonitor<JsonNode> memoryMonitor = new MemoryMonitor<>(JsonUtils::size);
+    private final List<Closeable> resources = new ArrayList<>();
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ExecutionContext.class);
 
+    /**
+     * Constructs an execution context
+     *
+     * @param ctx The operation context
+     * @param executor The executor for the tasks of this request. This is
+     * usually a session of the shared composite find executor, limiting the
+     * number of tasks of this request running concurrently. The executor is
+     * shut down when the execution context is closed.
+     */
     public ExecutionContext(OperationContext ctx, ExecutorService executor) {
         this.opctx = ctx;
         this.executor = executor;
@@ -80,8 +94,29 @@ public class ExecutionContext {
         matchCount++;
     }
 
+    /**
+     * Registers a resource to be closed when the execution context is closed
+     */
+    public void addResource(Closeable resource) {
+        synchronized (resources) {
+            resources.add(resource);
+        }
+    }
+
     public void close() {
-        executor.shutdown();
+        if (executor != null) {
+            executor.shutdown();
+        }
+        synchronized (resources) {
+            for (Closeable resource : resources) {
+                try {
+                    resource.close();
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.warn("Cannot close {}: {}", resource, e);
+                }
+            }
+            resources.clear();
+        }
     }
 
     /**
@@ -79,6 +79,7 @@ public class ExecutionPlan {
     static private final Logger LOGGER = LoggerFactory.getLogger(ExecutionPlan.class);
 
     private Step<ResultDocument> resultStep;
+    private int numBlocks;
 
     /**
      * Creates an execution plan
@@ -227,14 +228,23 @@ public class ExecutionPlan {
 
                         // Make sure we have unique docs
                         Unique u=new Unique(block, new Source<>(search));
-                        if(unassigned.isEmpty()&&!matchCountSet) {
-                            u.setRecordResultSetSize(true);
+                        boolean recordResultSetSize=unassigned.isEmpty()&&!matchCountSet;
+                        if(recordResultSetSize) {
                             matchCountSet=true;
                         }
                         Source<ResultDocument> last = new Source<>(u);
                         // Sort the results
                         if (requestSort != null) {
-                            last = new Source<>(new SortResults(block, last, requestSort));
+                            // If the results are not filtered after this, only
+                            // the documents up to 'to' are needed
+                            int maxResults = !needsFinalFiltering && to != null && to < Integer.MAX_VALUE ? to.intValue() + 1 : -1;
+                            SortResults sortResults = new SortResults(block, last, requestSort, maxResults);
+                            // Count the documents while sorting, so only the
+                            // sorted documents kept in memory are charged
+                            sortResults.setRecordResultSetSize(recordResultSetSize);
+                            last = new Source<>(sortResults);
+                        } else {
+                            u.setRecordResultSetSize(recordResultSetSize);
                         }
                         if(!needsFinalFiltering) {
                         	if (from != null) {
@@ -320,7 +330,8 @@ public class ExecutionPlan {
                 fields.addAll(getIncludedFieldsOfEntityForProjection(block, rootMd, requestProjection));
                 search.setProjection(writeProjection(fields));
                 search.setQueries(node.getData().getConjuncts());
-                resultStep = new Assemble(block, last, destinationBlocks, ctx.getFactory().getMemoryIndexThreshold());
+                resultStep = new Assemble(block, last, destinationBlocks, ctx.getFactory().getMemoryIndexThreshold(), ctx.getFactory().getAssembleWindowSize(),
+                        ctx.getFactory().getAssembleCacheSize());
                 if(needsFinalFiltering) {
                     resultStep = new Filter(block, new Source<>(resultStep), requestQuery);
                     ((Filter)resultStep).setRecordResultSetSize(true);
@@ -352,7 +363,8 @@ public class ExecutionPlan {
                 Set<Path> fields = getIncludedFieldsOfEntityForSearch(block, qfi);
                 fields.addAll(getIncludedFieldsOfEntityForProjection(block, rootMd, requestProjection));
                 search.setProjection(writeProjection(fields));
-                block.setResultStep(new Assemble(block, new Source<>(search), destinationBlocks, ctx.getFactory().getMemoryIndexThreshold()));
+                block.setResultStep(new Assemble(block, new Source<>(search), destinationBlocks, ctx.getFactory().getMemoryIndexThreshold(), ctx.getFactory().getAssembleWindowSize(),
+                        ctx.getFactory().getAssembleCacheSize()));
             }
         }
 
@@ -362,6 +374,15 @@ public class ExecutionPlan {
         for (ExecutionBlock block : qp2BlockMap.values()) {
             block.initializeSteps();
         }
+        numBlocks = qp2BlockMap.size();
+    }
+
+    /**
+     * Returns the number of execution blocks in the search and retrieval
+     * plans
+     */
+    public int getNumBlocks() {
+        return numBlocks;
     }
 
     public StepResult<ResultDocument> getResults(ExecutionContext ctx) {
@@ -0,0 +1,328 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.assoc.ep;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.redhat.lightblue.util.JsonUtils;
+
+/**
+ * Sorts documents using a bounded amount of memory.
+ *
+ * Documents are added to an in-memory buffer. When the approximate size of
+ * the buffer exceeds the memory budget, the buffer is sorted and written to
+ * a temporary file as a sorted run. When all documents are added, the runs
+ * are merged lazily as the sorted documents are iterated. If nothing is
+ * spilled, documents are sorted in memory.
+ *
+ * The sort is stable: documents with equal keys are returned in the order
+ * they were added.
+ *
+ * @param <T> The document type
+ */
+public class ExternalSort<T> implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExternalSort.class);
+
+    private final Function<T, ? extends Comparable> keyFunction;
+    private final Function<T, JsonNode> toJson;
+    private final Function<JsonNode, T> fromJson;
+    private final long memoryBudgetB;
+    private final ObjectMapper mapper = JsonUtils.getObjectMapper();
+
+    private final List<Item<T>> buffer = new ArrayList<>();
+    private long bufferSizeB = 0;
+    private final List<File> runs = new ArrayList<>();
+    private final List<RunIterator> openRuns = new ArrayList<>();
+
+    /**
+     * Constructs an external sort
+     *
+     * @param keyFunction Returns the sort key of a document
+     * @param toJson Returns the JSON representation of a document, used to
+     * measure its size and to write it to a run
+     * @param fromJson Reconstructs a document from the JSON representation
+     * read from a run
+     * @param memoryBudgetB Documents are spilled to disk if the buffered
+     * documents exceed this many bytes. If 0 or less, documents are never
+     * spilled.
+     */
+    public ExternalSort(Function<T, ? extends Comparable> keyFunction,
+                        Function<T, JsonNode> toJson,
+                        Function<JsonNode, T> fromJson,
+                        long memoryBudgetB) {
+        this.keyFunction = keyFunction;
+        this.toJson = toJson;
+        this.fromJson = fromJson;
+        this.memoryBudgetB = memoryBudgetB;
+    }
+
+    /**
+     * Adds a document
+     */
+    public void add(T doc) {
+        buffer.add(new Item<>(doc, keyFunction.apply(doc)));
+        if (memoryBudgetB > 0) {
+            bufferSizeB += JsonUtils.size(toJson.apply(doc));
+            if (bufferSizeB > memoryBudgetB) {
+                spill();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of sorted runs written to disk
+     */
+    public int getNumSpilledRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Returns the temporary files of the sorted runs
+     */
+    List<File> getRunFiles() {
+        return runs;
+    }
+
+    /**
+     * Returns an iterator over the sorted documents. Must be called once,
+     * after all documents are added. The temporary files are deleted when
+     * the iterator is exhausted, or when this object is closed.
+     */
+    public Iterator<T> iterator() {
+        Collections.sort(buffer);
+        if (runs.isEmpty()) {
+            Iterator<Item<T>> itr = buffer.iterator();
+            return new Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    return itr.hasNext();
+                }
+
+                @Override
+                public T next() {
+                    return itr.next().doc;
+                }
+            };
+        }
+        LOGGER.debug("Merging {} sorted runs", runs.size());
+        List<Iterator<Item<T>>> sources = new ArrayList<>(runs.size() + 1);
+        for (File f : runs) {
+            RunIterator r = new RunIterator(f);
+            openRuns.add(r);
+            sources.add(r);
+        }
+        // The in-memory buffer has the last documents
+        sources.add(buffer.iterator());
+        return new MergeIterator(sources);
+    }
+
+    /**
+     * Deletes the temporary files
+     */
+    @Override
+    public void close() {
+        for (RunIterator r : openRuns) {
+            r.close();
+        }
+        openRuns.clear();
+        for (File f : runs) {
+            f.delete();
+        }
+    }
+
+    private void spill() {
+        Collections.sort(buffer);
+        File f = null;
+        try {
+            f = File.createTempFile("lightblue-sort", ".json");
+            runs.add(f);
+            try (JsonGenerator gen = mapper.getFactory().createGenerator(new BufferedOutputStream(new FileOutputStream(f)))) {
+                for (Item<T> item : buffer) {
+                    mapper.writeTree(gen, toJson.apply(item.doc));
+                }
+            }
+            LOGGER.debug("Spilled {} documents, {} bytes to {}", buffer.size(), bufferSizeB, f);
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+        bufferSizeB = 0;
+    }
+
+    private static class Item<T> implements Comparable<Item<T>> {
+        private final T doc;
+        private final Comparable key;
+
+        Item(T doc, Comparable key) {
+            this.doc = doc;
+            this.key = key;
+        }
+
+        @Override
+        public int compareTo(Item<T> x) {
+            return key.compareTo(x.key);
+        }
+    }
+
+    /**
+     * Reads a sorted run from a file, deletes the file when done
+     */
+    private class RunIterator implements Iterator<Item<T>> {
+        private final File file;
+        private JsonParser parser;
+        private Item<T> next;
+
+        RunIterator(File file) {
+            this.file = file;
+            try {
+                parser = mapper.getFactory().createParser(new BufferedInputStream(new FileInputStream(file)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            advance();
+        }
+
+        private void advance() {
+            try {
+                JsonToken t = parser == null ? null : parser.nextToken();
+                if (t == null) {
+                    next = null;
+                    close();
+                } else {
+                    T doc = fromJson.apply(mapper.readTree(parser));
+                    next = new Item<>(doc, keyFunction.apply(doc));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void close() {
+            if (parser != null) {
+                try {
+                    parser.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Cannot close {}:{}", file, e);
+                }
+                parser = null;
+                file.delete();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Item<T> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Item<T> ret = next;
+            advance();
+            return ret;
+        }
+    }
+
+    /**
+     * Merges sorted iterators. Documents with equal keys are returned in
+     * the order of the iterators, so the merge is stable if the iterators
+     * are in insertion order.
+     */
+    private class MergeIterator implements Iterator<T> {
+        private final List<Iterator<Item<T>>> sources;
+        private final PriorityQueue<Head> heads = new PriorityQueue<>();
+
+        private class Head implements Comparable<Head> {
+            private final Item<T> item;
+            private final int source;
+
+            Head(Item<T> item, int source) {
+                this.item = item;
+                this.source = source;
+            }
+
+            @Override
+            public int compareTo(Head x) {
+                int c = item.compareTo(x.item);
+                return c == 0 ? Integer.compare(source, x.source) : c;
+            }
+        }
+
+        MergeIterator(List<Iterator<Item<T>>> sources) {
+            this.sources = sources;
+            for (int i = 0; i < sources.size(); i++) {
+                pull(i);
+            }
+        }
+
+        private void pull(int source) {
+            Iterator<Item<T>> itr = sources.get(source);
+            if (itr.hasNext()) {
+                heads.add(new Head(itr.next(), source));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (heads.isEmpty()) {
+                // All runs are read, make sure they are deleted
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            Head h = heads.poll();
+            if (h == null) {
+                throw new NoSuchElementException();
+            }
+            pull(h.source);
+            return h.item.doc;
+        }
+    }
+}
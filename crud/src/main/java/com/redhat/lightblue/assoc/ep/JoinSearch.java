@@ -22,6 +22,10 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -38,6 +42,7 @@ import com.redhat.lightblue.mediator.OperationContext;
 import com.redhat.lightblue.crud.CRUDFindRequest;
 import com.redhat.lightblue.crud.DocumentStream;
 import com.redhat.lightblue.crud.DocCtx;
+import com.redhat.lightblue.crud.Factory;
 
 /**
  * Performs searches based on the n-tuple of result documents obtained from the
@@ -58,7 +63,10 @@ public class JoinSearch extends AbstractSearchStep {
 
     @Override
     protected DocumentStream<ResultDocument> getSearchResults(final ExecutionContext ctx) {
-        return new BatchQueryIterator(256,ctx);
+        Factory factory = ctx.getOperationContext().getFactory();
+        return new BatchQueryIterator(factory.getJoinSearchBatchSize(),
+                                      factory.getJoinSearchPrefetchDepth(),
+                                      ctx);
     }
 
     /**
@@ -66,19 +74,62 @@ public class JoinSearch extends AbstractSearchStep {
      *
      * When the results are retrieved from the stream, executes a
      * batch of queries, computes results, and streams them to the
-     * caller
+     * caller. While a batch is being consumed, the queries for the next
+     * prefetchDepth batches run in the executor of the execution context.
      */
+    private static final class Batch {
+        private Future<?> future;
+        private DocumentStream<DocCtx> stream;
+        private boolean discarded=false;
+
+        /**
+         * Sets the result of the batch query. If the batch is already
+         * discarded, the stream is closed.
+         */
+        synchronized void setStream(DocumentStream<DocCtx> s) {
+            if(discarded) {
+                if(s!=null)
+                    s.close();
+            } else {
+                stream=s;
+            }
+        }
+
+        synchronized DocumentStream<DocCtx> getStream() {
+            return stream;
+        }
+
+        /**
+         * Discards the batch. The stream is closed now if the query is
+         * complete, or when the query completes otherwise.
+         */
+        void discard() {
+            synchronized(this) {
+                discarded=true;
+                if(stream!=null) {
+                    stream.close();
+                    stream=null;
+                }
+            }
+            if(future!=null)
+                future.cancel(false);
+        }
+    }
+
     private class BatchQueryIterator implements DocumentStream<ResultDocument> {
         private final int batchSize;
+        private final int prefetchDepth;
         private final ExecutionContext ctx;
         private final Iterator<JoinTuple> sourceStream;
         private final ArrayList<Consumer<ResultDocument>> listeners=new ArrayList<>();
+        private final Deque<Batch> pending=new ArrayDeque<>();
 
         private DocumentStream<DocCtx> currentIterator;
         private boolean done=false; // Are we still iterating, or are we done?
         
-        public BatchQueryIterator(int batchSize,ExecutionContext ctx) {
-            this.batchSize=batchSize;
+        public BatchQueryIterator(int batchSize,int prefetchDepth,ExecutionContext ctx) {
+            this.batchSize=Math.max(1,batchSize);
+            this.prefetchDepth=ctx.getExecutor()==null?0:Math.max(0,prefetchDepth);
             this.ctx=ctx;
             sourceStream=source.getStep().getResults(ctx).stream().iterator();
         }
@@ -116,6 +167,11 @@ public class JoinSearch extends AbstractSearchStep {
         public void close() {
             if(currentIterator!=null)
                 currentIterator.close();
+            // Discard the batches read ahead. Queries that are still
+            // running close their streams when they complete
+            for(Batch b:pending)
+                b.discard();
+            pending.clear();
         }
 
         @Override
@@ -125,16 +181,42 @@ public class JoinSearch extends AbstractSearchStep {
         
         private void retrieveNextBatch() {
             do {
-                int n=0;
-                ArrayList<QueryExpression> qBatch=new ArrayList<>(batchSize);
                 if(currentIterator!=null) {
                     currentIterator.close();
                     currentIterator=null;
                 }
-                while(sourceStream.hasNext()&&n<batchSize) {
+                prefetch(Math.max(1,prefetchDepth));
+                Batch b=pending.poll();
+                if(b!=null) {
+                    DocumentStream<DocCtx> batch=await(b);
+                    // Start the next queries before this batch is consumed
+                    prefetch(prefetchDepth);
+                    if(batch!=null) {
+                        if(batch.hasNext()) {
+                            currentIterator=batch;
+                        } else {
+                            batch.close();
+                        }
+                    }
+                } else {
+                    done=true;
+                }
+            } while(!done&&currentIterator==null);
+        }
+
+        /**
+         * Reads join tuples from the source, and schedules their queries
+         * until there are n batches pending. The source is only read by
+         * the caller thread.
+         */
+        private void prefetch(int n) {
+            while(pending.size()<n&&sourceStream.hasNext()) {
+                int k=0;
+                ArrayList<QueryExpression> qBatch=new ArrayList<>(batchSize);
+                while(sourceStream.hasNext()&&k<batchSize) {
                     JoinTuple t=sourceStream.next();
                     qBatch.addAll(Searches.writeQueriesForJoinTuple(t, block));
-                    n++;
+                    k++;
                 }
                 if(!qBatch.isEmpty()) {
                     QueryExpression q = Searches.combine(NaryLogicalOperator._or, qBatch);
@@ -144,20 +226,51 @@ public class JoinSearch extends AbstractSearchStep {
                     findRequest.setSort(sort);
                     findRequest.setFrom(from);
                     findRequest.setTo(to);
-                    OperationContext opctx = search(ctx, findRequest);
-                    if(opctx!=null) {
-                        currentIterator=opctx.getDocumentStream();
-                        if(!currentIterator.hasNext()) {
-                            currentIterator.close();
-                            currentIterator=null;
-                        }
+                    Batch b=new Batch();
+                    if(prefetchDepth==0) {
+                        b.setStream(runBatch(findRequest));
+                    } else {
+                        b.future=ctx.getExecutor().submit(() -> b.setStream(runBatch(findRequest)));
                     }
-                } else {
-                    done=true;
+                    pending.add(b);
                 }
-            } while(!done&&currentIterator==null);
-        }   
-            
+            }
+        }
+
+        /**
+         * Runs the query of a batch, and returns the document stream, or
+         * null if the query failed. The errors are added to the execution
+         * context.
+         */
+        private DocumentStream<DocCtx> runBatch(CRUDFindRequest findRequest) {
+            OperationContext opctx = search(ctx, findRequest);
+            if(opctx!=null) {
+                DocumentStream<DocCtx> batch=opctx.getDocumentStream();
+                // Start retrieving the documents
+                batch.hasNext();
+                return batch;
+            }
+            return null;
+        }
+
+        private DocumentStream<DocCtx> await(Batch b) {
+            if(b.future!=null) {
+                try {
+                    b.future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause=e.getCause();
+                    if(cause instanceof RuntimeException)
+                        throw (RuntimeException)cause;
+                    if(cause instanceof Error)
+                        throw (Error)cause;
+                    throw new RuntimeException(cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+            return b.getStream();
+        }
     }
 
     @Override
@@ -18,7 +18,15 @@
  */
 package com.redhat.lightblue.assoc.ep;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
@@ -29,35 +37,180 @@ import com.redhat.lightblue.query.Sort;
 import com.redhat.lightblue.eval.SortFieldInfo;
 import com.redhat.lightblue.eval.SortableItem;
 
+import com.redhat.lightblue.util.JsonDoc;
+
 /**
  * Sorts the result set
+ *
+ * If only the first n documents of the sorted result set are needed, only
+ * n documents are kept in memory. Otherwise, the documents are sorted using
+ * an external sort, which spills sorted runs to temporary files when the
+ * documents exceed the sort memory budget. The temporary files are deleted
+ * when the sorted documents are read, or when the execution context is
+ * closed.
+ *
+ * If the result set size is recorded at this step, the documents are sorted
+ * when the results are requested, and only the documents kept in memory
+ * after sorting are counted towards the execution context memory limit.
  */
 public class SortResults extends Step<ResultDocument> {
 
     private final SortFieldInfo[] sortFields;
     private final Sort sort;
     private final Source<ResultDocument> source;
+    private final int maxResults;
+    private boolean recordResultSetSize = false;
 
     public SortResults(ExecutionBlock block, Source<ResultDocument> source, Sort sort) {
+        this(block, source, sort, -1);
+    }
+
+    /**
+     * @param maxResults If nonnegative, only the first maxResults documents
+     * of the sorted result set are returned
+     */
+    public SortResults(ExecutionBlock block, Source<ResultDocument> source, Sort sort, int maxResults) {
         super(block);
         this.source = source;
         this.sort = sort;
         this.sortFields = SortFieldInfo.buildSortFields(sort, block.getMetadata());
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * If set, the number of documents sorted is recorded as the match count
+     */
+    public void setRecordResultSetSize(boolean b) {
+        recordResultSetSize = b;
     }
 
     @Override
     public StepResult<ResultDocument> getResults(ExecutionContext ctx) {
-        return new StepResultWrapper<ResultDocument>(source.getStep().getResults(ctx)) {
+        StepResult<ResultDocument> result = source.getStep().getResults(ctx);
+        if (recordResultSetSize) {
+            return sortAndCount(ctx, result);
+        }
+        return new StepResultWrapper<ResultDocument>(result) {
             @Override
             public Stream<ResultDocument> stream() {
-                return super.stream().
-                        map(d -> new SortableDoc(d, sortFields)).
-                        sorted().
-                        map(d -> d.getDoc());
+                if (maxResults >= 0) {
+                    return topK(super.stream().iterator()).stream();
+                } else {
+                    return sort(ctx, super.stream().iterator(), false);
+                }
             }
         };
     }
 
+    private StepResult<ResultDocument> sortAndCount(ExecutionContext ctx, StepResult<ResultDocument> result) {
+        CountingIterator docs = new CountingIterator(result.stream().iterator());
+        if (maxResults >= 0) {
+            List<ResultDocument> list = topK(docs);
+            list.forEach(ctx::monitorMemory);
+            ctx.setMatchCount(docs.count);
+            return new ListStepResult<>(list);
+        } else {
+            Stream<ResultDocument> sorted = sort(ctx, docs, true);
+            ctx.setMatchCount(docs.count);
+            return () -> sorted;
+        }
+    }
+
+    /**
+     * Sorts the documents using an external sort. The sorter is closed when
+     * the returned stream is closed, or when the execution context is
+     * closed.
+     *
+     * @param monitorMemory If true, documents are counted towards the
+     * execution context memory limit if they are all kept in memory
+     */
+    private Stream<ResultDocument> sort(ExecutionContext ctx, Iterator<ResultDocument> docs, boolean monitorMemory) {
+        int budget = ctx.getOperationContext().getFactory().getSortMemoryBudgetB();
+        ExternalSort<ResultDocument> sorter = new ExternalSort<>(d -> new SortableDoc(d, sortFields),
+                d -> d.getDoc().getRoot(),
+                node -> new ResultDocument(block, new JsonDoc(node)),
+                budget);
+        ctx.addResource(sorter);
+        try {
+            while (docs.hasNext()) {
+                ResultDocument doc = docs.next();
+                if (monitorMemory && budget <= 0) {
+                    ctx.monitorMemory(doc);
+                }
+                sorter.add(doc);
+            }
+        } catch (RuntimeException e) {
+            sorter.close();
+            throw e;
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(sorter.iterator(), Spliterator.ORDERED), false).
+                onClose(sorter::close);
+    }
+
+    private static class CountingIterator implements Iterator<ResultDocument> {
+        private final Iterator<ResultDocument> itr;
+        private int count = 0;
+
+        CountingIterator(Iterator<ResultDocument> itr) {
+            this.itr = itr;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return itr.hasNext();
+        }
+
+        @Override
+        public ResultDocument next() {
+            ResultDocument doc = itr.next();
+            count++;
+            return doc;
+        }
+    }
+
+    /**
+     * Returns the first maxResults documents in sort order. Keeps the
+     * smallest maxResults documents in a heap whose head is the largest
+     * document kept. Documents with equal keys are kept in the order they
+     * are received.
+     */
+    private List<ResultDocument> topK(Iterator<ResultDocument> docs) {
+        PriorityQueue<RankedDoc> heap = new PriorityQueue<>(Math.max(1, maxResults), Collections.reverseOrder());
+        long seq = 0;
+        while (docs.hasNext()) {
+            RankedDoc d = new RankedDoc(new SortableDoc(docs.next(), sortFields), seq++);
+            if (heap.size() < maxResults) {
+                heap.add(d);
+            } else if (!heap.isEmpty() && d.compareTo(heap.peek()) < 0) {
+                heap.poll();
+                heap.add(d);
+            }
+        }
+        List<RankedDoc> list = new ArrayList<>(heap);
+        Collections.sort(list);
+        List<ResultDocument> ret = new ArrayList<>(list.size());
+        for (RankedDoc d : list) {
+            ret.add(d.doc.getDoc());
+        }
+        return ret;
+    }
+
+    private static class RankedDoc implements Comparable<RankedDoc> {
+        private final SortableDoc doc;
+        private final long seq;
+
+        public RankedDoc(SortableDoc doc, long seq) {
+            this.doc = doc;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(RankedDoc x) {
+            int c = doc.compareTo(x.doc);
+            return c == 0 ? Long.compare(seq, x.seq) : c;
+        }
+    }
+
     private static class SortableDoc extends SortableItem {
         private final ResultDocument doc;
 
@@ -75,6 +228,9 @@ public class SortResults extends Step<ResultDocument> {
     public JsonNode toJson() {
         ObjectNode o = JsonNodeFactory.instance.objectNode();
         o.set("sort", sort.toJson());
+        if (maxResults >= 0) {
+            o.set("maxResults", JsonNodeFactory.instance.numberNode(maxResults));
+        }
         o.set("source", source.getStep().toJson());
         return o;
     }
@@ -83,6 +239,9 @@ public class SortResults extends Step<ResultDocument> {
     public JsonNode explain(ExecutionContext ctx) {
         ObjectNode o = JsonNodeFactory.instance.objectNode();
         o.set("sort", sort.toJson());
+        if (maxResults >= 0) {
+            o.set("maxResults", JsonNodeFactory.instance.numberNode(maxResults));
+        }
         o.set("source", source.getStep().explain(ctx));
         return o;
     }
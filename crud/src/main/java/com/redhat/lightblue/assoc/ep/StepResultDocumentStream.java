@@ -13,16 +13,33 @@ import com.redhat.lightblue.crud.DocumentStream;
  */
 public class StepResultDocumentStream implements DocumentStream<DocCtx> {
 
+    private final Stream<DocCtx> stream;
     private final Iterator<DocCtx> itr;
     private final ArrayList<Consumer<DocCtx>> listeners=new ArrayList<>();
+    private final Runnable onClose;
+    private boolean closed=false;
 
     public StepResultDocumentStream(StepResult<DocCtx> result) {
-        this.itr=result.stream().iterator();
+        this(result,null);
+    }
+
+    /**
+     * Constructs a document stream that calls onClose when the stream is
+     * closed, or when all documents are read, whichever happens first. The
+     * underlying result stream is closed at the same time.
+     */
+    public StepResultDocumentStream(StepResult<DocCtx> result,Runnable onClose) {
+        this.stream=result.stream();
+        this.itr=stream.iterator();
+        this.onClose=onClose;
     }
 
     @Override
     public boolean hasNext() {
-        return itr.hasNext();
+        boolean ret=itr.hasNext();
+        if(!ret)
+            close();
+        return ret;
     }
 
     @Override
@@ -34,7 +51,17 @@ public class StepResultDocumentStream implements DocumentStream<DocCtx> {
     }
 
     @Override
-    public void close() {}
+    public void close() {
+        if(!closed) {
+            closed=true;
+            try {
+                stream.close();
+            } finally {
+                if(onClose!=null)
+                    onClose.run();
+            }
+        }
+    }
 
     @Override
     public void addListener(Consumer<DocCtx> listener) {
@@ -0,0 +1,293 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.assoc.iterators;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.redhat.lightblue.assoc.QueryPlan;
+import com.redhat.lightblue.assoc.QueryPlanIterator;
+import com.redhat.lightblue.assoc.QueryPlanNode;
+import com.redhat.lightblue.assoc.QueryPlanScorer;
+
+/**
+ * Iterates over a subset of possible query plans, guided by the scores of the
+ * plans.
+ *
+ * Iterating all possible query plans requires 2^n iterations for a query
+ * plan with n edges. This iterator first iterates the n+1 plans with a single
+ * source, one for every node, then, starting from the best of those,
+ * repeatedly moves to the best plan obtained by flipping a single edge, until
+ * no such plan scores better. The number of iterations is limited by a
+ * budget.
+ *
+ * If the query plan has at most a given number of edges, this iterator
+ * iterates all possible query plans using {@link BruteForceQueryPlanIterator}.
+ *
+ * The iterator scores the plans using the scorer given at construction,
+ * which must be the same scorer used by the query plan chooser. The chooser
+ * uses the scores of the iterator instead of scoring the plans again.
+ */
+public class CostBasedQueryPlanIterator implements QueryPlanIterator, Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CostBasedQueryPlanIterator.class);
+
+    public static final int DEFAULT_BUDGET = 1024;
+    public static final int DEFAULT_MAX_BRUTE_FORCE_EDGES = 8;
+
+    private final QueryPlanScorer scorer;
+    private final int budget;
+    private final int maxBruteForceEdges;
+
+    private QueryPlan qp;
+    private BruteForceQueryPlanIterator bruteForce;
+
+    // Edges of the initial plan. Edge i is from edgeFrom[i] to edgeTo[i] in
+    // the initial plan. If bit i of a configuration is set, edge i is flipped
+    private QueryPlanNode[] edgeFrom;
+    private QueryPlanNode[] edgeTo;
+    private BitSet current;
+
+    // Configurations waiting to be iterated
+    private final Deque<BitSet> candidates = new ArrayDeque<>();
+    private final Set<BitSet> visited = new HashSet<>();
+    private int iterations;
+    private boolean done;
+
+    // The configuration returned by the last call to next, and its score
+    private BitSet last;
+    private Comparable lastScore;
+    // The score of the initial plan, if given by the chooser
+    private boolean initialScoreKnown;
+    private Comparable initialScore;
+    // The best configuration so far, and its score
+    private BitSet best;
+    private Comparable bestScore;
+    // The configuration whose neighbors are being iterated
+    private BitSet center;
+
+    /**
+     * Constructs an iterator with the default budget and brute force limit
+     */
+    public CostBasedQueryPlanIterator(QueryPlanScorer scorer) {
+        this(scorer, DEFAULT_BUDGET, DEFAULT_MAX_BRUTE_FORCE_EDGES);
+    }
+
+    /**
+     * Constructs an iterator
+     *
+     * @param scorer The scorer used to compare plans
+     * @param budget Maximum number of plans to iterate
+     * @param maxBruteForceEdges If the query plan has at most this many
+     * edges, all possible plans are iterated
+     */
+    public CostBasedQueryPlanIterator(QueryPlanScorer scorer,
+                                      int budget,
+                                      int maxBruteForceEdges) {
+        this.scorer = scorer;
+        this.budget = budget;
+        this.maxBruteForceEdges = maxBruteForceEdges;
+    }
+
+    @Override
+    public void reset(QueryPlan qp) {
+        resetIteration(qp);
+        initialScoreKnown = false;
+        initialScore = null;
+    }
+
+    @Override
+    public void reset(QueryPlan qp, Comparable initialScore) {
+        resetIteration(qp);
+        initialScoreKnown = true;
+        this.initialScore = initialScore;
+    }
+
+    private void resetIteration(QueryPlan qp) {
+        this.qp = qp;
+        lastScore = null;
+        List<QueryPlanNode[]> edgeList = new ArrayList<>(16);
+        for (QueryPlanNode x : qp.getSources()) {
+            findEdges(edgeList, x);
+        }
+        if (edgeList.size() <= maxBruteForceEdges) {
+            bruteForce = new BruteForceQueryPlanIterator();
+            bruteForce.reset(qp);
+            return;
+        }
+        bruteForce = null;
+        edgeFrom = new QueryPlanNode[edgeList.size()];
+        edgeTo = new QueryPlanNode[edgeList.size()];
+        for (int i = 0; i < edgeFrom.length; i++) {
+            edgeFrom[i] = edgeList.get(i)[0];
+            edgeTo[i] = edgeList.get(i)[1];
+        }
+        current = new BitSet(edgeFrom.length);
+        candidates.clear();
+        visited.clear();
+        visited.add(new BitSet());
+        last = null;
+        best = null;
+        bestScore = null;
+        center = null;
+        iterations = 0;
+        done = false;
+        // Start with all plans with a single source
+        for (QueryPlanNode node : qp.getAllNodes()) {
+            candidates.add(rootedAt(node));
+        }
+        LOGGER.debug("Cost based iteration for {} edges, budget {}", edgeFrom.length, budget);
+    }
+
+    private void findEdges(List<QueryPlanNode[]> l, QueryPlanNode from) {
+        for (QueryPlanNode to : from.getDestinations()) {
+            l.add(new QueryPlanNode[]{from, to});
+            findEdges(l, to);
+        }
+    }
+
+    /**
+     * Returns the configuration where all edges are directed away from the
+     * given node
+     */
+    private BitSet rootedAt(QueryPlanNode root) {
+        Map<QueryPlanNode, List<Integer>> adjacent = new HashMap<>();
+        for (int i = 0; i < edgeFrom.length; i++) {
+            adjacent.computeIfAbsent(edgeFrom[i], k -> new ArrayList<>()).add(i);
+            adjacent.computeIfAbsent(edgeTo[i], k -> new ArrayList<>()).add(i);
+        }
+        BitSet config = new BitSet(edgeFrom.length);
+        Set<QueryPlanNode> seen = new HashSet<>();
+        Deque<QueryPlanNode> queue = new ArrayDeque<>();
+        queue.add(root);
+        seen.add(root);
+        while (!queue.isEmpty()) {
+            QueryPlanNode node = queue.poll();
+            List<Integer> edges = adjacent.get(node);
+            if (edges != null) {
+                for (Integer i : edges) {
+                    QueryPlanNode other = edgeFrom[i] == node ? edgeTo[i] : edgeFrom[i];
+                    if (seen.add(other)) {
+                        // Edge must be directed from node to other
+                        config.set(i, edgeTo[i] == node);
+                        queue.add(other);
+                    }
+                }
+            }
+        }
+        return config;
+    }
+
+    @Override
+    public boolean next() {
+        if (bruteForce != null) {
+            return bruteForce.next();
+        }
+        lastScore = null;
+        if (done) {
+            return false;
+        }
+        if (last == null && iterations == 0) {
+            // Query plan is in its initial state
+            evaluate(new BitSet(), initialScoreKnown ? initialScore : scorer.score(qp));
+        }
+        while (iterations < budget) {
+            BitSet next = candidates.poll();
+            if (next == null) {
+                if (!nextLocalSearchStep()) {
+                    break;
+                }
+                continue;
+            }
+            if (visited.add(next)) {
+                configure(next);
+                last = next;
+                iterations++;
+                lastScore = scorer.score(qp);
+                evaluate(next, lastScore);
+                return true;
+            }
+        }
+        LOGGER.debug("Cost based iteration completed after {} plans, best score {}", iterations, bestScore);
+        last = null;
+        done = true;
+        configure(new BitSet());
+        return false;
+    }
+
+    @Override
+    public Comparable getScore() {
+        return lastScore;
+    }
+
+    /**
+     * Records the score of the plan for the configuration
+     */
+    private void evaluate(BitSet config, Comparable score) {
+        if (score != null && (bestScore == null || score.compareTo(bestScore) < 0)) {
+            best = config;
+            bestScore = score;
+        }
+    }
+
+    /**
+     * Moves to the best plan found so far, and adds the plans obtained by
+     * flipping one edge of it to the candidates. Returns false if there is
+     * no better plan to move to.
+     */
+    private boolean nextLocalSearchStep() {
+        if (best == null || best == center) {
+            return false;
+        }
+        center = best;
+        for (int i = 0; i < edgeFrom.length; i++) {
+            BitSet neighbor = (BitSet) center.clone();
+            neighbor.flip(i);
+            candidates.add(neighbor);
+        }
+        return true;
+    }
+
+    private void configure(BitSet config) {
+        for (int i = 0; i < edgeFrom.length; i++) {
+            if (current.get(i) != config.get(i)) {
+                qp.flip(edgeFrom[i], edgeTo[i]);
+            }
+        }
+        current = (BitSet) config.clone();
+    }
+
+    @Override
+    public String toString() {
+        return bruteForce != null ? bruteForce.toString() : String.valueOf(current);
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.crud;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import com.redhat.lightblue.metadata.EntityInfo;
+import com.redhat.lightblue.metadata.EntityMetadata;
+import com.redhat.lightblue.metadata.Metadata;
+import com.redhat.lightblue.metadata.MetadataListener;
+import com.redhat.lightblue.util.metrics.RequestMetrics;
+
+/**
+ * Base class for the LRU caches of values built from entity metadata. Keeps
+ * the entries in access order, evicting the least recently used entry when
+ * there are more than maxSize entries, and counts hits and misses.
+ *
+ * Entries are keyed by entity names and versions, not by metadata
+ * instances, so they are shared by metadata implementations that parse the
+ * metadata for every call. Subclasses decide which entries contain an
+ * entity. Those entries are removed when the cache is notified of a change
+ * to that entity as a {@link MetadataListener}. Changes made through
+ * another process are not notified, so entries also expire after a given
+ * time.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public abstract class AbstractEntityCache<K, V> implements MetadataListener {
+
+    private final String cacheName;
+    private final int maxSize;
+    private final long ttlMS;
+    private final Map<K, Stamped<V>> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static final class Stamped<V> {
+        private final V value;
+        private final long created;
+
+        Stamped(V value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+
+    /**
+     * @param cacheName The cache name used for hit/miss metrics
+     * @param maxSize Maximum number of entries. If 0 or less, caching is
+     * disabled.
+     * @param ttlMS Time in milliseconds an entry is kept. If 0 or less,
+     * entries don't expire.
+     */
+    protected AbstractEntityCache(String cacheName, final int maxSize, long ttlMS) {
+        this.cacheName = cacheName;
+        this.maxSize = maxSize;
+        this.ttlMS = ttlMS;
+        this.cache = new LinkedHashMap<K, Stamped<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Stamped<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns if the entry with the given key and value contains the entity
+     */
+    protected abstract boolean containsEntity(K key, V value, String entityName);
+
+    /**
+     * Returns if caching is enabled
+     */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Returns the value for the key, or null if there isn't one or if it
+     * expired. Does not count a hit or miss.
+     */
+    protected V getEntry(K key) {
+        synchronized (cache) {
+            return current(key, System.currentTimeMillis());
+        }
+    }
+
+    protected void putEntry(K key, V value) {
+        synchronized (cache) {
+            cache.put(key, new Stamped<>(value, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Computes the value for the key while holding the cache lock, as in
+     * {@link Map#compute}. The function gets null if the entry expired. A
+     * value computed from an existing entry expires with that entry.
+     */
+    protected V computeEntry(K key, BiFunction<? super K, ? super V, ? extends V> fn) {
+        synchronized (cache) {
+            long now = System.currentTimeMillis();
+            Stamped<V> old = cache.get(key);
+            if (old != null && expired(old, now)) {
+                old = null;
+            }
+            V value = fn.apply(key, old == null ? null : old.value);
+            if (value == null) {
+                cache.remove(key);
+            } else {
+                cache.put(key, new Stamped<>(value, old == null ? now : old.created));
+            }
+            return value;
+        }
+    }
+
+    private V current(K key, long now) {
+        Stamped<V> s = cache.get(key);
+        if (s == null) {
+            return null;
+        }
+        if (expired(s, now)) {
+            cache.remove(key);
+            return null;
+        }
+        return s.value;
+    }
+
+    private boolean expired(Stamped<V> s, long now) {
+        return ttlMS > 0 && s.created + ttlMS <= now;
+    }
+
+    /**
+     * Counts a hit, and records it in the given metrics
+     */
+    protected void hit(RequestMetrics metrics) {
+        hits.incrementAndGet();
+        metrics.markCacheHit(cacheName);
+    }
+
+    /**
+     * Counts a miss, and records it in the given metrics
+     */
+    protected void miss(RequestMetrics metrics) {
+        misses.incrementAndGet();
+        metrics.markCacheMiss(cacheName);
+    }
+
+    /**
+     * Removes all entries containing the given entity
+     */
+    public void invalidate(String entityName) {
+        synchronized (cache) {
+            cache.entrySet().removeIf(e -> containsEntity(e.getKey(), e.getValue().value, entityName));
+        }
+    }
+
+    /**
+     * Removes all entries
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTTLMS() {
+        return ttlMS;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public void beforeCreateNewSchema(Metadata m, EntityMetadata md) {
+    }
+
+    @Override
+    public void afterCreateNewSchema(Metadata m, EntityMetadata md) {
+        invalidate(md.getName());
+    }
+
+    @Override
+    public void beforeUpdateEntityInfo(Metadata m, EntityInfo ei, boolean newEntity) {
+    }
+
+    @Override
+    public void afterUpdateEntityInfo(Metadata m, EntityInfo ei, boolean newEntity) {
+        invalidate(ei.getName());
+    }
+}
@@ -79,7 +79,7 @@ public abstract class CRUDOperationContext implements MetadataResolver, Serializ
         if(docs!=null) {
         	setInputDocuments(docs.stream().map(x->new DocCtx(x)).collect(Collectors.toList()));
         }
-        this.hookManager = new HookManager(factory.getHookResolver(), factory.getNodeFactory());
+        this.hookManager = new HookManager(factory.getHookResolver(), factory.getNodeFactory(), factory::getAsyncHookDispatcher);
         this.callerRoles = new HashSet<>();
         this.executionOptions = eo;
     }
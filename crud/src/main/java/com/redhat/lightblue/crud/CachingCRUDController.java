@@ -0,0 +1,820 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.crud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import com.redhat.lightblue.ResultMetadata;
+import com.redhat.lightblue.extensions.Extension;
+import com.redhat.lightblue.extensions.ExtensionSupport;
+import com.redhat.lightblue.metadata.DocIdExtractor;
+import com.redhat.lightblue.metadata.EntityInfo;
+import com.redhat.lightblue.metadata.EntityMetadata;
+import com.redhat.lightblue.metadata.EntitySchema;
+import com.redhat.lightblue.metadata.Metadata;
+import com.redhat.lightblue.metadata.MetadataListener;
+import com.redhat.lightblue.metadata.PredefinedFields;
+import com.redhat.lightblue.metadata.Type;
+import com.redhat.lightblue.query.BinaryComparisonOperator;
+import com.redhat.lightblue.query.NaryLogicalExpression;
+import com.redhat.lightblue.query.NaryLogicalOperator;
+import com.redhat.lightblue.query.NaryRelationalOperator;
+import com.redhat.lightblue.query.NaryValueRelationalExpression;
+import com.redhat.lightblue.query.Projection;
+import com.redhat.lightblue.query.QueryExpression;
+import com.redhat.lightblue.query.Sort;
+import com.redhat.lightblue.query.UpdateExpression;
+import com.redhat.lightblue.query.Value;
+import com.redhat.lightblue.query.ValueComparisonExpression;
+import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.JsonDoc;
+import com.redhat.lightblue.util.Path;
+import com.redhat.lightblue.util.metrics.RequestMetrics;
+
+/**
+ * A CRUD controller that wraps another controller, and caches the find
+ * results of cacheable entities.
+ *
+ * An entity is cacheable if its entity info has the property
+ * <code>"cacheable": true</code>. Finds of other entities, and all
+ * writes, are passed to the wrapped controller.
+ *
+ * Two caches are kept, both keyed by entity name, entity version, caller
+ * roles, and projection:
+ * <ul>
+ * <li>Find results, additionally keyed by query, sort, and range. Results
+ * with more than a configured number of documents are not cached.</li>
+ * <li>Documents, additionally keyed by document identity. Every cached
+ * result document that contains its identity fields is added to this
+ * cache. A find whose query only compares the identity fields with values
+ * ($eq, or $in for a single identity field), without sort or range, is
+ * answered from this cache if all the requested documents are there.</li>
+ * </ul>
+ *
+ * Both caches are {@link AbstractEntityCache}s. Entries expire after a
+ * configured time, and the least recently used entries are evicted when the
+ * caches are full. All entries of an entity
+ * are removed when that entity is written through this controller, or when
+ * its metadata changes. Writes through other processes are only seen after
+ * the entries expire. Entries are only used for the same entity schema
+ * instance they were built for.
+ *
+ * Cached documents are copied in and out of the cache, so the returned
+ * documents can be modified freely.
+ *
+ * Explain requests are passed to the wrapped controller. If it does not
+ * support explain, an error is added to the operation context.
+ *
+ * The controller of a backend is only wrapped if its controller
+ * configuration has <code>"documentCache": true</code>.
+ */
+public class CachingCRUDController implements CRUDController, ExplainQuerySupport, ExtensionSupport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingCRUDController.class);
+
+    /**
+     * The entity info property that marks an entity cacheable
+     */
+    public static final String PROPERTY_CACHEABLE = "cacheable";
+
+    /**
+     * The cache name used for find result hit/miss metrics
+     */
+    public static final String RESULT_CACHE_NAME = "findResult";
+
+    /**
+     * The cache name used for document hit/miss metrics
+     */
+    public static final String DOCUMENT_CACHE_NAME = "document";
+
+    private final CRUDController delegate;
+    private final int maxResultSize;
+
+    private final ResultCache results;
+    private final DocumentCache documents;
+
+    /**
+     * Incremented every time the entries of an entity are removed, so a find
+     * that started before a write does not cache its result after the write.
+     * Storing a result and removing entries are serialized by this lock.
+     */
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private final Map<String, IdInfo> idInfo = new ConcurrentHashMap<>();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private static final class ResultCache extends AbstractEntityCache<ResultKey, CachedResult> {
+        ResultCache(int maxSize, long ttlMS) {
+            super(RESULT_CACHE_NAME, maxSize, ttlMS);
+        }
+
+        @Override
+        protected boolean containsEntity(ResultKey key, CachedResult value, String entityName) {
+            return key.entityName.equals(entityName);
+        }
+    }
+
+    private static final class DocumentCache extends AbstractEntityCache<DocKey, CachedDocEntry> {
+        DocumentCache(int maxSize, long ttlMS) {
+            super(DOCUMENT_CACHE_NAME, maxSize, ttlMS);
+        }
+
+        @Override
+        protected boolean containsEntity(DocKey key, CachedDocEntry value, String entityName) {
+            return key.entityName.equals(entityName);
+        }
+    }
+
+    private static final class ResultKey {
+        private final String entityName;
+        private final String version;
+        private final Set<String> roles;
+        private final String query;
+        private final String projection;
+        private final String sort;
+        private final Long from;
+        private final Long to;
+
+        ResultKey(EntityMetadata md,
+                  Set<String> roles,
+                  QueryExpression query,
+                  Projection projection,
+                  Sort sort,
+                  Long from,
+                  Long to) {
+            this.entityName = md.getName();
+            this.version = md.getVersion() == null ? null : md.getVersion().getValue();
+            this.roles = roleSet(roles);
+            this.query = toString(query == null ? null : query.toJson());
+            this.projection = toString(projection == null ? null : projection.toJson());
+            this.sort = toString(sort == null ? null : sort.toJson());
+            this.from = from;
+            this.to = to;
+        }
+
+        private static String toString(JsonNode node) {
+            return node == null ? null : node.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof ResultKey) {
+                ResultKey k = (ResultKey) o;
+                return entityName.equals(k.entityName)
+                        && eq(version, k.version)
+                        && roles.equals(k.roles)
+                        && eq(query, k.query)
+                        && eq(projection, k.projection)
+                        && eq(sort, k.sort)
+                        && eq(from, k.from)
+                        && eq(to, k.to);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(entityName, version, roles, query, projection, sort, from, to);
+        }
+
+        @Override
+        public String toString() {
+            return entityName + ":" + version + roles + query;
+        }
+    }
+
+    private static final class DocKey {
+        private final String entityName;
+        private final String version;
+        private final Set<String> roles;
+        private final String projection;
+        private final List<String> id;
+
+        DocKey(ResultKey rkey, List<String> id) {
+            this.entityName = rkey.entityName;
+            this.version = rkey.version;
+            this.roles = rkey.roles;
+            this.projection = rkey.projection;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof DocKey) {
+                DocKey k = (DocKey) o;
+                return entityName.equals(k.entityName)
+                        && eq(version, k.version)
+                        && roles.equals(k.roles)
+                        && eq(projection, k.projection)
+                        && id.equals(k.id);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(entityName, version, roles, projection, id);
+        }
+
+        @Override
+        public String toString() {
+            return entityName + ":" + version + roles + id;
+        }
+    }
+
+    /**
+     * A copy of a document returned from the wrapped controller
+     */
+    private static final class CachedDoc {
+        private final JsonDoc doc;
+        /**
+         * If false, the output document is the document itself. Otherwise
+         * the output document is outputDoc, which can be null.
+         */
+        private final boolean hasOutputDoc;
+        private final JsonDoc outputDoc;
+        private final String documentVersion;
+        private final boolean hasResultMetadata;
+
+        CachedDoc(DocCtx d) {
+            doc = d.copy();
+            JsonDoc out = d.getOutputDocument();
+            hasOutputDoc = out != d;
+            outputDoc = hasOutputDoc && out != null ? out.copy() : null;
+            ResultMetadata rmd = d.getResultMetadata();
+            hasResultMetadata = rmd != null;
+            documentVersion = rmd == null ? null : rmd.getDocumentVersion();
+        }
+
+        DocCtx newDocCtx() {
+            ResultMetadata rmd = null;
+            if (hasResultMetadata) {
+                rmd = new ResultMetadata();
+                rmd.setDocumentVersion(documentVersion);
+            }
+            DocCtx d = new DocCtx(doc.copy(), rmd);
+            if (hasOutputDoc) {
+                d.setOutputDocument(outputDoc == null ? null : outputDoc.copy());
+            }
+            d.setCRUDOperationPerformed(CRUDOperation.FIND);
+            return d;
+        }
+
+        JsonDoc getOutputDocument() {
+            return hasOutputDoc ? outputDoc : doc;
+        }
+    }
+
+    /**
+     * A stream of documents already read from a stream, followed by the
+     * rest of that stream
+     */
+    private static final class PrefixDocumentStream implements DocumentStream<DocCtx> {
+        private final List<Consumer<DocCtx>> listeners = new ArrayList<>();
+        private final Iterator<DocCtx> prefix;
+        private final DocumentStream<DocCtx> rest;
+
+        PrefixDocumentStream(List<DocCtx> prefix, DocumentStream<DocCtx> rest) {
+            this.prefix = prefix.iterator();
+            this.rest = rest;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return prefix.hasNext() || rest.hasNext();
+        }
+
+        @Override
+        public DocCtx next() {
+            DocCtx d = prefix.hasNext() ? prefix.next() : rest.next();
+            for (Consumer<DocCtx> c : listeners) {
+                c.accept(d);
+            }
+            return d;
+        }
+
+        @Override
+        public void close() {
+            rest.close();
+        }
+
+        @Override
+        public void addListener(Consumer<DocCtx> listener) {
+            listeners.add(listener);
+        }
+    }
+
+    private static final class CachedResult {
+        private final EntitySchema schema;
+        private final long size;
+        private final List<CachedDoc> docs;
+
+        CachedResult(EntitySchema schema, long size, List<CachedDoc> docs) {
+            this.schema = schema;
+            this.size = size;
+            this.docs = docs;
+        }
+    }
+
+    private static final class CachedDocEntry {
+        private final EntitySchema schema;
+        private final CachedDoc doc;
+
+        CachedDocEntry(EntitySchema schema, CachedDoc doc) {
+            this.schema = schema;
+            this.doc = doc;
+        }
+    }
+
+    /**
+     * The identity fields of an entity schema, without objectType
+     */
+    private static final class IdInfo {
+        private final EntitySchema schema;
+        private final DocIdExtractor extractor;
+        private final List<Path> fields = new ArrayList<>();
+        private final List<Type> types = new ArrayList<>();
+
+        IdInfo(EntityMetadata md) {
+            schema = md.getEntitySchema();
+            extractor = new DocIdExtractor(md);
+            for (Path p : extractor.getIdentityFields()) {
+                if (!p.equals(PredefinedFields.OBJECTTYPE_PATH)) {
+                    fields.add(p);
+                    types.add(md.resolve(p).getType());
+                }
+            }
+        }
+
+        /**
+         * Returns the identity field values of a document as strings, or
+         * null if the document doesn't have all of them
+         */
+        List<String> getId(JsonDoc doc) {
+            List<String> id = new ArrayList<>(fields.size());
+            for (Path p : fields) {
+                JsonNode node = doc.get(p);
+                if (node == null || node.isNull() || node.isContainerNode()) {
+                    return null;
+                }
+                id.add(node.asText());
+            }
+            return id;
+        }
+
+        /**
+         * Returns the query value of the identity field at index ix as a string
+         */
+        String getId(int ix, Value value) {
+            Type t = types.get(ix);
+            JsonNode node = t.toJson(JsonNodeFactory.instance, t.cast(value.getValue()));
+            return node == null || node.isNull() ? null : node.asText();
+        }
+    }
+
+    /**
+     * Constructs a caching controller
+     *
+     * @param delegate The wrapped controller
+     * @param maxSize Maximum number of find results, and separately, the
+     * maximum number of documents in the cache. If 0 or less, caching is
+     * disabled.
+     * @param ttlMS Time in milliseconds an entry is kept. If 0 or less,
+     * entries don't expire.
+     * @param maxResultSize Find results with more documents than this are
+     * not cached
+     */
+    public CachingCRUDController(CRUDController delegate, int maxSize, long ttlMS, int maxResultSize) {
+        this.delegate = delegate;
+        this.maxResultSize = maxResultSize;
+        this.results = new ResultCache(maxSize, ttlMS);
+        this.documents = new DocumentCache(maxSize, ttlMS);
+    }
+
+    /**
+     * Returns the wrapped controller
+     */
+    public CRUDController getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns if the finds of the entity are cached
+     */
+    public static boolean isCacheable(EntityMetadata md) {
+        EntityInfo info = md.getEntityInfo();
+        return info != null && Boolean.TRUE.equals(info.getProperties().get(PROPERTY_CACHEABLE));
+    }
+
+    @Override
+    public CRUDInsertionResponse insert(CRUDOperationContext ctx,
+                                        Projection projection) {
+        try {
+            return delegate.insert(ctx, projection);
+        } finally {
+            afterWrite(ctx);
+        }
+    }
+
+    @Override
+    public CRUDSaveResponse save(CRUDOperationContext ctx,
+                                 boolean upsert,
+                                 Projection projection) {
+        try {
+            return delegate.save(ctx, upsert, projection);
+        } finally {
+            afterWrite(ctx);
+        }
+    }
+
+    @Override
+    public CRUDUpdateResponse update(CRUDOperationContext ctx,
+                                     QueryExpression query,
+                                     UpdateExpression update,
+                                     Projection projection) {
+        try {
+            return delegate.update(ctx, query, update, projection);
+        } finally {
+            afterWrite(ctx);
+        }
+    }
+
+    @Override
+    public CRUDDeleteResponse delete(CRUDOperationContext ctx,
+                                     QueryExpression query) {
+        try {
+            return delegate.delete(ctx, query);
+        } finally {
+            afterWrite(ctx);
+        }
+    }
+
+    @Override
+    public CRUDFindResponse find(CRUDOperationContext ctx,
+                                 QueryExpression query,
+                                 Projection projection,
+                                 Sort sort,
+                                 Long from,
+                                 Long to) {
+        EntityMetadata md = ctx.getEntityMetadata(ctx.getEntityName());
+        if (!results.isEnabled() || !isCacheable(md)) {
+            return delegate.find(ctx, query, projection, sort, from, to);
+        }
+        RequestMetrics metrics = ctx.getFactory().getRequestMetrics();
+        EntitySchema schema = md.getEntitySchema();
+        ResultKey key = new ResultKey(md, ctx.getCallerRoles(), query, projection, sort, from, to);
+        IdInfo ids = getIdInfo(md);
+
+        CachedResult result = results.getEntry(key);
+        if (result != null && result.schema == schema) {
+            LOGGER.debug("Find result cache hit for {}", key);
+            results.hit(metrics);
+            return replay(ctx, result.docs, result.size);
+        }
+        results.miss(metrics);
+
+        List<List<String>> lookup = sort == null && from == null && to == null ? getIdentityLookup(ids, query) : null;
+        if (lookup != null) {
+            List<CachedDoc> docs = getDocuments(key, lookup, schema);
+            if (docs != null) {
+                LOGGER.debug("Document cache hit for {}", key);
+                documents.hit(metrics);
+                return replay(ctx, docs, docs.size());
+            }
+            documents.miss(metrics);
+        }
+        misses.incrementAndGet();
+
+        long generation = getGeneration(md.getName()).get();
+        CRUDFindResponse response = delegate.find(ctx, query, projection, sort, from, to);
+        if (!ctx.hasErrors() && response.getSize() <= maxResultSize && ctx.getDocumentStream() != null) {
+            // Read the result up to maxResultSize documents. If there are
+            // more, the result is not cached, and the caller gets the read
+            // documents followed by the rest of the stream.
+            List<DocCtx> list = new ArrayList<>();
+            DocumentStream<DocCtx> stream = ctx.getDocumentStream();
+            boolean docErrors = false;
+            while (stream.hasNext() && list.size() <= maxResultSize) {
+                DocCtx d = stream.next();
+                docErrors |= d.hasErrors();
+                list.add(d);
+            }
+            if (list.size() > maxResultSize) {
+                LOGGER.debug("Result of {} has more than {} documents, not cached", key, maxResultSize);
+                ctx.setDocumentStream(new PrefixDocumentStream(list, stream));
+                return response;
+            }
+            stream.close();
+            ctx.setDocumentStream(new ListDocumentStream<>(list));
+            if (!docErrors) {
+                List<CachedDoc> docs = new ArrayList<>(list.size());
+                for (DocCtx d : list) {
+                    docs.add(new CachedDoc(d));
+                }
+                put(key, ids, new CachedResult(schema, response.getSize(), docs), generation);
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public void explain(CRUDOperationContext ctx,
+                        QueryExpression query,
+                        Projection projection,
+                        Sort sort,
+                        Long from,
+                        Long to,
+                        JsonDoc destDoc) {
+        if (delegate instanceof ExplainQuerySupport) {
+            ((ExplainQuerySupport) delegate).explain(ctx, query, projection, sort, from, to, destDoc);
+        } else {
+            ctx.addError(Error.get(CrudConstants.ERR_EXPLAIN_NOT_SUPPORTED, delegate.getClass().getName()));
+        }
+    }
+
+    @Override
+    public <E extends Extension> E getExtensionInstance(Class<? extends Extension> extensionClass) {
+        if (delegate instanceof ExtensionSupport) {
+            return ((ExtensionSupport) delegate).getExtensionInstance(extensionClass);
+        }
+        return null;
+    }
+
+    /**
+     * Returns a listener that removes the entries of an entity when its
+     * metadata changes, and passes the changes to the listener of the
+     * wrapped controller
+     */
+    @Override
+    public MetadataListener getMetadataListener() {
+        final MetadataListener listener = delegate.getMetadataListener();
+        return new MetadataListener() {
+            @Override
+            public void beforeCreateNewSchema(Metadata m, EntityMetadata md) {
+                if (listener != null) {
+                    listener.beforeCreateNewSchema(m, md);
+                }
+            }
+
+            @Override
+            public void afterCreateNewSchema(Metadata m, EntityMetadata md) {
+                invalidate(md.getName());
+                if (listener != null) {
+                    listener.afterCreateNewSchema(m, md);
+                }
+            }
+
+            @Override
+            public void beforeUpdateEntityInfo(Metadata m, EntityInfo ei, boolean newEntity) {
+                if (listener != null) {
+                    listener.beforeUpdateEntityInfo(m, ei, newEntity);
+                }
+            }
+
+            @Override
+            public void afterUpdateEntityInfo(Metadata m, EntityInfo ei, boolean newEntity) {
+                invalidate(ei.getName());
+                if (listener != null) {
+                    listener.afterUpdateEntityInfo(m, ei, newEntity);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void updatePredefinedFields(CRUDOperationContext ctx, JsonDoc doc) {
+        delegate.updatePredefinedFields(ctx, doc);
+    }
+
+    @Override
+    public CRUDHealth checkHealth() {
+        return delegate.checkHealth();
+    }
+
+    /**
+     * Removes all entries of the given entity
+     */
+    public void invalidate(String entityName) {
+        synchronized (writeLock) {
+            getGeneration(entityName).incrementAndGet();
+            results.invalidate(entityName);
+            documents.invalidate(entityName);
+        }
+        idInfo.remove(entityName);
+    }
+
+    /**
+     * Removes all entries
+     */
+    public void clear() {
+        synchronized (writeLock) {
+            for (AtomicLong g : generations.values()) {
+                g.incrementAndGet();
+            }
+            results.clear();
+            documents.clear();
+        }
+    }
+
+    /**
+     * Returns the number of cached find results
+     */
+    public int size() {
+        return results.size();
+    }
+
+    /**
+     * Returns the number of cached documents
+     */
+    public int getNumDocuments() {
+        return documents.size();
+    }
+
+    /**
+     * Returns the number of finds answered from the caches
+     */
+    public long getHits() {
+        return results.getHits() + documents.getHits();
+    }
+
+    /**
+     * Returns the number of finds of cacheable entities passed to the
+     * wrapped controller
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private void afterWrite(CRUDOperationContext ctx) {
+        EntityMetadata md = ctx.getEntityMetadata(ctx.getEntityName());
+        if (md != null && isCacheable(md)) {
+            LOGGER.debug("Removing cached entries of {}", md.getName());
+            invalidate(md.getName());
+        }
+    }
+
+    private AtomicLong getGeneration(String entityName) {
+        return generations.computeIfAbsent(entityName, k -> new AtomicLong());
+    }
+
+    private IdInfo getIdInfo(EntityMetadata md) {
+        IdInfo info = idInfo.get(md.getName());
+        if (info == null || info.schema != md.getEntitySchema()) {
+            info = new IdInfo(md);
+            idInfo.put(md.getName(), info);
+        }
+        return info;
+    }
+
+    /**
+     * Returns the cached documents with the given identities in the order
+     * of the identities, or null if any of them is not cached
+     */
+    private List<CachedDoc> getDocuments(ResultKey key, List<List<String>> lookup, EntitySchema schema) {
+        List<CachedDoc> docs = new ArrayList<>(lookup.size());
+        for (List<String> id : lookup) {
+            CachedDocEntry entry = documents.getEntry(new DocKey(key, id));
+            if (entry == null || entry.schema != schema) {
+                return null;
+            }
+            docs.add(entry.doc);
+        }
+        return docs;
+    }
+
+    /**
+     * Stores the result, and the documents of the result, unless the
+     * entity was written since the generation was read
+     */
+    private void put(ResultKey key, IdInfo ids, CachedResult result, long generation) {
+        synchronized (writeLock) {
+            if (getGeneration(key.entityName).get() == generation) {
+                results.putEntry(key, result);
+                for (CachedDoc doc : result.docs) {
+                    JsonDoc out = doc.getOutputDocument();
+                    List<String> id = out == null ? null : ids.getId(out);
+                    if (id != null) {
+                        documents.putEntry(new DocKey(key, id), new CachedDocEntry(result.schema, doc));
+                    }
+                }
+            }
+        }
+    }
+
+    private CRUDFindResponse replay(CRUDOperationContext ctx, List<CachedDoc> docs, long size) {
+        List<DocCtx> list = new ArrayList<>(docs.size());
+        for (CachedDoc d : docs) {
+            list.add(d.newDocCtx());
+        }
+        ctx.setDocumentStream(new ListDocumentStream<>(list));
+        CRUDFindResponse response = new CRUDFindResponse();
+        response.setSize(size);
+        return response;
+    }
+
+    /**
+     * If the query only compares the identity fields with values, returns
+     * the identities of the requested documents. Otherwise, returns null.
+     */
+    private static List<List<String>> getIdentityLookup(IdInfo ids, QueryExpression query) {
+        try {
+            int n = ids.fields.size();
+            if (n == 1) {
+                if (query instanceof ValueComparisonExpression) {
+                    String id = getIdentityValue(ids, 0, (ValueComparisonExpression) query);
+                    return id == null ? null : Collections.singletonList(Collections.singletonList(id));
+                } else if (query instanceof NaryValueRelationalExpression) {
+                    NaryValueRelationalExpression q = (NaryValueRelationalExpression) query;
+                    if (q.getOp() == NaryRelationalOperator._in
+                            && q.getField().equals(ids.fields.get(0))
+                            && !q.getValues().isEmpty()) {
+                        List<List<String>> ret = new ArrayList<>(q.getValues().size());
+                        for (Value v : q.getValues()) {
+                            String id = ids.getId(0, v);
+                            if (id == null) {
+                                return null;
+                            }
+                            List<String> l = Collections.singletonList(id);
+                            if (!ret.contains(l)) {
+                                ret.add(l);
+                            }
+                        }
+                        return ret;
+                    }
+                }
+            } else if (query instanceof NaryLogicalExpression
+                    && ((NaryLogicalExpression) query).getOp() == NaryLogicalOperator._and
+                    && ((NaryLogicalExpression) query).getQueries().size() == n) {
+                String[] values = new String[n];
+                for (QueryExpression q : ((NaryLogicalExpression) query).getQueries()) {
+                    if (!(q instanceof ValueComparisonExpression)) {
+                        return null;
+                    }
+                    int ix = ids.fields.indexOf(((ValueComparisonExpression) q).getField());
+                    if (ix < 0 || values[ix] != null) {
+                        return null;
+                    }
+                    values[ix] = getIdentityValue(ids, ix, (ValueComparisonExpression) q);
+                    if (values[ix] == null) {
+                        return null;
+                    }
+                }
+                List<String> l = new ArrayList<>(n);
+                Collections.addAll(l, values);
+                return Collections.singletonList(l);
+            }
+        } catch (RuntimeException e) {
+            // The value cannot be converted to the field type, let the back end deal with it
+            LOGGER.debug("Not an identity lookup:{}", e);
+        }
+        return null;
+    }
+
+    private static String getIdentityValue(IdInfo ids, int ix, ValueComparisonExpression q) {
+        if (q.getOp() == BinaryComparisonOperator._eq && q.getField().equals(ids.fields.get(ix))) {
+            return ids.getId(ix, q.getRvalue());
+        }
+        return null;
+    }
+
+    private static Set<String> roleSet(Set<String> roles) {
+        return roles == null ? Collections.emptySet() : Collections.unmodifiableSet(new TreeSet<>(roles));
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.crud;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+
+import com.redhat.lightblue.crud.validator.EnumChecker;
+import com.redhat.lightblue.crud.validator.MinMaxChecker;
+import com.redhat.lightblue.crud.validator.RequiredChecker;
+import com.redhat.lightblue.crud.validator.StringLengthChecker;
+import com.redhat.lightblue.metadata.EntityConstraint;
+import com.redhat.lightblue.metadata.EntityMetadata;
+import com.redhat.lightblue.metadata.Enum;
+import com.redhat.lightblue.metadata.Field;
+import com.redhat.lightblue.metadata.FieldConstraint;
+import com.redhat.lightblue.metadata.FieldCursor;
+import com.redhat.lightblue.metadata.FieldTreeNode;
+import com.redhat.lightblue.metadata.ResolvedReferenceField;
+import com.redhat.lightblue.metadata.SimpleArrayElement;
+import com.redhat.lightblue.metadata.constraints.EnumConstraint;
+import com.redhat.lightblue.metadata.constraints.MinMaxConstraint;
+import com.redhat.lightblue.metadata.constraints.RequiredConstraint;
+import com.redhat.lightblue.metadata.constraints.StringLengthConstraint;
+import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.JsonDoc;
+import com.redhat.lightblue.util.Path;
+import com.redhat.lightblue.util.Registry;
+
+/**
+ * The constraints of an entity, compiled into a flat list of checks.
+ *
+ * The plan is built by walking the entity metadata once. It contains the
+ * entity constraints and the fields that have constraints, with the
+ * constraint checkers already looked up from the registries. The checks of
+ * the default required, minimum/maximum, string length and enum constraints
+ * are replaced with equivalent checks that have their parameters resolved
+ * in advance. A plan is immutable, and can be shared between validators of
+ * the same entity metadata.
+ */
+public class ConstraintPlan {
+
+    private final EntityMetadata md;
+    private final List<EntityCheck> entityChecks;
+    private final List<FieldChecks> fieldChecks;
+    private final boolean threadSafe;
+
+    /**
+     * An entity constraint and its checker. The checker is null if there
+     * isn't a checker for the constraint type.
+     */
+    public static final class EntityCheck {
+        private final EntityConstraint constraint;
+        private final EntityConstraintChecker checker;
+
+        private EntityCheck(EntityConstraint constraint, EntityConstraintChecker checker) {
+            this.constraint = constraint;
+            this.checker = checker;
+        }
+
+        public EntityConstraint getConstraint() {
+            return constraint;
+        }
+
+        public EntityConstraintChecker getChecker() {
+            return checker;
+        }
+    }
+
+    /**
+     * A field constraint and its checker. The checker is null if there isn't
+     * a checker for the constraint type.
+     */
+    public static final class FieldCheck {
+        private final FieldConstraint constraint;
+        private final FieldConstraintChecker checker;
+
+        private FieldCheck(FieldConstraint constraint, FieldConstraintChecker checker) {
+            this.constraint = constraint;
+            this.checker = checker;
+        }
+
+        public FieldConstraint getConstraint() {
+            return constraint;
+        }
+
+        public FieldConstraintChecker getChecker() {
+            return checker;
+        }
+    }
+
+    /**
+     * The constraint checks of a field
+     */
+    public static final class FieldChecks {
+        private final FieldTreeNode field;
+        private final Path path;
+        private final String pathString;
+        private final List<FieldCheck> checks;
+        private final boolean hasValueChecks;
+
+        private FieldChecks(FieldTreeNode field, Path path, List<FieldCheck> checks) {
+            this.field = field;
+            this.path = path;
+            this.pathString = path.toString();
+            this.checks = Collections.unmodifiableList(checks);
+            boolean v = false;
+            for (FieldCheck c : checks) {
+                if (c.checker instanceof FieldConstraintValueChecker) {
+                    v = true;
+                }
+            }
+            this.hasValueChecks = v;
+        }
+
+        public FieldTreeNode getField() {
+            return field;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public String getPathString() {
+            return pathString;
+        }
+
+        public List<FieldCheck> getChecks() {
+            return checks;
+        }
+
+        /**
+         * Returns true if one of the checks is a value checker, so the
+         * field values have to be retrieved from the document
+         */
+        public boolean hasValueChecks() {
+            return hasValueChecks;
+        }
+    }
+
+    /**
+     * Compiles the constraints of the entity
+     *
+     * @param md The entity metadata
+     * @param fRegistry Field constraint checkers
+     * @param eRegistry Entity constraint checkers
+     */
+    public ConstraintPlan(EntityMetadata md,
+                          Registry<String, FieldConstraintChecker> fRegistry,
+                          Registry<String, EntityConstraintChecker> eRegistry) {
+        this.md = md;
+        List<EntityCheck> eList = new ArrayList<>();
+        if (md.getConstraints() != null) {
+            for (EntityConstraint x : md.getConstraints()) {
+                eList.add(new EntityCheck(x, eRegistry.find(x.getType())));
+            }
+        }
+        entityChecks = Collections.unmodifiableList(eList);
+
+        List<FieldChecks> fList = new ArrayList<>();
+        FieldCursor cursor = md.getFieldCursor();
+        Path skip = null;
+        while (cursor.next()) {
+            FieldTreeNode node = cursor.getCurrentNode();
+            Path path = cursor.getCurrentPath();
+            // Skip any fields reached by crossing entity boundaries
+            if (skip != null) {
+                if (!path.prefix(skip.numSegments()).equals(skip)) {
+                    skip = null;
+                }
+            }
+            if (skip == null) {
+                if (node instanceof ResolvedReferenceField) {
+                    skip = node.getFullPath();
+                }
+            }
+            if (skip == null) {
+                List<FieldConstraint> constraints = null;
+                if (node instanceof Field) {
+                    constraints = ((Field) node).getConstraints();
+                } else if (node instanceof SimpleArrayElement) {
+                    constraints = ((SimpleArrayElement) node).getConstraints();
+                }
+                if (constraints != null && !constraints.isEmpty()) {
+                    List<FieldCheck> checks = new ArrayList<>(constraints.size());
+                    for (FieldConstraint x : constraints) {
+                        FieldConstraintChecker checker = fRegistry.find(x.getType());
+                        if (checker == null) {
+                            checks.add(new FieldCheck(x, null));
+                        } else {
+                            checker = compile(x, checker);
+                            if (checker != null) {
+                                checks.add(new FieldCheck(x, checker));
+                            }
+                        }
+                    }
+                    if (!checks.isEmpty()) {
+                        fList.add(new FieldChecks(node, path, checks));
+                    }
+                }
+            }
+        }
+        fieldChecks = Collections.unmodifiableList(fList);
+
+        boolean safe = true;
+        for (EntityCheck x : entityChecks) {
+            if (x.checker != null && !x.checker.isThreadSafe()) {
+                safe = false;
+            }
+        }
+        for (FieldChecks x : fieldChecks) {
+            for (FieldCheck c : x.checks) {
+                if (c.checker != null && !c.checker.isThreadSafe()) {
+                    safe = false;
+                }
+            }
+        }
+        threadSafe = safe;
+    }
+
+    public EntityMetadata getEntityMetadata() {
+        return md;
+    }
+
+    public List<EntityCheck> getEntityChecks() {
+        return entityChecks;
+    }
+
+    public List<FieldChecks> getFieldChecks() {
+        return fieldChecks;
+    }
+
+    /**
+     * Returns true if all the checkers of the plan are thread safe, so
+     * documents can be validated in parallel
+     */
+    public boolean isThreadSafe() {
+        return threadSafe;
+    }
+
+    /**
+     * Returns the checker to use for the constraint. Default checkers of
+     * the common constraints are replaced with precompiled checks. Returns
+     * null if the constraint never fails.
+     */
+    private FieldConstraintChecker compile(FieldConstraint constraint, FieldConstraintChecker checker) {
+        Class<?> clazz = checker.getClass();
+        if (clazz == RequiredChecker.class) {
+            return ((RequiredConstraint) constraint).getValue() ? checker : null;
+        } else if (clazz == MinMaxChecker.class) {
+            MinMaxConstraint c = (MinMaxConstraint) constraint;
+            return new MinMaxCheck(MinMaxConstraint.MIN.equals(c.getType()), c.getValue());
+        } else if (clazz == StringLengthChecker.class) {
+            StringLengthConstraint c = (StringLengthConstraint) constraint;
+            return new StringLengthCheck(StringLengthConstraint.MINLENGTH.equals(c.getType()), c.getValue());
+        } else if (clazz == EnumChecker.class) {
+            String name = ((EnumConstraint) constraint).getName();
+            Set<String> values = null;
+            if (name != null && md.getEntityInfo().getEnums() != null) {
+                Enum e = md.getEntityInfo().getEnums().getEnum(name);
+                if (e != null) {
+                    values = e.getValues();
+                }
+            }
+            return new EnumCheck(values);
+        }
+        return checker;
+    }
+
+    /**
+     * Equivalent of MinMaxChecker, with the bound type resolved
+     */
+    private static final class MinMaxCheck implements FieldConstraintValueChecker {
+        private final boolean min;
+        private final Number value;
+        private final int kind;
+
+        MinMaxCheck(boolean min, Number value) {
+            this.min = min;
+            this.value = value;
+            if (value instanceof Byte
+                    || value instanceof Short
+                    || value instanceof Integer
+                    || value instanceof Long) {
+                kind = 0;
+            } else if (value instanceof Float
+                    || value instanceof Double) {
+                kind = 1;
+            } else if (value instanceof BigInteger) {
+                kind = 2;
+            } else {
+                kind = 3;
+            }
+        }
+
+        @Override
+        public void checkConstraint(ConstraintValidator validator,
+                                    FieldTreeNode fieldMetadata,
+                                    Path fieldMetadataPath,
+                                    FieldConstraint constraint,
+                                    Path valuePath,
+                                    JsonDoc doc,
+                                    JsonNode fieldValue) {
+            if (!(fieldValue instanceof NullNode)) {
+                int cmp;
+                switch (kind) {
+                    case 0:
+                        cmp = Long.compare(fieldValue.asLong(), value.longValue());
+                        break;
+                    case 1:
+                        double d = fieldValue.asDouble();
+                        cmp = d < value.doubleValue() ? -1 : d > value.doubleValue() ? 1 : 0;
+                        break;
+                    case 2:
+                        cmp = fieldValue.bigIntegerValue().compareTo((BigInteger) value);
+                        break;
+                    default:
+                        cmp = fieldValue.decimalValue().compareTo((BigDecimal) value);
+                        break;
+                }
+                if (min) {
+                    if (cmp < 0) {
+                        validator.addDocError(Error.get(CrudConstants.ERR_VALUE_TOO_SMALL, fieldValue.asText()));
+                    }
+                } else if (cmp > 0) {
+                    validator.addDocError(Error.get(CrudConstants.ERR_VALUE_TOO_LARGE, fieldValue.asText()));
+                }
+            }
+        }
+
+        @Override
+        public boolean isThreadSafe() {
+            return true;
+        }
+    }
+
+    /**
+     * Equivalent of StringLengthChecker
+     */
+    private static final class StringLengthCheck implements FieldConstraintValueChecker {
+        private final boolean min;
+        private final int value;
+
+        StringLengthCheck(boolean min, int value) {
+            this.min = min;
+            this.value = value;
+        }
+
+        @Override
+        public void checkConstraint(ConstraintValidator validator,
+                                    FieldTreeNode fieldMetadata,
+                                    Path fieldMetadataPath,
+                                    FieldConstraint constraint,
+                                    Path valuePath,
+                                    JsonDoc doc,
+                                    JsonNode fieldValue) {
+            if (!(fieldValue instanceof NullNode)) {
+                String s = fieldValue.asText();
+                int len = s.length();
+                if (min) {
+                    if (len < value) {
+                        validator.addDocError(Error.get(CrudConstants.ERR_TOO_SHORT, s));
+                    }
+                } else if (len > value) {
+                    validator.addDocError(Error.get(CrudConstants.ERR_TOO_LONG, s));
+                }
+            }
+        }
+
+        @Override
+        public boolean isThreadSafe() {
+            return true;
+        }
+    }
+
+    /**
+     * Equivalent of EnumChecker, with the enum values resolved
+     */
+    private static final class EnumCheck implements FieldConstraintValueChecker {
+        private final Set<String> values;
+
+        EnumCheck(Set<String> values) {
+            this.values = values;
+        }
+
+        @Override
+        public void checkConstraint(ConstraintValidator validator,
+                                    FieldTreeNode fieldMetadata,
+                                    Path fieldMetadataPath,
+                                    FieldConstraint constraint,
+                                    Path valuePath,
+                                    JsonDoc doc,
+                                    JsonNode fieldValue) {
+            if (fieldValue != null && !(fieldValue instanceof NullNode)) {
+                String s = fieldValue.asText();
+                if (values == null || !values.contains(s)) {
+                    validator.addDocError(Error.get(CrudConstants.ERR_INVALID_ENUM, s));
+                }
+            }
+        }
+
+        @Override
+        public boolean isThreadSafe() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.crud;
+
+import java.util.function.Supplier;
+
+import com.redhat.lightblue.metadata.EntityMetadata;
+import com.redhat.lightblue.util.metrics.RequestMetrics;
+
+/**
+ * An LRU cache of compiled constraints, keyed by entity name and version.
+ *
+ * A plan is shared between metadata instances parsed for the same entity
+ * version. It is evicted when the entity changes, and expires after the
+ * given time.
+ */
+public class ConstraintPlanCache extends AbstractEntityCache<String, ConstraintPlan> {
+
+    /**
+     * The cache name used for hit/miss metrics
+     */
+    public static final String CACHE_NAME = "constraintPlan";
+
+    /**
+     * Constructs a constraint plan cache whose plans don't expire
+     *
+     * @param maxSize Maximum number of entity versions in the cache. If 0 or
+     * less, caching is disabled.
+     */
+    public ConstraintPlanCache(int maxSize) {
+        this(maxSize, 0);
+    }
+
+    /**
+     * Constructs a constraint plan cache
+     *
+     * @param maxSize Maximum number of entity versions in the cache. If 0 or
+     * less, caching is disabled.
+     * @param ttlMS Time in milliseconds a plan is kept. If 0 or less, plans
+     * don't expire.
+     */
+    public ConstraintPlanCache(int maxSize, long ttlMS) {
+        super(CACHE_NAME, maxSize, ttlMS);
+    }
+
+    /**
+     * Returns the plan for the entity metadata, compiling it using the given
+     * supplier if there isn't one. Records a hit or miss in the given
+     * metrics.
+     */
+    public ConstraintPlan get(EntityMetadata md, RequestMetrics metrics, Supplier<ConstraintPlan> compile) {
+        if (!isEnabled()) {
+            return compile.get();
+        }
+        String key = getKey(md);
+        ConstraintPlan plan = getEntry(key);
+        if (plan != null) {
+            hit(metrics);
+            return plan;
+        }
+        miss(metrics);
+        // Compiled outside the lock. Concurrent compilations produce
+        // equivalent plans.
+        plan = compile.get();
+        putEntry(key, plan);
+        return plan;
+    }
+
+    @Override
+    protected boolean containsEntity(String key, ConstraintPlan plan, String entityName) {
+        return plan.getEntityMetadata().getName().equals(entityName);
+    }
+
+    private static String getKey(EntityMetadata md) {
+        return md.getName() + ":" + (md.getVersion() == null ? null : md.getVersion().getValue());
+    }
+}
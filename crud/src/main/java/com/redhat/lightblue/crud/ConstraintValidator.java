@@ -22,6 +22,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,10 +41,6 @@ import com.redhat.lightblue.metadata.EntityMetadata;
 import com.redhat.lightblue.metadata.FieldTreeNode;
 import com.redhat.lightblue.metadata.FieldConstraint;
 import com.redhat.lightblue.metadata.EntityConstraint;
-import com.redhat.lightblue.metadata.Field;
-import com.redhat.lightblue.metadata.FieldCursor;
-import com.redhat.lightblue.metadata.SimpleArrayElement;
-import com.redhat.lightblue.metadata.ResolvedReferenceField;
 
 public class ConstraintValidator {
 
@@ -61,12 +60,27 @@ public class ConstraintValidator {
     private FieldConstraint currentFieldConstraint;
     private EntityConstraint currentEntityConstraint;
 
+    private ConstraintPlan plan;
+
     protected ConstraintValidator(Registry<String, FieldConstraintChecker> r,
                                   Registry<String, EntityConstraintChecker> e,
                                   EntityMetadata md) {
+        this(r, e, md, null);
+    }
+
+    /**
+     * Constructs a validator using the given compiled constraints. If plan
+     * is null, constraints are compiled when the first document is
+     * validated.
+     */
+    protected ConstraintValidator(Registry<String, FieldConstraintChecker> r,
+                                  Registry<String, EntityConstraintChecker> e,
+                                  EntityMetadata md,
+                                  ConstraintPlan plan) {
         this.fRegistry = r;
         this.eRegistry = e;
         this.md = md;
+        this.plan = plan;
     }
 
     public void clearErrors() {
@@ -136,13 +150,127 @@ public class ConstraintValidator {
     }
 
     public void validateDocs(List<? extends JsonDoc> docList) {
+        validateDocs(docList, docList);
+    }
+
+    /**
+     * Validates the documents in parallel. The documents are split into at
+     * most numChunks chunks, and each chunk is validated by a separate
+     * validator, so constraint checkers see the same current document state
+     * as they would in a sequential validation. When all chunks are
+     * validated, the errors are merged into this validator in document
+     * order. If executor is null, if there is only one chunk, or if a
+     * constraint checker of the entity is not thread safe, documents are
+     * validated sequentially.
+     *
+     * @param docList The documents to validate
+     * @param executor The executor running the chunk validations
+     * @param numChunks Maximum number of chunks
+     */
+    public void validateDocs(List<? extends JsonDoc> docList, ExecutorService executor, int numChunks) {
+        int n = docList.size();
+        int chunkSize = numChunks <= 1 ? n : (n + numChunks - 1) / numChunks;
+        if (executor == null || chunkSize >= n) {
+            validateDocs(docList);
+            return;
+        }
+        if (!getConstraintPlan().isThreadSafe()) {
+            LOGGER.debug("Constraint checkers of {} are not thread safe, validating sequentially", md.getName());
+            validateDocs(docList);
+            return;
+        }
+        LOGGER.debug("validateDocs() enter with {} docs, {} docs per chunk", n, chunkSize);
+        currentDocList = docList;
+        currentDoc = null;
+        // Errors created in the executor threads should carry the context of the caller
+        List<String> context = Error.getThreadContext();
+        Thread caller = Thread.currentThread();
+        List<ConstraintValidator> validators = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < n; from += chunkSize) {
+            List<? extends JsonDoc> chunk = docList.subList(from, Math.min(n, from + chunkSize));
+            ConstraintValidator validator = newChunkValidator();
+            validators.add(validator);
+            futures.add(executor.submit(() -> validateChunk(validator, docList, chunk, caller, context)));
+        }
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<?> f : futures) {
+                f.cancel(false);
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw Error.get(CrudConstants.ERR_CRUD, e.getCause().toString());
+        } catch (InterruptedException e) {
+            for (Future<?> f : futures) {
+                f.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw Error.get(CrudConstants.ERR_CRUD, e.toString());
+        }
+        for (ConstraintValidator validator : validators) {
+            for (Map.Entry<JsonDoc, List<Error>> entry : validator.docErrors.entrySet()) {
+                List<Error> list = docErrors.get(entry.getKey());
+                if (list == null) {
+                    docErrors.put(entry.getKey(), entry.getValue());
+                } else {
+                    list.addAll(entry.getValue());
+                }
+            }
+            errors.addAll(validator.errors);
+        }
+        LOGGER.debug("validateDocs() complete");
+    }
+
+    /**
+     * Validates a chunk using the given validator. If the chunk is validated
+     * in a thread other than the caller's, the error context of the caller is
+     * pushed first.
+     */
+    private static void validateChunk(ConstraintValidator validator,
+                                      List<? extends JsonDoc> docList,
+                                      List<? extends JsonDoc> chunk,
+                                      Thread caller,
+                                      List<String> context) {
+        if (Thread.currentThread() == caller) {
+            validator.validateDocs(docList, chunk);
+        } else {
+            for (String c : context) {
+                Error.push(c);
+            }
+            try {
+                validator.validateDocs(docList, chunk);
+            } finally {
+                for (int i = 0; i < context.size(); i++) {
+                    Error.pop();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a new validator for the same entity, used to validate a chunk
+     * of documents in parallel
+     */
+    protected ConstraintValidator newChunkValidator() {
+        return new ConstraintValidator(fRegistry, eRegistry, md, getConstraintPlan());
+    }
+
+    /**
+     * Validates docs, which is a sublist of docList
+     */
+    private void validateDocs(List<? extends JsonDoc> docList, List<? extends JsonDoc> docs) {
         currentDocList = docList;
         currentDoc = null;
 
-        LOGGER.debug("validateDocs() enter with {} docs", docList.size());
+        LOGGER.debug("validateDocs() enter with {} docs", docs.size());
         Error.push("validateDocs");
         try {
-            for (JsonDoc doc : docList) {
+            for (JsonDoc doc : docs) {
                 validateDoc(doc);
             }
         } catch (Error e) {
@@ -166,11 +294,10 @@ public class ConstraintValidator {
             currentFieldConstraint = null;
             currentFieldNode = null;
             currentFieldPath = null;
-            Path currentValuePath = null;
-            JsonNode currentValue = null;
-            checkEntityConstraints(doc);
+            ConstraintPlan p = getConstraintPlan();
+            checkEntityConstraints(p, doc);
             currentEntityConstraint = null;
-            checkConstraints(doc, currentValuePath, currentValue);
+            checkConstraints(p, doc);
         } catch (Error e) {
             // rethrow lightblue error
             throw e;
@@ -188,15 +315,26 @@ public class ConstraintValidator {
         LOGGER.debug("validateDoc() complete");
     }
 
-    private void checkEntityConstraints(JsonDoc doc) {
+    /**
+     * Returns the compiled constraints of the entity, compiling them if
+     * they are not given at construction
+     */
+    public ConstraintPlan getConstraintPlan() {
+        if (plan == null) {
+            plan = new ConstraintPlan(md, fRegistry, eRegistry);
+        }
+        return plan;
+    }
+
+    private void checkEntityConstraints(ConstraintPlan p, JsonDoc doc) {
         LOGGER.debug("checking entity constraints");
-        for (EntityConstraint x : md.getConstraints()) {
-            currentEntityConstraint = x;
+        for (ConstraintPlan.EntityCheck x : p.getEntityChecks()) {
+            currentEntityConstraint = x.getConstraint();
             String constraintType = currentEntityConstraint.getType();
             LOGGER.debug("checking entity constraint " + constraintType);
             Error.push(constraintType);
             try {
-                EntityConstraintChecker checker = eRegistry.find(constraintType);
+                EntityConstraintChecker checker = x.getChecker();
                 if (checker == null) {
                     throw Error.get(CrudConstants.ERR_NO_CONSTRAINT);
                 }
@@ -214,68 +352,62 @@ public class ConstraintValidator {
         }
     }
 
-    private void checkConstraints(JsonDoc doc, Path currentValuePath, JsonNode currentValue) {
+    private void checkConstraints(ConstraintPlan p, JsonDoc doc) {
         LOGGER.debug("checking field constraints");
-        FieldCursor cursor = md.getFieldCursor();
-        Path skip=null;
-        while (cursor.next()) {
-            currentFieldNode = cursor.getCurrentNode();
-            currentFieldPath = cursor.getCurrentPath();
-            // Skip any fields reached by crossing entity boundaries
-            if(skip!=null) {
-                if(!currentFieldPath.prefix(skip.numSegments()).equals(skip))
-                    skip=null;
-            }
-            if(skip==null) {
-                if(currentFieldNode instanceof ResolvedReferenceField)
-                    skip=currentFieldNode.getFullPath();
-            } 
-            if(skip==null) {
-                LOGGER.debug("checking field {} for {} - {}", currentFieldPath,currentFieldNode);
-                Error.push(currentFieldPath.toString());
-                try {
-                    List<FieldConstraint> constraints = null;
-                    if (currentFieldNode instanceof Field) {
-                        constraints = ((Field) currentFieldNode).getConstraints();
-                    } else if (currentFieldNode instanceof SimpleArrayElement) {
-                        constraints = ((SimpleArrayElement) currentFieldNode).getConstraints();
-                    }
-                    LOGGER.debug("Constraints:{}",constraints);
-                    if (constraints != null && !constraints.isEmpty()) {
-                        checkFieldConstraints(doc, constraints, currentValuePath, currentValue);
+        for (ConstraintPlan.FieldChecks field : p.getFieldChecks()) {
+            currentFieldNode = field.getField();
+            currentFieldPath = field.getPath();
+            LOGGER.debug("checking field {}", currentFieldPath);
+            Error.push(field.getPathString());
+            try {
+                List<Path> valuePaths = null;
+                List<JsonNode> values = null;
+                if (field.hasValueChecks()) {
+                    // Retrieve the field values once for all value checkers
+                    valuePaths = new ArrayList<>();
+                    values = new ArrayList<>();
+                    KeyValueCursor<Path, JsonNode> cursor = doc.getAllNodes(currentFieldPath);
+                    while (cursor.hasNext()) {
+                        cursor.next();
+                        valuePaths.add(cursor.getCurrentKey());
+                        values.add(cursor.getCurrentValue());
                     }
-                } catch (Error e) {
-                    // rethrow lightblue error
-                    throw e;
-                } catch (Exception e) {
-                    // throw new Error (preserves current error context)
-                    LOGGER.error(e.getMessage(), e);
-                    throw Error.get(CrudConstants.ERR_CRUD, e.getMessage());
-                } finally {
-                    Error.pop();
                 }
+                checkFieldConstraints(doc, field.getChecks(), valuePaths, values);
+            } catch (Error e) {
+                // rethrow lightblue error
+                throw e;
+            } catch (Exception e) {
+                // throw new Error (preserves current error context)
+                LOGGER.error(e.getMessage(), e);
+                throw Error.get(CrudConstants.ERR_CRUD, e.getMessage());
+            } finally {
+                Error.pop();
             }
         }
     }
 
-    private void checkFieldConstraints(JsonDoc doc, List<FieldConstraint> constraints, Path currentValuePath, JsonNode currentValue) {
-
-        for (FieldConstraint x : constraints) {
-            currentFieldConstraint = x;
+    private void checkFieldConstraints(JsonDoc doc, List<ConstraintPlan.FieldCheck> checks, List<Path> valuePaths, List<JsonNode> values) {
+        for (ConstraintPlan.FieldCheck x : checks) {
+            currentFieldConstraint = x.getConstraint();
             String constraintType = currentFieldConstraint.getType();
             LOGGER.debug("checking constraint " + constraintType);
             Error.push(constraintType);
             try {
-                FieldConstraintChecker checker = fRegistry.find(constraintType);
+                FieldConstraintChecker checker = x.getChecker();
                 if (checker == null) {
                     throw Error.get(CrudConstants.ERR_NO_CONSTRAINT);
                 }
                 if (checker instanceof FieldConstraintDocChecker) {
                     // Constraint needs to be checked once for the doc
-                    checkFieldContraints(doc, (FieldConstraintDocChecker) checker);
+                    ((FieldConstraintDocChecker) checker).checkConstraint(this,
+                            currentFieldNode,
+                            currentFieldPath,
+                            currentFieldConstraint,
+                            doc);
                 } else if (checker instanceof FieldConstraintValueChecker) {
                     // Constraint needs to be checked for all the values in the doc
-                    checkValueContraints(doc, (FieldConstraintChecker) checker, currentValuePath, currentValue);
+                    checkValueContraints(doc, (FieldConstraintValueChecker) checker, valuePaths, values);
                 }
             } catch (Error e) {
                 // rethrow lightblue error
@@ -290,29 +422,19 @@ public class ConstraintValidator {
         }
     }
 
-    private void checkFieldContraints(JsonDoc doc, FieldConstraintDocChecker checker) {
-        ((FieldConstraintDocChecker) checker).checkConstraint(this,
-                currentFieldNode,
-                currentFieldPath,
-                currentFieldConstraint,
-                doc);
-    }
-
-    private void checkValueContraints(JsonDoc doc, FieldConstraintChecker checker, Path currentValuePath, JsonNode currentValue) {
-        KeyValueCursor<Path, JsonNode> fieldValues = doc.getAllNodes(currentFieldPath);
-        while (fieldValues.hasNext()) {
-            fieldValues.next();
-            currentValuePath = fieldValues.getCurrentKey();
-            currentValue = fieldValues.getCurrentValue();
+    private void checkValueContraints(JsonDoc doc, FieldConstraintValueChecker checker, List<Path> valuePaths, List<JsonNode> values) {
+        int n = valuePaths.size();
+        for (int i = 0; i < n; i++) {
+            Path currentValuePath = valuePaths.get(i);
             Error.push(currentValuePath.toString());
             try {
-                ((FieldConstraintValueChecker) checker).checkConstraint(this,
+                checker.checkConstraint(this,
                         currentFieldNode,
                         currentFieldPath,
                         currentFieldConstraint,
                         currentValuePath,
                         doc,
-                        currentValue);
+                        values.get(i));
             } catch (Error e) {
                 // rethrow lightblue error
                 throw e;
@@ -80,6 +80,8 @@ public final class CrudConstants {
 
     public static final String ERR_EXECUTION_CONTEXT_TOO_LARGE = "crud:ExecutionContextTooLarge";
 
+    public static final String ERR_EXPLAIN_NOT_SUPPORTED = "crud:ExplainNotSupported";
+
     private CrudConstants() {
 
     }
@@ -24,6 +24,10 @@ import com.redhat.lightblue.util.JsonDoc;
 
 /**
  * Validates entity constraints
+ *
+ * A checker instance is shared by all validators using the registry it is
+ * registered to. Documents are validated in parallel only if all the
+ * checkers of the entity declare that they are thread safe.
  */
 public interface EntityConstraintChecker {
 
@@ -40,4 +44,12 @@ public interface EntityConstraintChecker {
     void checkConstraint(ConstraintValidator validator,
                          EntityConstraint constraint,
                          JsonDoc doc);
+
+    /**
+     * Returns true if this checker can check constraints from multiple
+     * threads at the same time. The default is false.
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
 }
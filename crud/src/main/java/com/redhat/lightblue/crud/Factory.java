@@ -24,19 +24,33 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.HashMap;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 
 import com.redhat.lightblue.util.DefaultRegistry;
 import com.redhat.lightblue.util.Resolver;
+import com.redhat.lightblue.util.SharedExecutor;
+import com.redhat.lightblue.util.metrics.NoopRequestMetrics;
+import com.redhat.lightblue.util.metrics.RequestMetrics;
 
+import com.redhat.lightblue.metadata.EntityInfo;
 import com.redhat.lightblue.metadata.EntityMetadata;
+import com.redhat.lightblue.metadata.Metadata;
+import com.redhat.lightblue.metadata.MetadataListener;
 import com.redhat.lightblue.metadata.ValueGenerator;
 
+import com.redhat.lightblue.hooks.AsyncHookDispatcher;
 import com.redhat.lightblue.hooks.HookResolver;
 import com.redhat.lightblue.hooks.CRUDHook;
 
 import com.redhat.lightblue.interceptor.InterceptorManager;
 
+import com.redhat.lightblue.assoc.QueryPlanCache;
+
+import com.redhat.lightblue.mediator.CompositeMetadataCache;
+
+import com.redhat.lightblue.eval.FieldAccessCache;
+
 import com.redhat.lightblue.crud.valuegenerators.GeneratorsRegistry;
 import com.redhat.lightblue.extensions.valuegenerator.ValueGeneratorSupport;
 import com.redhat.lightblue.extensions.ExtensionSupport;
@@ -66,6 +80,48 @@ public class Factory implements Serializable {
     private int warnResultSetSizeB;
     private int maxResultSetSizeForWritesB;
     private int maxExecutionContextSizeForCompositeFindB;
+    private int compositeFindParallelism = 9;
+    private int compositeFindThreadPoolSize = 64;
+    private int compositeFindQueueSize = 1024;
+
+    private int bulkThreadPoolSize = 32;
+    private int bulkQueueSize = 1024;
+
+    private transient SharedExecutor compositeFindExecutor;
+    private transient SharedExecutor bulkExecutor;
+
+    private int asyncHookThreadPoolSize = 4;
+    private int asyncHookQueueSize = 1024;
+    private long asyncHookQueueSizeB = 64 * 1024 * 1024;
+    private AsyncHookDispatcher.OverflowPolicy asyncHookOverflowPolicy = AsyncHookDispatcher.OverflowPolicy.callerRuns;
+    private transient volatile AsyncHookDispatcher asyncHookDispatcher;
+    private transient MetricRegistry asyncHookGaugeRegistry;
+    private transient String asyncHookGaugePrefix;
+
+    private int queryPlanCacheSize = 1024;
+    private int queryPlanSearchBudget = 1024;
+    private int maxBruteForceQueryPlanEdges = 8;
+    private transient QueryPlanCache queryPlanCache;
+    private transient RequestMetrics requestMetrics;
+
+    private int compositeMetadataCacheSize = 512;
+    private transient CompositeMetadataCache compositeMetadataCache;
+
+    private long metadataCacheTTLMS = 60 * 1000;
+
+    private int fieldAccessCacheSize = 512;
+    private transient FieldAccessCache fieldAccessCache;
+
+    private int constraintPlanCacheSize = 512;
+    private transient ConstraintPlanCache constraintPlanCache;
+
+    private int assembleWindowSize = 256;
+    private int assembleCacheSize = 10000;
+    private int joinSearchBatchSize = 256;
+    private int joinSearchPrefetchDepth = 1;
+    private int sortMemoryBudgetB = 32 * 1024 * 1024;
+    private int parallelValidationThreshold = 1000;
+    private int parallelValidationChunks = 4;
 
     /**
      * Adds a field constraint validator
@@ -75,6 +131,7 @@ public class Factory implements Serializable {
      */
     public synchronized void addFieldConstraintValidator(String name, FieldConstraintChecker checker) {
         fieldConstraintValidatorRegistry.add(name, checker);
+        clearConstraintPlans();
     }
 
     /**
@@ -85,6 +142,7 @@ public class Factory implements Serializable {
      */
     public synchronized void addFieldConstraintValidators(Resolver<String, FieldConstraintChecker> r) {
         fieldConstraintValidatorRegistry.add(r);
+        clearConstraintPlans();
     }
 
     /**
@@ -95,6 +153,7 @@ public class Factory implements Serializable {
      */
     public synchronized void addEntityConstraintValidator(String name, EntityConstraintChecker checker) {
         entityConstraintValidatorRegistry.add(name, checker);
+        clearConstraintPlans();
     }
 
     /**
@@ -105,6 +164,7 @@ public class Factory implements Serializable {
      */
     public synchronized void addEntityConstraintValidators(Resolver<String, EntityConstraintChecker> r) {
         entityConstraintValidatorRegistry.add(r);
+        clearConstraintPlans();
     }
 
     public void setBulkParallelExecutions(int i) {
@@ -115,14 +175,148 @@ public class Factory implements Serializable {
         return bulkParallelExecutions;
     }
 
+    public int getBulkThreadPoolSize() {
+        return bulkThreadPoolSize;
+    }
+
+    /**
+     * Sets the maximum number of threads shared by all bulk requests. Must
+     * be called before the bulk executor is used.
+     */
+    public void setBulkThreadPoolSize(int bulkThreadPoolSize) {
+        this.bulkThreadPoolSize = bulkThreadPoolSize;
+    }
+
+    public int getBulkQueueSize() {
+        return bulkQueueSize;
+    }
+
+    /**
+     * Sets the maximum number of bulk request entries waiting for a
+     * thread. Must be called before the bulk executor is used.
+     */
+    public void setBulkQueueSize(int bulkQueueSize) {
+        this.bulkQueueSize = bulkQueueSize;
+    }
+
+    /**
+     * Returns the executor shared by all bulk requests. Each bulk request
+     * runs at most bulkParallelExecutions of its entries at a time in this
+     * executor. The executor is created on first call.
+     */
+    public synchronized SharedExecutor getBulkExecutor() {
+        if (bulkExecutor == null) {
+            bulkExecutor = new SharedExecutor("bulk", bulkThreadPoolSize, bulkQueueSize);
+        }
+        return bulkExecutor;
+    }
+
+    public int getAsyncHookThreadPoolSize() {
+        return asyncHookThreadPoolSize;
+    }
+
+    /**
+     * Sets the maximum number of threads running asynchronous hooks. Must
+     * be called before the asynchronous hook dispatcher is used.
+     */
+    public void setAsyncHookThreadPoolSize(int asyncHookThreadPoolSize) {
+        this.asyncHookThreadPoolSize = asyncHookThreadPoolSize;
+    }
+
+    public int getAsyncHookQueueSize() {
+        return asyncHookQueueSize;
+    }
+
+    /**
+     * Sets the maximum number of asynchronous hook calls waiting for a
+     * thread. Must be called before the asynchronous hook dispatcher is
+     * used.
+     */
+    public void setAsyncHookQueueSize(int asyncHookQueueSize) {
+        this.asyncHookQueueSize = asyncHookQueueSize;
+    }
+
+    public long getAsyncHookQueueSizeB() {
+        return asyncHookQueueSizeB;
+    }
+
+    /**
+     * Sets the maximum size of the documents held by asynchronous hook calls
+     * that are waiting or running, in bytes. Not limited if not positive.
+     * Must be called before the asynchronous hook dispatcher is used.
+     */
+    public void setAsyncHookQueueSizeB(long asyncHookQueueSizeB) {
+        this.asyncHookQueueSizeB = asyncHookQueueSizeB;
+    }
+
+    public AsyncHookDispatcher.OverflowPolicy getAsyncHookOverflowPolicy() {
+        return asyncHookOverflowPolicy;
+    }
+
+    /**
+     * Sets what happens to an asynchronous hook call when the queue is
+     * full. Must be called before the asynchronous hook dispatcher is used.
+     */
+    public void setAsyncHookOverflowPolicy(AsyncHookDispatcher.OverflowPolicy asyncHookOverflowPolicy) {
+        this.asyncHookOverflowPolicy = asyncHookOverflowPolicy;
+    }
+
+    /**
+     * Returns the dispatcher shared by all requests to call asynchronous
+     * hooks. The dispatcher is created on first call.
+     */
+    public AsyncHookDispatcher getAsyncHookDispatcher() {
+        // Called for every operation context, so don't lock once created
+        AsyncHookDispatcher d = asyncHookDispatcher;
+        if (d == null) {
+            synchronized (this) {
+                d = asyncHookDispatcher;
+                if (d == null) {
+                    d = new AsyncHookDispatcher(asyncHookThreadPoolSize, asyncHookQueueSize, asyncHookQueueSizeB, asyncHookOverflowPolicy);
+                    if (asyncHookGaugeRegistry != null) {
+                        d.registerGauges(asyncHookGaugeRegistry, asyncHookGaugePrefix);
+                    }
+                    asyncHookDispatcher = d;
+                }
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Registers the gauges of the asynchronous hook dispatcher under the
+     * given prefix. If the dispatcher is not created yet, the gauges are
+     * registered when it is created.
+     */
+    public synchronized void registerAsyncHookGauges(MetricRegistry registry, String prefix) {
+        asyncHookGaugeRegistry = registry;
+        asyncHookGaugePrefix = prefix;
+        if (asyncHookDispatcher != null) {
+            asyncHookDispatcher.registerGauges(registry, prefix);
+        }
+    }
+
     /**
      * Returns a constraint validator containing field and entity constraint
      * validators for the given entity
      */
     public ConstraintValidator getConstraintValidator(EntityMetadata md) {
+        ConstraintPlan plan = getConstraintPlanCache().get(md, getRequestMetrics(),
+                () -> new ConstraintPlan(md, fieldConstraintValidatorRegistry, entityConstraintValidatorRegistry));
         return new ConstraintValidator(fieldConstraintValidatorRegistry,
                 entityConstraintValidatorRegistry,
-                md);
+                md,
+                plan);
+    }
+
+    /**
+     * Constraint plans refer to the checkers, so they are discarded when
+     * checkers are added
+     */
+    private void clearConstraintPlans() {
+        if (constraintPlanCache != null) {
+            constraintPlanCache.clear();
+        }
     }
 
     /**
@@ -264,13 +458,354 @@ public class Factory implements Serializable {
         this.maxExecutionContextSizeForCompositeFindB = maxExecutionContextSizeForCompositeFindB;
     }
 
+    public int getCompositeFindParallelism() {
+        return compositeFindParallelism;
+    }
+
+    /**
+     * Sets the default maximum number of tasks a composite find request
+     * can run in parallel. Entities can override this using the
+     * compositeFindParallelism entity info property.
+     */
+    public void setCompositeFindParallelism(int compositeFindParallelism) {
+        this.compositeFindParallelism = compositeFindParallelism;
+    }
+
+    public int getCompositeFindThreadPoolSize() {
+        return compositeFindThreadPoolSize;
+    }
+
+    /**
+     * Sets the maximum number of threads shared by all composite find
+     * requests. Must be called before the composite find executor is used.
+     */
+    public void setCompositeFindThreadPoolSize(int compositeFindThreadPoolSize) {
+        this.compositeFindThreadPoolSize = compositeFindThreadPoolSize;
+    }
+
+    public int getCompositeFindQueueSize() {
+        return compositeFindQueueSize;
+    }
+
+    /**
+     * Sets the maximum number of composite find tasks waiting for a
+     * thread. Must be called before the composite find executor is used.
+     */
+    public void setCompositeFindQueueSize(int compositeFindQueueSize) {
+        this.compositeFindQueueSize = compositeFindQueueSize;
+    }
+
+    /**
+     * Returns the executor shared by all composite find requests. The
+     * executor is created on first call.
+     */
+    public synchronized SharedExecutor getCompositeFindExecutor() {
+        if (compositeFindExecutor == null) {
+            compositeFindExecutor = new SharedExecutor("composite-find",
+                    compositeFindThreadPoolSize,
+                    compositeFindQueueSize);
+        }
+        return compositeFindExecutor;
+    }
+
+    public int getQueryPlanCacheSize() {
+        return queryPlanCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of composite find query plans to cache. If 0,
+     * query plans are not cached. Must be called before the query plan
+     * cache is used.
+     */
+    public void setQueryPlanCacheSize(int queryPlanCacheSize) {
+        this.queryPlanCacheSize = queryPlanCacheSize;
+    }
+
+    /**
+     * Returns the cache of composite find query plans. The cache is created
+     * on first call.
+     */
+    public synchronized QueryPlanCache getQueryPlanCache() {
+        if (queryPlanCache == null) {
+            queryPlanCache = new QueryPlanCache(queryPlanCacheSize, metadataCacheTTLMS);
+        }
+        return queryPlanCache;
+    }
+
+    public int getQueryPlanSearchBudget() {
+        return queryPlanSearchBudget;
+    }
+
+    /**
+     * Sets the maximum number of query plans scored to choose the query plan
+     * of a composite find, if the plan is too large to score all possible
+     * plans
+     */
+    public void setQueryPlanSearchBudget(int queryPlanSearchBudget) {
+        this.queryPlanSearchBudget = queryPlanSearchBudget;
+    }
+
+    public int getMaxBruteForceQueryPlanEdges() {
+        return maxBruteForceQueryPlanEdges;
+    }
+
+    /**
+     * Sets the maximum number of edges of a composite find query plan for
+     * which all possible plans are scored. Larger plans are searched using
+     * the plan scores.
+     */
+    public void setMaxBruteForceQueryPlanEdges(int maxBruteForceQueryPlanEdges) {
+        this.maxBruteForceQueryPlanEdges = maxBruteForceQueryPlanEdges;
+    }
+
+    public int getCompositeMetadataCacheSize() {
+        return compositeMetadataCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of entity versions for which composite
+     * metadata is cached. If 0, composite metadata is not cached. Must be
+     * called before the composite metadata cache is used.
+     */
+    public void setCompositeMetadataCacheSize(int compositeMetadataCacheSize) {
+        this.compositeMetadataCacheSize = compositeMetadataCacheSize;
+    }
+
+    public long getMetadataCacheTTLMS() {
+        return metadataCacheTTLMS;
+    }
+
+    /**
+     * Sets the time in milliseconds the data built from entity metadata is
+     * cached. Changes made through this process evict the cached data right
+     * away, but changes made through other processes are only seen after
+     * the cached data expires. If 0, cached data does not expire. Must be
+     * called before the caches are used.
+     */
+    public void setMetadataCacheTTLMS(long metadataCacheTTLMS) {
+        this.metadataCacheTTLMS = metadataCacheTTLMS;
+    }
+
+    public int getFieldAccessCacheSize() {
+        return fieldAccessCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of entity version and caller role set
+     * combinations for which field access decisions are cached. If 0, field
+     * access decisions are not cached. Must be called before the field
+     * access cache is used.
+     */
+    public void setFieldAccessCacheSize(int fieldAccessCacheSize) {
+        this.fieldAccessCacheSize = fieldAccessCacheSize;
+    }
+
+    public int getConstraintPlanCacheSize() {
+        return constraintPlanCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of entity versions whose compiled constraints
+     * are cached. If 0, constraints are compiled for every request. Must be
+     * called before the constraint plan cache is used.
+     */
+    public void setConstraintPlanCacheSize(int constraintPlanCacheSize) {
+        this.constraintPlanCacheSize = constraintPlanCacheSize;
+    }
+
+    public int getAssembleWindowSize() {
+        return assembleWindowSize;
+    }
+
+    /**
+     * Sets the number of parent documents a composite find assembles at a
+     * time. Assembled documents are streamed while the next window is being
+     * assembled. If 0, all parent documents are assembled at once.
+     */
+    public void setAssembleWindowSize(int assembleWindowSize) {
+        this.assembleWindowSize = assembleWindowSize;
+    }
+
+    public int getAssembleCacheSize() {
+        return assembleCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of child documents a composite find keeps for
+     * each association while assembling the parent documents. Children
+     * shared by many parents are retrieved and indexed once. If 0, children
+     * are retrieved for every batch of parent documents.
+     */
+    public void setAssembleCacheSize(int assembleCacheSize) {
+        this.assembleCacheSize = assembleCacheSize;
+    }
+
+    public int getJoinSearchBatchSize() {
+        return joinSearchBatchSize;
+    }
+
+    /**
+     * Sets the number of join tuples whose queries are combined into one
+     * backend query when searching an entity using the documents of the
+     * entities before it in the search plan.
+     */
+    public void setJoinSearchBatchSize(int joinSearchBatchSize) {
+        this.joinSearchBatchSize = joinSearchBatchSize;
+    }
+
+    public int getJoinSearchPrefetchDepth() {
+        return joinSearchPrefetchDepth;
+    }
+
+    /**
+     * Sets the number of join search batches queried ahead of the batch
+     * being consumed. If 0, a batch is queried only after the previous one
+     * is consumed.
+     */
+    public void setJoinSearchPrefetchDepth(int joinSearchPrefetchDepth) {
+        this.joinSearchPrefetchDepth = joinSearchPrefetchDepth;
+    }
+
+    public int getSortMemoryBudgetB() {
+        return sortMemoryBudgetB;
+    }
+
+    /**
+     * Sets the approximate size of the documents a composite find sorts in
+     * memory. Larger result sets are sorted in runs written to temporary
+     * files. If 0, result sets are always sorted in memory.
+     */
+    public void setSortMemoryBudgetB(int sortMemoryBudgetB) {
+        this.sortMemoryBudgetB = sortMemoryBudgetB;
+    }
+
+    public int getParallelValidationThreshold() {
+        return parallelValidationThreshold;
+    }
+
+    /**
+     * Sets the minimum number of documents in a request for the constraint
+     * validation to run in parallel. If 0, constraints are always validated
+     * sequentially.
+     */
+    public void setParallelValidationThreshold(int parallelValidationThreshold) {
+        this.parallelValidationThreshold = parallelValidationThreshold;
+    }
+
+    public int getParallelValidationChunks() {
+        return parallelValidationChunks;
+    }
+
+    /**
+     * Sets the number of chunks the documents are split into for parallel
+     * constraint validation. At most this many chunks are validated
+     * concurrently.
+     */
+    public void setParallelValidationChunks(int parallelValidationChunks) {
+        this.parallelValidationChunks = parallelValidationChunks;
+    }
+
+    /**
+     * Returns the cache of composite metadata. The cache is created on first
+     * call.
+     */
+    public synchronized CompositeMetadataCache getCompositeMetadataCache() {
+        if (compositeMetadataCache == null) {
+            compositeMetadataCache = new CompositeMetadataCache(compositeMetadataCacheSize, metadataCacheTTLMS);
+        }
+        return compositeMetadataCache;
+    }
+
+    /**
+     * Returns the cache of field access decisions. The cache is created on
+     * first call.
+     */
+    public synchronized FieldAccessCache getFieldAccessCache() {
+        if (fieldAccessCache == null) {
+            fieldAccessCache = new FieldAccessCache(fieldAccessCacheSize, metadataCacheTTLMS);
+        }
+        return fieldAccessCache;
+    }
+
+    /**
+     * Returns the cache of compiled constraints. The cache is created on
+     * first call.
+     */
+    public synchronized ConstraintPlanCache getConstraintPlanCache() {
+        if (constraintPlanCache == null) {
+            constraintPlanCache = new ConstraintPlanCache(constraintPlanCacheSize, metadataCacheTTLMS);
+        }
+        return constraintPlanCache;
+    }
+
+    /**
+     * Returns a listener that evicts the cached data of an entity when its
+     * metadata changes. Wrap the metadata implementation in a
+     * {@link NotifyingMetadata} to call it for every metadata change.
+     */
+    public MetadataListener getMetadataListener() {
+        return new MetadataListener() {
+            @Override
+            public void beforeCreateNewSchema(Metadata m, EntityMetadata md) {
+            }
+
+            @Override
+            public void afterCreateNewSchema(Metadata m, EntityMetadata md) {
+                getCompositeMetadataCache().afterCreateNewSchema(m, md);
+                getQueryPlanCache().afterCreateNewSchema(m, md);
+                getFieldAccessCache().afterCreateNewSchema(m, md);
+                getConstraintPlanCache().afterCreateNewSchema(m, md);
+            }
+
+            @Override
+            public void beforeUpdateEntityInfo(Metadata m, EntityInfo ei, boolean newEntity) {
+            }
+
+            @Override
+            public void afterUpdateEntityInfo(Metadata m, EntityInfo ei, boolean newEntity) {
+                getCompositeMetadataCache().afterUpdateEntityInfo(m, ei, newEntity);
+                getQueryPlanCache().afterUpdateEntityInfo(m, ei, newEntity);
+                getFieldAccessCache().afterUpdateEntityInfo(m, ei, newEntity);
+                getConstraintPlanCache().afterUpdateEntityInfo(m, ei, newEntity);
+            }
+        };
+    }
+
+    /**
+     * Returns the metrics used to record internal statistics, such as cache
+     * hits and misses. If not set, statistics are not recorded.
+     */
+    public RequestMetrics getRequestMetrics() {
+        RequestMetrics m = requestMetrics;
+        if (m == null) {
+            requestMetrics = m = new NoopRequestMetrics();
+        }
+        return m;
+    }
+
+    public void setRequestMetrics(RequestMetrics requestMetrics) {
+        this.requestMetrics = requestMetrics;
+    }
+
     @Override
     public String toString() {
         return "Factory [fieldConstraintValidatorRegistry=" + fieldConstraintValidatorRegistry + ", entityConstraintValidatorRegistry="
                 + entityConstraintValidatorRegistry + ", crudControllers=" + crudControllers + ", hookResolver=" + hookResolver + ", interceptors="
                 + interceptors + ", generators=" + generators + ", nodeFactory=" + nodeFactory + ", bulkParallelExecutions=" + bulkParallelExecutions
+                + ", bulkThreadPoolSize=" + bulkThreadPoolSize + ", bulkQueueSize=" + bulkQueueSize
+                + ", asyncHookThreadPoolSize=" + asyncHookThreadPoolSize + ", asyncHookQueueSize=" + asyncHookQueueSize
+                + ", asyncHookQueueSizeB=" + asyncHookQueueSizeB + ", asyncHookOverflowPolicy=" + asyncHookOverflowPolicy
                 + ", memoryIndexThreshold=" + memoryIndexThreshold + ", maxResultSetSizeForReadsB=" + maxResultSetSizeForReadsB
                 + ", maxExecutionContextSizeForCompositeFindB=" + maxExecutionContextSizeForCompositeFindB + ", warnResultSetSizeB=" + warnResultSetSizeB
-                + ", maxResultSetSizeForWritesB=" + maxResultSetSizeForWritesB + "]";
+                + ", maxResultSetSizeForWritesB=" + maxResultSetSizeForWritesB
+                + ", compositeFindParallelism=" + compositeFindParallelism + ", compositeFindThreadPoolSize=" + compositeFindThreadPoolSize + ", compositeFindQueueSize=" + compositeFindQueueSize
+                + ", queryPlanCacheSize=" + queryPlanCacheSize + ", queryPlanSearchBudget=" + queryPlanSearchBudget
+                + ", maxBruteForceQueryPlanEdges=" + maxBruteForceQueryPlanEdges
+                + ", compositeMetadataCacheSize=" + compositeMetadataCacheSize + ", metadataCacheTTLMS=" + metadataCacheTTLMS
+                + ", fieldAccessCacheSize=" + fieldAccessCacheSize
+                + ", constraintPlanCacheSize=" + constraintPlanCacheSize
+                + ", assembleWindowSize=" + assembleWindowSize + ", assembleCacheSize=" + assembleCacheSize + ", joinSearchBatchSize=" + joinSearchBatchSize
+                + ", joinSearchPrefetchDepth=" + joinSearchPrefetchDepth + ", sortMemoryBudgetB=" + sortMemoryBudgetB
+                + ", parallelValidationThreshold=" + parallelValidationThreshold + ", parallelValidationChunks=" + parallelValidationChunks + "]";
     }
 }
@@ -32,9 +32,20 @@ package com.redhat.lightblue.crud;
  * trivial, but things get hairy for objects that are array members, and there
  * are missing fields there.
  *
+ * A checker instance is shared by all validators using the registry it is
+ * registered to. Documents are validated in parallel only if all the
+ * checkers of the entity declare that they are thread safe.
+ *
  * @see FieldConstraintDocChecker
  * @see FieldConstraintValueChecker
  */
 public interface FieldConstraintChecker {
 
+    /**
+     * Returns true if this checker can check constraints from multiple
+     * threads at the same time. The default is false.
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
 }
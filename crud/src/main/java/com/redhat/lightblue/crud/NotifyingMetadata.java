@@ -0,0 +1,143 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.crud;
+
+import java.util.List;
+import java.util.Map;
+
+import com.redhat.lightblue.Response;
+import com.redhat.lightblue.metadata.EntityInfo;
+import com.redhat.lightblue.metadata.EntityMetadata;
+import com.redhat.lightblue.metadata.Metadata;
+import com.redhat.lightblue.metadata.MetadataListener;
+import com.redhat.lightblue.metadata.MetadataRole;
+import com.redhat.lightblue.metadata.MetadataStatus;
+import com.redhat.lightblue.metadata.VersionInfo;
+
+/**
+ * A metadata implementation that passes all calls to another metadata
+ * implementation, and notifies the metadata listener of the factory about
+ * the changes, so the factory caches evict the changed entities.
+ *
+ * Metadata implementations only notify the listeners of CRUD controllers.
+ * Status changes and entity removals are reported as entity info updates.
+ */
+public class NotifyingMetadata implements Metadata {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Metadata delegate;
+    private final Factory factory;
+
+    public NotifyingMetadata(Metadata delegate, Factory factory) {
+        this.delegate = delegate;
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the wrapped metadata implementation
+     */
+    public Metadata getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public Response getDependencies(String entityName, String version) {
+        return delegate.getDependencies(entityName, version);
+    }
+
+    @Override
+    public Response getAccess(String entityName, String version) {
+        return delegate.getAccess(entityName, version);
+    }
+
+    @Override
+    public EntityMetadata getEntityMetadata(String entityName, String version) {
+        return delegate.getEntityMetadata(entityName, version);
+    }
+
+    @Override
+    public EntityInfo getEntityInfo(String entityName) {
+        return delegate.getEntityInfo(entityName);
+    }
+
+    @Override
+    public String[] getEntityNames(MetadataStatus... statuses) {
+        return delegate.getEntityNames(statuses);
+    }
+
+    @Override
+    public VersionInfo[] getEntityVersions(String entityName) {
+        return delegate.getEntityVersions(entityName);
+    }
+
+    @Override
+    public void createNewMetadata(EntityMetadata md) {
+        MetadataListener listener = factory.getMetadataListener();
+        listener.beforeUpdateEntityInfo(this, md.getEntityInfo(), true);
+        listener.beforeCreateNewSchema(this, md);
+        delegate.createNewMetadata(md);
+        listener.afterUpdateEntityInfo(this, md.getEntityInfo(), true);
+        listener.afterCreateNewSchema(this, md);
+    }
+
+    @Override
+    public void createNewSchema(EntityMetadata md) {
+        MetadataListener listener = factory.getMetadataListener();
+        listener.beforeCreateNewSchema(this, md);
+        delegate.createNewSchema(md);
+        listener.afterCreateNewSchema(this, md);
+    }
+
+    @Override
+    public void updateEntityInfo(EntityInfo ei) {
+        MetadataListener listener = factory.getMetadataListener();
+        listener.beforeUpdateEntityInfo(this, ei, false);
+        delegate.updateEntityInfo(ei);
+        listener.afterUpdateEntityInfo(this, ei, false);
+    }
+
+    @Override
+    public void setMetadataStatus(String entityName,
+                                  String version,
+                                  MetadataStatus newStatus,
+                                  String comment) {
+        EntityInfo ei = delegate.getEntityInfo(entityName);
+        delegate.setMetadataStatus(entityName, version, newStatus, comment);
+        afterChange(ei);
+    }
+
+    @Override
+    public void removeEntity(String entityName) {
+        EntityInfo ei = delegate.getEntityInfo(entityName);
+        delegate.removeEntity(entityName);
+        afterChange(ei);
+    }
+
+    @Override
+    public Map<MetadataRole, List<String>> getMappedRoles() {
+        return delegate.getMappedRoles();
+    }
+
+    private void afterChange(EntityInfo ei) {
+        if (ei != null) {
+            factory.getMetadataListener().afterUpdateEntityInfo(this, ei, false);
+        }
+    }
+}
@@ -0,0 +1,626 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.crud.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import com.redhat.lightblue.crud.CRUDController;
+import com.redhat.lightblue.crud.CRUDDeleteResponse;
+import com.redhat.lightblue.crud.CRUDFindResponse;
+import com.redhat.lightblue.crud.CRUDHealth;
+import com.redhat.lightblue.crud.CRUDInsertionResponse;
+import com.redhat.lightblue.crud.CRUDOperation;
+import com.redhat.lightblue.crud.CRUDOperationContext;
+import com.redhat.lightblue.crud.CRUDSaveResponse;
+import com.redhat.lightblue.crud.CRUDUpdateResponse;
+import com.redhat.lightblue.crud.ConstraintValidator;
+import com.redhat.lightblue.crud.CrudConstants;
+import com.redhat.lightblue.crud.DocCtx;
+import com.redhat.lightblue.crud.ExplainQuerySupport;
+import com.redhat.lightblue.crud.Factory;
+import com.redhat.lightblue.crud.ListDocumentStream;
+import com.redhat.lightblue.crud.valuegenerators.SequenceBlockAllocator;
+import com.redhat.lightblue.crud.valuegenerators.SequenceGenerator;
+import com.redhat.lightblue.eval.FieldAccessRoleEvaluator;
+import com.redhat.lightblue.extensions.Extension;
+import com.redhat.lightblue.extensions.ExtensionSupport;
+import com.redhat.lightblue.extensions.valuegenerator.ValueGeneratorSupport;
+import com.redhat.lightblue.eval.Projector;
+import com.redhat.lightblue.eval.QueryEvaluator;
+import com.redhat.lightblue.eval.SortFieldInfo;
+import com.redhat.lightblue.eval.SortableItem;
+import com.redhat.lightblue.eval.Updater;
+import com.redhat.lightblue.metadata.DocId;
+import com.redhat.lightblue.metadata.EntityMetadata;
+import com.redhat.lightblue.metadata.MetadataListener;
+import com.redhat.lightblue.metadata.PredefinedFields;
+import com.redhat.lightblue.query.Projection;
+import com.redhat.lightblue.query.QueryExpression;
+import com.redhat.lightblue.query.Sort;
+import com.redhat.lightblue.query.UpdateExpression;
+import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.JsonDoc;
+import com.redhat.lightblue.util.Path;
+
+/**
+ * A CRUD controller that keeps the documents in memory.
+ *
+ * Documents of each entity are stored by their identity, and the indexes
+ * declared in the entity metadata are built in memory. Queries that
+ * compare an indexed field with a value, directly or in a top-level
+ * $and, look up the index instead of scanning all the documents of the
+ * entity. Unique indexes on non-array fields are enforced. Field access
+ * restrictions are checked the same way other back ends check them.
+ *
+ * The controller is thread safe. Reads of an entity run concurrently,
+ * writes to an entity are serialized. Stored documents are never
+ * modified in place, and copies of them are returned, so the returned
+ * documents can be modified freely.
+ *
+ * Without a sort, documents are returned in no particular order.
+ *
+ * IntSequence value generators are supported. Sequences are kept in memory,
+ * and all the values needed for a request are allocated at once.
+ */
+public class MemoryCRUDController implements CRUDController, ExplainQuerySupport, ExtensionSupport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoryCRUDController.class);
+
+    private final Map<String, MemoryEntityStore> stores = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicLong> sequences = new ConcurrentHashMap<>();
+
+    private final SequenceGenerator sequenceGenerator = new SequenceGenerator(new SequenceBlockAllocator(this::allocateSequence, 1));
+
+    @Override
+    public CRUDInsertionResponse insert(CRUDOperationContext ctx,
+                                        Projection projection) {
+        LOGGER.debug("insert() start");
+        CRUDInsertionResponse response = new CRUDInsertionResponse();
+        response.setNumInserted(0);
+        Error.push("insert(" + ctx.getEntityName() + ")");
+        try {
+            EntityMetadata md = ctx.getEntityMetadata(ctx.getEntityName());
+            MemoryEntityStore store = getStore(md);
+            FieldAccessRoleEvaluator roleEval = getRoleEvaluator(ctx, md);
+            JsonNodeFactory nodeFactory = ctx.getFactory().getNodeFactory();
+            List<DocCtx> docs = ctx.getInputDocumentsWithoutErrors();
+            int numInserted = 0;
+            store.writeLock().lock();
+            try {
+                for (DocCtx doc : docs) {
+                    if (insertDoc(md, store, roleEval, doc)) {
+                        numInserted++;
+                    }
+                }
+            } finally {
+                store.writeLock().unlock();
+            }
+            setOutputDocuments(docs, getProjector(md, roleEval, projection), nodeFactory);
+            response.setNumInserted(numInserted);
+            ctx.getHookManager().queueHooks(ctx);
+        } catch (Error e) {
+            ctx.addError(e);
+        } catch (Exception e) {
+            LOGGER.error("insert", e);
+            ctx.addError(Error.get(CrudConstants.ERR_CRUD, e.toString()));
+        } finally {
+            Error.pop();
+        }
+        LOGGER.debug("insert() end: {} inserted", response.getNumInserted());
+        return response;
+    }
+
+    @Override
+    public CRUDSaveResponse save(CRUDOperationContext ctx,
+                                 boolean upsert,
+                                 Projection projection) {
+        LOGGER.debug("save() start");
+        CRUDSaveResponse response = new CRUDSaveResponse();
+        response.setNumSaved(0);
+        Error.push("save(" + ctx.getEntityName() + ")");
+        try {
+            EntityMetadata md = ctx.getEntityMetadata(ctx.getEntityName());
+            MemoryEntityStore store = getStore(md);
+            FieldAccessRoleEvaluator roleEval = getRoleEvaluator(ctx, md);
+            JsonNodeFactory nodeFactory = ctx.getFactory().getNodeFactory();
+            List<DocCtx> docs = ctx.getInputDocumentsWithoutErrors();
+            int numSaved = 0;
+            store.writeLock().lock();
+            try {
+                for (DocCtx doc : docs) {
+                    JsonDoc existing = hasId(store, doc) ? store.get(store.getId(doc)) : null;
+                    if (existing != null) {
+                        if (replaceDoc(store, roleEval, doc, existing)) {
+                            numSaved++;
+                        }
+                    } else if (upsert) {
+                        if (insertDoc(md, store, roleEval, doc)) {
+                            numSaved++;
+                        }
+                    } else {
+                        doc.addError(Error.get(MemoryCrudConstants.ERR_SAVE_ERROR, "not found"));
+                    }
+                }
+            } finally {
+                store.writeLock().unlock();
+            }
+            setOutputDocuments(docs, getProjector(md, roleEval, projection), nodeFactory);
+            response.setNumSaved(numSaved);
+            ctx.getHookManager().queueHooks(ctx);
+        } catch (Error e) {
+            ctx.addError(e);
+        } catch (Exception e) {
+            LOGGER.error("save", e);
+            ctx.addError(Error.get(CrudConstants.ERR_CRUD, e.toString()));
+        } finally {
+            Error.pop();
+        }
+        LOGGER.debug("save() end: {} saved", response.getNumSaved());
+        return response;
+    }
+
+    @Override
+    public CRUDUpdateResponse update(CRUDOperationContext ctx,
+                                     QueryExpression query,
+                                     UpdateExpression update,
+                                     Projection projection) {
+        LOGGER.debug("update() start");
+        CRUDUpdateResponse response = new CRUDUpdateResponse();
+        response.setNumUpdated(0);
+        response.setNumFailed(0);
+        response.setNumMatched(0);
+        Error.push("update(" + ctx.getEntityName() + ")");
+        try {
+            EntityMetadata md = ctx.getEntityMetadata(ctx.getEntityName());
+            MemoryEntityStore store = getStore(md);
+            FieldAccessRoleEvaluator roleEval = getRoleEvaluator(ctx, md);
+            JsonNodeFactory nodeFactory = ctx.getFactory().getNodeFactory();
+            Updater updater = Updater.getInstance(nodeFactory, md, update);
+            Set<Path> updateFields = new HashSet<>();
+            updater.getUpdateFields(updateFields);
+            if (!roleEval.hasAccess(updateFields, FieldAccessRoleEvaluator.Operation.update)) {
+                ctx.addError(Error.get(CrudConstants.ERR_NO_FIELD_UPDATE_ACCESS, updateFields.toString()));
+            } else {
+                QueryEvaluator qeval = getQueryEvaluator(md, query);
+                ConstraintValidator validator = ctx.getFactory().getConstraintValidator(md);
+                Projector projector = getProjector(md, roleEval, projection);
+                List<DocCtx> docs = new ArrayList<>();
+                int numUpdated = 0;
+                int numFailed = 0;
+                store.writeLock().lock();
+                try {
+                    for (JsonDoc stored : findStored(store, qeval, query)) {
+                        DocCtx doc = new DocCtx(stored.copy());
+                        doc.setOriginalDocument(stored);
+                        docs.add(doc);
+                        if (updater.update(doc, md.getFieldTreeRoot(), Path.EMPTY)) {
+                            PredefinedFields.updateArraySizes(md, nodeFactory, doc);
+                            validator.clearErrors();
+                            validator.validateDoc(doc);
+                            List<Error> docErrors = validator.getDocErrors().get(doc);
+                            if (docErrors != null && !docErrors.isEmpty()) {
+                                doc.addErrors(docErrors);
+                            } else if (validator.hasErrors()) {
+                                doc.addErrors(validator.getErrors());
+                            } else {
+                                storeUpdatedDoc(store, stored, doc);
+                            }
+                            if (doc.hasErrors()) {
+                                numFailed++;
+                            } else {
+                                doc.setCRUDOperationPerformed(CRUDOperation.UPDATE);
+                                doc.setUpdatedDocument(doc);
+                                numUpdated++;
+                            }
+                        }
+                    }
+                } finally {
+                    store.writeLock().unlock();
+                }
+                setOutputDocuments(docs, projector, nodeFactory);
+                response.setNumMatched(docs.size());
+                response.setNumUpdated(numUpdated);
+                response.setNumFailed(numFailed);
+                ctx.setDocumentStream(new ListDocumentStream<>(docs));
+                ctx.getHookManager().queueHooks(ctx);
+            }
+        } catch (Error e) {
+            ctx.addError(e);
+        } catch (Exception e) {
+            LOGGER.error("update", e);
+            ctx.addError(Error.get(CrudConstants.ERR_CRUD, e.toString()));
+        } finally {
+            Error.pop();
+        }
+        LOGGER.debug("update() end: {} matched, {} updated", response.getNumMatched(), response.getNumUpdated());
+        return response;
+    }
+
+    @Override
+    public CRUDDeleteResponse delete(CRUDOperationContext ctx,
+                                     QueryExpression query) {
+        LOGGER.debug("delete() start");
+        CRUDDeleteResponse response = new CRUDDeleteResponse();
+        response.setNumDeleted(0);
+        Error.push("delete(" + ctx.getEntityName() + ")");
+        try {
+            EntityMetadata md = ctx.getEntityMetadata(ctx.getEntityName());
+            MemoryEntityStore store = getStore(md);
+            QueryEvaluator qeval = getQueryEvaluator(md, query);
+            List<DocCtx> docs = new ArrayList<>();
+            store.writeLock().lock();
+            try {
+                for (JsonDoc stored : findStored(store, qeval, query)) {
+                    store.remove(store.getId(stored));
+                    DocCtx doc = new DocCtx(stored.copy());
+                    doc.setOriginalDocument(stored);
+                    doc.setCRUDOperationPerformed(CRUDOperation.DELETE);
+                    docs.add(doc);
+                }
+            } finally {
+                store.writeLock().unlock();
+            }
+            response.setNumDeleted(docs.size());
+            ctx.setDocumentStream(new ListDocumentStream<>(docs));
+            ctx.getHookManager().queueHooks(ctx);
+        } catch (Error e) {
+            ctx.addError(e);
+        } catch (Exception e) {
+            LOGGER.error("delete", e);
+            ctx.addError(Error.get(CrudConstants.ERR_CRUD, e.toString()));
+        } finally {
+            Error.pop();
+        }
+        LOGGER.debug("delete() end: {} deleted", response.getNumDeleted());
+        return response;
+    }
+
+    @Override
+    public CRUDFindResponse find(CRUDOperationContext ctx,
+                                 QueryExpression query,
+                                 Projection projection,
+                                 Sort sort,
+                                 Long from,
+                                 Long to) {
+        LOGGER.debug("find() start");
+        CRUDFindResponse response = new CRUDFindResponse();
+        Error.push("find(" + ctx.getEntityName() + ")");
+        try {
+            EntityMetadata md = ctx.getEntityMetadata(ctx.getEntityName());
+            MemoryEntityStore store = getStore(md);
+            FieldAccessRoleEvaluator roleEval = getRoleEvaluator(ctx, md);
+            JsonNodeFactory nodeFactory = ctx.getFactory().getNodeFactory();
+            QueryEvaluator qeval = getQueryEvaluator(md, query);
+            List<JsonDoc> results;
+            store.readLock().lock();
+            try {
+                results = findStored(store, qeval, query);
+            } finally {
+                store.readLock().unlock();
+            }
+            // Stored documents are not modified in place, so the rest
+            // does not need the lock
+            if (sort != null) {
+                results = sort(md, results, sort);
+            }
+            response.setSize(results.size());
+
+            // Clamp in long, to is inclusive and can be as large as Long.MAX_VALUE
+            long size = results.size();
+            int f = (int) (from == null ? 0 : Math.min(Math.max(from, 0), size));
+            int t = (int) (to == null ? size : Math.max(Math.min(to, size - 1) + 1, f));
+            List<DocCtx> docs;
+            if (f >= t) {
+                docs = new ArrayList<>();
+            } else {
+                docs = new ArrayList<>(t - f);
+                for (JsonDoc stored : results.subList(f, t)) {
+                    DocCtx doc = new DocCtx(stored.copy());
+                    doc.setCRUDOperationPerformed(CRUDOperation.FIND);
+                    docs.add(doc);
+                }
+            }
+            setOutputDocuments(docs, getProjector(md, roleEval, projection), nodeFactory);
+            ctx.setDocumentStream(new ListDocumentStream<>(docs));
+        } catch (Error e) {
+            ctx.addError(e);
+        } catch (Exception e) {
+            LOGGER.error("find", e);
+            ctx.addError(Error.get(CrudConstants.ERR_CRUD, e.toString()));
+        } finally {
+            Error.pop();
+        }
+        LOGGER.debug("find() end: {} matched", response.getSize());
+        return response;
+    }
+
+    @Override
+    public void explain(CRUDOperationContext ctx,
+                        QueryExpression query,
+                        Projection projection,
+                        Sort sort,
+                        Long from,
+                        Long to,
+                        JsonDoc destDoc) {
+        LOGGER.debug("explain() start");
+        Error.push("explain(" + ctx.getEntityName() + ")");
+        try {
+            EntityMetadata md = ctx.getEntityMetadata(ctx.getEntityName());
+            MemoryEntityStore store = getStore(md);
+            JsonNodeFactory nodeFactory = ctx.getFactory().getNodeFactory();
+            store.readLock().lock();
+            try {
+                destDoc.modify(new Path("memory.plan"), store.plan(query).toJson(nodeFactory), true);
+                destDoc.modify(new Path("memory.documentCount"), nodeFactory.numberNode(store.size()), true);
+            } finally {
+                store.readLock().unlock();
+            }
+        } catch (Error e) {
+            ctx.addError(e);
+        } catch (Exception e) {
+            LOGGER.error("explain", e);
+            ctx.addError(Error.get(CrudConstants.ERR_CRUD, e.toString()));
+        } finally {
+            Error.pop();
+        }
+        LOGGER.debug("explain() end");
+    }
+
+    /**
+     * Indexes are rebuilt when the metadata changes, so the controller
+     * does not need metadata notifications
+     */
+    @Override
+    public MetadataListener getMetadataListener() {
+        return null;
+    }
+
+    @Override
+    public void updatePredefinedFields(CRUDOperationContext ctx, JsonDoc doc) {
+    }
+
+    @Override
+    public CRUDHealth checkHealth() {
+        Map<String, Object> details = new LinkedHashMap<>();
+        int numDocs = 0;
+        for (MemoryEntityStore store : stores.values()) {
+            numDocs += store.size();
+        }
+        details.put("entities", stores.size());
+        details.put("documents", numDocs);
+        return new CRUDHealth(true, details);
+    }
+
+    /**
+     * Returns the number of documents stored for the entity
+     */
+    public int size(String entityName) {
+        MemoryEntityStore store = stores.get(entityName);
+        return store == null ? 0 : store.size();
+    }
+
+    /**
+     * Removes all documents of all entities
+     */
+    public void clear() {
+        for (MemoryEntityStore store : stores.values()) {
+            store.writeLock().lock();
+            try {
+                store.clear();
+            } finally {
+                store.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <E extends Extension> E getExtensionInstance(Class<? extends Extension> extensionClass) {
+        if (extensionClass.equals(ValueGeneratorSupport.class)) {
+            return (E) sequenceGenerator;
+        } else {
+            return null;
+        }
+    }
+
+    private long allocateSequence(String sequenceName, long initialValue, long increment, int n) {
+        return sequences.computeIfAbsent(sequenceName, k -> new AtomicLong(initialValue)).getAndAdd(increment * n);
+    }
+
+    private MemoryEntityStore getStore(EntityMetadata md) {
+        MemoryEntityStore store = stores.computeIfAbsent(md.getName(), k -> new MemoryEntityStore());
+        store.init(md);
+        return store;
+    }
+
+    /**
+     * Returns the stored documents matching the query. Must be called with
+     * a lock on the store.
+     */
+    private static List<JsonDoc> findStored(MemoryEntityStore store, QueryEvaluator qeval, QueryExpression query) {
+        List<JsonDoc> ret = new ArrayList<>();
+        for (JsonDoc doc : store.candidates(store.plan(query))) {
+            if (qeval.evaluate(doc).getResult()) {
+                ret.add(doc);
+            }
+        }
+        return ret;
+    }
+
+    private static List<JsonDoc> sort(EntityMetadata md, List<JsonDoc> docs, Sort sort) {
+        SortFieldInfo[] sortFields = SortFieldInfo.buildSortFields(sort, md.getFieldTreeRoot());
+        List<SortableItem> items = new ArrayList<>(docs.size());
+        for (JsonDoc doc : docs) {
+            items.add(new SortableItem(doc.getRoot(), sortFields));
+        }
+        Collections.sort(items);
+        List<JsonDoc> ret = new ArrayList<>(items.size());
+        for (SortableItem item : items) {
+            ret.add(new JsonDoc(item.getNode()));
+        }
+        return ret;
+    }
+
+    /**
+     * Inserts the document, returns false and sets the document error if
+     * the document cannot be inserted. Must be called with the write lock.
+     */
+    private static boolean insertDoc(EntityMetadata md,
+                                     MemoryEntityStore store,
+                                     FieldAccessRoleEvaluator roleEval,
+                                     DocCtx doc) {
+        Set<Path> inaccessibleFields = roleEval.getInaccessibleFields_Insert(doc);
+        if (!inaccessibleFields.isEmpty()) {
+            doc.addError(Error.get(CrudConstants.ERR_NO_FIELD_INSERT_ACCESS, inaccessibleFields.toString()));
+            return false;
+        }
+        if (!hasId(store, doc)) {
+            doc.addError(Error.get(MemoryCrudConstants.ERR_NO_ID, md.getName()));
+            return false;
+        }
+        DocId id = store.getId(doc);
+        if (store.get(id) != null) {
+            doc.addError(Error.get(MemoryCrudConstants.ERR_DUPLICATE, id.toString()));
+            return false;
+        }
+        Error err = store.checkUnique(id, doc);
+        if (err != null) {
+            doc.addError(err);
+            return false;
+        }
+        store.add(id, doc.copy());
+        doc.setCRUDOperationPerformed(CRUDOperation.INSERT);
+        doc.setUpdatedDocument(doc);
+        return true;
+    }
+
+    /**
+     * Replaces an existing document with the document. Must be called with
+     * the write lock.
+     */
+    private static boolean replaceDoc(MemoryEntityStore store,
+                                      FieldAccessRoleEvaluator roleEval,
+                                      DocCtx doc,
+                                      JsonDoc existing) {
+        Set<Path> inaccessibleFields = roleEval.getInaccessibleFields_Update(doc, existing);
+        if (!inaccessibleFields.isEmpty()) {
+            doc.addError(Error.get(CrudConstants.ERR_NO_FIELD_UPDATE_ACCESS, inaccessibleFields.toString()));
+            return false;
+        }
+        DocId id = store.getId(doc);
+        Error err = store.checkUnique(id, doc);
+        if (err != null) {
+            doc.addError(err);
+            return false;
+        }
+        store.replace(id, doc.copy());
+        doc.setOriginalDocument(existing);
+        doc.setCRUDOperationPerformed(CRUDOperation.UPDATE);
+        doc.setUpdatedDocument(doc);
+        return true;
+    }
+
+    /**
+     * Stores the updated version of a stored document, sets the document
+     * error if it cannot be stored. Must be called with the write lock.
+     */
+    private static void storeUpdatedDoc(MemoryEntityStore store, JsonDoc stored, DocCtx doc) {
+        DocId oldId = store.getId(stored);
+        DocId newId = store.getId(doc);
+        if (newId.equals(oldId)) {
+            Error err = store.checkUnique(newId, doc);
+            if (err != null) {
+                doc.addError(err);
+            } else {
+                store.replace(newId, doc.copy());
+            }
+        } else if (store.get(newId) != null) {
+            doc.addError(Error.get(MemoryCrudConstants.ERR_DUPLICATE, newId.toString()));
+        } else {
+            store.remove(oldId);
+            Error err = store.checkUnique(newId, doc);
+            if (err != null) {
+                store.add(oldId, stored);
+                doc.addError(err);
+            } else {
+                store.add(newId, doc.copy());
+            }
+        }
+    }
+
+    private static boolean hasId(MemoryEntityStore store, JsonDoc doc) {
+        for (Path p : store.getIdentityFields()) {
+            if (!p.equals(PredefinedFields.OBJECTTYPE_PATH)) {
+                JsonNode node = doc.get(p);
+                if (node == null || node.isNull()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void setOutputDocuments(List<DocCtx> docs, Projector projector, JsonNodeFactory nodeFactory) {
+        for (DocCtx doc : docs) {
+            if (!doc.hasErrors()) {
+                if (projector == null) {
+                    doc.setOutputDocument(new JsonDoc(nodeFactory.objectNode()));
+                } else {
+                    doc.setOutputDocument(projector.project(doc, nodeFactory));
+                }
+            }
+        }
+    }
+
+    private static QueryEvaluator getQueryEvaluator(EntityMetadata md, QueryExpression query) {
+        return query == null ? QueryEvaluator.MATCH_ALL_EVALUATOR : QueryEvaluator.getInstance(query, md);
+    }
+
+    /**
+     * Returns a projector for the projection that also excludes the fields
+     * the caller cannot read, or null if the projection is null
+     */
+    private static Projector getProjector(EntityMetadata md, FieldAccessRoleEvaluator roleEval, Projection projection) {
+        if (projection == null) {
+            return null;
+        }
+        return Projector.getInstance(Projection.add(projection, roleEval.getExcludedFields(FieldAccessRoleEvaluator.Operation.find)), md);
+    }
+
+    private static FieldAccessRoleEvaluator getRoleEvaluator(CRUDOperationContext ctx, EntityMetadata md) {
+        Factory factory = ctx.getFactory();
+        return new FieldAccessRoleEvaluator(md, ctx.getCallerRoles(),
+                factory.getFieldAccessCache().get(md, ctx.getCallerRoles(), factory.getRequestMetrics()));
+    }
+}
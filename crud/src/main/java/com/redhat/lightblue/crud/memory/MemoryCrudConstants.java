@@ -0,0 +1,30 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.crud.memory;
+
+public final class MemoryCrudConstants {
+
+    public static final String ERR_DUPLICATE = "memory-crud:Duplicate";
+    public static final String ERR_SAVE_ERROR = "memory-crud:SaveError";
+    public static final String ERR_NO_ID = "memory-crud:NoId";
+    public static final String ERR_REBUILD = "memory-crud:RebuildError";
+
+    private MemoryCrudConstants() {
+    }
+}
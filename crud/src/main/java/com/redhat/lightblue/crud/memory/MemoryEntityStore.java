@@ -0,0 +1,493 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.crud.memory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.redhat.lightblue.metadata.DocId;
+import com.redhat.lightblue.metadata.DocIdExtractor;
+import com.redhat.lightblue.metadata.EntityMetadata;
+import com.redhat.lightblue.metadata.FieldTreeNode;
+import com.redhat.lightblue.metadata.Index;
+import com.redhat.lightblue.metadata.IndexSortKey;
+import com.redhat.lightblue.metadata.SimpleArrayElement;
+import com.redhat.lightblue.metadata.SimpleField;
+import com.redhat.lightblue.metadata.Type;
+
+import com.redhat.lightblue.mindex.LookupSpec;
+import com.redhat.lightblue.mindex.MemDocIndex;
+import com.redhat.lightblue.mindex.MultiValueLookupSpec;
+import com.redhat.lightblue.mindex.RangeLookupSpec;
+import com.redhat.lightblue.mindex.SimpleKeySpec;
+import com.redhat.lightblue.mindex.SortedMemDocIndex;
+import com.redhat.lightblue.mindex.ValueLookupSpec;
+
+import com.redhat.lightblue.query.NaryLogicalExpression;
+import com.redhat.lightblue.query.NaryLogicalOperator;
+import com.redhat.lightblue.query.NaryRelationalOperator;
+import com.redhat.lightblue.query.NaryValueRelationalExpression;
+import com.redhat.lightblue.query.QueryExpression;
+import com.redhat.lightblue.query.Value;
+import com.redhat.lightblue.query.ValueComparisonExpression;
+
+import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.JsonDoc;
+import com.redhat.lightblue.util.Path;
+
+/**
+ * The documents of a single entity, kept in memory, with the indexes
+ * declared in the entity metadata.
+ *
+ * Documents are stored by their identity. For every field that is the
+ * first field of an index, a sorted index is kept, so equality, $in and
+ * range queries on that field look up the candidate documents instead
+ * of scanning all documents. Unique indexes are enforced when
+ * documents are added.
+ *
+ * The indexes are rebuilt when the identity or the index definitions in
+ * the metadata change. If the stored documents don't have unique
+ * identities or unique index values under the new definitions, the rebuild
+ * fails, and the store is left as it was. Callers must hold the read lock while reading
+ * documents, and the write lock while modifying them. The stored
+ * documents must not be modified in place.
+ */
+class MemoryEntityStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoryEntityStore.class);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<DocId, JsonDoc> documents = new LinkedHashMap<>();
+    private DocIdExtractor idExtractor;
+    private Map<Path, MemDocIndex> lookupIndexes = new HashMap<>();
+    private List<UniqueIndex> uniqueIndexes = new ArrayList<>();
+
+    private String signature;
+    private volatile EntityMetadata currentMd;
+
+    /**
+     * Describes how the candidate documents of a query are found
+     */
+    static final class AccessPlan {
+        static final AccessPlan SCAN = new AccessPlan(null, null, null, "scan", Integer.MAX_VALUE);
+
+        final Path field;
+        final MemDocIndex index;
+        final LookupSpec lookup;
+        final String lookupType;
+        final int cost;
+
+        AccessPlan(Path field, MemDocIndex index, LookupSpec lookup, String lookupType, int cost) {
+            this.field = field;
+            this.index = index;
+            this.lookup = lookup;
+            this.lookupType = lookupType;
+            this.cost = cost;
+        }
+
+        JsonNode toJson(JsonNodeFactory factory) {
+            ObjectNode node = factory.objectNode();
+            if (index == null) {
+                node.set("access", factory.textNode("scan"));
+            } else {
+                node.set("access", factory.textNode("index"));
+                node.set("field", factory.textNode(field.toString()));
+                node.set("lookup", factory.textNode(lookupType));
+            }
+            return node;
+        }
+
+        @Override
+        public String toString() {
+            return index == null ? lookupType : lookupType + ":" + field;
+        }
+    }
+
+    /**
+     * A unique index on top-level or nested non-array fields
+     */
+    private static final class UniqueIndex {
+        private final String name;
+        private final Path[] fields;
+        private final Type[] types;
+        private final boolean[] caseInsensitive;
+        private final Map<List<Object>, DocId> entries = new HashMap<>();
+
+        UniqueIndex(String name, Path[] fields, Type[] types, boolean[] caseInsensitive) {
+            this.name = name;
+            this.fields = fields;
+            this.types = types;
+            this.caseInsensitive = caseInsensitive;
+        }
+
+        List<Object> key(JsonDoc doc) {
+            List<Object> key = new ArrayList<>(fields.length);
+            for (int i = 0; i < fields.length; i++) {
+                JsonNode node = doc.get(fields[i]);
+                Object value = node == null || node.isNull() ? null : types[i].fromJson(node);
+                if (caseInsensitive[i] && value instanceof String) {
+                    value = ((String) value).toUpperCase();
+                }
+                key.add(value);
+            }
+            return key;
+        }
+
+        void add(DocId id, JsonDoc doc) {
+            entries.put(key(doc), id);
+        }
+
+        void remove(DocId id, JsonDoc doc) {
+            entries.remove(key(doc), id);
+        }
+
+        boolean conflicts(DocId id, JsonDoc doc) {
+            DocId existing = entries.get(key(doc));
+            return existing != null && !existing.equals(id);
+        }
+    }
+
+    Lock readLock() {
+        return lock.readLock();
+    }
+
+    Lock writeLock() {
+        return lock.writeLock();
+    }
+
+    /**
+     * Makes sure the identity and the indexes are built for the given
+     * version of the metadata. Must be called without holding a lock.
+     *
+     * @throws Error if the stored documents cannot be indexed using the
+     * metadata
+     */
+    void init(EntityMetadata md) {
+        if (md != currentMd) {
+            String newSignature = signature(md);
+            lock.writeLock().lock();
+            try {
+                if (!newSignature.equals(signature)) {
+                    LOGGER.debug("Building indexes for {}: {}", md.getName(), newSignature);
+                    rebuild(md);
+                    signature = newSignature;
+                }
+                currentMd = md;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the identity of the document
+     */
+    DocId getId(JsonDoc doc) {
+        return idExtractor.getDocId(doc);
+    }
+
+    /**
+     * Returns the identity fields of the entity, including objectType
+     */
+    Path[] getIdentityFields() {
+        return idExtractor.getIdentityFields();
+    }
+
+    JsonDoc get(DocId id) {
+        return documents.get(id);
+    }
+
+    int size() {
+        return documents.size();
+    }
+
+    void clear() {
+        documents.clear();
+        for (MemDocIndex index : lookupIndexes.values()) {
+            index.clear();
+        }
+        for (UniqueIndex index : uniqueIndexes) {
+            index.entries.clear();
+        }
+    }
+
+    /**
+     * Checks if the document can be stored with the given id without
+     * violating a unique index. Returns an error if not, null otherwise.
+     * A document stored with the same id is not considered a conflict.
+     */
+    Error checkUnique(DocId id, JsonDoc doc) {
+        for (UniqueIndex index : uniqueIndexes) {
+            if (index.conflicts(id, doc)) {
+                return Error.get(MemoryCrudConstants.ERR_DUPLICATE, index.name);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores a document. There must not be another document with the same
+     * id.
+     */
+    void add(DocId id, JsonDoc doc) {
+        documents.put(id, doc);
+        for (MemDocIndex index : lookupIndexes.values()) {
+            index.add(doc);
+        }
+        for (UniqueIndex index : uniqueIndexes) {
+            index.add(id, doc);
+        }
+    }
+
+    /**
+     * Replaces the document stored with the given id, keeping its position
+     */
+    void replace(DocId id, JsonDoc newDoc) {
+        JsonDoc oldDoc = documents.put(id, newDoc);
+        for (MemDocIndex index : lookupIndexes.values()) {
+            if (oldDoc != null) {
+                index.remove(oldDoc);
+            }
+            index.add(newDoc);
+        }
+        for (UniqueIndex index : uniqueIndexes) {
+            if (oldDoc != null) {
+                index.remove(id, oldDoc);
+            }
+            index.add(id, newDoc);
+        }
+    }
+
+    /**
+     * Removes the document with the given id, and returns it
+     */
+    JsonDoc remove(DocId id) {
+        JsonDoc doc = documents.remove(id);
+        if (doc != null) {
+            for (MemDocIndex index : lookupIndexes.values()) {
+                index.remove(doc);
+            }
+            for (UniqueIndex index : uniqueIndexes) {
+                index.remove(id, doc);
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * Chooses how the candidate documents of the query are found. If the
+     * query, or one of the clauses of a top-level $and, is an equality,
+     * $in, or range comparison of an indexed field with a value, the
+     * index of that field is used. Otherwise, all documents are scanned.
+     */
+    AccessPlan plan(QueryExpression query) {
+        AccessPlan best = AccessPlan.SCAN;
+        if (query != null) {
+            List<QueryExpression> clauses;
+            if (query instanceof NaryLogicalExpression
+                    && ((NaryLogicalExpression) query).getOp() == NaryLogicalOperator._and) {
+                clauses = ((NaryLogicalExpression) query).getQueries();
+            } else {
+                clauses = Collections.singletonList(query);
+            }
+            for (QueryExpression clause : clauses) {
+                AccessPlan p = planClause(clause);
+                if (p != null && p.cost < best.cost) {
+                    best = p;
+                }
+            }
+        }
+        LOGGER.debug("Access plan for {}: {}", query, best);
+        return best;
+    }
+
+    /**
+     * Returns the candidate documents for the plan. The returned documents
+     * are a superset of the documents matching the query, so the query must
+     * still be evaluated on them.
+     */
+    Collection<JsonDoc> candidates(AccessPlan plan) {
+        if (plan.index == null) {
+            return documents.values();
+        } else {
+            return plan.index.find(plan.lookup);
+        }
+    }
+
+    private AccessPlan planClause(QueryExpression clause) {
+        try {
+            if (clause instanceof ValueComparisonExpression) {
+                ValueComparisonExpression c = (ValueComparisonExpression) clause;
+                MemDocIndex index = lookupIndexes.get(c.getField());
+                Object value = c.getRvalue() == null ? null : c.getRvalue().getValue();
+                if (index != null && value != null) {
+                    SimpleKeySpec key = (SimpleKeySpec) index.keySpec;
+                    switch (c.getOp()) {
+                        case _eq:
+                            return new AccessPlan(c.getField(), index, new ValueLookupSpec(key, value), "value", 0);
+                        case _lt:
+                        case _lte:
+                            return new AccessPlan(c.getField(), index, new RangeLookupSpec(key, null, value), "range", 2);
+                        case _gt:
+                        case _gte:
+                            return new AccessPlan(c.getField(), index, new RangeLookupSpec(key, value, null), "range", 2);
+                        default:
+                            break;
+                    }
+                }
+            } else if (clause instanceof NaryValueRelationalExpression) {
+                NaryValueRelationalExpression c = (NaryValueRelationalExpression) clause;
+                MemDocIndex index = lookupIndexes.get(c.getField());
+                if (index != null && c.getOp() == NaryRelationalOperator._in) {
+                    List<Object> values = new ArrayList<>(c.getValues().size());
+                    for (Value v : c.getValues()) {
+                        if (v == null || v.getValue() == null) {
+                            return null;
+                        }
+                        values.add(v.getValue());
+                    }
+                    return new AccessPlan(c.getField(), index, new MultiValueLookupSpec((SimpleKeySpec) index.keySpec, values), "in", 1);
+                }
+            }
+        } catch (RuntimeException e) {
+            // The value cannot be converted to the field type, the query
+            // evaluator will deal with it
+            LOGGER.debug("Cannot use index for {}: {}", clause, e.toString());
+        }
+        return null;
+    }
+
+    private void rebuild(EntityMetadata md) {
+        DocIdExtractor newIdExtractor = new DocIdExtractor(md);
+        Map<Path, MemDocIndex> newLookupIndexes = new HashMap<>();
+        List<UniqueIndex> newUniqueIndexes = new ArrayList<>();
+        for (Index index : md.getEntityInfo().getIndexes().getIndexes()) {
+            List<IndexSortKey> keys = index.getFields();
+            if (keys.isEmpty()) {
+                continue;
+            }
+            Path first = keys.get(0).getField();
+            if (!newLookupIndexes.containsKey(first)) {
+                FieldTreeNode fieldMd = resolveSimpleField(md, first);
+                if (fieldMd != null) {
+                    newLookupIndexes.put(first, new SortedMemDocIndex(new SimpleKeySpec(fieldMd, first)));
+                }
+            }
+            if (index.isUnique()) {
+                UniqueIndex u = uniqueIndex(md, index);
+                if (u != null) {
+                    newUniqueIndexes.add(u);
+                }
+            }
+        }
+
+        // Index the documents using the new identity and indexes, and
+        // only replace the current ones if all documents fit
+        Map<DocId, JsonDoc> newDocuments = new LinkedHashMap<>();
+        for (JsonDoc doc : documents.values()) {
+            DocId id = newIdExtractor.getDocId(doc);
+            if (newDocuments.containsKey(id)) {
+                throw Error.get(MemoryCrudConstants.ERR_REBUILD, md.getName() + ": duplicate identity " + id);
+            }
+            for (UniqueIndex index : newUniqueIndexes) {
+                if (index.conflicts(id, doc)) {
+                    throw Error.get(MemoryCrudConstants.ERR_REBUILD, md.getName() + ": duplicate value for " + index.name);
+                }
+            }
+            newDocuments.put(id, doc);
+            for (MemDocIndex index : newLookupIndexes.values()) {
+                index.add(doc);
+            }
+            for (UniqueIndex index : newUniqueIndexes) {
+                index.add(id, doc);
+            }
+        }
+        idExtractor = newIdExtractor;
+        lookupIndexes = newLookupIndexes;
+        uniqueIndexes = newUniqueIndexes;
+        documents.clear();
+        documents.putAll(newDocuments);
+    }
+
+    private UniqueIndex uniqueIndex(EntityMetadata md, Index index) {
+        List<IndexSortKey> keys = index.getFields();
+        Path[] fields = new Path[keys.size()];
+        Type[] types = new Type[keys.size()];
+        boolean[] caseInsensitive = new boolean[keys.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = keys.get(i).getField();
+            FieldTreeNode fieldMd = fields[i].nAnys() == 0 ? resolveSimpleField(md, fields[i]) : null;
+            if (fieldMd == null) {
+                // Uniqueness of array elements is not enforced
+                LOGGER.debug("Not enforcing unique index {} of {}", index.getName(), md.getName());
+                return null;
+            }
+            types[i] = fieldMd.getType();
+            caseInsensitive[i] = keys.get(i).isCaseInsensitive();
+        }
+        return new UniqueIndex(index.getName() == null ? keys.toString() : index.getName(), fields, types, caseInsensitive);
+    }
+
+    private static FieldTreeNode resolveSimpleField(EntityMetadata md, Path field) {
+        try {
+            FieldTreeNode fieldMd = md.resolve(field);
+            if (fieldMd instanceof SimpleField || fieldMd instanceof SimpleArrayElement) {
+                return fieldMd;
+            }
+        } catch (Exception e) {
+            LOGGER.debug("Cannot resolve index field {} of {}: {}", field, md.getName(), e.toString());
+        }
+        return null;
+    }
+
+    private static String signature(EntityMetadata md) {
+        StringBuilder bld = new StringBuilder();
+        bld.append(new DocIdExtractor(md));
+        for (Index index : md.getEntityInfo().getIndexes().getIndexes()) {
+            bld.append(index.isUnique() ? " unique" : " index");
+            for (IndexSortKey key : index.getFields()) {
+                bld.append(' ').append(key.getField());
+                if (key.isCaseInsensitive()) {
+                    bld.append("/i");
+                }
+                FieldTreeNode fieldMd = resolveSimpleField(md, key.getField());
+                if (fieldMd != null) {
+                    bld.append(':').append(fieldMd.getType().getName());
+                }
+            }
+        }
+        return bld.toString();
+    }
+}
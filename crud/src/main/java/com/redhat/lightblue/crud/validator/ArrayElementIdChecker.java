@@ -68,4 +68,9 @@ public class ArrayElementIdChecker implements FieldConstraintDocChecker {
                 validator.addDocError(Error.get(CrudConstants.ERR_DUPLICATE_ARRAY_ELEMENT_ID,value==null?"null":value.asText()));
         }
     }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
 }
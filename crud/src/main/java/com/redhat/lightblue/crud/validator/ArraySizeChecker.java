@@ -53,4 +53,9 @@ public class ArraySizeChecker implements FieldConstraintValueChecker {
             }
         }
     }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
 }
@@ -37,4 +37,9 @@ public class EmptyFieldConstraintDocChecker implements FieldConstraintDocChecker
                                 FieldConstraint constraint,
                                 JsonDoc doc) {
     }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
 }
@@ -60,4 +60,9 @@ public class EnumChecker implements FieldConstraintValueChecker {
             }
         }
     }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
 }
@@ -49,4 +49,9 @@ public class IdentityChecker implements FieldConstraintDocChecker {
             validator.addDocError(Error.get(CrudConstants.ERR_REQUIRED, x.toString()));
         }
     }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
 }
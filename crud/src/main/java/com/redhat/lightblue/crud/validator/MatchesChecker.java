@@ -52,4 +52,9 @@ public class MatchesChecker implements FieldConstraintValueChecker {
             validator.addDocError(Error.get(CrudConstants.ERR_INVALID_ENTITY, fieldValue.asText()));
         }
     }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
 }
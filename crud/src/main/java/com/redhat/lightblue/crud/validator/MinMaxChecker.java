@@ -102,4 +102,9 @@ public class MinMaxChecker implements FieldConstraintValueChecker {
     private int cmp(BigDecimal nodeValue, BigDecimal fieldValue) {
         return nodeValue.compareTo(fieldValue);
     }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
 }
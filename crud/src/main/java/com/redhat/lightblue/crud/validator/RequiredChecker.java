@@ -108,4 +108,9 @@ public class RequiredChecker implements FieldConstraintDocChecker {
         LOGGER.debug("Errors:{}", errors);
         return errors;
     }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
 }
@@ -53,4 +53,9 @@ public class StringLengthChecker implements FieldConstraintValueChecker {
             }
         }
     }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
 }
@@ -18,17 +18,16 @@
  */
 package com.redhat.lightblue.crud.valuegenerators;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.NullNode;
-import com.redhat.lightblue.metadata.FieldCursor;
-import com.redhat.lightblue.metadata.FieldTreeNode;
-import com.redhat.lightblue.metadata.FieldConstraint;
 import com.redhat.lightblue.metadata.ValueGenerator;
 import com.redhat.lightblue.metadata.SimpleField;
 import com.redhat.lightblue.metadata.EntityMetadata;
-import com.redhat.lightblue.metadata.constraints.ArrayElementIdConstraint;
-import com.redhat.lightblue.metadata.constraints.IdentityConstraint;
-import com.redhat.lightblue.metadata.constraints.RequiredConstraint;
+import com.redhat.lightblue.metadata.WriteFields;
 import com.redhat.lightblue.crud.Factory;
 import com.redhat.lightblue.util.JsonDoc;
 import com.redhat.lightblue.util.KeyValueCursor;
@@ -38,8 +37,6 @@ import com.redhat.lightblue.extensions.valuegenerator.ValueGeneratorSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-
 /**
  * Initializes generated fields if they are not already initialized.
  *
@@ -50,54 +47,79 @@ import java.util.List;
  * If a generated field is not required, but it exists in the document with null
  * value, it is initialized.
  *
+ * When the fields of many documents are initialized together, the values
+ * for each generated field are requested from the value generator in one
+ * call.
  */
 public final class GeneratedFields {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GeneratedFields.class);
 
     public static void initializeGeneratedFields(Factory factory, EntityMetadata md, JsonDoc doc) {
-        FieldCursor cursor = md.getFieldCursor();
-        while (cursor.next()) {
-            FieldTreeNode node = cursor.getCurrentNode();
-            // Process all generated fields
-            if (node instanceof SimpleField) {
-                SimpleField field = (SimpleField) node;
-                ValueGenerator generator = field.getValueGenerator();
-                if (generator != null) {
-                    Path p = cursor.getCurrentPath();
-                    LOGGER.debug("Processing generated field {}", p);
-                    if (required(field)) {
-                        LOGGER.debug("Field {} is required", p);
-                        setRequiredField(factory, doc, field, p, 1, null, md, generator.isOverwrite());
-                    } else {
-                        LOGGER.debug("Field {} is not required", p);
-                        KeyValueCursor<Path, JsonNode> nodeCursor = doc.getAllNodes(p);
-                        while (nodeCursor.hasNext()) {
-                            nodeCursor.next();
-                            JsonNode valueNode = nodeCursor.getCurrentValue();
-                            if (valueNode.isNull() || generator.isOverwrite()) {
-                                JsonNode value = generate(factory,
-                                        field,
-                                        md);
-                                LOGGER.debug("Setting {} to {}", nodeCursor.getCurrentKey(), value);
-                                doc.modify(nodeCursor.getCurrentKey(), value, true);
-                            }
+        initializeGeneratedFields(factory, md, Collections.singletonList(doc));
+    }
+
+    /**
+     * Initializes the generated fields of all the documents. The fields that
+     * need a value are collected first, and then the values for each
+     * generated field are requested from the value generator in one call.
+     */
+    public static void initializeGeneratedFields(Factory factory, EntityMetadata md, List<? extends JsonDoc> docs) {
+        // Process all generated fields
+        for (WriteFields.WriteField<SimpleField> wf : md.getEntitySchema().getWriteFields().getGeneratedFields()) {
+            SimpleField field = wf.getNode();
+            ValueGenerator generator = field.getValueGenerator();
+            Path p = wf.getPath();
+            LOGGER.debug("Processing generated field {}", p);
+            List<Slot> slots = new ArrayList<>();
+            for (JsonDoc doc : docs) {
+                if (wf.isRequired()) {
+                    LOGGER.debug("Field {} is required", p);
+                    collectRequiredField(doc, p, 1, null, generator.isOverwrite(), slots);
+                } else {
+                    LOGGER.debug("Field {} is not required", p);
+                    KeyValueCursor<Path, JsonNode> nodeCursor = doc.getAllNodes(p);
+                    while (nodeCursor.hasNext()) {
+                        nodeCursor.next();
+                        JsonNode valueNode = nodeCursor.getCurrentValue();
+                        if (valueNode.isNull() || generator.isOverwrite()) {
+                            slots.add(new Slot(doc, nodeCursor.getCurrentKey()));
                         }
                     }
                 }
             }
+            if (!slots.isEmpty()) {
+                List<JsonNode> values = generate(factory, field, md, slots.size());
+                int i = 0;
+                for (Slot slot : slots) {
+                    JsonNode value = values.get(i++);
+                    LOGGER.debug("Setting {} to {}", slot.path, value);
+                    slot.doc.modify(slot.path, value, true);
+                }
+            }
         }
     }
 
-    private static void setRequiredField(Factory factory,
-                                         JsonDoc doc,
-                                         SimpleField field,
-                                         Path fieldPath,
-                                         int startSegment,
-                                         Path resolvedPath,
-                                         EntityMetadata md,
-                                         boolean overwrite) {
-        LOGGER.debug("setRequiredField: fieldPath:{} startSegment:{} resolvedPath:{}", fieldPath, startSegment, resolvedPath);
+    /**
+     * A field of a document that will receive a generated value
+     */
+    private static final class Slot {
+        private final JsonDoc doc;
+        private final Path path;
+
+        Slot(JsonDoc doc, Path path) {
+            this.doc = doc;
+            this.path = path;
+        }
+    }
+
+    private static void collectRequiredField(JsonDoc doc,
+                                             Path fieldPath,
+                                             int startSegment,
+                                             Path resolvedPath,
+                                             boolean overwrite,
+                                             List<Slot> slots) {
+        LOGGER.debug("collectRequiredField: fieldPath:{} startSegment:{} resolvedPath:{}", fieldPath, startSegment, resolvedPath);
         int nSegments = fieldPath.numSegments();
         boolean array = false;
         for (int segment = startSegment; segment < nSegments; segment++) {
@@ -115,7 +137,7 @@ public final class GeneratedFields {
                     arrPath.push(0);
                     for (int i = 0; i < size; i++) {
                         arrPath.setLast(i);
-                        setRequiredField(factory, doc, field, fieldPath, segment + 1, arrPath.immutableCopy(), md, overwrite);
+                        collectRequiredField(doc, fieldPath, segment + 1, arrPath.immutableCopy(), overwrite, slots);
                     }
                 }
                 break;
@@ -137,14 +159,10 @@ public final class GeneratedFields {
                 }
             }
             if (!nullParent) {
-                LOGGER.debug("Setting {}", p);
                 JsonNode valueNode = doc.get(p);
                 if (overwrite || (valueNode == null || valueNode.isNull())) {
-                    JsonNode value = generate(factory,
-                            field,
-                            md);
-                    LOGGER.debug("Setting {} to {}", p, value);
-                    doc.modify(p, value, true);
+                    LOGGER.debug("Will set {}", p);
+                    slots.add(new Slot(doc, p));
                 }
             }
         }
@@ -153,28 +171,30 @@ public final class GeneratedFields {
     public static JsonNode generate(Factory factory,
                                     SimpleField field,
                                     EntityMetadata md) {
+        return generate(factory, field, md, 1).get(0);
+    }
+
+    /**
+     * Generates n values for the field using one call to the value generator
+     */
+    public static List<JsonNode> generate(Factory factory,
+                                          SimpleField field,
+                                          EntityMetadata md,
+                                          int n) {
         ValueGeneratorSupport vgs = factory.getValueGenerator(field.getValueGenerator(), md.getDataStore().getBackend());
         if (vgs == null) {
             throw new IllegalArgumentException("Cannot generate value for " + field.getFullPath());
         }
-        Object value = vgs.generateValue(md, field.getValueGenerator());
-        return field.getType().toJson(factory.getNodeFactory(), value);
-    }
-
-    private static boolean required(SimpleField f) {
-        List<FieldConstraint> constraints = f.getConstraints();
-        if (constraints != null) {
-            for (FieldConstraint c : constraints) {
-                if (c instanceof RequiredConstraint) {
-                    return ((RequiredConstraint) c).getValue();
-                } else if (c instanceof IdentityConstraint) {
-                    return ((IdentityConstraint) c).isValidForFieldType(f.getType());
-                } else if (c instanceof ArrayElementIdConstraint) {
-                    return ((ArrayElementIdConstraint) c).isValidForFieldType(f.getType());
-                }
-            }
+        List<Object> values = vgs.generateValues(md, field.getValueGenerator(), n);
+        if (values == null || values.size() != n) {
+            throw new IllegalStateException("Expected " + n + " generated values for " + field.getFullPath()
+                    + ", got " + (values == null ? 0 : values.size()));
+        }
+        List<JsonNode> ret = new ArrayList<>(n);
+        for (Object value : values) {
+            ret.add(field.getType().toJson(factory.getNodeFactory(), value));
         }
-        return false;
+        return ret;
     }
 
     private GeneratedFields() {
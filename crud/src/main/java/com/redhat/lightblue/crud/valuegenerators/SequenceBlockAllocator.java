@@ -0,0 +1,132 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.crud.valuegenerators;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Allocates sequence values in blocks for back ends that can advance a
+ * sequence by many values in one call.
+ *
+ * Values are served from a block kept in memory. When the block runs out, a
+ * new range is allocated from the back end. A request for more values than
+ * the block has left allocates the missing values and a new block in one
+ * call. The values returned for a sequence are increasing (or decreasing,
+ * for a negative increment), but there may be gaps: values left in a block
+ * are lost when the process stops.
+ *
+ * {@link SequenceGenerator} uses this to generate the values for many
+ * documents with at most one call to the back end. A back end supports
+ * IntSequence generators by returning a SequenceGenerator with its own
+ * range allocator as its value generator extension.
+ */
+public class SequenceBlockAllocator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SequenceBlockAllocator.class);
+
+    /**
+     * Allocates a range of sequence values in the back end
+     */
+    @FunctionalInterface
+    public interface RangeAllocator {
+        /**
+         * Atomically advances the sequence by n values, creating the
+         * sequence with the initial value if it doesn't exist, and returns
+         * the first value of the allocated range. The allocated values are
+         * first, first+increment, ..., first+(n-1)*increment.
+         */
+        long allocate(String sequenceName, long initialValue, long increment, int n);
+    }
+
+    private static final class Block {
+        private final long increment;
+        private long next;
+        private int remaining;
+
+        Block(long increment) {
+            this.increment = increment;
+        }
+    }
+
+    private final RangeAllocator allocator;
+    private final int blockSize;
+    private final Map<String, Block> blocks = new HashMap<>();
+
+    /**
+     * Constructs an allocator
+     *
+     * @param allocator Allocates ranges in the back end
+     * @param blockSize The number of values allocated from the back end at
+     * once. If 1 or less, every value is allocated from the back end.
+     */
+    public SequenceBlockAllocator(RangeAllocator allocator, int blockSize) {
+        this.allocator = allocator;
+        this.blockSize = blockSize < 1 ? 1 : blockSize;
+    }
+
+    /**
+     * Returns the next value of the sequence
+     */
+    public long next(String sequenceName, long initialValue, long increment) {
+        return next(sequenceName, initialValue, increment, 1)[0];
+    }
+
+    /**
+     * Returns the next n values of the sequence
+     */
+    public synchronized long[] next(String sequenceName, long initialValue, long increment, int n) {
+        long[] values = new long[n];
+        Block block = blocks.get(sequenceName);
+        if (block == null || block.increment != increment) {
+            block = new Block(increment);
+            blocks.put(sequenceName, block);
+        }
+        int i = 0;
+        while (i < n && block.remaining > 0) {
+            values[i++] = block.next;
+            block.next += increment;
+            block.remaining--;
+        }
+        if (i < n) {
+            // Allocate the missing values, rounded up to the block size
+            int missing = n - i;
+            int size = ((missing + blockSize - 1) / blockSize) * blockSize;
+            LOGGER.debug("Allocating {} values for sequence {}", size, sequenceName);
+            long first = allocator.allocate(sequenceName, initialValue, increment, size);
+            for (; i < n; i++) {
+                values[i] = first;
+                first += increment;
+            }
+            block.next = first;
+            block.remaining = size - missing;
+        }
+        return values;
+    }
+
+    /**
+     * Discards the values left in the blocks
+     */
+    public synchronized void clear() {
+        blocks.clear();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.crud.valuegenerators;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.redhat.lightblue.crud.CrudConstants;
+import com.redhat.lightblue.extensions.valuegenerator.ValueGeneratorSupport;
+import com.redhat.lightblue.metadata.EntityMetadata;
+import com.redhat.lightblue.metadata.ValueGenerator;
+import com.redhat.lightblue.util.Error;
+
+/**
+ * Generates IntSequence values using a {@link SequenceBlockAllocator}.
+ *
+ * The generator configuration can contain the sequence "name", which
+ * defaults to the entity name, and the "initialValue" and "increment" of the
+ * sequence, which default to 1. All the values needed for a request are
+ * taken from the allocator in one call.
+ */
+public class SequenceGenerator implements ValueGeneratorSupport {
+
+    public static final ValueGenerator.ValueGeneratorType[] TYPES = {ValueGenerator.ValueGeneratorType.IntSequence};
+
+    public static final String NAME = "name";
+    public static final String INITIAL_VALUE = "initialValue";
+    public static final String INCREMENT = "increment";
+
+    private final SequenceBlockAllocator allocator;
+
+    public SequenceGenerator(SequenceBlockAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    @Override
+    public ValueGenerator.ValueGeneratorType[] getSupportedGeneratorTypes() {
+        return TYPES;
+    }
+
+    @Override
+    public Object generateValue(EntityMetadata md, ValueGenerator generator) {
+        return allocator.next(getName(md, generator),
+                getLong(generator, INITIAL_VALUE),
+                getLong(generator, INCREMENT));
+    }
+
+    @Override
+    public List<Object> generateValues(EntityMetadata md, ValueGenerator generator, int n) {
+        long[] values = allocator.next(getName(md, generator),
+                getLong(generator, INITIAL_VALUE),
+                getLong(generator, INCREMENT),
+                n);
+        List<Object> list = new ArrayList<>(n);
+        for (long x : values) {
+            list.add(x);
+        }
+        return list;
+    }
+
+    private static String getName(EntityMetadata md, ValueGenerator generator) {
+        Object x = generator.getProperties().get(NAME);
+        return x == null ? md.getName() : x.toString();
+    }
+
+    private static long getLong(ValueGenerator generator, String property) {
+        Object x = generator.getProperties().get(property);
+        if (x == null) {
+            return 1;
+        } else if (x instanceof Number) {
+            return ((Number) x).longValue();
+        } else {
+            try {
+                return Long.parseLong(x.toString());
+            } catch (NumberFormatException e) {
+                throw Error.get(CrudConstants.ERR_CONFIG_NOT_VALID, property + "=" + x);
+            }
+        }
+    }
+}
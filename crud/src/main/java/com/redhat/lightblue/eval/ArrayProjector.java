@@ -111,6 +111,28 @@ public abstract class ArrayProjector extends Projector {
         return Projection.Inclusion.undecided;
     }
 
+    /**
+     * Array projectors decide only for the elements of their array. For an
+     * element of another array, the projector is undecided for all
+     * elements of that array.
+     */
+    @Override
+    public boolean isSameForFollowingElements(Path p) {
+        if (p.numSegments() == arrayFieldPattern.numSegments() + 1 && p.matchingDescendant(arrayFieldPattern)) {
+            return isSameForFollowingElementsOfArray(p);
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if this projector decides the same for all elements
+     * after the element p of the projected array. The default
+     * implementation returns false.
+     */
+    protected boolean isSameForFollowingElementsOfArray(Path p) {
+        return false;
+    }
+
     /**
      * Sorts the given array node using the sort criteria given in this
      * ArrayProjector
@@ -67,4 +67,18 @@ public class ArrayRangeProjector extends ArrayProjector {
             return Projection.Inclusion.explicit_exclusion;
         }
     }
+
+    /**
+     * All elements after 'to' are excluded. If there is no 'to', all
+     * elements after 'from' are selected.
+     */
+    @Override
+    protected boolean isSameForFollowingElementsOfArray(Path p) {
+        int index = p.getIndex(p.numSegments() - 1);
+        if (to == null) {
+            return index >= from;
+        } else {
+            return to < 0 || index > to;
+        }
+    }
 }
@@ -0,0 +1,198 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.eval;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import com.redhat.lightblue.crud.AbstractEntityCache;
+import com.redhat.lightblue.metadata.CompositeMetadata;
+import com.redhat.lightblue.metadata.EntityMetadata;
+
+import com.redhat.lightblue.util.Path;
+import com.redhat.lightblue.util.metrics.RequestMetrics;
+
+/**
+ * An LRU cache of field access decisions, keyed by entity name, entity
+ * version, caller role set, and for composite metadata, the entities
+ * included in it. Composite metadata for the same entity built with
+ * different references get separate entries.
+ *
+ * An entry keeps the set of inaccessible fields for each operation, computed
+ * the first time it is requested. Entries are shared between requests, and
+ * between schema instances parsed for the same entity version. A change to
+ * any of the entities of an entry evicts it.
+ */
+public class FieldAccessCache extends AbstractEntityCache<FieldAccessCache.Key, FieldAccessCache.Entry> {
+
+    /**
+     * The cache name used for hit/miss metrics
+     */
+    public static final String CACHE_NAME = "fieldAccess";
+
+    static final class Key {
+        private final String entityName;
+        private final String version;
+        private final String shape;
+        private final Set<String> roles;
+        // Names of all entities in the key, not a part of the key
+        private final Set<String> entities = new HashSet<>();
+
+        Key(EntityMetadata md, Set<String> roles) {
+            this.entityName = md.getName();
+            this.version = md.getVersion() == null ? null : md.getVersion().getValue();
+            entities.add(entityName);
+            this.shape = md instanceof CompositeMetadata ? shapeOf((CompositeMetadata) md) : "";
+            this.roles = Collections.unmodifiableSet(new TreeSet<>(roles));
+        }
+
+        /**
+         * Returns the entities included in the composite metadata, with
+         * their paths and versions
+         */
+        private String shapeOf(CompositeMetadata md) {
+            StringBuilder bld = new StringBuilder();
+            appendChildren(bld, md);
+            return bld.toString();
+        }
+
+        private void appendChildren(StringBuilder bld, CompositeMetadata md) {
+            for (Path child : new TreeSet<>(md.getChildPaths())) {
+                CompositeMetadata c = md.getChildMetadata(child);
+                if (c != null) {
+                    entities.add(c.getName());
+                    bld.append(child).append('=').append(c.getName()).append(':');
+                    if (c.getVersion() != null) {
+                        bld.append(c.getVersion().getValue());
+                    }
+                    bld.append(';');
+                    appendChildren(bld, c);
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Key) {
+                Key k = (Key) o;
+                return entityName.equals(k.entityName)
+                        && (version == null ? k.version == null : version.equals(k.version))
+                        && shape.equals(k.shape)
+                        && roles.equals(k.roles);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return (entityName.hashCode() * 31 + shape.hashCode()) * 31 + roles.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return entityName + ":" + version + "{" + shape + "}" + roles;
+        }
+    }
+
+    /**
+     * Cached access decisions for an entity version and a caller role set
+     */
+    public static final class Entry {
+        private final Map<FieldAccessRoleEvaluator.Operation, Set<Path>> inaccessibleFields
+                = Collections.synchronizedMap(new EnumMap<>(FieldAccessRoleEvaluator.Operation.class));
+
+        private Entry() {
+        }
+
+        /**
+         * Returns the inaccessible fields for the operation, computing them
+         * using the given function if they are not already computed. The
+         * returned set must not be modified.
+         */
+        Set<Path> getInaccessibleFields(FieldAccessRoleEvaluator.Operation op,
+                                        Function<FieldAccessRoleEvaluator.Operation, Set<Path>> compute) {
+            Set<Path> s = inaccessibleFields.get(op);
+            if (s == null) {
+                // Computed outside the lock. Concurrent computations
+                // produce the same set.
+                s = Collections.unmodifiableSet(compute.apply(op));
+                inaccessibleFields.put(op, s);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Constructs a field access cache whose entries don't expire
+     *
+     * @param maxSize Maximum number of entity version, composite entity and
+     * role set combinations in the cache. If 0 or less, caching is disabled.
+     */
+    public FieldAccessCache(int maxSize) {
+        this(maxSize, 0);
+    }
+
+    /**
+     * Constructs a field access cache
+     *
+     * @param maxSize Maximum number of entity version, composite entity and
+     * role set combinations in the cache. If 0 or less, caching is disabled.
+     * @param ttlMS Time in milliseconds an entry is kept. If 0 or less,
+     * entries don't expire.
+     */
+    public FieldAccessCache(int maxSize, long ttlMS) {
+        super(CACHE_NAME, maxSize, ttlMS);
+    }
+
+    /**
+     * Returns the access decisions for the entity metadata and caller roles,
+     * creating an empty entry if there isn't one. Returns null if caching is
+     * disabled. Records a hit or miss in the given metrics.
+     */
+    public Entry get(EntityMetadata md, Set<String> callerRoles, RequestMetrics metrics) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Key key = new Key(md, callerRoles);
+        Entry entry = getEntry(key);
+        if (entry != null) {
+            hit(metrics);
+            return entry;
+        }
+        miss(metrics);
+        // Concurrent misses may create separate entries, the last one stays
+        entry = new Entry();
+        putEntry(key, entry);
+        return entry;
+    }
+
+    /**
+     * An entry contains its entity, and for composite metadata, all the
+     * entities included in it
+     */
+    @Override
+    protected boolean containsEntity(Key key, Entry entry, String entityName) {
+        return key.entities.contains(entityName);
+    }
+}
@@ -48,6 +48,7 @@ import com.redhat.lightblue.util.DocComparator;
 public class FieldAccessRoleEvaluator {
     private final EntityMetadata md;
     private final Set<String> roles;
+    private final FieldAccessCache.Entry cached;
     private JsonCompare comparator;
     private DocComparator.Difference<JsonNode> diff;
 
@@ -56,8 +57,18 @@ public class FieldAccessRoleEvaluator {
     };
 
     public FieldAccessRoleEvaluator(EntityMetadata md, Set<String> callerRoles) {
+        this(md, callerRoles, null);
+    }
+
+    /**
+     * Constructs an evaluator that uses the cached access decisions for the
+     * metadata and caller roles. If cached is null, access decisions are
+     * computed by every call.
+     */
+    public FieldAccessRoleEvaluator(EntityMetadata md, Set<String> callerRoles, FieldAccessCache.Entry cached) {
         this.md = md;
         this.roles = callerRoles;
+        this.cached = cached;
     }
 
     /**
@@ -81,6 +92,9 @@ public class FieldAccessRoleEvaluator {
         FieldTreeNode fn = md.resolve(field);
         if (fn != null) {
             if (fn instanceof Field) {
+                if (cached != null) {
+                    return !inaccessibleFields(op).contains(fn.getFullPath());
+                }
                 return hasAccess((Field) fn, op);
             } else {
                 return true;
@@ -95,6 +109,18 @@ public class FieldAccessRoleEvaluator {
      * operation
      */
     public Set<Path> getInaccessibleFields(Operation op) {
+        return cached == null ? computeInaccessibleFields(op) : new HashSet<>(inaccessibleFields(op));
+    }
+
+    /**
+     * Returns the inaccessible fields for the operation. The returned set
+     * may be shared, and must not be modified.
+     */
+    private Set<Path> inaccessibleFields(Operation op) {
+        return cached == null ? computeInaccessibleFields(op) : cached.getInaccessibleFields(op, this::computeInaccessibleFields);
+    }
+
+    private Set<Path> computeInaccessibleFields(Operation op) {
         FieldCursor cursor = md.getFieldCursor();
         Set<Path> fields = new HashSet<>();
         while (cursor.next()) {
@@ -112,7 +138,7 @@ public class FieldAccessRoleEvaluator {
      * doc.
      */
     public Set<Path> getInaccessibleFields_Insert(JsonDoc doc) {
-        Set<Path> inaccessibleFields = getInaccessibleFields(Operation.insert);
+        Set<Path> inaccessibleFields = inaccessibleFields(Operation.insert);
         Set<Path> ret = new HashSet<>(inaccessibleFields.size());
         for (Path x : inaccessibleFields) {
             KeyValueCursor<Path, JsonNode> cursor = doc.getAllNodes(x);
@@ -123,6 +149,11 @@ public class FieldAccessRoleEvaluator {
         return ret;
     }
 
+    /**
+     * Returns the difference computed by the last call to
+     * getInaccessibleFields_Update. The difference only includes the parts of
+     * the documents that can contain fields inaccessible for update.
+     */
     public DocComparator.Difference<JsonNode> getLastDiff() {
         return diff;
     }
@@ -135,11 +166,13 @@ public class FieldAccessRoleEvaluator {
      * @param oldDoc The old version of the document
      */
     public Set<Path> getInaccessibleFields_Update(JsonDoc newDoc, JsonDoc oldDoc) {
-        // Initialize the comparator if not already
+        Set<Path> inaccessibleFields = inaccessibleFields(Operation.update);
+        // Initialize the comparator if not already. Only the parts of the
+        // documents that can contain inaccessible fields are compared
         if (comparator == null) {
             comparator = md.getEntitySchema().getDocComparator();
+            comparator.setComparedFields(inaccessibleFields);
         }
-        Set<Path> inaccessibleFields = getInaccessibleFields(Operation.update);
         Set<Path> ret = new HashSet<>();
         if (!inaccessibleFields.isEmpty()) {
             try {
@@ -195,7 +228,7 @@ public class FieldAccessRoleEvaluator {
      * access to based on the operation
      */
     public Projection getExcludedFields(Operation op) {
-        Set<Path> inaccessibleFields = getInaccessibleFields(op);
+        Set<Path> inaccessibleFields = inaccessibleFields(op);
         Projection ret;
         if (inaccessibleFields.isEmpty()) {
             ret = null;
@@ -72,4 +72,14 @@ public class FieldProjector extends Projector {
         }
         return Projection.Inclusion.undecided;
     }
+
+    /**
+     * The decision depends on the array index only if the projection field
+     * has that index
+     */
+    @Override
+    public boolean isSameForFollowingElements(Path p) {
+        int n = p.numSegments();
+        return field.numSegments() < n || Path.ANY.equals(field.head(n - 1));
+    }
 }
@@ -20,6 +20,7 @@ package com.redhat.lightblue.eval;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import com.redhat.lightblue.util.*;
@@ -47,31 +48,26 @@ public class ForEachExpressionEvaluator extends Updater {
     private static final Logger LOGGER = LoggerFactory.getLogger(ForEachExpressionEvaluator.class);
 
     private final JsonNodeFactory factory;
-    private final Memento memento;
     private UpdateInfo updateInfo = null;
     private int numAny = 0;
 
     public ForEachExpressionEvaluator(JsonNodeFactory factory, FieldTreeNode context, ForEachExpression expr) {
-        this.memento = new Memento(factory, context, expr);
         this.factory = factory;
         this.numAny = expr.getField().nAnys();
-        // Resolve the field, make sure it is an array
-        this.updateInfo = generateProcessedInfo(context, expr, null, null);
-
+        // Resolve the field, make sure it is an array. If the field
+        // has wildcards, the array field, the query evaluator and the
+        // updater are the same for all the matching arrays, so they
+        // are compiled here once, and bound to the concrete array
+        // paths during update
+        this.updateInfo = generateProcessedInfo(context, expr);
     }
 
-    private UpdateInfo generateProcessedInfo(FieldTreeNode context, ForEachExpression expr, Path informedField, Updater updaterInstance) {
-        Path field;
+    private UpdateInfo generateProcessedInfo(FieldTreeNode context, ForEachExpression expr) {
+        Path field = expr.getField();
         ArrayField fieldMd;
         QueryEvaluator queryEvaluator;
         Updater updater;
 
-        if (informedField == null) {
-            field = expr.getField();
-        } else {
-            field = informedField;
-        }
-
         FieldTreeNode md = context.resolve(field);
         if (md instanceof ArrayField) {
             fieldMd = (ArrayField) md;
@@ -87,21 +83,15 @@ public class ForEachExpressionEvaluator extends Updater {
             queryEvaluator = QueryEvaluator.getInstance(query, fieldMd.getElement());
         }
 
-        if (updaterInstance == null) {
-            // Get an updater to execute on each matching element
-            UpdateExpression upd = expr.getUpdate();
-            if (upd instanceof RemoveElementExpression) {
-                updater = new RemoveEvaluator(fieldMd.getElement().getFullPath());
-            } else {
-                updater = Updater.getInstance(factory, fieldMd.getElement(), upd);
-            }
+        // Get an updater to execute on each matching element
+        UpdateExpression upd = expr.getUpdate();
+        if (upd instanceof RemoveElementExpression) {
+            updater = new RemoveEvaluator(fieldMd.getElement().getFullPath());
         } else {
-            updater = updaterInstance;
+            updater = Updater.getInstance(factory, fieldMd.getElement(), upd);
         }
 
-        UpdateInfo updateInfoInstance = new UpdateInfo(field, fieldMd, queryEvaluator, updater);
-
-        return updateInfoInstance;
+        return new UpdateInfo(field, fieldMd, queryEvaluator, updater);
     }
 
     @Override
@@ -114,15 +104,12 @@ public class ForEachExpressionEvaluator extends Updater {
         boolean ret = false;
 
         if (numAny > 0) {
-            KeyValueCursor<Path, JsonNode> cursor = doc.getAllNodes(memento.expr.getField());
+            KeyValueCursor<Path, JsonNode> cursor = doc.getAllNodes(this.updateInfo.field);
 
             boolean b = cursor.hasNext();
             while (b) {
                 cursor.next();
-                Path currentKey = cursor.getCurrentKey();
-                JsonNode currentValue = cursor.getCurrentValue();
-
-                UpdateInfo updateInfoInstance = generateProcessedInfo(memento.context, memento.expr, currentKey, this.updateInfo.updater);
+                UpdateInfo updateInfoInstance = this.updateInfo.bind(cursor.getCurrentKey());
 
                 if (update(doc, contextPath, updateInfoInstance)) {
                     ret = true;
@@ -152,6 +139,13 @@ public class ForEachExpressionEvaluator extends Updater {
             arrSizePath.rewriteIndexes(contextPath);
 
             itrPath.push(index);
+            if (updateInfo.updater instanceof RemoveEvaluator) {
+                ret = removeMatching(doc, arrayNode, itrPath, updateInfo);
+                if (ret) {
+                    doc.modify(arrSizePath, factory.numberNode(arrayNode.size()), false);
+                }
+                return ret;
+            }
             // Copy the nodes to a separate list, so we iterate on the
             // new copy, and modify the original
             ArrayList<JsonNode> nodes = new ArrayList<>();
@@ -169,10 +163,6 @@ public class ForEachExpressionEvaluator extends Updater {
                     if (updateInfo.updater.update(doc, elementMd, elementPath)) {
                         LOGGER.debug("Updater {} returns {}", updateInfo.updater, true);
                         ret = true;
-                        // Removal shifts nodes down
-                        if (updateInfo.updater instanceof RemoveEvaluator) {
-                            index--;
-                        }
                     } else {
                         LOGGER.debug("Updater {} return false", updateInfo.updater);
                     }
@@ -188,23 +178,41 @@ public class ForEachExpressionEvaluator extends Updater {
         return ret;
     }
 
-    private static class Memento {
-        private final JsonNodeFactory factory;
-        private final FieldTreeNode context;
-        private final ForEachExpression expr;
-
-        public Memento(JsonNodeFactory factory, FieldTreeNode context, ForEachExpression expr) {
-            this.factory = factory;
-            this.context = context;
-            this.expr = expr;
+    /**
+     * Removes the array elements matching the query. The query is evaluated
+     * for all elements first, and then the array is rebuilt once with the
+     * remaining elements, instead of removing the matching elements one by
+     * one, shifting the array each time.
+     *
+     * @return true if an element is removed
+     */
+    private boolean removeMatching(JsonDoc doc, ArrayNode arrayNode, MutablePath itrPath, UpdateInfo updateInfo) {
+        int n = arrayNode.size();
+        List<JsonNode> keep = new ArrayList<>(n);
+        for (int index = 0; index < n; index++) {
+            JsonNode elementNode = arrayNode.get(index);
+            itrPath.setLast(index);
+            Path elementPath = itrPath.immutableCopy();
+            QueryEvaluationContext ctx = new QueryEvaluationContext(doc.getRoot(), elementNode, elementPath);
+            if (updateInfo.queryEvaluator.evaluate(ctx)) {
+                LOGGER.debug("query matches {}, removing", elementPath);
+            } else {
+                keep.add(elementNode);
+            }
         }
+        if (keep.size() < n) {
+            arrayNode.removeAll();
+            arrayNode.addAll(keep);
+            return true;
+        }
+        return false;
     }
 
     private static class UpdateInfo {
-        private Path field;
-        private ArrayField fieldMd;
-        private QueryEvaluator queryEvaluator;
-        private Updater updater;
+        private final Path field;
+        private final ArrayField fieldMd;
+        private final QueryEvaluator queryEvaluator;
+        private final Updater updater;
 
         public UpdateInfo(Path field, ArrayField fieldMd, QueryEvaluator queryEvaluator, Updater updater) {
             this.field = field;
@@ -212,6 +220,14 @@ public class ForEachExpressionEvaluator extends Updater {
             this.queryEvaluator = queryEvaluator;
             this.updater = updater;
         }
+
+        /**
+         * Returns an update info for the concrete array path matching
+         * this field, sharing the compiled query evaluator and updater
+         */
+        public UpdateInfo bind(Path concreteField) {
+            return new UpdateInfo(concreteField, fieldMd, queryEvaluator, updater);
+        }
     }
 
     /**
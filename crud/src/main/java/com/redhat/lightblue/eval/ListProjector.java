@@ -72,4 +72,18 @@ public class ListProjector extends Projector {
         }
         return Projection.Inclusion.undecided;
     }
+
+    /**
+     * If all projections in the list decide the same for the following
+     * elements, then so does the list
+     */
+    @Override
+    public boolean isSameForFollowingElements(Path p) {
+        for (Projector x : items) {
+            if (!x.isSameForFollowingElements(p)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
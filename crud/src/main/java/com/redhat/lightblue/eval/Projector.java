@@ -95,6 +95,18 @@ public abstract class Projector {
      */
     public abstract Projection.Inclusion project(Path p, QueryEvaluationContext ctx);
 
+    /**
+     * Returns true if, for all the elements of an array that come after the
+     * array element p, this projector decides the same way as it decides
+     * for p. This is used to stop iterating an array once no other element
+     * can be included. The default implementation returns false.
+     *
+     * @param p The absolute path of an array element
+     */
+    public boolean isSameForFollowingElements(Path p) {
+        return false;
+    }
+
     /**
      * Builds a projector using the given projection and entity metadata
      */
@@ -225,6 +237,11 @@ public abstract class Projector {
                         }
                     }
                 }
+            } else if (processingArray && isSameForFollowingElements(fieldPath)) {
+                // This element is excluded, and so are the remaining
+                // elements of the array
+                LOGGER.debug("Skipping the elements after {}", fieldPath);
+                break;
             }
         } while (cursor.nextSibling());
         return parentNode;
@@ -0,0 +1,338 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.hooks;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Runs hook calls in a bounded, process-wide thread pool, so they don't add
+ * to the latency of the request that queued them.
+ *
+ * At most poolSize hook calls run at the same time, and at most queueSize
+ * hook calls wait for a thread. The documents held by the dispatched hook
+ * calls are limited to maxQueuedSizeB bytes, as approximated by the caller.
+ * When the queue or the memory budget is full, the overflow policy decides
+ * what happens to a new hook call. A single hook call larger than the memory
+ * budget is dispatched only when no other hook call holds memory.
+ *
+ * Exceptions thrown by hook calls are logged and counted. They cannot stop
+ * the processing of other hooks, because the request has already moved on.
+ */
+public class AsyncHookDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncHookDispatcher.class);
+
+    /**
+     * What to do with a hook call when the queue is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Run the hook call in the thread that dispatched it
+         */
+        callerRuns,
+        /**
+         * Wait until there is room in the queue
+         */
+        block,
+        /**
+         * Drop the hook call, and log an error
+         */
+        discard
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final Semaphore capacity;
+    private final OverflowPolicy policy;
+    private final long maxQueuedSizeB;
+
+    private final Object sizeLock = new Object();
+    private long queuedSizeB;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong callerRuns = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * Constructs a dispatcher
+     *
+     * @param poolSize Maximum number of threads
+     * @param queueSize Maximum number of hook calls waiting for a thread
+     * @param policy What to do with a hook call when the queue is full
+     */
+    public AsyncHookDispatcher(int poolSize, int queueSize, OverflowPolicy policy) {
+        this(poolSize, queueSize, 0, policy);
+    }
+
+    /**
+     * Constructs a dispatcher
+     *
+     * @param poolSize Maximum number of threads
+     * @param queueSize Maximum number of hook calls waiting for a thread
+     * @param maxQueuedSizeB Maximum size of the documents held by dispatched
+     * hook calls, not limited if not positive
+     * @param policy What to do with a hook call when the queue is full
+     */
+    public AsyncHookDispatcher(int poolSize, int queueSize, long maxQueuedSizeB, OverflowPolicy policy) {
+        this.maxQueuedSizeB = maxQueuedSizeB;
+        int nThreads = Math.max(1, poolSize);
+        this.policy = policy == null ? OverflowPolicy.callerRuns : policy;
+        // The pool queue is not bounded, the semaphore limits the
+        // number of hook calls running or waiting
+        this.capacity = new Semaphore(nThreads + Math.max(0, queueSize));
+        this.pool = new ThreadPoolExecutor(nThreads,
+                nThreads,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new DaemonThreadFactory());
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /**
+     * Dispatches a hook call
+     */
+    public void dispatch(Runnable hookCall) {
+        dispatch(hookCall, 0);
+    }
+
+    /**
+     * Dispatches a hook call holding documents of approximately sizeB
+     * bytes. The size counts against the memory budget until the hook call
+     * completes.
+     */
+    public void dispatch(Runnable hookCall, long sizeB) {
+        boolean acquired;
+        if (policy == OverflowPolicy.block) {
+            capacity.acquireUninterruptibly();
+            reserve(sizeB, true);
+            acquired = true;
+        } else {
+            acquired = capacity.tryAcquire();
+            if (acquired && !reserve(sizeB, false)) {
+                capacity.release();
+                acquired = false;
+            }
+        }
+        if (acquired) {
+            try {
+                pool.execute(() -> {
+                    try {
+                        run(hookCall);
+                    } finally {
+                        release(sizeB);
+                    }
+                });
+                submitted.incrementAndGet();
+                return;
+            } catch (RejectedExecutionException e) {
+                // Shut down
+                release(sizeB);
+            }
+        } else if (policy == OverflowPolicy.discard) {
+            discarded.incrementAndGet();
+            LOGGER.error("Asynchronous hook queue is full, discarding hook call");
+            return;
+        }
+        LOGGER.debug("Asynchronous hook queue is full, running hook call in the caller thread");
+        callerRuns.incrementAndGet();
+        run(hookCall);
+    }
+
+    /**
+     * Reserves sizeB bytes of the memory budget. If wait is true, waits
+     * until the bytes are available, otherwise returns false if they are
+     * not.
+     */
+    private boolean reserve(long sizeB, boolean wait) {
+        if (maxQueuedSizeB <= 0) {
+            return true;
+        }
+        boolean interrupted = false;
+        try {
+            synchronized (sizeLock) {
+                while (queuedSizeB > 0 && queuedSizeB + sizeB > maxQueuedSizeB) {
+                    if (!wait) {
+                        return false;
+                    }
+                    try {
+                        sizeLock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                queuedSizeB += sizeB;
+                return true;
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void release(long sizeB) {
+        if (maxQueuedSizeB > 0) {
+            synchronized (sizeLock) {
+                queuedSizeB -= sizeB;
+                sizeLock.notifyAll();
+            }
+        }
+        capacity.release();
+    }
+
+    private void run(Runnable hookCall) {
+        try {
+            hookCall.run();
+            completed.incrementAndGet();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.error("Exception while processing asynchronous hook", e);
+        }
+    }
+
+    /**
+     * Number of hook calls waiting for a thread
+     */
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * Approximate size of the documents held by the dispatched hook calls.
+     * Only tracked if the dispatcher has a memory budget.
+     */
+    public long getQueuedSizeB() {
+        synchronized (sizeLock) {
+            return queuedSizeB;
+        }
+    }
+
+    /**
+     * Number of hook calls running in the pool
+     */
+    public int getActiveTasks() {
+        return pool.getActiveCount();
+    }
+
+    /**
+     * Number of hook calls given to the pool
+     */
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * Number of hook calls that completed without an exception
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Number of hook calls that threw an exception
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Number of hook calls run by the dispatching thread because the queue
+     * was full
+     */
+    public long getCallerRuns() {
+        return callerRuns.get();
+    }
+
+    /**
+     * Number of hook calls dropped because the queue was full
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    /**
+     * Registers gauges for the dispatcher statistics under the given prefix
+     */
+    public void registerGauges(MetricRegistry registry, String prefix) {
+        registerGauge(registry, MetricRegistry.name(prefix, "queueDepth"), this::getQueueDepth);
+        registerGauge(registry, MetricRegistry.name(prefix, "queuedSizeB"), this::getQueuedSizeB);
+        registerGauge(registry, MetricRegistry.name(prefix, "activeTasks"), this::getActiveTasks);
+        registerGauge(registry, MetricRegistry.name(prefix, "submitted"), this::getSubmitted);
+        registerGauge(registry, MetricRegistry.name(prefix, "completed"), this::getCompleted);
+        registerGauge(registry, MetricRegistry.name(prefix, "failed"), this::getFailed);
+        registerGauge(registry, MetricRegistry.name(prefix, "callerRuns"), this::getCallerRuns);
+        registerGauge(registry, MetricRegistry.name(prefix, "discarded"), this::getDiscarded);
+    }
+
+    private static <T> void registerGauge(MetricRegistry registry, String name, Gauge<T> gauge) {
+        if (!registry.getGauges().containsKey(name)) {
+            registry.register(name, gauge);
+        }
+    }
+
+    /**
+     * Shuts down the pool. Hook calls already dispatched are run to
+     * completion, later hook calls run in the dispatching thread.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Waits until the dispatched hook calls complete after a shutdown
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return "asyncHooks[policy=" + policy + ", activeTasks=" + getActiveTasks()
+                + ", queueDepth=" + getQueueDepth() + ", queuedSizeB=" + getQueuedSizeB() + ", failed=" + getFailed() + ", discarded=" + getDiscarded() + "]";
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger n = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "async-hook-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -19,7 +19,10 @@
 package com.redhat.lightblue.hooks;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,13 +60,25 @@ import com.redhat.lightblue.util.MemoryMonitor.ThresholdMonitor;
  * that operation share the document copies. Because of this, hooks must treat
  * documents as read-only.
  *
- *
+ * A hook whose metadata has <code>"async": true</code> is called in the
+ * {@link AsyncHookDispatcher} instead of the request thread, if the hook
+ * manager has one. The dispatcher is only looked up when an asynchronous hook
+ * is called. The document copies of an asynchronous hook call count against
+ * the dispatcher's memory budget until the call completes. Exceptions thrown by asynchronous hooks are logged, and
+ * they don't stop the processing of other hooks even if they are annotated
+ * with {@link StopHookProcessing}. Other hooks are called synchronously.
  */
 public class HookManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(HookManager.class);
 
+    /**
+     * The hook metadata property that makes hook calls asynchronous
+     */
+    public static final String PROPERTY_ASYNC = "async";
+
     private final HookResolver resolver;
     private final JsonNodeFactory factory;
+    private final Supplier<AsyncHookDispatcher> dispatcher;
 
     private final List<QueuedHook> queuedHooks = new ArrayList<>();
 
@@ -132,6 +147,7 @@ public class HookManager {
         final Hook hook;
         final EntityMetadata md;
         final CRUDHook resolvedHook;
+        final boolean async;
         final List<HookDocInfo> docList=new ArrayList<>();
 
         HookAndDocs(EntityMetadata md,
@@ -140,6 +156,23 @@ public class HookManager {
             this.md=md;
             this.hook=hook;
             this.resolvedHook=resolvedHook;
+            this.async=dispatcher!=null&&Boolean.TRUE.equals(hook.getProperties().get(PROPERTY_ASYNC));
+        }
+
+        /**
+         * Approximate size of the document copies held by this hook call
+         */
+        long sizeB() {
+            Map<JsonNode,Boolean> roots=new IdentityHashMap<>();
+            long size=0;
+            for(HookDocInfo doc:docList) {
+                for(JsonDoc d:new JsonDoc[] {doc.pre,doc.post}) {
+                    if(d!=null&&roots.put(d.getRoot(),Boolean.TRUE)==null) {
+                        size+=JsonUtils.size(d.getRoot());
+                    }
+                }
+            }
+            return size;
         }
 
         void call(String who) {
@@ -188,17 +221,65 @@ public class HookManager {
 
         void call() {
             for(HookAndDocs hook:hooks) {
-                hook.call(who);
+                if(hook.async) {
+                    if(!hook.docList.isEmpty()) {
+                        dispatch(hook);
+                    }
+                } else {
+                    hook.call(who);
+                }
             }
         }
+
+        private void dispatch(HookAndDocs hook) {
+            // Errors created in the pool threads should carry the context of the caller
+            List<String> context=Error.getThreadContext();
+            Thread caller=Thread.currentThread();
+            dispatcher.get().dispatch(()->{
+                if(Thread.currentThread()==caller) {
+                    hook.call(who);
+                } else {
+                    for(String c:context) {
+                        Error.push(c);
+                    }
+                    try {
+                        hook.call(who);
+                    } finally {
+                        for(int i=0;i<context.size();i++) {
+                            Error.pop();
+                        }
+                    }
+                }
+            },hook.sizeB());
+        }
     }
 
     /**
      * Construct hooks with the given hook resolver
      */
     public HookManager(HookResolver r, JsonNodeFactory factory) {
+        this(r, factory, (Supplier<AsyncHookDispatcher>) null);
+    }
+
+    /**
+     * Construct hooks with the given hook resolver. Asynchronous hooks are
+     * called using the dispatcher. If the dispatcher is null, all hooks are
+     * called synchronously.
+     */
+    public HookManager(HookResolver r, JsonNodeFactory factory, AsyncHookDispatcher dispatcher) {
+        this(r, factory, dispatcher == null ? null : () -> dispatcher);
+    }
+
+    /**
+     * Construct hooks with the given hook resolver. Asynchronous hooks are
+     * called using the dispatcher returned by the supplier, which is only
+     * called when there is an asynchronous hook call to dispatch. If the
+     * supplier is null, all hooks are called synchronously.
+     */
+    public HookManager(HookResolver r, JsonNodeFactory factory, Supplier<AsyncHookDispatcher> dispatcher) {
         resolver = r;
         this.factory = factory;
+        this.dispatcher = dispatcher;
     }
 
     /**
@@ -256,6 +337,7 @@ public class HookManager {
      * Calls all queued hooks, and then clears the queued hooks. Any hook that
      * failed will be logged, but hook execution will continue unless one of the
      * hooks throws an exception with @StopHookProcessing annotation.
+     * Asynchronous hooks may still be running when this returns.
      */
     public void callQueuedHooks() {
         for (QueuedHook q: queuedHooks) {
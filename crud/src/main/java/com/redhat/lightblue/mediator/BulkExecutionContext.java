@@ -1,5 +1,9 @@
 package com.redhat.lightblue.mediator;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
@@ -21,6 +25,12 @@ public class BulkExecutionContext {
     final Future<Response>[] futures;
     private Response[] responses;
 
+    /**
+     * Indexes of the asynchronous requests whose responses are not
+     * collected yet, in request order
+     */
+    private final Deque<Integer> outstanding = new ArrayDeque<>();
+
     private MemoryMonitor<Response> memoryMonitor = null;
 
     public BulkExecutionContext(int size) {
@@ -28,6 +38,33 @@ public class BulkExecutionContext {
         responses = new Response[size];
     }
 
+    /**
+     * Submits the request at the given index to the executor
+     */
+    public void submit(int index, ExecutorService executor, Callable<Response> request) {
+        futures[index] = executor.submit(request);
+        outstanding.addLast(index);
+    }
+
+    /**
+     * Returns true if there are submitted requests whose responses are not
+     * collected yet
+     */
+    public boolean hasOutstandingRequests() {
+        return !outstanding.isEmpty();
+    }
+
+    /**
+     * Returns the index of the earliest submitted request whose response is
+     * not collected yet. Responses are collected in request order, so the
+     * result size limit always applies to the same responses regardless of
+     * the order the requests complete. Waiting on the future runs the
+     * request in the calling thread if the executor did not start it yet.
+     */
+    public int nextOutstanding() {
+        return outstanding.removeFirst();
+    }
+
     /**
      * Bulk result set size threshold is expressed in bytes. This is just an approximation, see @{link {@link JsonUtils#size(JsonNode)} for details.
      *
@@ -46,7 +83,10 @@ public class BulkExecutionContext {
         memoryMonitor.registerMonitor(new ThresholdMonitor<Response>(maxResultSetSizeB, (current, threshold, response) -> {
             // remove data
             response.setEntityData(JsonNodeFactory.instance.arrayNode());
-            response.getErrors().add(Error.get(Response.ERR_RESULT_SIZE_TOO_LARGE, current+"B > "+threshold+"B"));
+            // The request itself may have already reported it
+            if (response.getErrors().stream().noneMatch(e -> Response.ERR_RESULT_SIZE_TOO_LARGE.equals(e.getErrorCode()))) {
+                response.getErrors().add(Error.get(Response.ERR_RESULT_SIZE_TOO_LARGE, current+"B > "+threshold+"B"));
+            }
         }));
 
     }
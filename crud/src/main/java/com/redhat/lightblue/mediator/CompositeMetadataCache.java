@@ -0,0 +1,246 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.mediator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.redhat.lightblue.crud.AbstractEntityCache;
+import com.redhat.lightblue.metadata.AbstractGetMetadata;
+import com.redhat.lightblue.metadata.CompositeMetadata;
+import com.redhat.lightblue.metadata.EntityMetadata;
+import com.redhat.lightblue.metadata.Metadata;
+
+import com.redhat.lightblue.util.Path;
+import com.redhat.lightblue.util.metrics.RequestMetrics;
+
+/**
+ * An LRU cache of composite metadata, and the roles referenced in them.
+ *
+ * The composite metadata built for a request depends on the requested
+ * entity and version, and on the references required to evaluate the request
+ * query and projection. Entries are kept for every requested entity and
+ * version, and every entry records the references checked while building the
+ * composite metadata, and whether they were required. An entry can be used
+ * for another request if the same references are required for that
+ * request.
+ *
+ * The cached composite metadata and role sets are shared between requests,
+ * and must not be modified.
+ */
+public class CompositeMetadataCache extends AbstractEntityCache<String, List<CompositeMetadataCache.Entry>> {
+
+    /**
+     * The cache name used for hit/miss metrics
+     */
+    public static final String CACHE_NAME = "compositeMetadata";
+
+    /**
+     * Maximum number of variants of composite metadata kept for a requested
+     * entity and version
+     */
+    private static final int MAX_VARIANTS = 16;
+
+    /**
+     * A reference checked while building the composite metadata
+     */
+    public static final class Reference {
+        private final Path injectionField;
+        private final boolean required;
+
+        public Reference(Path injectionField, boolean required) {
+            this.injectionField = injectionField;
+            this.required = required;
+        }
+
+        @Override
+        public String toString() {
+            return injectionField + (required ? "+" : "-");
+        }
+    }
+
+    /**
+     * A cached composite metadata
+     */
+    public static final class Entry {
+        private final Metadata metadata;
+        private final List<Reference> references;
+        private final CompositeMetadata compositeMetadata;
+        private final Map<String, EntityMetadata> entities;
+        private final Set<String> roles;
+
+        /**
+         * @param metadata The metadata implementation the composite metadata
+         * is loaded from
+         * @param references The references checked while building the
+         * composite metadata
+         * @param compositeMetadata The composite metadata
+         * @param entities The entity metadata of all entities in the
+         * composite metadata
+         * @param roles The roles referenced in the composite metadata
+         */
+        public Entry(Metadata metadata,
+                     List<Reference> references,
+                     CompositeMetadata compositeMetadata,
+                     Map<String, EntityMetadata> entities,
+                     Set<String> roles) {
+            this.metadata = metadata;
+            this.references = new ArrayList<>(references);
+            this.compositeMetadata = compositeMetadata;
+            this.entities = Collections.unmodifiableMap(new HashMap<>(entities));
+            this.roles = Collections.unmodifiableSet(roles);
+        }
+
+        public CompositeMetadata getCompositeMetadata() {
+            return compositeMetadata;
+        }
+
+        public Map<String, EntityMetadata> getEntities() {
+            return entities;
+        }
+
+        public Set<String> getRoles() {
+            return roles;
+        }
+
+        /**
+         * Returns if this entry can be used for a request for the given root
+         * entity metadata, loaded from md, that requires the references
+         * required by gmd
+         */
+        private boolean matches(Metadata md, EntityMetadata root, AbstractGetMetadata gmd) {
+            if (md != metadata
+                    || !compositeMetadata.getVersion().getValue().equals(root.getVersion().getValue())) {
+                return false;
+            }
+            for (Reference r : references) {
+                if (gmd.isRequired(r.injectionField) != r.required) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Constructs a composite metadata cache whose entries don't expire
+     *
+     * @param maxSize Maximum number of entity versions in the cache. If 0 or
+     * less, caching is disabled.
+     */
+    public CompositeMetadataCache(int maxSize) {
+        this(maxSize, 0);
+    }
+
+    /**
+     * Constructs a composite metadata cache
+     *
+     * @param maxSize Maximum number of entity versions in the cache. If 0 or
+     * less, caching is disabled.
+     * @param ttlMS Time in milliseconds an entry is kept. If 0 or less,
+     * entries don't expire.
+     */
+    public CompositeMetadataCache(int maxSize, long ttlMS) {
+        super(CACHE_NAME, maxSize, ttlMS);
+    }
+
+    private static String key(String entityName, String entityVersion) {
+        return entityName + ":" + (entityVersion == null ? "" : entityVersion);
+    }
+
+    /**
+     * Returns the cached composite metadata for the requested entity name and
+     * version, or null if there isn't one. Records a hit or miss in the given
+     * metrics.
+     *
+     * @param entityName Requested entity name
+     * @param entityVersion Requested entity version, may be null
+     * @param md The metadata implementation
+     * @param root The entity metadata for the requested entity
+     * @param gmd Determines the references required for the request
+     * @param metrics Request metrics
+     */
+    public Entry get(String entityName,
+                     String entityVersion,
+                     Metadata md,
+                     EntityMetadata root,
+                     AbstractGetMetadata gmd,
+                     RequestMetrics metrics) {
+        if (!isEnabled()) {
+            return null;
+        }
+        List<Entry> entries = getEntry(key(entityName, entityVersion));
+        Entry found = null;
+        if (entries != null) {
+            for (Entry e : entries) {
+                if (e.matches(md, root, gmd)) {
+                    found = e;
+                    break;
+                }
+            }
+        }
+        if (found == null) {
+            miss(metrics);
+        } else {
+            hit(metrics);
+        }
+        return found;
+    }
+
+    /**
+     * Adds a composite metadata to the cache for the requested entity name
+     * and version
+     */
+    public void put(String entityName, String entityVersion, Entry entry) {
+        if (isEnabled()) {
+            // Entry lists are copied on write, so readers can iterate them
+            // without locking
+            computeEntry(key(entityName, entityVersion), (k, entries) -> {
+                List<Entry> newEntries = new ArrayList<>(MAX_VARIANTS);
+                newEntries.add(entry);
+                if (entries != null) {
+                    for (Entry e : entries) {
+                        if (newEntries.size() < MAX_VARIANTS) {
+                            newEntries.add(e);
+                        }
+                    }
+                }
+                return newEntries;
+            });
+        }
+    }
+
+    /**
+     * An entry list contains an entity if any of its composite metadata
+     * contains it
+     */
+    @Override
+    protected boolean containsEntity(String key, List<Entry> entries, String entityName) {
+        for (Entry e : entries) {
+            if (e.entities.containsKey(entityName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
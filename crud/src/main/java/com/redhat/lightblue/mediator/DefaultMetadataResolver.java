@@ -20,6 +20,8 @@ package com.redhat.lightblue.mediator;
 
 import java.io.Serializable;
 
+import java.util.List;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
@@ -53,6 +55,8 @@ import com.redhat.lightblue.query.Projection;
 
 import com.redhat.lightblue.util.Path;
 import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.metrics.NoopRequestMetrics;
+import com.redhat.lightblue.util.metrics.RequestMetrics;
 
 /**
  * This implementation combines the implementations for GetMetadata
@@ -84,6 +88,8 @@ public class DefaultMetadataResolver implements MetadataResolver, Serializable {
 
     private final Map<String, EntityMetadata> metadataMap = new HashMap<>();
     private final Metadata md;
+    private final transient CompositeMetadataCache cache;
+    private final transient RequestMetrics metrics;
 
     private CompositeMetadata cmd;
     private Set<String> roles;
@@ -92,6 +98,8 @@ public class DefaultMetadataResolver implements MetadataResolver, Serializable {
         // the metadata version of the initial request
         private final String requestVersion;
         private final String requestEntityName;
+        // The references checked while building the composite metadata
+        private final List<CompositeMetadataCache.Reference> references = new ArrayList<>();
 
         public Gmd(Projection projection, QueryExpression query, String requestEntityName, String requestVersion) {
             super(projection, query);
@@ -99,6 +107,13 @@ public class DefaultMetadataResolver implements MetadataResolver, Serializable {
             this.requestEntityName = requestEntityName;
         }
 
+        @Override
+        public EntityMetadata getMetadata(Path injectionField, String entityName, String entityVersion) {
+            EntityMetadata metadata = super.getMetadata(injectionField, entityName, entityVersion);
+            references.add(new CompositeMetadataCache.Reference(injectionField, metadata != null));
+            return metadata;
+        }
+
         @Override
         protected EntityMetadata retrieveMetadata(Path injectionPath, String entityName, String entityVersion) {
             EntityMetadata metadata=metadataMap.get(entityName);
@@ -128,7 +143,22 @@ public class DefaultMetadataResolver implements MetadataResolver, Serializable {
      * Constructs the metadata resolver with the given metadata implementation
      */
     public DefaultMetadataResolver(Metadata metadata) {
+        this(metadata, null, new NoopRequestMetrics());
+    }
+
+    /**
+     * Constructs the metadata resolver with the given metadata
+     * implementation, using the given cache for composite metadata
+     *
+     * @param metadata The metadata implementation
+     * @param cache The composite metadata cache. If null, composite metadata
+     * is built for every request
+     * @param metrics Metrics to record cache hits and misses
+     */
+    public DefaultMetadataResolver(Metadata metadata, CompositeMetadataCache cache, RequestMetrics metrics) {
         this.md = metadata;
+        this.cache = cache;
+        this.metrics = metrics;
     }
 
     /**
@@ -148,7 +178,18 @@ public class DefaultMetadataResolver implements MetadataResolver, Serializable {
             throw Error.get(CrudConstants.ERR_DISABLED_METADATA, entityName + ":" + entityVersion);
         }
         metadataMap.put(entityName,emd);
-        cmd = CompositeMetadata.buildCompositeMetadata(emd, new Gmd(projection, query, entityName, entityVersion));
+        Gmd gmd = new Gmd(projection, query, entityName, entityVersion);
+        if (cache != null) {
+            CompositeMetadataCache.Entry entry = cache.get(entityName, entityVersion, md, emd, gmd, metrics);
+            if (entry != null) {
+                LOGGER.debug("Using cached composite metadata");
+                metadataMap.putAll(entry.getEntities());
+                cmd = entry.getCompositeMetadata();
+                roles = entry.getRoles();
+                return;
+            }
+        }
+        cmd = CompositeMetadata.buildCompositeMetadata(emd, gmd);
         LOGGER.debug("Composite metadata:{}", cmd);
 
         LOGGER.debug("Collecting metadata roles");
@@ -163,6 +204,9 @@ public class DefaultMetadataResolver implements MetadataResolver, Serializable {
             }
         }
         LOGGER.debug("Metadata roles:{}", roles);
+        if (cache != null) {
+            cache.put(entityName, entityVersion, new CompositeMetadataCache.Entry(md, gmd.references, cmd, metadataMap, roles));
+        }
     }
 
     /**
@@ -202,7 +246,8 @@ public class DefaultMetadataResolver implements MetadataResolver, Serializable {
     }
 
     /**
-     * Return all roles referenced in metadata
+     * Return all roles referenced in metadata. The returned set must not be
+     * modified.
      */
     public Set<String> getMetadataRoles() {
         return roles;
@@ -23,7 +23,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -424,38 +423,43 @@ public class Mediator {
 
         OperationContext findCtx = new OperationContext(freq, CRUDOperation.FIND, ctx);
         CompositeFindImpl finder = new CompositeFindImpl(md);
-        finder.setParallelism(9);
         CRUDFindResponse response = finder.find(findCtx, freq.getCRUDFindRequest());
         if(findCtx.hasErrors()) {
             ctx.addErrors(findCtx.getErrors());
+            if (findCtx.getDocumentStream() != null) {
+                findCtx.getDocumentStream().close();
+            }
         } else {
             DocumentStream<DocCtx> docStream = findCtx.getDocumentStream();
             
             // Now write a query
             List<QueryExpression> orq = new ArrayList<>();
-            for (;docStream.hasNext();) {
-                DocCtx doc=docStream.next();
-                if(!doc.hasErrors()) {
-                    DocId id = docIdx.getDocId(doc);
-                    List<QueryExpression> idList = new ArrayList<>(identityFields.length);
-                    for (int ix = 0; ix < identityFields.length; ix++) {
-                        if (!identityFields[ix].equals(PredefinedFields.OBJECTTYPE_PATH)) {
-                            Object value = id.getValue(ix);
-                            idList.add(new ValueComparisonExpression(identityFields[ix],
-                                                                     BinaryComparisonOperator._eq,
-                                                                     new Value(value)));
+            try {
+                for (;docStream.hasNext();) {
+                    DocCtx doc=docStream.next();
+                    if(!doc.hasErrors()) {
+                        DocId id = docIdx.getDocId(doc);
+                        List<QueryExpression> idList = new ArrayList<>(identityFields.length);
+                        for (int ix = 0; ix < identityFields.length; ix++) {
+                            if (!identityFields[ix].equals(PredefinedFields.OBJECTTYPE_PATH)) {
+                                Object value = id.getValue(ix);
+                                idList.add(new ValueComparisonExpression(identityFields[ix],
+                                                                         BinaryComparisonOperator._eq,
+                                                                         new Value(value)));
+                            }
                         }
+                        QueryExpression idq;
+                        if (idList.size() == 1) {
+                            idq = idList.get(0);
+                        } else {
+                            idq = new NaryLogicalExpression(NaryLogicalOperator._and, idList);
+                        }
+                        orq.add(idq);
                     }
-                    QueryExpression idq;
-                    if (idList.size() == 1) {
-                        idq = idList.get(0);
-                    } else {
-                        idq = new NaryLogicalExpression(NaryLogicalOperator._and, idList);
-                    }
-                    orq.add(idq);
                 }
+            } finally {
+                docStream.close();
             }
-            docStream.close();
             if (orq.isEmpty()) {
                 return null;
             } else if (orq.size() == 1) {
@@ -493,18 +497,23 @@ public class Mediator {
                 response.setEntityData(factory.getNodeFactory().arrayNode());
                 response.setResultSizeThresholds(factory.getMaxResultSetSizeForReadsB(), factory.getWarnResultSetSizeB(), req);
 
-                for(;docStream.hasNext();) {
-                    DocCtx doc=docStream.next();
-                    if(!doc.hasErrors()) {
-                        response.addEntityData(doc.getOutputDocument().getRoot());
-                        rmd.add(doc.getResultMetadata());
-                    } else {
-                        DataError error=doc.getDataError();
-                        if(error!=null)
-                            response.getDataErrors().add(error);
+                // The stream is closed even if reading stops early, so the
+                // resources of the find are released
+                try {
+                    for(;docStream.hasNext();) {
+                        DocCtx doc=docStream.next();
+                        if(!doc.hasErrors()) {
+                            response.addEntityData(doc.getOutputDocument().getRoot());
+                            rmd.add(doc.getResultMetadata());
+                        } else {
+                            DataError error=doc.getDataError();
+                            if(error!=null)
+                                response.getDataErrors().add(error);
+                        }
                     }
+                } finally {
+                    docStream.close();
                 }
-                docStream.close();
                 response.setResultMetadata(rmd);
                 response.setMatchCount(r.matchCount == null ? 0 : r.matchCount);
                 LOGGER.debug("responseMemoryUsed={} request={}", response.getResponseDataSizeB(), req);
@@ -526,6 +535,11 @@ public class Mediator {
         return response;
     }
 
+    /**
+     * Finds documents, and returns the results as a document stream. The
+     * caller must close the document stream of the response, even if it
+     * does not read all the documents.
+     */
     public StreamingResponse findAndStream(FindRequest req) {
         LOGGER.debug("findAndStream {}", req.getEntityVersion());
         Error.push("findAndStream(" + req.getEntityVersion().toString() + ")");        
@@ -567,8 +581,6 @@ public class Mediator {
             } else {
                 LOGGER.debug("Composite entity");
                 finder = new CompositeFindImpl(md);
-                // This can be read from a configuration
-                ((CompositeFindImpl) finder).setParallelism(9);
             }
             
             ctx.measure.begin("finder.find");
@@ -583,6 +595,10 @@ public class Mediator {
                 }
             } else {
                 ctx.setStatus(OperationStatus.ERROR);
+                // The results are not returned, release them
+                if (ctx.getDocumentStream() != null) {
+                    ctx.getDocumentStream().close();
+                }
             }
         }
         response.setStatus(ctx.getStatus());
@@ -611,8 +627,6 @@ public class Mediator {
             } else {
                 LOGGER.debug("Composite entity");
                 finder = new CompositeFindImpl(md);
-                // This can be read from a configuration
-                ((CompositeFindImpl) finder).setParallelism(9);
             }
             
             finder.explain(ctx, req.getCRUDFindRequest());
@@ -644,15 +658,21 @@ public class Mediator {
         return response;        
     }
 
+    /**
+     * Waits for all submitted requests to complete, and sets their responses
+     * in request order
+     */
     protected void wait(BulkExecutionContext ctx) {
-        for (int i = 0; i < ctx.futures.length; i++) {
-            if (ctx.futures[i] != null) {
-                try {
-                    LOGGER.debug("Waiting for a find request to complete");
-                    ctx.setResponseAt(i, ctx.futures[i].get());
-                } catch (Exception e) {
-                    LOGGER.debug("Find request wait failed", e);
-                }
+        while (ctx.hasOutstandingRequests()) {
+            int i = ctx.nextOutstanding();
+            try {
+                LOGGER.debug("Waiting for request {} to complete", i);
+                ctx.setResponseAt(i, ctx.futures[i].get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (Exception e) {
+                LOGGER.debug("Request wait failed", e);
             }
         }
     }
@@ -691,21 +711,23 @@ public class Mediator {
 
     public BulkResponse bulkRequest(BulkRequest requests, RequestMetrics metrics) {
         LOGGER.debug("Bulk request start");
+        BulkExecutionContext ctx = new BulkExecutionContext(requests.getEntries().size());
+        ctx.setResultSizeThresholds(factory.getMaxResultSetSizeForReadsB(), factory.getWarnResultSetSizeB(), requests);
         Error.push("bulk operation");
-        ExecutorService executor = Executors.newFixedThreadPool(factory.getBulkParallelExecutions());
+        // Requests of this bulk request share the bulk executor with other bulk
+        // requests, running at most bulkParallelExecutions at a time
+        ExecutorService executor = factory.getBulkExecutor().newSession(factory.getBulkParallelExecutions());
         try {
             LOGGER.debug("Executing up to {} requests in parallel, ordered = {}", factory.getBulkParallelExecutions(), requests.isOrdered());
             List<Request> requestList = requests.getEntries();
             int n = requestList.size();
-            BulkExecutionContext ctx = new BulkExecutionContext(n);
-            ctx.setResultSizeThresholds(factory.getMaxResultSetSizeForReadsB(), factory.getWarnResultSetSizeB(), requests);
             for (int i = 0; i < n; i++) {
             	Response resp = null;
                 Request req = requestList.get(i);
                 if (requests.isOrdered()) {
                     // ordered - only consecutive finds in parallel
                     if (req.getOperation() == CRUDOperation.FIND) {
-                        ctx.futures[i] = executor.submit(getFutureRequest(req, metrics));
+                        ctx.submit(i, executor, getFutureRequest(req, metrics));
                     } else {
                         wait(ctx);
                         RequestMetrics.Context metricCtx = metrics.startCrudRequest(req.getOperation().toString().toLowerCase(), req.getEntityVersion().getEntity(), req.getEntityVersion().getVersion());
@@ -732,19 +754,19 @@ public class Mediator {
                 } else {
                     LOGGER.debug("Scheduling a future operation");
                     // unordered - do them all in parallel
-                    ctx.futures[i] = executor.submit(getFutureRequest(req, metrics));
+                    ctx.submit(i, executor, getFutureRequest(req, metrics));
                 }
             }
 
             wait(ctx);
             LOGGER.debug("Bulk execution completed");
-            BulkResponse response = new BulkResponse();
-            response.setEntries(ctx.getResponses());
-            Error.pop();
-            return response;
         } finally {
             executor.shutdown();
+            Error.pop();
         }
+        BulkResponse response = new BulkResponse();
+        response.setEntries(ctx.getResponses());
+        return response;
     }
 
     protected OperationContext newCtx(Request request, CRUDOperation CRUDOperation) {
@@ -771,7 +793,19 @@ public class Mediator {
         ConstraintValidator constraintValidator = factory.getConstraintValidator(md);
         List<DocCtx> docs = ctx.getInputDocumentsWithoutErrors();
         if(docs!=null) {
-            constraintValidator.validateDocs(docs);
+            int threshold = factory.getParallelValidationThreshold();
+            int nChunks = factory.getParallelValidationChunks();
+            if (threshold > 0 && docs.size() >= threshold && nChunks > 1) {
+                LOGGER.debug("Validating {} docs in {} chunks", docs.size(), nChunks);
+                ExecutorService executor = factory.getBulkExecutor().newSession(nChunks);
+                try {
+                    constraintValidator.validateDocs(docs, executor, nChunks);
+                } finally {
+                    executor.shutdown();
+                }
+            } else {
+                constraintValidator.validateDocs(docs);
+            }
             Map<JsonDoc, List<Error>> docErrors = constraintValidator.getDocErrors();
             for (Map.Entry<JsonDoc, List<Error>> entry : docErrors.entrySet()) {
                 JsonDoc doc = entry.getKey();
@@ -812,7 +846,8 @@ public class Mediator {
         boolean ret = true;
         if (query != null) {
             CompositeMetadata md = ctx.getTopLevelEntityMetadata();
-            FieldAccessRoleEvaluator eval = new FieldAccessRoleEvaluator(md, ctx.getCallerRoles());
+            FieldAccessRoleEvaluator eval = new FieldAccessRoleEvaluator(md, ctx.getCallerRoles(),
+                    factory.getFieldAccessCache().get(md, ctx.getCallerRoles(), factory.getRequestMetrics()));
             AnalyzeQuery analyzer=new AnalyzeQuery(md,null);
             analyzer.iterate(query,Path.EMPTY);
             List<QueryFieldInfo> fields=analyzer.getFieldInfo();
@@ -849,21 +884,24 @@ public class Mediator {
             // but we want to have the response size in case this is a bulk request and we will aggregate response sizes
             response.setResultSizeThresholds(factory.getMaxResultSetSizeForWritesB(), factory.getWarnResultSetSizeB(), (Request)requestWithRange);
 
-            for(;docStream.hasNext();) {
-                DocCtx doc=docStream.next();
-                if(!doc.hasErrors()) {                
-                    if(ix>=f&&ix<=t) {                
-                        response.addEntityData(doc.getOutputDocument().getRoot());
-                        rmd.add(doc.getResultMetadata());
+            try {
+                for(;docStream.hasNext();) {
+                    DocCtx doc=docStream.next();
+                    if(!doc.hasErrors()) {                
+                        if(ix>=f&&ix<=t) {                
+                            response.addEntityData(doc.getOutputDocument().getRoot());
+                            rmd.add(doc.getResultMetadata());
+                        }
+                        ix++;
+                    } else {
+                        DataError error=doc.getDataError();
+                        if(error!=null)
+                            dataErrors.add(error);
                     }
-                    ix++;
-                } else {
-                    DataError error=doc.getDataError();
-                    if(error!=null)
-                        dataErrors.add(error);
                 }
+            } finally {
+                docStream.close();
             }
-            docStream.close();
             response.setResultMetadata(rmd);
         }
         return dataErrors;
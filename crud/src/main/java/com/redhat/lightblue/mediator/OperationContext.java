@@ -75,7 +75,7 @@ public final class OperationContext extends CRUDOperationContext {
                 request.getExecution());
         this.request = request;
         this.metadata = metadata;
-        this.resolver = new DefaultMetadataResolver(metadata);
+        this.resolver = new DefaultMetadataResolver(metadata, factory.getCompositeMetadataCache(), factory.getRequestMetrics());
 
         QueryExpression query;
         Projection projection;
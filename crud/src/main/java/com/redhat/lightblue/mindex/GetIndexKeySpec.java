@@ -37,18 +37,39 @@ import com.redhat.lightblue.util.Error;
  */
 public class GetIndexKeySpec extends IndexQueryProcessorBase<KeySpec> {
 
+    private boolean rangeLookups=false;
+
     public GetIndexKeySpec(List<QueryFieldInfo> fields) {
         super(fields);
     }
-    
+
+    /**
+     * Returns true if the processed query has range or prefix
+     * comparisons, so the lookups using the key spec would benefit
+     * from a SortedMemDocIndex
+     */
+    public boolean hasRangeLookups() {
+        return rangeLookups;
+    }
     
     @Override
     protected KeySpec processValueComparisonExpression(ValueComparisonExpression q) {
+        switch(q.getOp()) {
+        case _lt:
+        case _lte:
+        case _gt:
+        case _gte:
+            rangeLookups=true;
+            break;
+        default:
+            break;
+        }
         return simpleKeySpec(findFieldInfo(q.getField(),q));
     }
     
     @Override
     protected KeySpec processRegexMatchExpression(RegexMatchExpression q) {
+        rangeLookups=true;
         return simpleKeySpec(findFieldInfo(q.getField(),q));
     }
 
@@ -71,7 +71,8 @@ import com.redhat.lightblue.util.Tuples;
  * structure as the key spec. A lookup spec composed ot only Value
  * lookups and multi-value lookups is a simple lookup. If a range
  * lookup spec or prefix lookup spec is used, the lookup becomes an
- * index scan.
+ * index scan. Use SortedMemDocIndex if range or prefix lookups are
+ * expected.
  *    
  */
 public class MemDocIndex {
@@ -79,15 +80,23 @@ public class MemDocIndex {
     /**
      * The index keys are ordered based on the keyFields array
      */
-    private final HashMap<Key,Set<JsonDoc>> documents;   
+    protected final Map<Key,Set<JsonDoc>> documents;   
     public final KeySpec keySpec;
     
     /**
      * Constructs a document index using the given key spec
      */
     public MemDocIndex(KeySpec keys) {
+        this(keys,new HashMap<Key,Set<JsonDoc>>());
+    }
+
+    /**
+     * Constructs a document index using the given key spec, storing
+     * the index entries in the given map
+     */
+    protected MemDocIndex(KeySpec keys,Map<Key,Set<JsonDoc>> documents) {
         this.keySpec=keys;
-        this.documents=new HashMap<Key,Set<JsonDoc>>();
+        this.documents=documents;
     }
     
     /**
@@ -110,6 +119,22 @@ public class MemDocIndex {
         }
     }
 
+    /**
+     * Remove the document from the index. The document must have the
+     * same key values it had when it was added.
+     */
+    public void remove(JsonDoc doc) {
+        Set<Key> keys=keySpec.extract(doc,null);
+        for(Key k:keys) {
+            Set<JsonDoc> docSet=documents.get(k);
+            if(docSet!=null) {
+                docSet.remove(doc);
+                if(docSet.isEmpty())
+                    documents.remove(k);
+            }
+        }
+    }
+
     public Set<JsonDoc> find(LookupSpec spec) {
         Set<JsonDoc> results=new HashSet<>();
         if(spec.multiValued()) {
@@ -126,7 +151,7 @@ public class MemDocIndex {
         return results;
     }
 
-    private void findSingleValue(LookupSpec spec,Set<JsonDoc> results) {
+    protected void findSingleValue(LookupSpec spec,Set<JsonDoc> results) {
         if(spec.needsScan()) {
             indexScan(spec,results);
         } else {
@@ -134,7 +159,7 @@ public class MemDocIndex {
         }
     }
 
-    private void indexScan(LookupSpec spec,Set<JsonDoc> results) {
+    protected void indexScan(LookupSpec spec,Set<JsonDoc> results) {
         for(Map.Entry<Key,Set<JsonDoc>> entry:documents.entrySet()) {
             Key indexKey=entry.getKey();
             if(spec.matches(indexKey))
@@ -142,7 +167,7 @@ public class MemDocIndex {
         }
     }
 
-    private void indexLookup(LookupSpec spec,Set<JsonDoc> results) {
+    protected void indexLookup(LookupSpec spec,Set<JsonDoc> results) {
         Set<JsonDoc> docs=documents.get(spec.buildKey());
         if(docs!=null)
             results.addAll(docs);
@@ -43,8 +43,18 @@ public class SimpleKeySpec implements KeySpec,Comparator<SimpleKey> {
     final Type type;
 
     public SimpleKeySpec(QueryFieldInfo finfo) {
-        this.fieldMd=finfo.getFieldMd();
-        this.fullName=finfo.getEntityRelativeFieldName();
+        this(finfo.getFieldMd(),finfo.getEntityRelativeFieldName());
+    }
+
+    /**
+     * Constructs a key specification for the given field
+     *
+     * @param fieldMd The field metadata
+     * @param fullName The entity relative field name, can contain *
+     */
+    public SimpleKeySpec(FieldTreeNode fieldMd,Path fullName) {
+        this.fieldMd=fieldMd;
+        this.fullName=fullName;
         this.type=fieldMd.getType();
     }
 
@@ -0,0 +1,102 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.mindex;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.redhat.lightblue.metadata.types.StringType;
+import com.redhat.lightblue.util.JsonDoc;
+
+/**
+ * An in-memory document index that keeps the index keys sorted.
+ *
+ * The keys are ordered using the key spec, so for an index built on a
+ * single field (a SimpleKeySpec), range and case sensitive prefix lookups
+ * seek to the first matching key and read the matching keys in order,
+ * instead of scanning all the keys. Open ended ranges, such as the ones
+ * built for $gt and $lt comparisons, read until the end or from the start
+ * of the index. Value lookups are log-time. Other lookups scan the index
+ * the same way MemDocIndex does.
+ */
+public class SortedMemDocIndex extends MemDocIndex {
+
+    private final NavigableMap<Key,Set<JsonDoc>> sortedDocuments;
+
+    /**
+     * Constructs a sorted document index using the given key spec
+     */
+    public SortedMemDocIndex(KeySpec keys) {
+        super(keys,new TreeMap<Key,Set<JsonDoc>>(keys::compareKeys));
+        this.sortedDocuments=(NavigableMap<Key,Set<JsonDoc>>)documents;
+    }
+
+    @Override
+    protected void findSingleValue(LookupSpec spec,Set<JsonDoc> results) {
+        if(keySpec instanceof SimpleKeySpec) {
+            if(spec instanceof RangeLookupSpec) {
+                RangeLookupSpec range=(RangeLookupSpec)spec;
+                if(range.from!=null||range.to!=null) {
+                    findRange(range,results);
+                    return;
+                }
+            } else if(spec instanceof PrefixLookupSpec) {
+                PrefixLookupSpec prefix=(PrefixLookupSpec)spec;
+                if(!prefix.caseInsensitive&&((SimpleKeySpec)keySpec).type instanceof StringType) {
+                    findPrefix(prefix,results);
+                    return;
+                }
+            } else if(spec instanceof MultiValueLookupSpec) {
+                for(Object value:((MultiValueLookupSpec)spec).values) {
+                    Set<JsonDoc> docs=sortedDocuments.get(new SimpleKey(value));
+                    if(docs!=null)
+                        results.addAll(docs);
+                }
+                return;
+            }
+        }
+        super.findSingleValue(spec,results);
+    }
+
+    private void findRange(RangeLookupSpec spec,Set<JsonDoc> results) {
+        NavigableMap<Key,Set<JsonDoc>> range;
+        if(spec.from==null) {
+            range=sortedDocuments.headMap(new SimpleKey(spec.to),true);
+        } else if(spec.to==null) {
+            range=sortedDocuments.tailMap(new SimpleKey(spec.from),true);
+        } else if(spec.key.type.compare(spec.from,spec.to)<=0) {
+            range=sortedDocuments.subMap(new SimpleKey(spec.from),true,new SimpleKey(spec.to),true);
+        } else {
+            return;
+        }
+        for(Set<JsonDoc> docs:range.values())
+            results.addAll(docs);
+    }
+
+    private void findPrefix(PrefixLookupSpec spec,Set<JsonDoc> results) {
+        for(Map.Entry<Key,Set<JsonDoc>> entry:sortedDocuments.tailMap(new SimpleKey(spec.prefix),true).entrySet()) {
+            Object value=((SimpleKey)entry.getKey()).value;
+            if(value==null||!((String)value).startsWith(spec.prefix))
+                break;
+            results.addAll(entry.getValue());
+        }
+    }
+}
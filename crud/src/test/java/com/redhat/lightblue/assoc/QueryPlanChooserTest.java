@@ -160,6 +160,61 @@ public class QueryPlanChooserTest extends AbstractJsonNodeTest {
         Assert.assertEquals("C", chooser.getBestPlan().getSources()[0].getMetadata().getName());
     }
 
+    @Test
+    public void costBasedIterationTest() throws Exception {
+        GMD gmd = new GMD(projection("[{'field':'obj1.c','include':1},{'field':'b','include':1}]"), null);
+        CompositeMetadata md = CompositeMetadata.buildCompositeMetadata(getMd("composite/A.json"), gmd);
+        String[][] cases = {{"{'field':'field1','op':'=','rvalue':'s'}", "A"},
+                            {"{'field':'obj1.c.*.field1','op':'=','rvalue':'s'}", "C"}};
+        for (String[] c : cases) {
+            IndexedFieldScorer scorer = new IndexedFieldScorer();
+            // Never fall back to brute force
+            QueryPlanChooser chooser = new QueryPlanChooser(md,
+                    new CostBasedQueryPlanIterator(scorer, 100, 0),
+                    scorer,
+                    query(c[0]),
+                    null);
+            chooser.choose();
+            Assert.assertEquals(1, chooser.getBestPlan().getSources().length);
+            Assert.assertEquals(c[1], chooser.getBestPlan().getSources()[0].getMetadata().getName());
+        }
+    }
+
+    @Test
+    public void costBasedIterationScoresOnceTest() throws Exception {
+        GMD gmd = new GMD(projection("[{'field':'obj1.c','include':1},{'field':'b','include':1}]"), null);
+        CompositeMetadata md = CompositeMetadata.buildCompositeMetadata(getMd("composite/A.json"), gmd);
+        int[] scores = new int[1];
+        IndexedFieldScorer scorer = new IndexedFieldScorer() {
+            @Override
+            public Comparable score(QueryPlan qp) {
+                scores[0]++;
+                return super.score(qp);
+            }
+        };
+        int[] plans = new int[1];
+        CostBasedQueryPlanIterator itr = new CostBasedQueryPlanIterator(scorer, 100, 0) {
+            @Override
+            public boolean next() {
+                boolean ret = super.next();
+                if (ret) {
+                    plans[0]++;
+                }
+                return ret;
+            }
+        };
+        QueryPlanChooser chooser = new QueryPlanChooser(md,
+                itr,
+                scorer,
+                query("{'field':'obj1.c.*.field1','op':'=','rvalue':'s'}"),
+                null);
+        chooser.choose();
+        Assert.assertEquals("C", chooser.getBestPlan().getSources()[0].getMetadata().getName());
+        // Every iterated plan and the initial plan are scored once
+        Assert.assertTrue(plans[0] > 0);
+        Assert.assertEquals(plans[0] + 1, scores[0]);
+    }
+
     @Test
     public void relationshipWithArrayElemMatchTest() throws Exception {
         GMD gmd = new GMD(projection("{'field':'relationships'}"), null);
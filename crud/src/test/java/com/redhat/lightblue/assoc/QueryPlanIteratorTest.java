@@ -42,6 +42,8 @@ import com.redhat.lightblue.assoc.iterators.*;
 import com.redhat.lightblue.assoc.scorers.*;
 
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
 
 public class QueryPlanIteratorTest extends AbstractJsonNodeTest {
 
@@ -125,4 +127,40 @@ public class QueryPlanIteratorTest extends AbstractJsonNodeTest {
         }
         Assert.assertFalse(itr.next());
     }
+
+    @Test
+    public void costBased_budget_test() throws Exception {
+        GMD gmd = new GMD(projection("[{'field':'r.*.r.*','include':1},{'field':'b.*.','include':1}]"), null);
+        CompositeMetadata md = CompositeMetadata.buildCompositeMetadata(getMd("composite/R.json"), gmd);
+        QueryPlan qp = new QueryPlan(md, new IndexedFieldScorer());
+        String initial = qp.mxToString();
+        QueryPlanIterator itr = new CostBasedQueryPlanIterator(new IndexedFieldScorer(), 2, 0);
+        itr.reset(qp);
+
+        Assert.assertTrue(itr.next());
+        Assert.assertTrue(itr.next());
+        Assert.assertFalse(itr.next());
+        Assert.assertFalse(itr.next());
+        // Plan is returned to its initial state
+        Assert.assertEquals(initial, qp.mxToString());
+    }
+
+    @Test
+    public void costBased_unique_plans_test() throws Exception {
+        GMD gmd = new GMD(projection("[{'field':'r.*.r.*','include':1},{'field':'b.*.','include':1}]"), null);
+        CompositeMetadata md = CompositeMetadata.buildCompositeMetadata(getMd("composite/R.json"), gmd);
+        QueryPlan qp = new QueryPlan(md, new IndexedFieldScorer());
+        QueryPlanIterator itr = new CostBasedQueryPlanIterator(new IndexedFieldScorer(), 100, 0);
+        itr.reset(qp);
+
+        Set<String> plans = new HashSet<>();
+        plans.add(qp.mxToString());
+        int n = 0;
+        while (itr.next()) {
+            Assert.assertTrue(plans.add(qp.mxToString()));
+            n++;
+        }
+        // 3 edges: never more than the 7 plans brute force would iterate
+        Assert.assertTrue(n > 0 && n <= 7);
+    }
 }
@@ -0,0 +1,56 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.assoc.ep;
+
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.redhat.lightblue.query.BinaryComparisonOperator;
+import com.redhat.lightblue.query.QueryExpression;
+import com.redhat.lightblue.query.Value;
+import com.redhat.lightblue.query.ValueComparisonExpression;
+import com.redhat.lightblue.util.Path;
+
+public class ChildDocumentCacheTest {
+
+    private static QueryExpression q(int value) {
+        return new ValueComparisonExpression(new Path("x"), BinaryComparisonOperator._eq, new Value(value));
+    }
+
+    @Test
+    public void trimEvictsLeastRecentlyUsedQueries() {
+        ChildDocumentCache cache = new ChildDocumentCache();
+        for (int i = 0; i < 5; i++) {
+            cache.putResults(q(i), new ArrayList<>());
+        }
+        cache.getResults(q(0));
+        cache.trim(10, 3);
+        Assert.assertEquals(3, cache.getNumQueries());
+        Assert.assertTrue(cache.isRetrieved(q(0)));
+        Assert.assertFalse(cache.isRetrieved(q(1)));
+        Assert.assertFalse(cache.isRetrieved(q(2)));
+        Assert.assertTrue(cache.isRetrieved(q(3)));
+        Assert.assertTrue(cache.isRetrieved(q(4)));
+
+        cache.trim(10, 0);
+        Assert.assertEquals(0, cache.getNumQueries());
+    }
+}
@@ -0,0 +1,110 @@
+package com.redhat.lightblue.assoc.ep;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class ExternalSortTest {
+
+    private static ObjectNode doc(int key, int seq) {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.set("key", JsonNodeFactory.instance.numberNode(key));
+        node.set("seq", JsonNodeFactory.instance.numberNode(seq));
+        node.set("data", JsonNodeFactory.instance.textNode("some data to make the document larger"));
+        return node;
+    }
+
+    private static ExternalSort<JsonNode> sorter(long budget) {
+        return new ExternalSort<>(n -> n.get("key").asInt(), n -> n, n -> n, budget);
+    }
+
+    private static void checkSorted(Iterator<JsonNode> itr, int n) {
+        List<JsonNode> result = new ArrayList<>();
+        itr.forEachRemaining(result::add);
+        Assert.assertEquals(n, result.size());
+        for (int i = 1; i < result.size(); i++) {
+            JsonNode prev = result.get(i - 1);
+            JsonNode cur = result.get(i);
+            int c = Integer.compare(prev.get("key").asInt(), cur.get("key").asInt());
+            Assert.assertTrue(c <= 0);
+            if (c == 0) {
+                // Stable
+                Assert.assertTrue(prev.get("seq").asInt() < cur.get("seq").asInt());
+            }
+        }
+    }
+
+    @Test
+    public void inMemorySort() {
+        ExternalSort<JsonNode> sort = sorter(0);
+        Random rnd = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            sort.add(doc(rnd.nextInt(50), i));
+        }
+        Assert.assertEquals(0, sort.getNumSpilledRuns());
+        checkSorted(sort.iterator(), 1000);
+        sort.close();
+    }
+
+    @Test
+    public void spillingSort() {
+        ExternalSort<JsonNode> sort = sorter(2000);
+        Random rnd = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            sort.add(doc(rnd.nextInt(50), i));
+        }
+        Assert.assertTrue(sort.getNumSpilledRuns() > 1);
+        checkSorted(sort.iterator(), 1000);
+        sort.close();
+    }
+
+    @Test
+    public void emptySort() {
+        ExternalSort<JsonNode> sort = sorter(10);
+        Assert.assertFalse(sort.iterator().hasNext());
+        sort.close();
+    }
+
+    @Test
+    public void filesDeletedWhenExhausted() {
+        ExternalSort<JsonNode> sort = sorter(2000);
+        for (int i = 0; i < 1000; i++) {
+            sort.add(doc(i % 50, i));
+        }
+        List<File> files = new ArrayList<>(sort.getRunFiles());
+        Assert.assertFalse(files.isEmpty());
+        for (File f : files) {
+            Assert.assertTrue(f.exists());
+        }
+        checkSorted(sort.iterator(), 1000);
+        // Not closed
+        for (File f : files) {
+            Assert.assertFalse(f.exists());
+        }
+    }
+
+    @Test
+    public void filesDeletedWhenClosedEarly() {
+        ExternalSort<JsonNode> sort = sorter(2000);
+        for (int i = 0; i < 1000; i++) {
+            sort.add(doc(i % 50, i));
+        }
+        List<File> files = new ArrayList<>(sort.getRunFiles());
+        Iterator<JsonNode> itr = sort.iterator();
+        itr.next();
+        itr.next();
+        sort.close();
+        for (File f : files) {
+            Assert.assertFalse(f.exists());
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.crud;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.redhat.lightblue.OperationStatus;
+import com.redhat.lightblue.Response;
+import com.redhat.lightblue.crud.memory.AbstractMemoryCRUDTest;
+import com.redhat.lightblue.crud.memory.MemoryCRUDController;
+import com.redhat.lightblue.mediator.MockCrudController;
+import com.redhat.lightblue.query.Projection;
+import com.redhat.lightblue.query.QueryExpression;
+import com.redhat.lightblue.query.Sort;
+
+public class CachingCRUDControllerTest extends AbstractMemoryCRUDTest {
+
+    private final AtomicInteger numFinds = new AtomicInteger();
+
+    private CachingCRUDController setup(long ttlMS) throws Exception {
+        return setup(ttlMS, new MemoryCRUDController() {
+            @Override
+            public CRUDFindResponse find(CRUDOperationContext ctx,
+                                         QueryExpression query,
+                                         Projection projection,
+                                         Sort sort,
+                                         Long from,
+                                         Long to) {
+                numFinds.incrementAndGet();
+                return super.find(ctx, query, projection, sort, from, to);
+            }
+        });
+    }
+
+    private CachingCRUDController setup(long ttlMS, CRUDController delegate) throws Exception {
+        md.getEntityInfo().getProperties().put(CachingCRUDController.PROPERTY_CACHEABLE, true);
+        CachingCRUDController controller = new CachingCRUDController(delegate, 100, ttlMS, 10);
+        setupMediator(controller);
+
+        Response r = mediator.insert(InsertionRequest.fromJson(request("{'data':["
+                + "{'_id':'1','login':'ann','age':31},"
+                + "{'_id':'2','login':'bob','age':25},"
+                + "{'_id':'3','login':'cid','age':40}]}")));
+        Assert.assertEquals(OperationStatus.COMPLETE, r.getStatus());
+        return controller;
+    }
+
+    private Response find(String query) throws Exception {
+        Response r = mediator.find(FindRequest.fromJson(request("{'query':" + query
+                + ",'projection':{'field':'*','recursive':1},'sort':{'_id':'$asc'}}")));
+        Assert.assertEquals(OperationStatus.COMPLETE, r.getStatus());
+        return r;
+    }
+
+    private Response findById(String query) throws Exception {
+        Response r = mediator.find(FindRequest.fromJson(request("{'query':" + query
+                + ",'projection':{'field':'*','recursive':1}}")));
+        Assert.assertEquals(OperationStatus.COMPLETE, r.getStatus());
+        return r;
+    }
+
+    @Test
+    public void repeatedFindIsCached() throws Exception {
+        CachingCRUDController controller = setup(0);
+        Response r = find("{'field':'age','op':'>','rvalue':30}");
+        Assert.assertEquals(2, r.getEntityData().size());
+        Assert.assertEquals(1, numFinds.get());
+
+        // Modifying the returned document does not modify the cache
+        ((ObjectNode) r.getEntityData().get(0)).put("login", "x");
+        r = find("{'field':'age','op':'>','rvalue':30}");
+        Assert.assertEquals(2, r.getEntityData().size());
+        Assert.assertEquals(2, r.getMatchCount());
+        Assert.assertEquals("ann", r.getEntityData().get(0).get("login").asText());
+        Assert.assertEquals("cid", r.getEntityData().get(1).get("login").asText());
+        Assert.assertEquals(1, numFinds.get());
+        Assert.assertEquals(1, controller.getHits());
+        Assert.assertEquals(1, controller.getMisses());
+
+        // A different query is not
+        find("{'field':'age','op':'>','rvalue':20}");
+        Assert.assertEquals(2, numFinds.get());
+    }
+
+    @Test
+    public void differentProjectionsAreCachedSeparately() throws Exception {
+        CachingCRUDController controller = setup(0);
+        String query = "{'query':{'field':'age','op':'>','rvalue':30},'sort':{'_id':'$asc'},'projection':";
+        Response r = mediator.find(FindRequest.fromJson(request(query + "{'field':'login'}}")));
+        Assert.assertEquals(2, r.getEntityData().size());
+        Assert.assertNull(r.getEntityData().get(0).get("age"));
+        r = mediator.find(FindRequest.fromJson(request(query + "{'field':'*','recursive':1}}")));
+        Assert.assertEquals(31, r.getEntityData().get(0).get("age").asInt());
+        Assert.assertEquals(2, numFinds.get());
+        Assert.assertEquals(2, controller.size());
+
+        r = mediator.find(FindRequest.fromJson(request(query + "{'field':'login'}}")));
+        Assert.assertNull(r.getEntityData().get(0).get("age"));
+        Assert.assertEquals(2, numFinds.get());
+        Assert.assertEquals(1, controller.getHits());
+    }
+
+    @Test
+    public void identityLookupUsesCachedDocuments() throws Exception {
+        CachingCRUDController controller = setup(0);
+        find("{'field':'age','op':'>','rvalue':30}");
+        Assert.assertEquals(1, numFinds.get());
+        Assert.assertEquals(2, controller.getNumDocuments());
+
+        Response r = findById("{'field':'_id','op':'=','rvalue':'3'}");
+        Assert.assertEquals(1, r.getEntityData().size());
+        Assert.assertEquals("cid", r.getEntityData().get(0).get("login").asText());
+        r = findById("{'field':'_id','op':'$in','values':['3','1']}");
+        Assert.assertEquals(2, r.getEntityData().size());
+        Assert.assertEquals(1, numFinds.get());
+
+        // _id=2 is not cached
+        r = findById("{'field':'_id','op':'$in','values':['1','2']}");
+        Assert.assertEquals(2, r.getEntityData().size());
+        Assert.assertEquals(2, numFinds.get());
+    }
+
+    @Test
+    public void writesInvalidate() throws Exception {
+        CachingCRUDController controller = setup(0);
+        find("{'field':'age','op':'>','rvalue':30}");
+        Assert.assertEquals(1, controller.size());
+
+        Response r = mediator.update(UpdateRequest.fromJson(request("{'query':{'field':'_id','op':'=','rvalue':'2'},"
+                + "'update':{'$set':{'age':50}}}")));
+        Assert.assertEquals(1, r.getModifiedCount());
+        Assert.assertEquals(0, controller.size());
+        Assert.assertEquals(0, controller.getNumDocuments());
+
+        r = find("{'field':'age','op':'>','rvalue':30}");
+        Assert.assertEquals(3, r.getEntityData().size());
+        Assert.assertEquals(2, numFinds.get());
+
+        mediator.delete(DeleteRequest.fromJson(request("{'query':{'field':'_id','op':'=','rvalue':'1'}}")));
+        r = find("{'field':'age','op':'>','rvalue':30}");
+        Assert.assertEquals(2, r.getEntityData().size());
+        Assert.assertEquals(3, numFinds.get());
+    }
+
+    @Test
+    public void entriesExpire() throws Exception {
+        setup(1);
+        find("{'field':'age','op':'>','rvalue':30}");
+        Thread.sleep(10);
+        find("{'field':'age','op':'>','rvalue':30}");
+        Assert.assertEquals(2, numFinds.get());
+    }
+
+    @Test
+    public void notCacheable() throws Exception {
+        CachingCRUDController controller = setup(0);
+        md.getEntityInfo().getProperties().remove(CachingCRUDController.PROPERTY_CACHEABLE);
+        find("{'field':'age','op':'>','rvalue':30}");
+        find("{'field':'age','op':'>','rvalue':30}");
+        Assert.assertEquals(2, numFinds.get());
+        Assert.assertEquals(0, controller.size());
+    }
+
+    @Test
+    public void largeResultsAreNotCached() throws Exception {
+        CachingCRUDController controller = setup(0);
+        StringBuilder data = new StringBuilder();
+        for (int i = 10; i < 30; i++) {
+            data.append(i == 10 ? "" : ",").append("{'_id':'").append(i).append("','login':'u").append(i).append("','age':60}");
+        }
+        mediator.insert(InsertionRequest.fromJson(request("{'data':[" + data + "]}")));
+        Response r = find("{'field':'age','op':'>','rvalue':30}");
+        Assert.assertEquals(22, r.getEntityData().size());
+        Assert.assertEquals(0, controller.size());
+    }
+
+    @Test
+    public void resultsLargerThanReportedAreNotCached() throws Exception {
+        // The wrapped controller does not report the result size
+        CachingCRUDController controller = setup(0, new MemoryCRUDController() {
+            @Override
+            public CRUDFindResponse find(CRUDOperationContext ctx,
+                                         QueryExpression query,
+                                         Projection projection,
+                                         Sort sort,
+                                         Long from,
+                                         Long to) {
+                CRUDFindResponse response = super.find(ctx, query, projection, sort, from, to);
+                response.setSize(0);
+                return response;
+            }
+        });
+        StringBuilder data = new StringBuilder();
+        for (int i = 10; i < 30; i++) {
+            data.append(i == 10 ? "" : ",").append("{'_id':'").append(i).append("','login':'u").append(i).append("','age':60}");
+        }
+        mediator.insert(InsertionRequest.fromJson(request("{'data':[" + data + "]}")));
+        Response r = find("{'field':'age','op':'>','rvalue':30}");
+        Assert.assertEquals(22, r.getEntityData().size());
+        Assert.assertEquals("1", r.getEntityData().get(0).get("_id").asText());
+        Assert.assertEquals("3", r.getEntityData().get(21).get("_id").asText());
+        Assert.assertEquals(0, controller.size());
+        Assert.assertEquals(0, controller.getNumDocuments());
+    }
+
+    @Test
+    public void explainNotSupported() throws Exception {
+        md.getEntityInfo().getProperties().put(CachingCRUDController.PROPERTY_CACHEABLE, true);
+        setupMediator(new CachingCRUDController(new MockCrudController(), 100, 0, 10));
+        Response r = mediator.explain(FindRequest.fromJson(request("{'query':{'field':'_id','op':'=','rvalue':'1'},"
+                + "'projection':{'field':'*','recursive':1}}")));
+        Assert.assertEquals(1, r.getErrors().size());
+        Assert.assertEquals(CrudConstants.ERR_EXPLAIN_NOT_SUPPORTED, r.getErrors().get(0).getErrorCode());
+    }
+}
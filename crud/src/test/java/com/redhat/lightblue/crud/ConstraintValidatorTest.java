@@ -23,10 +23,15 @@ import static org.junit.Assert.assertFalse;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -39,12 +44,14 @@ import com.redhat.lightblue.TestDataStoreParser;
 import com.redhat.lightblue.crud.validator.*;
 import com.redhat.lightblue.metadata.EntityConstraint;
 import com.redhat.lightblue.metadata.CompositeMetadata;
+import com.redhat.lightblue.metadata.EntityInfo;
 import com.redhat.lightblue.metadata.EntityMetadata;
 import com.redhat.lightblue.metadata.FieldConstraint;
 import com.redhat.lightblue.metadata.SimpleArrayElement;
 import com.redhat.lightblue.metadata.constraints.*;
 import com.redhat.lightblue.metadata.Type;
 import com.redhat.lightblue.metadata.parser.*;
+import com.redhat.lightblue.metadata.test.DatabaseMetadata;
 import com.redhat.lightblue.metadata.types.DefaultTypes;
 import com.redhat.lightblue.util.DefaultRegistry;
 import com.redhat.lightblue.util.Error;
@@ -52,6 +59,7 @@ import com.redhat.lightblue.util.JsonDoc;
 import com.redhat.lightblue.util.JsonUtils;
 import com.redhat.lightblue.util.Registry;
 import com.redhat.lightblue.util.Path;
+import com.redhat.lightblue.util.metrics.NoopRequestMetrics;
 import com.redhat.lightblue.util.test.AbstractJsonSchemaTest;
 import com.redhat.lightblue.eval.EvalTestContext;
 import com.redhat.lightblue.mediator.MockCrudController;
@@ -223,6 +231,84 @@ public class ConstraintValidatorTest extends AbstractJsonSchemaTest {
         Assert.assertEquals(2,errors.size());
     }
 
+    @Test
+    public void testValidate_parallel() throws Exception {
+        JsonNode validatorNode = loadJsonNode("crud/validator/schema-test-validation-element-identity.json");
+        EntityMetadata entityMetadata = createEntityMetadata(validatorNode, null, null);
+        List<JsonDoc> docs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            JsonDoc doc = new JsonDoc(JsonNodeFactory.instance.objectNode());
+            doc.modify(new Path("field1.0.f1"), JsonNodeFactory.instance.textNode("text"), true);
+            doc.modify(new Path("field1.0.id"), JsonNodeFactory.instance.textNode("1"), true);
+            doc.modify(new Path("field1.1.f1"), JsonNodeFactory.instance.textNode("text"), true);
+            // Odd docs have duplicate identities
+            doc.modify(new Path("field1.1.id"), JsonNodeFactory.instance.textNode(i % 2 == 0 ? "2" : "1"), true);
+            docs.add(doc);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        // Errors should carry the caller context, like insert(...) pushed by the mediator
+        Error.push("insert(test)");
+        try {
+            ConstraintValidator sequential = createConstraintValidator(entityMetadata);
+            sequential.validateDocs(docs);
+            ConstraintValidator parallel = createConstraintValidator(entityMetadata);
+            Assert.assertTrue(parallel.getConstraintPlan().isThreadSafe());
+            parallel.validateDocs(docs, executor, 3);
+
+            Assert.assertEquals(5, parallel.getDocErrors().size());
+            Assert.assertEquals(sequential.getDocErrors().keySet(), parallel.getDocErrors().keySet());
+            for (int i = 0; i < docs.size(); i++) {
+                JsonDoc doc = docs.get(i);
+                List<Error> s = sequential.getDocErrors().get(doc);
+                List<Error> p = parallel.getDocErrors().get(doc);
+                if (i % 2 == 0) {
+                    Assert.assertNull(s);
+                    Assert.assertNull(p);
+                } else {
+                    Assert.assertNotNull(p);
+                    Assert.assertEquals(s.size(), p.size());
+                    for (int j = 0; j < s.size(); j++) {
+                        Assert.assertEquals(s.get(j).getErrorCode(), p.get(j).getErrorCode());
+                        Assert.assertEquals(s.get(j).getContext(), p.get(j).getContext());
+                        Assert.assertEquals(s.get(j).toJson(), p.get(j).toJson());
+                        Assert.assertTrue(p.get(j).getContext().startsWith("insert(test)/validateDocs"));
+                    }
+                }
+            }
+            Assert.assertTrue(sequential.getErrors().isEmpty());
+            Assert.assertTrue(parallel.getErrors().isEmpty());
+            // The caller context is unchanged
+            Assert.assertEquals(Arrays.asList("insert(test)"), Error.getThreadContext());
+        } finally {
+            Error.pop();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testValidate_parallelWithUnsafeChecker() throws Exception {
+        JsonNode validatorNode = loadJsonNode("crud/validator/schema-test-validation-simple.json");
+        EntityMetadata entityMetadata = createEntityMetadata(validatorNode, Arrays.asList(new TestEntityConstraint("threads")), null);
+        Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+        Map<String, EntityConstraintChecker> ecc = new HashMap<>();
+        ecc.put("threads", (validator, constraint, doc) -> threads.add(Thread.currentThread()));
+        ConstraintValidator validator = createConstraintValidator(entityMetadata, null, ecc);
+        Assert.assertFalse(validator.getConstraintPlan().isThreadSafe());
+
+        List<JsonDoc> docs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            docs.add(new JsonDoc(validatorNode.deepCopy()));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            validator.validateDocs(docs, executor, 3);
+        } finally {
+            executor.shutdown();
+        }
+        // The checker is not thread safe, so it is only called by the caller
+        Assert.assertEquals(Collections.singleton(Thread.currentThread()), threads);
+    }
+
     /**
      * A {@link EntityConstraint} that does not exist is requested. A
      * {@link Error} is expected.
@@ -286,6 +372,76 @@ public class ConstraintValidatorTest extends AbstractJsonSchemaTest {
         System.out.println(errors);
     }
 
+    @Test
+    public void testConstraintPlanCache() throws IOException {
+        JsonNode node = loadJsonNode("crud/validator/testSimpleArrayEnum.json");
+        Map<String, FieldConstraintParser<JsonNode>> fcp = new HashMap<>();
+        fcp.put(EnumConstraint.ENUM, new EnumConstraintParser<JsonNode>());
+        EntityMetadata md = createEntityMetadata(node, null, fcp);
+
+        Factory factory = new Factory();
+        factory.addFieldConstraintValidators(new DefaultFieldConstraintValidators());
+        factory.addEntityConstraintValidators(new EmptyEntityConstraintValidators());
+        List<String> cacheLookups = new ArrayList<>();
+        factory.setRequestMetrics(new NoopRequestMetrics() {
+            @Override
+            public void markCacheHit(String cacheName) {
+                cacheLookups.add(cacheName + ":hit");
+            }
+
+            @Override
+            public void markCacheMiss(String cacheName) {
+                cacheLookups.add(cacheName + ":miss");
+            }
+        });
+
+        ConstraintPlan plan = factory.getConstraintValidator(md).getConstraintPlan();
+        Assert.assertEquals(1, plan.getFieldChecks().size());
+        Assert.assertEquals(new Path("array1.*"), plan.getFieldChecks().get(0).getPath());
+        Assert.assertSame(plan, factory.getConstraintValidator(md).getConstraintPlan());
+        Assert.assertEquals(1, factory.getConstraintPlanCache().getHits());
+        Assert.assertEquals(1, factory.getConstraintPlanCache().getMisses());
+        Assert.assertEquals(Arrays.asList(ConstraintPlanCache.CACHE_NAME + ":miss", ConstraintPlanCache.CACHE_NAME + ":hit"), cacheLookups);
+
+        JsonDoc doc = new JsonDoc(loadJsonNode("crud/validator/simple-array-enum-constraint-doc.json"));
+        ConstraintValidator validator = factory.getConstraintValidator(md);
+        validator.validateDoc(doc);
+        Assert.assertEquals(1, validator.getDocErrors().get(doc).size());
+        Assert.assertEquals("crud:InvalidEnum", validator.getDocErrors().get(doc).get(0).getErrorCode());
+
+        // Adding checkers discards the compiled plans
+        factory.addFieldConstraintValidator("x", new EnumChecker());
+        Assert.assertEquals(0, factory.getConstraintPlanCache().size());
+        Assert.assertNotSame(plan, factory.getConstraintValidator(md).getConstraintPlan());
+    }
+
+    @Test
+    public void testConstraintPlanCache_metadataUpdate() throws IOException {
+        JsonNode node = loadJsonNode("crud/validator/testSimpleArrayEnum.json");
+        Map<String, FieldConstraintParser<JsonNode>> fcp = new HashMap<>();
+        fcp.put(EnumConstraint.ENUM, new EnumConstraintParser<JsonNode>());
+        EntityMetadata md = createEntityMetadata(node, null, fcp);
+
+        Factory factory = new Factory();
+        factory.addFieldConstraintValidators(new DefaultFieldConstraintValidators());
+        factory.addEntityConstraintValidators(new EmptyEntityConstraintValidators());
+
+        ConstraintPlan plan = factory.getConstraintValidator(md).getConstraintPlan();
+        // Metadata parsed again for the same version uses the same plan
+        Assert.assertSame(plan, factory.getConstraintValidator(createEntityMetadata(node, null, fcp)).getConstraintPlan());
+        Assert.assertEquals(1, factory.getConstraintPlanCache().getHits());
+
+        // Updating the entity through the metadata evicts the plan
+        new NotifyingMetadata(new DatabaseMetadata() {
+            @Override
+            public void updateEntityInfo(EntityInfo ei) {
+            }
+        }, factory).updateEntityInfo(md.getEntityInfo());
+        Assert.assertEquals(0, factory.getConstraintPlanCache().size());
+        Assert.assertNotSame(plan, factory.getConstraintValidator(md).getConstraintPlan());
+        Assert.assertEquals(2, factory.getConstraintPlanCache().getMisses());
+    }
+
     /**
      * No {@link FieldConstraintChecker} exists for the {@link FieldConstraint}.
      * This causes the registry to return a null value. A {@link Error} is
@@ -0,0 +1,103 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.crud.memory;
+
+import org.junit.Before;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.redhat.lightblue.TestDataStoreParser;
+import com.redhat.lightblue.crud.CRUDController;
+import com.redhat.lightblue.crud.Factory;
+import com.redhat.lightblue.crud.interceptors.UIDInterceptor;
+import com.redhat.lightblue.crud.validator.DefaultFieldConstraintValidators;
+import com.redhat.lightblue.crud.validator.EmptyEntityConstraintValidators;
+import com.redhat.lightblue.crud.valuegenerators.GeneratedFieldInterceptor;
+import com.redhat.lightblue.mediator.Mediator;
+import com.redhat.lightblue.metadata.EntityMetadata;
+import com.redhat.lightblue.metadata.PredefinedFields;
+import com.redhat.lightblue.metadata.parser.Extensions;
+import com.redhat.lightblue.metadata.parser.JSONMetadataParser;
+import com.redhat.lightblue.metadata.test.DatabaseMetadata;
+import com.redhat.lightblue.metadata.types.DefaultTypes;
+import com.redhat.lightblue.util.JsonUtils;
+import com.redhat.lightblue.util.test.AbstractJsonNodeTest;
+
+/**
+ * Base class for tests running requests on the person entity through a
+ * mediator. The controller of the mediator is set by the test.
+ */
+public abstract class AbstractMemoryCRUDTest extends AbstractJsonNodeTest {
+
+    protected static final JsonNodeFactory nodeFactory = JsonNodeFactory.withExactBigDecimals(false);
+
+    protected EntityMetadata md;
+    protected Factory factory;
+    protected Mediator mediator;
+
+    @Before
+    public void setupFactory() throws Exception {
+        md = parseMetadata(loadJsonNode("./memory/person.json"));
+
+        factory = new Factory();
+        factory.addFieldConstraintValidators(new DefaultFieldConstraintValidators());
+        factory.addEntityConstraintValidators(new EmptyEntityConstraintValidators());
+        new UIDInterceptor().register(factory.getInterceptors());
+        new GeneratedFieldInterceptor().register(factory.getInterceptors());
+    }
+
+    /**
+     * Parses entity metadata
+     */
+    protected static EntityMetadata parseMetadata(JsonNode node) {
+        Extensions<JsonNode> extensions = new Extensions<>();
+        extensions.addDefaultExtensions();
+        extensions.registerDataStoreParser("mongo", new TestDataStoreParser<JsonNode>());
+        JSONMetadataParser parser = new JSONMetadataParser(extensions, new DefaultTypes(), nodeFactory);
+        EntityMetadata md = parser.parseEntityMetadata(node);
+        PredefinedFields.ensurePredefinedFields(md);
+        return md;
+    }
+
+    /**
+     * Creates the mediator using the given controller for the person entity
+     */
+    protected void setupMediator(CRUDController controller) {
+        factory.addCRUDController("mongo", controller);
+        mediator = new Mediator(new DatabaseMetadata() {
+            @Override
+            public EntityMetadata getEntityMetadata(String entityName, String version) {
+                return md;
+            }
+        }, factory);
+    }
+
+    /**
+     * Parses a request for the person entity, with single quotes used for
+     * double quotes
+     */
+    protected static ObjectNode request(String s) throws Exception {
+        ObjectNode node = (ObjectNode) JsonUtils.json(s.replaceAll("'", "\""));
+        node.put("entity", "person");
+        node.put("entityVersion", "1.0.0");
+        return node;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.crud.memory;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.redhat.lightblue.OperationStatus;
+import com.redhat.lightblue.Response;
+import com.redhat.lightblue.crud.DeleteRequest;
+import com.redhat.lightblue.crud.FindRequest;
+import com.redhat.lightblue.crud.InsertionRequest;
+import com.redhat.lightblue.crud.SaveRequest;
+import com.redhat.lightblue.crud.UpdateRequest;
+import com.redhat.lightblue.metadata.EntityMetadata;
+import com.redhat.lightblue.query.QueryExpression;
+import com.redhat.lightblue.util.JsonUtils;
+
+public class MemoryCRUDControllerTest extends AbstractMemoryCRUDTest {
+
+    private MemoryCRUDController controller;
+
+    @Before
+    public void setup() throws Exception {
+        controller = new MemoryCRUDController();
+        setupMediator(controller);
+
+        Response r = mediator.insert(InsertionRequest.fromJson(request("{'data':["
+                + "{'_id':'1','login':'ann','age':31,'tags':['a','b']},"
+                + "{'_id':'2','login':'bob','age':25,'tags':['b']},"
+                + "{'_id':'3','login':'cid','age':40},"
+                + "{'_id':'4','login':'dan','age':35,'tags':['c']},"
+                + "{'_id':'5','login':'eve','age':20}]}")));
+        Assert.assertEquals(OperationStatus.COMPLETE, r.getStatus());
+        Assert.assertEquals(5, r.getModifiedCount());
+    }
+
+    private Response find(String query, String sort, Long from, Long to) throws Exception {
+        ObjectNode req = request("{'query':" + query + ",'projection':{'field':'*','recursive':1}}");
+        if (sort != null) {
+            req.set("sort", JsonUtils.json(sort.replaceAll("'", "\"")));
+        }
+        if (from != null) {
+            req.put("from", from);
+        }
+        if (to != null) {
+            req.put("to", to);
+        }
+        return mediator.find(FindRequest.fromJson(req));
+    }
+
+    @Test
+    public void findWithIndexSortAndRange() throws Exception {
+        Response r = find("{'field':'age','op':'>=','rvalue':30}", "{'age':'$desc'}", 0l, 1l);
+        Assert.assertEquals(OperationStatus.COMPLETE, r.getStatus());
+        Assert.assertEquals(3, r.getMatchCount());
+        Assert.assertEquals(2, r.getEntityData().size());
+        Assert.assertEquals("cid", r.getEntityData().get(0).get("login").asText());
+        Assert.assertEquals("dan", r.getEntityData().get(1).get("login").asText());
+
+        r = find("{'field':'tags.*','op':'=','rvalue':'b'}", "{'login':'$asc'}", null, null);
+        Assert.assertEquals(2, r.getEntityData().size());
+        Assert.assertEquals("ann", r.getEntityData().get(0).get("login").asText());
+        Assert.assertEquals("bob", r.getEntityData().get(1).get("login").asText());
+
+        // Not indexed
+        r = find("{'field':'_id','op':'$in','values':['2','3']}", "{'_id':'$asc'}", null, null);
+        Assert.assertEquals(2, r.getEntityData().size());
+
+        r = find("{'field':'login','op':'=','rvalue':'eve'}", null, null, null);
+        Assert.assertEquals(1, r.getEntityData().size());
+        Assert.assertEquals("person", r.getEntityData().get(0).get("objectType").asText());
+    }
+
+    @Test
+    public void findWithLargeRange() throws Exception {
+        Response r = find("{'field':'age','op':'>=','rvalue':30}", "{'age':'$desc'}", 1l, Long.MAX_VALUE);
+        Assert.assertEquals(OperationStatus.COMPLETE, r.getStatus());
+        Assert.assertEquals(3, r.getMatchCount());
+        Assert.assertEquals(2, r.getEntityData().size());
+        Assert.assertEquals("dan", r.getEntityData().get(0).get("login").asText());
+
+        r = find("{'field':'age','op':'>=','rvalue':30}", null, Long.MAX_VALUE - 1, Long.MAX_VALUE);
+        Assert.assertEquals(OperationStatus.COMPLETE, r.getStatus());
+        Assert.assertEquals(3, r.getMatchCount());
+        Assert.assertEquals(0, r.getEntityData() == null ? 0 : r.getEntityData().size());
+
+        r = find("{'field':'age','op':'>=','rvalue':30}", null, (long) Integer.MAX_VALUE + 1, null);
+        Assert.assertEquals(0, r.getEntityData() == null ? 0 : r.getEntityData().size());
+    }
+
+    @Test
+    public void returnedDocsAreCopies() throws Exception {
+        Response r = find("{'field':'login','op':'=','rvalue':'ann'}", null, null, null);
+        ((ObjectNode) r.getEntityData().get(0)).put("age", 99);
+        r = find("{'field':'age','op':'=','rvalue':99}", null, null, null);
+        Assert.assertEquals(0, r.getEntityData().size());
+    }
+
+    @Test
+    public void uniqueIndex() throws Exception {
+        Response r = mediator.insert(InsertionRequest.fromJson(request("{'data':["
+                + "{'_id':'6','login':'ann'},"
+                + "{'_id':'7','login':'fay'},"
+                + "{'_id':'1','login':'gus'}]}")));
+        Assert.assertEquals(OperationStatus.PARTIAL, r.getStatus());
+        Assert.assertEquals(1, r.getModifiedCount());
+        Assert.assertEquals(2, r.getDataErrors().size());
+        Assert.assertEquals(MemoryCrudConstants.ERR_DUPLICATE, r.getDataErrors().get(0).getErrors().get(0).getErrorCode());
+        Assert.assertEquals(6, controller.size("person"));
+
+        r = mediator.update(UpdateRequest.fromJson(request("{'query':{'field':'login','op':'=','rvalue':'bob'},"
+                + "'update':{'$set':{'login':'ann'}}}")));
+        Assert.assertEquals(OperationStatus.PARTIAL, r.getStatus());
+        Assert.assertEquals(0, r.getModifiedCount());
+        Assert.assertEquals(1, find("{'field':'login','op':'=','rvalue':'bob'}", null, null, null).getEntityData().size());
+    }
+
+    @Test
+    public void updateMaintainsIndexes() throws Exception {
+        Response r = mediator.update(UpdateRequest.fromJson(request("{'query':{'field':'age','op':'<','rvalue':30},"
+                + "'update':{'$set':{'age':50}},'projection':{'field':'login'}}")));
+        Assert.assertEquals(OperationStatus.COMPLETE, r.getStatus());
+        Assert.assertEquals(2, r.getModifiedCount());
+        Assert.assertEquals(2, r.getMatchCount());
+        Assert.assertEquals(2, r.getEntityData().size());
+
+        Assert.assertEquals(0, find("{'field':'age','op':'=','rvalue':25}", null, null, null).getEntityData().size());
+        r = find("{'field':'age','op':'=','rvalue':50}", "{'login':'$asc'}", null, null);
+        Assert.assertEquals(2, r.getEntityData().size());
+        Assert.assertEquals("bob", r.getEntityData().get(0).get("login").asText());
+        Assert.assertEquals("eve", r.getEntityData().get(1).get("login").asText());
+
+        // Constraint violation
+        r = mediator.update(UpdateRequest.fromJson(request("{'query':{'field':'login','op':'=','rvalue':'ann'},"
+                + "'update':{'$set':{'age':-1}}}")));
+        Assert.assertEquals(0, r.getModifiedCount());
+        Assert.assertEquals(1, find("{'field':'age','op':'=','rvalue':31}", null, null, null).getEntityData().size());
+    }
+
+    @Test
+    public void saveAndDelete() throws Exception {
+        Response r = mediator.save(SaveRequest.fromJson(request("{'data':{'_id':'9','login':'hal','age':1}}")));
+        Assert.assertEquals(OperationStatus.ERROR, r.getStatus());
+        Assert.assertEquals(MemoryCrudConstants.ERR_SAVE_ERROR, r.getDataErrors().get(0).getErrors().get(0).getErrorCode());
+
+        r = mediator.save(SaveRequest.fromJson(request("{'upsert':true,'data':{'_id':'9','login':'hal','age':1}}")));
+        Assert.assertEquals(OperationStatus.COMPLETE, r.getStatus());
+        r = mediator.save(SaveRequest.fromJson(request("{'data':{'_id':'1','login':'ann','age':32}}")));
+        Assert.assertEquals(OperationStatus.COMPLETE, r.getStatus());
+        Assert.assertEquals(6, controller.size("person"));
+        Assert.assertEquals(1, find("{'field':'age','op':'=','rvalue':32}", null, null, null).getEntityData().size());
+        Assert.assertEquals(0, find("{'field':'age','op':'=','rvalue':31}", null, null, null).getEntityData().size());
+
+        r = mediator.delete(DeleteRequest.fromJson(request("{'query':{'field':'login','op':'$in','values':['ann','bob','zed']}}")));
+        Assert.assertEquals(OperationStatus.COMPLETE, r.getStatus());
+        Assert.assertEquals(2, r.getModifiedCount());
+        Assert.assertEquals(4, controller.size("person"));
+        Assert.assertEquals(0, find("{'field':'tags.*','op':'=','rvalue':'b'}", null, null, null).getEntityData().size());
+    }
+
+    @Test
+    public void deleteHookDocsAreCopies() throws Exception {
+        Response r = mediator.delete(DeleteRequest.fromJson(request("{'query':{'field':'_id','op':'=','rvalue':'1'}}")));
+        Assert.assertEquals(1, r.getModifiedCount());
+        // The deleted document can be inserted again with the same contents
+        r = mediator.insert(InsertionRequest.fromJson(request("{'data':[{'_id':'1','login':'ann','age':31,'tags':['a','b']}]}")));
+        Assert.assertEquals(OperationStatus.COMPLETE, r.getStatus());
+        Assert.assertEquals(1, find("{'field':'tags.*','op':'=','rvalue':'a'}", null, null, null).getEntityData().size());
+    }
+
+    @Test
+    public void indexChangeWithDuplicatesFails() throws Exception {
+        Response r = mediator.insert(InsertionRequest.fromJson(request("{'data':[{'_id':'6','login':'fay','age':20}]}")));
+        Assert.assertEquals(OperationStatus.COMPLETE, r.getStatus());
+        EntityMetadata original = md;
+
+        // age becomes unique, and two documents have age=20
+        ObjectNode node = (ObjectNode) loadJsonNode("./memory/person.json");
+        ((ArrayNode) node.get("entityInfo").get("indexes")).add(JsonUtils.json("{\"name\":\"age\",\"unique\":true,\"fields\":[{\"field\":\"age\",\"dir\":\"$asc\"}]}"));
+        md = parseMetadata(node);
+        factory.getCompositeMetadataCache().clear();
+        r = find("{'field':'age','op':'=','rvalue':20}", null, null, null);
+        Assert.assertEquals(OperationStatus.ERROR, r.getStatus());
+        Assert.assertEquals(MemoryCrudConstants.ERR_REBUILD, r.getErrors().get(0).getErrorCode());
+        r = mediator.explain(FindRequest.fromJson(request("{'query':{'field':'age','op':'=','rvalue':20},'projection':{'field':'*'}}")));
+        Assert.assertEquals(MemoryCrudConstants.ERR_REBUILD, r.getErrors().get(0).getErrorCode());
+
+        // No document is dropped, and the store still works with the original metadata
+        Assert.assertEquals(6, controller.size("person"));
+        md = original;
+        factory.getCompositeMetadataCache().clear();
+        Assert.assertEquals(2, find("{'field':'age','op':'=','rvalue':20}", null, null, null).getEntityData().size());
+    }
+
+    @Test
+    public void sequenceValuesAreGenerated() throws Exception {
+        ObjectNode node = (ObjectNode) loadJsonNode("./memory/person.json");
+        ((ObjectNode) node.get("schema").get("fields")).set("seq", JsonUtils.json("{\"type\":\"integer\",\"constraints\":{\"required\":true},"
+                + "\"valueGenerator\":{\"type\":\"IntSequence\",\"configuration\":{\"name\":\"personSeq\",\"initialValue\":100,\"increment\":2}}}"));
+        md = parseMetadata(node);
+        factory.getCompositeMetadataCache().clear();
+
+        Response r = mediator.insert(InsertionRequest.fromJson(request("{'data':["
+                + "{'_id':'6','login':'fay'},{'_id':'7','login':'gus'},{'_id':'8','login':'hal'}],"
+                + "'projection':{'field':'seq'}}")));
+        Assert.assertEquals(OperationStatus.COMPLETE, r.getStatus());
+        Assert.assertEquals(100, r.getEntityData().get(0).get("seq").asInt());
+        Assert.assertEquals(102, r.getEntityData().get(1).get("seq").asInt());
+        Assert.assertEquals(104, r.getEntityData().get(2).get("seq").asInt());
+
+        r = mediator.insert(InsertionRequest.fromJson(request("{'data':[{'_id':'9','login':'ian'}],'projection':{'field':'seq'}}")));
+        Assert.assertEquals(106, r.getEntityData().get(0).get("seq").asInt());
+    }
+
+    @Test
+    public void explain() throws Exception {
+        Response r = mediator.explain(FindRequest.fromJson(request("{'query':{'$and':["
+                + "{'field':'name','op':'=','rvalue':'x'},"
+                + "{'field':'age','op':'>','rvalue':3},"
+                + "{'field':'login','op':'=','rvalue':'ann'}]},'projection':{'field':'*'}}")));
+        JsonNode plan = r.getEntityData().get(0).get("memory").get("plan");
+        Assert.assertEquals("index", plan.get("access").asText());
+        Assert.assertEquals("login", plan.get("field").asText());
+        Assert.assertEquals("value", plan.get("lookup").asText());
+
+        MemoryEntityStore store = new MemoryEntityStore();
+        store.init(md);
+        Assert.assertEquals("range", store.plan(QueryExpression.fromJson(JsonUtils.json("{\"field\":\"age\",\"op\":\"<\",\"rvalue\":3}"))).lookupType);
+        Assert.assertEquals("in", store.plan(QueryExpression.fromJson(JsonUtils.json("{\"field\":\"tags.*\",\"op\":\"$in\",\"values\":[\"a\"]}"))).lookupType);
+        Assert.assertEquals("scan", store.plan(QueryExpression.fromJson(JsonUtils.json("{\"field\":\"name\",\"op\":\"=\",\"rvalue\":\"x\"}"))).lookupType);
+    }
+}
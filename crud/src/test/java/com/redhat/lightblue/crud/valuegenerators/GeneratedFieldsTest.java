@@ -1,5 +1,11 @@
 package com.redhat.lightblue.crud.valuegenerators;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -9,8 +15,10 @@ import com.redhat.lightblue.crud.interceptors.UIDInterceptor;
 import com.redhat.lightblue.crud.validator.DefaultFieldConstraintValidators;
 import com.redhat.lightblue.crud.validator.EmptyEntityConstraintValidators;
 import com.redhat.lightblue.eval.EvalTestContext;
+import com.redhat.lightblue.extensions.valuegenerator.ValueGeneratorSupport;
 import com.redhat.lightblue.mediator.MockCrudController;
 import com.redhat.lightblue.metadata.EntityMetadata;
+import com.redhat.lightblue.metadata.ValueGenerator;
 import com.redhat.lightblue.util.JsonDoc;
 import com.redhat.lightblue.util.Path;
 import com.redhat.lightblue.util.test.AbstractJsonSchemaTest;
@@ -58,4 +66,49 @@ public class GeneratedFieldsTest extends AbstractJsonSchemaTest {
         s = jd.get(new Path("legalEntities.0.emails.0.validation.creationDate")).asText();
         Assert.assertNotNull(s);
     }
+
+    @Test
+    public void valuesAreGeneratedInBatches() throws Exception {
+        List<Integer> calls = new ArrayList<>();
+        factory.registerValueGenerator("mongo", new ValueGeneratorSupport() {
+            @Override
+            public ValueGenerator.ValueGeneratorType[] getSupportedGeneratorTypes() {
+                return UUIDGenerator.TYPES;
+            }
+
+            @Override
+            public Object generateValue(EntityMetadata md, ValueGenerator generator) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public List<Object> generateValues(EntityMetadata md, ValueGenerator generator, int n) {
+                calls.add(n);
+                List<Object> values = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    values.add(UUID.randomUUID().toString());
+                }
+                return values;
+            }
+        });
+        GeneratedFields.initializeGeneratedFields(factory, md, EvalTestContext.getDoc("./user-complex.json"));
+        int numCallsForOneDoc = calls.size();
+        int numValuesForOneDoc = calls.stream().mapToInt(Integer::intValue).sum();
+        Assert.assertTrue(numCallsForOneDoc > 0);
+
+        calls.clear();
+        List<JsonDoc> docs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            docs.add(EvalTestContext.getDoc("./user-complex.json"));
+        }
+        GeneratedFields.initializeGeneratedFields(factory, md, docs);
+        Assert.assertEquals(numCallsForOneDoc, calls.size());
+        Assert.assertEquals(numValuesForOneDoc * 10, calls.stream().mapToInt(Integer::intValue).sum());
+
+        Set<String> uids = new HashSet<>();
+        for (JsonDoc doc : docs) {
+            uids.add(doc.get(new Path("authentications.0.uid")).asText());
+        }
+        Assert.assertEquals(10, uids.size());
+    }
 }
@@ -0,0 +1,80 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.crud.valuegenerators;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SequenceBlockAllocatorTest {
+
+    private final Map<String, Long> sequences = new HashMap<>();
+    private final List<Integer> allocations = new ArrayList<>();
+
+    private long allocate(String name, long initialValue, long increment, int n) {
+        allocations.add(n);
+        long first = sequences.containsKey(name) ? sequences.get(name) : initialValue;
+        sequences.put(name, first + n * increment);
+        return first;
+    }
+
+    @Test
+    public void valuesComeFromBlocks() {
+        SequenceBlockAllocator allocator = new SequenceBlockAllocator(this::allocate, 10);
+        for (int i = 0; i < 25; i++) {
+            Assert.assertEquals(100 + i, allocator.next("s", 100, 1));
+        }
+        Assert.assertEquals(3, allocations.size());
+        Assert.assertEquals(0, allocator.next("t", 0, 1));
+        Assert.assertEquals(4, allocations.size());
+    }
+
+    @Test
+    public void largeRequestIsOneAllocation() {
+        SequenceBlockAllocator allocator = new SequenceBlockAllocator(this::allocate, 10);
+        Assert.assertEquals(1, allocator.next("s", 1, 2));
+        long[] values = allocator.next("s", 1, 2, 33);
+        Assert.assertEquals(33, values.length);
+        for (int i = 0; i < values.length; i++) {
+            Assert.assertEquals(3 + 2 * i, values[i]);
+        }
+        // 9 values were left in the first block, 24 more rounded up to 30
+        Assert.assertEquals(2, allocations.size());
+        Assert.assertEquals(30, allocations.get(1).intValue());
+        // 6 values are left in the block
+        for (int i = 0; i < 6; i++) {
+            Assert.assertEquals(69 + 2 * i, allocator.next("s", 1, 2));
+        }
+        Assert.assertEquals(2, allocations.size());
+        Assert.assertEquals(81, allocator.next("s", 1, 2));
+        Assert.assertEquals(3, allocations.size());
+    }
+
+    @Test
+    public void clearDiscardsBlocks() {
+        SequenceBlockAllocator allocator = new SequenceBlockAllocator(this::allocate, 10);
+        Assert.assertEquals(0, allocator.next("s", 0, 1));
+        allocator.clear();
+        Assert.assertEquals(10, allocator.next("s", 0, 1));
+    }
+}
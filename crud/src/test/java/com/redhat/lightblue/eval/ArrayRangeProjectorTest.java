@@ -23,10 +23,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.redhat.lightblue.metadata.EntityMetadata;
 import com.redhat.lightblue.query.Projection;
 import com.redhat.lightblue.util.JsonDoc;
 import com.redhat.lightblue.util.JsonUtils;
+import com.redhat.lightblue.util.Path;
 import com.redhat.lightblue.util.test.AbstractJsonNodeTest;
 
 public class ArrayRangeProjectorTest extends AbstractJsonNodeTest {
@@ -171,4 +174,43 @@ public class ArrayRangeProjectorTest extends AbstractJsonNodeTest {
         Assert.assertEquals(expectedNode.toString(), pdoc.toString());
     }
 
+    private JsonDoc largeArrayDoc(int n) {
+        ObjectNode root = JSON_NODE_FACTORY.objectNode();
+        ArrayNode arr = JSON_NODE_FACTORY.arrayNode();
+        for (int i = 0; i < n; i++) {
+            ObjectNode elem = JSON_NODE_FACTORY.objectNode();
+            elem.put("elemf1", "value" + i);
+            elem.put("elemf3", i);
+            arr.add(elem);
+        }
+        root.set("field7", arr);
+        return new JsonDoc(root);
+    }
+
+    @Test
+    public void sorted_array_range_projection_of_large_array() throws Exception {
+        Projection p = EvalTestContext.projectionFromJson("{'field':'field7','range':[0,9],'project':{'field':'elemf3'},'sort':{'elemf3':'$desc'}}");
+        Projector projector = Projector.getInstance(p, md);
+
+        JsonDoc pdoc = projector.project(largeArrayDoc(10000), JSON_NODE_FACTORY);
+
+        JsonNode arr = pdoc.get(new Path("field7"));
+        Assert.assertEquals(10, arr.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(9 - i, arr.get(i).get("elemf3").asInt());
+        }
+    }
+
+    @Test
+    public void array_range_projection_with_element_projection_after_range() throws Exception {
+        // The element after the range is included by another projection
+        Projection p = EvalTestContext.projectionFromJson("[{'field':'field7','range':[0,1],'project':{'field':'elemf3'}},{'field':'field7.5.elemf3'}]");
+        Projector projector = Projector.getInstance(p, md);
+
+        JsonDoc pdoc = projector.project(largeArrayDoc(10), JSON_NODE_FACTORY);
+
+        JsonNode arr = pdoc.get(new Path("field7"));
+        Assert.assertEquals(3, arr.size());
+        Assert.assertEquals(5, arr.get(2).get("elemf3").asInt());
+    }
 }
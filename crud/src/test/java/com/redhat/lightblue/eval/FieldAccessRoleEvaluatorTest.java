@@ -34,6 +34,7 @@ import com.redhat.lightblue.metadata.EntityMetadata;
 import com.redhat.lightblue.util.Path;
 import com.redhat.lightblue.util.JsonDoc;
 import com.redhat.lightblue.util.JsonCompare;
+import com.redhat.lightblue.util.metrics.NoopRequestMetrics;
 import com.redhat.lightblue.util.test.AbstractJsonNodeTest;
 
 public class FieldAccessRoleEvaluatorTest extends AbstractJsonNodeTest {
@@ -155,4 +156,38 @@ public class FieldAccessRoleEvaluatorTest extends AbstractJsonNodeTest {
         Assert.assertEquals(1, list.size());
         Assert.assertTrue(list.contains(new Path("field12.nf1.nnf1.0.nnnf1.arr.1.x1")));
     }
+
+    @Test
+    public void testCachedAccessDecisions() throws Exception {
+        EntityMetadata md = EvalTestContext.getMd("./testMetadata-restricted.json");
+        Set<String> roles = new HashSet<>();
+        roles.add("somerole");
+        FieldAccessCache cache = new FieldAccessCache(10);
+        FieldAccessRoleEvaluator eval = new FieldAccessRoleEvaluator(md, roles);
+        for (FieldAccessRoleEvaluator.Operation op : FieldAccessRoleEvaluator.Operation.values()) {
+            FieldAccessRoleEvaluator cached = new FieldAccessRoleEvaluator(md, roles, cache.get(md, roles, new NoopRequestMetrics()));
+            Assert.assertEquals(eval.getInaccessibleFields(op), cached.getInaccessibleFields(op));
+            Assert.assertEquals(eval.hasAccess(new Path("field1"), op), cached.hasAccess(new Path("field1"), op));
+            Assert.assertEquals(eval.hasAccess(new Path("field6.nf1"), op), cached.hasAccess(new Path("field6.nf1"), op));
+            Assert.assertEquals(eval.hasAccess(new Path("field12.nf1.nnf1.1.nnnf1.arr.2.x1"), op),
+                    cached.hasAccess(new Path("field12.nf1.nnf1.1.nnnf1.arr.2.x1"), op));
+        }
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(3, cache.getHits());
+        Assert.assertFalse(new FieldAccessRoleEvaluator(md, roles, cache.get(md, roles, new NoopRequestMetrics()))
+                .hasAccess(new Path("field1"), FieldAccessRoleEvaluator.Operation.update));
+
+        // Different role set
+        cache.get(md, new HashSet<String>(), new NoopRequestMetrics());
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(2, cache.size());
+
+        // Metadata parsed again for the same version
+        cache.get(EvalTestContext.getMd("./testMetadata-restricted.json"), roles, new NoopRequestMetrics());
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(5, cache.getHits());
+
+        cache.invalidate(md.getName());
+        Assert.assertEquals(0, cache.size());
+    }
 }
@@ -22,6 +22,8 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.redhat.lightblue.metadata.EntityMetadata;
 import com.redhat.lightblue.query.UpdateExpression;
 import com.redhat.lightblue.util.Path;
@@ -72,6 +74,21 @@ public class ForEachExpressionEvaluatorTest extends AbstractJsonNodeTest {
         Assert.assertEquals("1234", jsonDoc.get(new Path("field12.nf1.nnf1.1.nnnf1.arr.0.narr.0.lastobject.elemf3")).asText());
     }
 
+    @Test
+    public void array_foreach_remove_using_any_multiple_arrays() throws Exception {
+        jsonDoc.modify(new Path("field12.nf1.nnf1.0.nnnf1.arr.0.narr"), jsonDoc.get(new Path("field12.nf1.nnf1.1.nnnf1.arr.0.narr")).deepCopy(), true);
+        jsonDoc.modify(new Path("field12.nf1.nnf1.0.nnnf1.arr.1.narr"), jsonDoc.get(new Path("field12.nf1.nnf1.1.nnnf1.arr.0.narr")).deepCopy(), true);
+        jsonDoc.modify(new Path("field12.nf1.nnf1.0.nnnf1.arr.1.narr.0.lastobject.elemf3"), JSON_NODE_FACTORY.numberNode(301), true);
+        UpdateExpression expr = EvalTestContext.updateExpressionFromJson("{ '$foreach' : { 'field12.nf1.nnf1.*.nnnf1.arr.*.narr' : { 'field':'lastobject.elemf3','op':'=','rvalue':'300'} , '$update' : '$remove' } }");
+        Updater updater = Updater.getInstance(JSON_NODE_FACTORY, md, expr);
+
+        Assert.assertTrue(updater.update(jsonDoc, md.getFieldTreeRoot(), new Path()));
+
+        Assert.assertEquals(0, jsonDoc.get(new Path("field12.nf1.nnf1.0.nnnf1.arr.0.narr")).size());
+        Assert.assertEquals(1, jsonDoc.get(new Path("field12.nf1.nnf1.0.nnnf1.arr.1.narr")).size());
+        Assert.assertEquals(0, jsonDoc.get(new Path("field12.nf1.nnf1.1.nnnf1.arr.0.narr")).size());
+    }
+
     @Test
     public void array_foreach_removeone() throws Exception {
         UpdateExpression expr = EvalTestContext.updateExpressionFromJson("{ '$foreach' : { 'field7' : { 'field':'elemf1','op':'=','rvalue':'elvalue0_1'} , '$update' : '$remove' } }");
@@ -126,4 +143,27 @@ public class ForEachExpressionEvaluatorTest extends AbstractJsonNodeTest {
         Assert.assertEquals(0, jsonDoc.get(new Path("field7")).size());
         Assert.assertEquals(0, jsonDoc.get(new Path("field7#")).asInt());
     }
+
+    @Test(timeout = 10000)
+    public void array_foreach_remove_large_array() throws Exception {
+        ArrayNode arr = JSON_NODE_FACTORY.arrayNode();
+        for (int i = 0; i < 20000; i++) {
+            ObjectNode elem = JSON_NODE_FACTORY.objectNode();
+            elem.set("elemf1", JSON_NODE_FACTORY.textNode((i % 100 == 0 ? "keep" : "drop") + i));
+            arr.add(elem);
+        }
+        jsonDoc.modify(new Path("field7"), arr, false);
+        UpdateExpression expr = EvalTestContext.updateExpressionFromJson("{ '$foreach' : { 'field7' : { 'field':'elemf1','regex':'drop.*'} , '$update' : '$remove' } }");
+        Updater updater = Updater.getInstance(JSON_NODE_FACTORY, md, expr);
+        Assert.assertTrue(updater.update(jsonDoc, md.getFieldTreeRoot(), new Path()));
+
+        Assert.assertEquals(200, jsonDoc.get(new Path("field7")).size());
+        Assert.assertEquals(200, jsonDoc.get(new Path("field7#")).asInt());
+        Assert.assertEquals("keep0", jsonDoc.get(new Path("field7.0.elemf1")).asText());
+        Assert.assertEquals("keep19900", jsonDoc.get(new Path("field7.199.elemf1")).asText());
+
+        // Nothing matches, array is unchanged
+        Assert.assertFalse(updater.update(jsonDoc, md.getFieldTreeRoot(), new Path()));
+        Assert.assertEquals(200, jsonDoc.get(new Path("field7")).size());
+    }
 }
@@ -0,0 +1,167 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.hooks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class AsyncHookDispatcherTest {
+
+    /**
+     * Occupies the only thread of the dispatcher until released
+     */
+    private CountDownLatch occupy(AsyncHookDispatcher dispatcher) throws Exception {
+        return occupy(dispatcher, 0);
+    }
+
+    private CountDownLatch occupy(AsyncHookDispatcher dispatcher, long sizeB) throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.dispatch(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+            }
+        }, sizeB);
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        return release;
+    }
+
+    @Test
+    public void callerRunsWhenFull() throws Exception {
+        AsyncHookDispatcher dispatcher = new AsyncHookDispatcher(1, 1, AsyncHookDispatcher.OverflowPolicy.callerRuns);
+        CountDownLatch release = occupy(dispatcher);
+        AtomicInteger calls = new AtomicInteger();
+        Thread caller = Thread.currentThread();
+        AtomicInteger inCaller = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            dispatcher.dispatch(() -> {
+                calls.incrementAndGet();
+                if (Thread.currentThread() == caller) {
+                    inCaller.incrementAndGet();
+                }
+            });
+        }
+        // One is queued, two run in the caller
+        Assert.assertEquals(2, inCaller.get());
+        Assert.assertEquals(2, dispatcher.getCallerRuns());
+        release.countDown();
+        dispatcher.shutdown();
+        Assert.assertTrue(dispatcher.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(3, calls.get());
+        Assert.assertEquals(4, dispatcher.getCompleted());
+    }
+
+    @Test
+    public void callerRunsWhenMemoryBudgetIsFull() throws Exception {
+        AsyncHookDispatcher dispatcher = new AsyncHookDispatcher(1, 10, 100, AsyncHookDispatcher.OverflowPolicy.callerRuns);
+        CountDownLatch release = occupy(dispatcher, 80);
+        Thread caller = Thread.currentThread();
+        AtomicInteger inCaller = new AtomicInteger();
+        Runnable call = () -> {
+            if (Thread.currentThread() == caller) {
+                inCaller.incrementAndGet();
+            }
+        };
+        // Doesn't fit in the budget, runs in the caller
+        dispatcher.dispatch(call, 50);
+        Assert.assertEquals(1, inCaller.get());
+        // Fits in the budget, queued
+        dispatcher.dispatch(call, 20);
+        Assert.assertEquals(1, inCaller.get());
+        Assert.assertEquals(100, dispatcher.getQueuedSizeB());
+        release.countDown();
+        dispatcher.shutdown();
+        Assert.assertTrue(dispatcher.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, dispatcher.getQueuedSizeB());
+        Assert.assertEquals(1, dispatcher.getCallerRuns());
+    }
+
+    @Test
+    public void largeCallIsQueuedWhenMemoryBudgetIsEmpty() throws Exception {
+        AsyncHookDispatcher dispatcher = new AsyncHookDispatcher(1, 10, 100, AsyncHookDispatcher.OverflowPolicy.discard);
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.dispatch(done::countDown, 1000);
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, dispatcher.getDiscarded());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void discardWhenFull() throws Exception {
+        AsyncHookDispatcher dispatcher = new AsyncHookDispatcher(1, 0, AsyncHookDispatcher.OverflowPolicy.discard);
+        CountDownLatch release = occupy(dispatcher);
+        AtomicInteger calls = new AtomicInteger();
+        dispatcher.dispatch(calls::incrementAndGet);
+        Assert.assertEquals(1, dispatcher.getDiscarded());
+        release.countDown();
+        dispatcher.shutdown();
+        Assert.assertTrue(dispatcher.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, calls.get());
+    }
+
+    @Test
+    public void blockWhenFull() throws Exception {
+        AsyncHookDispatcher dispatcher = new AsyncHookDispatcher(1, 0, AsyncHookDispatcher.OverflowPolicy.block);
+        CountDownLatch release = occupy(dispatcher);
+        AtomicInteger calls = new AtomicInteger();
+        Thread t = new Thread(() -> dispatcher.dispatch(calls::incrementAndGet));
+        t.start();
+        t.join(100);
+        // Waiting for the first hook call to complete
+        Assert.assertTrue(t.isAlive());
+        release.countDown();
+        t.join(10000);
+        Assert.assertFalse(t.isAlive());
+        dispatcher.shutdown();
+        Assert.assertTrue(dispatcher.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(0, dispatcher.getCallerRuns());
+    }
+
+    @Test
+    public void failuresAreCounted() throws Exception {
+        AsyncHookDispatcher dispatcher = new AsyncHookDispatcher(1, 10, AsyncHookDispatcher.OverflowPolicy.callerRuns);
+        dispatcher.dispatch(() -> {
+            throw new IllegalStateException();
+        });
+        dispatcher.shutdown();
+        Assert.assertTrue(dispatcher.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, dispatcher.getFailed());
+        Assert.assertEquals(0, dispatcher.getCompleted());
+    }
+
+    @Test
+    public void testGauges() throws Exception {
+        AsyncHookDispatcher dispatcher = new AsyncHookDispatcher(1, 10, AsyncHookDispatcher.OverflowPolicy.callerRuns);
+        MetricRegistry registry = new MetricRegistry();
+        dispatcher.registerGauges(registry, "executor.asyncHooks");
+        dispatcher.registerGauges(registry, "executor.asyncHooks");
+        Assert.assertEquals(0, registry.getGauges().get("executor.asyncHooks.queueDepth").getValue());
+        Assert.assertEquals(0l, registry.getGauges().get("executor.asyncHooks.discarded").getValue());
+        dispatcher.shutdown();
+    }
+}
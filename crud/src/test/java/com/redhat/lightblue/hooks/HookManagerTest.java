@@ -22,6 +22,8 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import javax.management.RuntimeErrorException;
@@ -94,6 +96,7 @@ public class HookManagerTest extends AbstractJsonNodeTest {
         EntityMetadata md;
          HookConfiguration cfg;
         List<HookDoc> processed;
+        List<String> context;
 
         public AbstractHook(String n) {
             name = n;
@@ -111,6 +114,7 @@ public class HookManagerTest extends AbstractJsonNodeTest {
             this.md = md;
             this.cfg = cfg;
             this.processed = processedDocuments;
+            this.context = Error.getThreadContext();
         }
     }
 
@@ -549,4 +553,95 @@ public class HookManagerTest extends AbstractJsonNodeTest {
         }
     }
 
+    @Test
+    public void asyncHookTest() throws Exception {
+        AsyncHookDispatcher dispatcher = new AsyncHookDispatcher(1, 10, AsyncHookDispatcher.OverflowPolicy.callerRuns);
+        HookManager hooks = new HookManager(resolver, nodeFactory, dispatcher);
+        TestOperationContext ctx = setupContext(CRUDOperation.UPDATE);
+        // The error hook and hook2 are asynchronous
+        for (Hook h : ctx.md.getHooks().getHooks()) {
+            if (h.getName().equals("EH") || h.getName().equals("hook2")) {
+                h.getProperties().put(HookManager.PROPERTY_ASYNC, true);
+            }
+        }
+
+        hooks.queueHooks(ctx);
+        hooks.callQueuedHooks();
+        Assert.assertEquals(ctx.getInputDocuments().size(), hook1.processed.size());
+
+        dispatcher.shutdown();
+        Assert.assertTrue(dispatcher.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(ctx.md, hook2.md);
+        Assert.assertEquals(ctx.getInputDocuments().size(), hook2.processed.size());
+        // The error hook exception is logged by the hook manager
+        Assert.assertEquals(2, dispatcher.getSubmitted());
+        Assert.assertEquals(2, dispatcher.getCompleted());
+    }
+
+    @Test
+    public void asyncHookErrorContextTest() throws Exception {
+        AsyncHookDispatcher dispatcher = new AsyncHookDispatcher(1, 10, AsyncHookDispatcher.OverflowPolicy.callerRuns);
+        HookManager hooks = new HookManager(resolver, nodeFactory, dispatcher);
+        TestOperationContext ctx = setupContext(CRUDOperation.UPDATE);
+        for (Hook h : ctx.md.getHooks().getHooks()) {
+            if (h.getName().equals("hook2")) {
+                h.getProperties().put(HookManager.PROPERTY_ASYNC, true);
+            }
+        }
+
+        hooks.queueHooks(ctx);
+        Error.push("request");
+        try {
+            hooks.callQueuedHooks();
+        } finally {
+            Error.pop();
+        }
+        dispatcher.shutdown();
+        Assert.assertTrue(dispatcher.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(ctx.getInputDocuments().size(), hook2.processed.size());
+        // The pool thread runs the hook in the context of the caller
+        Assert.assertEquals(1, hook2.context.size());
+        Assert.assertEquals("request", hook2.context.get(0));
+        // The document copies are released when the hook completes
+        Assert.assertEquals(0, dispatcher.getQueuedSizeB());
+    }
+
+    @Test
+    public void dispatcherOnlyUsedByAsyncHooksTest() throws Exception {
+        AsyncHookDispatcher dispatcher = new AsyncHookDispatcher(1, 10, AsyncHookDispatcher.OverflowPolicy.callerRuns);
+        AtomicInteger lookups = new AtomicInteger();
+        HookManager hooks = new HookManager(resolver, nodeFactory, () -> {
+            lookups.incrementAndGet();
+            return dispatcher;
+        });
+        TestOperationContext ctx = setupContext(CRUDOperation.UPDATE);
+        hooks.queueHooks(ctx);
+        hooks.callQueuedHooks();
+        Assert.assertEquals(0, lookups.get());
+
+        for (Hook h : ctx.md.getHooks().getHooks()) {
+            if (h.getName().equals("hook2")) {
+                h.getProperties().put(HookManager.PROPERTY_ASYNC, true);
+            }
+        }
+        hooks.queueHooks(ctx);
+        hooks.callQueuedHooks();
+        Assert.assertEquals(1, lookups.get());
+        dispatcher.shutdown();
+        Assert.assertTrue(dispatcher.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void asyncHookWithoutDispatcherTest() throws Exception {
+        HookManager hooks = new HookManager(resolver, nodeFactory);
+        TestOperationContext ctx = setupContext(CRUDOperation.DELETE);
+        for (Hook h : ctx.md.getHooks().getHooks()) {
+            h.getProperties().put(HookManager.PROPERTY_ASYNC, true);
+        }
+
+        // Without a dispatcher, hooks are called synchronously
+        hooks.queueHooks(ctx);
+        hooks.callQueuedHooks();
+        Assert.assertEquals(ctx.getInputDocuments().size(), hook2.processed.size());
+    }
 }
@@ -21,6 +21,7 @@ package com.redhat.lightblue.mediator;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Assert;
@@ -201,6 +202,53 @@ public class BulkTest extends AbstractMediatorTest {
         Assert.assertEquals("The second request contains no data", 0, responseFind.getEntityData().size());
     }
 
+    @Test
+    public void bulkResultSetTooLargeRequestOrderTest() throws Exception {
+        final JsonNode sampleDoc = loadJsonNode("./sample1.json");
+        BulkRequest breq = new BulkRequest();
+        breq.setOrdered(false);
+
+        FindRequest[] freqs = new FindRequest[3];
+        for (int i = 0; i < freqs.length; i++) {
+            freqs[i] = new FindRequest();
+            freqs[i].setEntityVersion(new EntityVersion("test", "1.0"));
+            breq.add(freqs[i]);
+        }
+
+        // The first find completes after the others
+        Semaphore sem = new Semaphore(0);
+        ((TestMediator) mediator).findCb = req -> {
+            if (req == freqs[0]) {
+                try {
+                    sem.tryAcquire(2, 5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            Response response = new Response(JsonNodeFactory.instance, OperationStatus.COMPLETE);
+            response.setResultSizeThresholds(Integer.MAX_VALUE, Integer.MAX_VALUE, req);
+            response.addEntityData(sampleDoc);
+            if (req != freqs[0]) {
+                sem.release();
+            }
+            return response;
+        };
+        int size = JsonUtils.size(sampleDoc);
+
+        // Only two responses fit. The responses are counted in request
+        // order, so the last request is the one that is truncated.
+        mediator.factory.setMaxResultSetSizeForReadsB(size * 2 + size / 2);
+        BulkResponse bresp = mediator.bulkRequest(breq, noopMetrics);
+        for (int i = 0; i < 2; i++) {
+            Assert.assertTrue(bresp.getEntries().get(i).getErrors().isEmpty());
+            Assert.assertEquals(1, bresp.getEntries().get(i).getEntityData().size());
+        }
+        Response last = bresp.getEntries().get(2);
+        Assert.assertEquals(1, last.getErrors().size());
+        Assert.assertEquals(Response.ERR_RESULT_SIZE_TOO_LARGE, last.getErrors().get(0).getErrorCode());
+        Assert.assertEquals(0, last.getEntityData().size());
+    }
+
     @Test
     @Ignore
     public void bulkTest_fromJson() throws Exception {
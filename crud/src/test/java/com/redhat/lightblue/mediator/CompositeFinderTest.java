@@ -23,7 +23,10 @@ import java.util.List;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
@@ -32,6 +35,9 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.redhat.lightblue.eval.FieldAccessCache;
+import com.redhat.lightblue.metadata.CompositeMetadata;
+import com.redhat.lightblue.metadata.EntityInfo;
 import com.redhat.lightblue.metadata.EntityMetadata;
 import com.redhat.lightblue.metadata.PredefinedFields;
 import com.redhat.lightblue.metadata.parser.Extensions;
@@ -43,6 +49,7 @@ import com.redhat.lightblue.metadata.test.DatabaseMetadata;
 
 import com.redhat.lightblue.crud.Factory;
 import com.redhat.lightblue.crud.FindRequest;
+import com.redhat.lightblue.crud.NotifyingMetadata;
 import com.redhat.lightblue.crud.CRUDOperation;
 import com.redhat.lightblue.crud.CRUDOperationContext;
 import com.redhat.lightblue.crud.CRUDUpdateResponse;
@@ -56,6 +63,7 @@ import com.redhat.lightblue.crud.validator.DefaultFieldConstraintValidators;
 import com.redhat.lightblue.crud.validator.EmptyEntityConstraintValidators;
 
 import com.redhat.lightblue.assoc.QueryPlan;
+import com.redhat.lightblue.assoc.QueryPlanCache;
 
 import com.redhat.lightblue.query.QueryExpression;
 import com.redhat.lightblue.query.Projection;
@@ -67,6 +75,7 @@ import com.redhat.lightblue.util.test.AbstractJsonSchemaTest;
 import com.redhat.lightblue.util.JsonDoc;
 import com.redhat.lightblue.util.JsonUtils;
 import com.redhat.lightblue.util.Path;
+import com.redhat.lightblue.util.SharedExecutor;
 import com.redhat.lightblue.util.Error;
 
 import com.redhat.lightblue.TestDataStoreParser;
@@ -86,6 +95,11 @@ public class CompositeFinderTest extends AbstractJsonSchemaTest {
 
     private QueryExpression updateQuery;
 
+    // Documents returned by the controller in addition to the test data
+    private List<JsonDoc> extraData;
+    // Number of find calls to the controller, by entity name
+    private Map<String, Integer> findCounts;
+
     private class TestMetadata extends DatabaseMetadata {
         @Override
         public EntityMetadata getEntityMetadata(String entityName, String version) {
@@ -160,6 +174,7 @@ public class CompositeFinderTest extends AbstractJsonSchemaTest {
                 ctx.addError(findError);
                 return new CRUDFindResponse();
             } else {
+                findCounts.merge(ctx.getEntityName(), 1, Integer::sum);
                 return super.find(ctx, query, projection, sort, from, to);
             }
         }
@@ -181,7 +196,10 @@ public class CompositeFinderTest extends AbstractJsonSchemaTest {
     }
 
     public void initMediator(int memoryIndexThreshold) throws Exception {
-        Factory factory = new Factory();
+        initMediator(new Factory(), memoryIndexThreshold);
+    }
+
+    public void initMediator(Factory factory, int memoryIndexThreshold) throws Exception {
         factory.addFieldConstraintValidators(new DefaultFieldConstraintValidators());
         factory.addEntityConstraintValidators(new EmptyEntityConstraintValidators());
         factory.setMemoryIndexThreshold(memoryIndexThreshold);
@@ -197,6 +215,11 @@ public class CompositeFinderTest extends AbstractJsonSchemaTest {
                     } else {
                         docs.add(new JsonDoc(node));
                     }
+                    for (JsonDoc doc : extraData) {
+                        if (entityName.equals(doc.get(new Path("objectType")).asText())) {
+                            docs.add(doc);
+                        }
+                    }
                     return docs;
                 } catch (Exception e) {
                     throw new RuntimeException(e);
@@ -205,6 +228,8 @@ public class CompositeFinderTest extends AbstractJsonSchemaTest {
         }));
         mediator = new TestMediator(new TestMetadata(), factory);
         updateQuery = null;
+        extraData = new ArrayList<>();
+        findCounts = new HashMap<>();
         findError = null;
         errorEntity = null;
     }
@@ -318,6 +343,59 @@ public class CompositeFinderTest extends AbstractJsonSchemaTest {
         Assert.assertEquals(1, response.getEntityData().get(2).get("b").size());
     }
 
+    @Test
+    public void retrieveAandBonly_manyA_windowed() throws Exception {
+        // Assemble two documents at a time, the third one is in the second window
+        mediator.factory.setAssembleWindowSize(2);
+        try {
+            FindRequest fr = new FindRequest();
+            fr.setQuery(query("{'field':'_id','op':'$in','values':['A01','A02','A03']}"));
+            fr.setProjection(projection("[{'field':'*','recursive':1},{'field':'b'}]"));
+            fr.setSort(sort("{'_id':'$asc'}"));
+            fr.setEntityVersion(new EntityVersion("A", "1.0.0"));
+            Response response = mediator.find(fr);
+            Assert.assertEquals(3, response.getEntityData().size());
+            Assert.assertEquals(3, response.getMatchCount());
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals("A0" + (i + 1), response.getEntityData().get(i).get("_id").asText());
+                Assert.assertEquals(1, response.getEntityData().get(i).get("b").size());
+            }
+        } finally {
+            mediator.factory.setAssembleWindowSize(256);
+        }
+    }
+
+    @Test
+    public void retrieveAandBonly_sharedB_windowed() throws Exception {
+        // Four A documents referencing the same B, assembled in separate windows
+        for (int i = 1; i <= 4; i++) {
+            extraData.add(new JsonDoc(JsonUtils.json(("{'_id':'SHARED" + i + "','objectType':'A','b_ref':'B01'}").replaceAll("\'", "\""))));
+        }
+        mediator.factory.setAssembleWindowSize(1);
+        FindRequest fr = new FindRequest();
+        fr.setQuery(query("{'field':'_id','op':'$in','values':['SHARED1','SHARED2','SHARED3','SHARED4']}"));
+        fr.setProjection(projection("[{'field':'*','recursive':1},{'field':'b'}]"));
+        fr.setSort(sort("{'_id':'$asc'}"));
+        fr.setEntityVersion(new EntityVersion("A", "1.0.0"));
+        Response response = mediator.find(fr);
+        Assert.assertEquals(4, response.getEntityData().size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(1, response.getEntityData().get(i).get("b").size());
+            Assert.assertEquals("B01", response.getEntityData().get(i).get("b").get(0).get("_id").asText());
+        }
+        // B01 is retrieved once, and reused for the other windows
+        Assert.assertEquals(1, findCounts.get("B").intValue());
+
+        findCounts.clear();
+        mediator.factory.setAssembleCacheSize(0);
+        response = mediator.find(fr);
+        Assert.assertEquals(4, response.getEntityData().size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals("B01", response.getEntityData().get(i).get("b").get(0).get("_id").asText());
+        }
+        Assert.assertEquals(4, findCounts.get("B").intValue());
+    }
+
     @Test
     public void retrieveAandBonly_manyA_nullproj() throws Exception {
         FindRequest fr = new FindRequest();
@@ -432,6 +510,28 @@ public class CompositeFinderTest extends AbstractJsonSchemaTest {
         Assert.assertTrue(doc.toString().indexOf("testController")!=-1);
     }
 
+    @Test
+    public void explain_parallelism() throws Exception {
+        FindRequest fr = new FindRequest();
+        fr.setQuery(query("{'field':'obj1.c.*.objectType','op':'=','rvalue':'C'}"));
+        fr.setProjection(projection("[{'field':'*','recursive':1},{'field':'obj1.c'}]"));
+        fr.setEntityVersion(new EntityVersion("A", "1.0.0"));
+        // The plan has 4 blocks, all except the root block can run at the same time
+        Response response = mediator.explain(fr);
+        Assert.assertEquals(3, response.getEntityData().get(0).get("parallelism").asInt());
+
+        // Limited by the configured maximum
+        mediator.factory.setCompositeFindParallelism(2);
+        response = mediator.explain(fr);
+        Assert.assertEquals(2, response.getEntityData().get(0).get("parallelism").asInt());
+
+        // Limited by the thread pool size
+        mediator.factory.setCompositeFindParallelism(9);
+        mediator.factory.setCompositeFindThreadPoolSize(1);
+        response = mediator.explain(fr);
+        Assert.assertEquals(1, response.getEntityData().get(0).get("parallelism").asInt());
+    }
+
     @Test
     public void retrieveAandBonly_2q() throws Exception {
         FindRequest fr = new FindRequest();
@@ -447,6 +547,271 @@ public class CompositeFinderTest extends AbstractJsonSchemaTest {
         Assert.assertEquals("B", qplan.getSources()[0].getMetadata().getName());
     }
 
+    @Test
+    public void cachedCompositeMetadata() throws Exception {
+        CompositeMetadataCache cache = mediator.factory.getCompositeMetadataCache();
+        cache.clear();
+        long hits = cache.getHits();
+
+        FindRequest fr = new FindRequest();
+        fr.setQuery(query("{'field':'_id','op':'=','rvalue':'A09'}"));
+        fr.setProjection(projection("[{'field':'*','recursive':1},{'field':'b'}]"));
+        fr.setEntityVersion(new EntityVersion("A", "1.0.0"));
+        Response response = mediator.find(fr);
+        Assert.assertEquals(1, response.getEntityData().size());
+        Assert.assertTrue(response.getEntityData().get(0).get("b").size() > 0);
+        Assert.assertEquals(hits, cache.getHits());
+
+        // Same references, different values
+        fr.setQuery(query("{'field':'_id','op':'=','rvalue':'A01'}"));
+        response = mediator.find(fr);
+        Assert.assertEquals(hits + 1, cache.getHits());
+        CompositeMetadata md = getLastContext(mediator).getTopLevelEntityMetadata();
+        Assert.assertNotNull(md.getChildMetadata(new Path("b")));
+
+        // Different references
+        fr.setProjection(projection("{'field':'_id'}"));
+        response = mediator.find(fr);
+        Assert.assertEquals(hits + 1, cache.getHits());
+        md = getLastContext(mediator).getTopLevelEntityMetadata();
+        Assert.assertNull(md.getChildMetadata(new Path("b")));
+
+        fr.setProjection(projection("[{'field':'*','recursive':1},{'field':'b'}]"));
+        response = mediator.find(fr);
+        Assert.assertEquals(hits + 2, cache.getHits());
+        md = getLastContext(mediator).getTopLevelEntityMetadata();
+        Assert.assertNotNull(md.getChildMetadata(new Path("b")));
+
+        mediator.factory.getMetadataListener().afterUpdateEntityInfo(null, md.getChildMetadata(new Path("b")).getEntityInfo(), false);
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void cachedCompositeMetadata_metadataUpdate() throws Exception {
+        CompositeMetadataCache cache = mediator.factory.getCompositeMetadataCache();
+        QueryPlanCache planCache = mediator.factory.getQueryPlanCache();
+        cache.clear();
+        planCache.clear();
+        long hits = cache.getHits();
+        long planHits = planCache.getHits();
+
+        FindRequest fr = new FindRequest();
+        fr.setQuery(query("{'$and': [ {'field':'_id','op':'=','rvalue':'A09'}, {'field':'b.*.field1','op':'=','rvalue':'GpP8rweso'} ] }"));
+        fr.setProjection(projection("[{'field':'*','recursive':1},{'field':'b'}]"));
+        fr.setEntityVersion(new EntityVersion("A", "1.0.0"));
+        mediator.find(fr);
+        // The test metadata parses the metadata for every call, the cached
+        // data is still used
+        Response response = mediator.find(fr);
+        Assert.assertEquals(1, response.getEntityData().size());
+        Assert.assertEquals(hits + 1, cache.getHits());
+        Assert.assertEquals(planHits + 1, planCache.getHits());
+
+        // Entity info of a referenced entity is updated through the metadata
+        Metadata md = new NotifyingMetadata(new TestMetadata() {
+            @Override
+            public void updateEntityInfo(EntityInfo ei) {
+            }
+        }, mediator.factory);
+        long misses = cache.getMisses();
+        long planMisses = planCache.getMisses();
+        md.updateEntityInfo(getMd("composite/B.json").getEntityInfo());
+        response = mediator.find(fr);
+        Assert.assertEquals(1, response.getEntityData().size());
+        Assert.assertEquals(misses + 1, cache.getMisses());
+        Assert.assertEquals(planMisses + 1, planCache.getMisses());
+
+        mediator.find(fr);
+        Assert.assertEquals(hits + 2, cache.getHits());
+        Assert.assertEquals(planHits + 2, planCache.getHits());
+    }
+
+    @Test
+    public void cachedQueryPlan_expires() throws Exception {
+        FindRequest fr = new FindRequest();
+        fr.setQuery(query("{'field':'_id','op':'=','rvalue':'A09'}"));
+        fr.setProjection(projection("[{'field':'*','recursive':1},{'field':'b'}]"));
+        fr.setEntityVersion(new EntityVersion("A", "1.0.0"));
+        mediator.find(fr);
+        CompositeMetadata md = getLastContext(mediator).getTopLevelEntityMetadata();
+
+        QueryPlanCache cache = new QueryPlanCache(10, 1);
+        QueryPlanCache.Key key = QueryPlanCache.key(md, fr.getQuery());
+        cache.put(key, new QueryPlanCache.CachedPlan(null, null));
+        Thread.sleep(10);
+        Assert.assertNull(cache.get(key, mediator.factory.getRequestMetrics()));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    /**
+     * Initializes the mediator with a composite find executor that keeps
+     * the sessions it creates in the given list
+     */
+    private SharedExecutor initMediatorWithSessions(List<SharedExecutor.Session> sessions) throws Exception {
+        SharedExecutor executor = new SharedExecutor("test", 2, 16) {
+            @Override
+            public Session newSession(int maxConcurrency) {
+                Session session = super.newSession(maxConcurrency);
+                sessions.add(session);
+                return session;
+            }
+        };
+        initMediator(new Factory() {
+            @Override
+            public synchronized SharedExecutor getCompositeFindExecutor() {
+                return executor;
+            }
+        }, 16);
+        return executor;
+    }
+
+    @Test
+    public void abandonedResultStreamIsClosed() throws Exception {
+        List<SharedExecutor.Session> sessions = new ArrayList<>();
+        SharedExecutor executor = initMediatorWithSessions(sessions);
+
+        FindRequest fr = new FindRequest();
+        fr.setQuery(query("{'field':'_id','op':'$in','values':['A01','A02','A03']}"));
+        fr.setProjection(projection("[{'field':'*','recursive':1},{'field':'b'}]"));
+        fr.setEntityVersion(new EntityVersion("A", "1.0.0"));
+        // The result size limit stops reading the results after the
+        // first document
+        mediator.factory.setMaxResultSetSizeForReadsB(10);
+        Response response = mediator.find(fr);
+        Assert.assertEquals(Response.ERR_RESULT_SIZE_TOO_LARGE, response.getErrors().get(0).getErrorCode());
+        Assert.assertEquals(1, sessions.size());
+        Assert.assertTrue(sessions.get(0).isShutdown());
+        executor.shutdown();
+    }
+
+    @Test
+    public void abandonedWindowedResultStreamIsClosed() throws Exception {
+        List<SharedExecutor.Session> sessions = new ArrayList<>();
+        SharedExecutor executor = initMediatorWithSessions(sessions);
+        mediator.factory.setAssembleWindowSize(1);
+
+        FindRequest fr = new FindRequest();
+        fr.setQuery(query("{'field':'_id','op':'$in','values':['A01','A02','A03']}"));
+        fr.setProjection(projection("[{'field':'*','recursive':1},{'field':'b'}]"));
+        fr.setSort(sort("{'_id':'$asc'}"));
+        fr.setEntityVersion(new EntityVersion("A", "1.0.0"));
+        StreamingResponse response = mediator.findAndStream(fr);
+        Assert.assertTrue(response.getErrors().isEmpty());
+        Assert.assertTrue(response.documentStream.hasNext());
+        Assert.assertEquals("A01", response.documentStream.next().getOutputDocument().get(new Path("_id")).asText());
+        // The caller stops reading after the first window
+        response.documentStream.close();
+        Assert.assertEquals(1, sessions.size());
+        Assert.assertTrue(sessions.get(0).isShutdown());
+        Assert.assertTrue(sessions.get(0).awaitTermination(5, TimeUnit.SECONDS));
+        // The third window is never assembled
+        Assert.assertTrue(findCounts.get("B") < 3);
+        executor.shutdown();
+    }
+
+    @Test
+    public void cachedFieldAccess_compositeShapes() throws Exception {
+        FieldAccessCache cache = mediator.factory.getFieldAccessCache();
+        cache.clear();
+
+        FindRequest withB = new FindRequest();
+        withB.setQuery(query("{'field':'_id','op':'=','rvalue':'A09'}"));
+        withB.setProjection(projection("[{'field':'*','recursive':1},{'field':'b'}]"));
+        withB.setEntityVersion(new EntityVersion("A", "1.0.0"));
+        FindRequest withoutB = new FindRequest();
+        withoutB.setQuery(query("{'field':'_id','op':'=','rvalue':'A09'}"));
+        withoutB.setProjection(projection("{'field':'_id'}"));
+        withoutB.setEntityVersion(new EntityVersion("A", "1.0.0"));
+
+        mediator.find(withB);
+        mediator.find(withoutB);
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+        // Requests alternating between composite metadata with and without
+        // B don't evict each other
+        mediator.find(withB);
+        mediator.find(withoutB);
+        mediator.find(withB);
+        Assert.assertEquals(hits + 3, cache.getHits());
+        Assert.assertEquals(misses, cache.getMisses());
+        Assert.assertEquals(2, cache.size());
+
+        // A change to B evicts only the entry that includes B
+        new NotifyingMetadata(new TestMetadata() {
+            @Override
+            public void updateEntityInfo(EntityInfo ei) {
+            }
+        }, mediator.factory).updateEntityInfo(getMd("composite/B.json").getEntityInfo());
+        Assert.assertEquals(1, cache.size());
+        mediator.find(withoutB);
+        Assert.assertEquals(hits + 4, cache.getHits());
+        mediator.find(withB);
+        Assert.assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    public void cachedQueryPlan_differentValues() throws Exception {
+        QueryPlanCache cache = mediator.factory.getQueryPlanCache();
+        cache.clear();
+        long hits = cache.getHits();
+
+        FindRequest fr = new FindRequest();
+        fr.setQuery(query("{'$and': [ {'field':'_id','op':'=','rvalue':'A09'}, {'field':'b.*.field1','op':'=','rvalue':'GpP8rweso'} ] }"));
+        fr.setProjection(projection("[{'field':'*','recursive':1},{'field':'b'}]"));
+        fr.setEntityVersion(new EntityVersion("A", "1.0.0"));
+        Response response = mediator.find(fr);
+        Assert.assertEquals(1, response.getEntityData().size());
+        Assert.assertEquals(hits, cache.getHits());
+        Assert.assertEquals(1, cache.size());
+
+        // Same query with different values uses the cached plan, with the new values
+        fr.setQuery(query("{'$and': [ {'field':'_id','op':'=','rvalue':'A01'}, {'field':'b.*.field1','op':'=','rvalue':'GpP8rweso'} ] }"));
+        response = mediator.find(fr);
+        Assert.assertEquals(0, response.getEntityData().size());
+        Assert.assertEquals(hits + 1, cache.getHits());
+        QueryPlan qplan = (QueryPlan) getLastContext(mediator).getProperty(Mediator.CTX_QPLAN);
+        Assert.assertEquals(1, qplan.getSources().length);
+        Assert.assertEquals("B", qplan.getSources()[0].getMetadata().getName());
+
+        fr.setQuery(query("{'$and': [ {'field':'_id','op':'=','rvalue':'A09'}, {'field':'b.*.field1','op':'=','rvalue':'GpP8rweso'} ] }"));
+        response = mediator.find(fr);
+        Assert.assertEquals(1, response.getEntityData().size());
+        Assert.assertEquals("A09", response.getEntityData().get(0).get("_id").asText());
+        Assert.assertEquals(hits + 2, cache.getHits());
+
+        cache.invalidate("B");
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void cachedQueryPlan_inValues() throws Exception {
+        QueryPlanCache cache = mediator.factory.getQueryPlanCache();
+        cache.clear();
+        long hits = cache.getHits();
+
+        FindRequest fr = new FindRequest();
+        fr.setQuery(query("{'$and': [ {'field':'_id','op':'$in','values':['A09','A01']}, {'field':'b.*.field1','op':'=','rvalue':'GpP8rweso'} ] }"));
+        fr.setProjection(projection("[{'field':'*','recursive':1},{'field':'b'}]"));
+        fr.setEntityVersion(new EntityVersion("A", "1.0.0"));
+        Response response = mediator.find(fr);
+        Assert.assertEquals(1, response.getEntityData().size());
+        CompositeMetadata md = getLastContext(mediator).getTopLevelEntityMetadata();
+        QueryPlanCache.Key key = QueryPlanCache.key(md, fr.getQuery());
+        // The association query clauses are kept with the plan
+        QueryPlanCache.CachedPlan cached = cache.get(key, mediator.factory.getRequestMetrics());
+        Assert.assertFalse(cached.getAssociationClauses().isEmpty());
+        hits = cache.getHits();
+
+        // The number of values is not part of the key
+        fr.setQuery(query("{'$and': [ {'field':'_id','op':'$in','values':['A01','A02','A09']}, {'field':'b.*.field1','op':'=','rvalue':'GpP8rweso'} ] }"));
+        Assert.assertEquals(key, QueryPlanCache.key(md, fr.getQuery()));
+        response = mediator.find(fr);
+        Assert.assertEquals(1, response.getEntityData().size());
+        Assert.assertEquals("A09", response.getEntityData().get(0).get("_id").asText());
+        Assert.assertEquals(hits + 1, cache.getHits());
+        Assert.assertEquals(1, cache.size());
+    }
+
     @Test
     public void retrieveOneAndNotOther() throws Exception {
         FindRequest fr = new FindRequest();
@@ -500,6 +865,80 @@ public class CompositeFinderTest extends AbstractJsonSchemaTest {
         Assert.assertEquals(2, response.getEntityData().size());
     }
 
+    @Test
+    public void assocTest2_365_prefetchedJoinBatches() throws Exception {
+        // One join tuple per batch, two batches queried ahead
+        mediator.factory.setJoinSearchBatchSize(1);
+        mediator.factory.setJoinSearchPrefetchDepth(2);
+        try {
+            FindRequest fr = new FindRequest();
+            fr.setQuery(query("{'field':'A.*.objectType','op':'=','rvalue':'jA'}"));
+            fr.setProjection(projection("[{'field':'*','recursive':1},{'field':'A.*','recursive':1}]"));
+            fr.setEntityVersion(new EntityVersion("jB", "1.0.1-SNAPSHOT"));
+
+            Response response = mediator.find(fr);
+            Assert.assertEquals(2, response.getEntityData().size());
+        } finally {
+            mediator.factory.setJoinSearchBatchSize(256);
+            mediator.factory.setJoinSearchPrefetchDepth(1);
+        }
+    }
+
+    @Test
+    public void assocTest2_365_sorted() throws Exception {
+        FindRequest fr = new FindRequest();
+        fr.setQuery(query("{'field':'A.*.objectType','op':'=','rvalue':'jA'}"));
+        fr.setProjection(projection("[{'field':'*','recursive':1},{'field':'A.*','recursive':1}]"));
+        fr.setSort(sort("{'_id':'$desc'}"));
+        fr.setEntityVersion(new EntityVersion("jB", "1.0.1-SNAPSHOT"));
+
+        // Sort in runs spilled to disk
+        mediator.factory.setSortMemoryBudgetB(1);
+        Response response;
+        try {
+            response = mediator.find(fr);
+        } finally {
+            mediator.factory.setSortMemoryBudgetB(32 * 1024 * 1024);
+        }
+        Assert.assertEquals(2, response.getEntityData().size());
+        Assert.assertEquals(2, response.getMatchCount());
+        String first = response.getEntityData().get(0).get("_id").asText();
+        String second = response.getEntityData().get(1).get("_id").asText();
+        Assert.assertTrue(first.compareTo(second) > 0);
+
+        // Only the first document is kept, all are counted
+        fr.setTo(0l);
+        response = mediator.find(fr);
+        Assert.assertEquals(1, response.getEntityData().size());
+        Assert.assertEquals(2, response.getMatchCount());
+        Assert.assertEquals(first, response.getEntityData().get(0).get("_id").asText());
+    }
+
+    @Test
+    public void emptyJoinBatchesAreSkipped() throws Exception {
+        // One A per batch: the batches of A01 and A02 find no B, the batch
+        // of A09 does. Empty batches don't end the search, the next batch is
+        // queried, as before the batches were prefetched.
+        mediator.factory.setJoinSearchBatchSize(1);
+        try {
+            for (int depth = 0; depth <= 2; depth++) {
+                mediator.factory.setJoinSearchPrefetchDepth(depth);
+                findCounts.clear();
+                FindRequest fr = new FindRequest();
+                fr.setQuery(query("{'$and': [ {'field':'_id','op':'$in','values':['A01','A02','A09']}, {'field':'b.*.field1','op':'=','rvalue':'GpP8rweso'} ] }"));
+                fr.setProjection(projection("[{'field':'*','recursive':1},{'field':'b'}]"));
+                fr.setEntityVersion(new EntityVersion("A", "1.0.0"));
+                Response response = mediator.find(fr);
+                Assert.assertEquals(1, response.getEntityData().size());
+                Assert.assertEquals("A09", response.getEntityData().get(0).get("_id").asText());
+                Assert.assertEquals(3, findCounts.get("B").intValue());
+            }
+        } finally {
+            mediator.factory.setJoinSearchBatchSize(256);
+            mediator.factory.setJoinSearchPrefetchDepth(1);
+        }
+    }
+
     @Test
     public void assocTestProjection_369() throws Exception {
         FindRequest fr = new FindRequest();
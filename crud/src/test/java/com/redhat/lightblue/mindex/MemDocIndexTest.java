@@ -18,6 +18,7 @@
  */
 package com.redhat.lightblue.mindex;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
@@ -214,6 +215,57 @@ public class MemDocIndexTest extends AbstractJsonSchemaTest {
         Assert.assertTrue(results.stream().map(d->d.get(new Path("field1")).asText()).collect(Collectors.toSet()).contains("field1:15"));
     }
 
+    @Test
+    public void sortedRangeLookupTest() throws Exception {
+        EntityMetadata md=getMd("testMetadata.json");
+        List<JsonDoc> docs=fill();
+
+        SimpleKeySpec spec=new SimpleKeySpec(qfi(md,"field1","field1"));
+        MemDocIndex index=new MemDocIndex(spec);
+        MemDocIndex sortedIndex=new SortedMemDocIndex(spec);
+        for(JsonDoc doc:docs) {
+            index.add(doc);
+            sortedIndex.add(doc);
+        }
+
+        Set<JsonDoc> results=sortedIndex.find(new RangeLookupSpec(spec,"field1:10","field1:15"));
+        Assert.assertEquals(6,results.size());
+        Assert.assertEquals(index.find(new RangeLookupSpec(spec,"field1:10","field1:15")),results);
+        Assert.assertEquals(index.find(new RangeLookupSpec(spec,null,"field1:15")),
+                            sortedIndex.find(new RangeLookupSpec(spec,null,"field1:15")));
+        Assert.assertTrue(sortedIndex.find(new RangeLookupSpec(spec,"field1:15","field1:10")).isEmpty());
+
+        // Open ended range includes everything after from
+        results=sortedIndex.find(new RangeLookupSpec(spec,"field1:95",null));
+        Assert.assertEquals(5,results.size());
+        Assert.assertTrue(results.stream().map(d->d.get(new Path("field1")).asText()).collect(Collectors.toSet()).contains("field1:99"));
+
+        // Value lookups
+        Assert.assertEquals(1,sortedIndex.find(new ValueLookupSpec(spec,"field1:10")).size());
+        Assert.assertEquals(2,sortedIndex.find(new MultiValueLookupSpec(spec,Arrays.asList("field1:10","field1:11"))).size());
+    }
+
+    @Test
+    public void sortedPrefixLookupTest() throws Exception {
+        EntityMetadata md=getMd("testMetadata.json");
+        List<JsonDoc> docs=fill();
+
+        SimpleKeySpec spec=new SimpleKeySpec(qfi(md,"field1","field1"));
+        MemDocIndex index=new MemDocIndex(spec);
+        MemDocIndex sortedIndex=new SortedMemDocIndex(spec);
+        for(JsonDoc doc:docs) {
+            index.add(doc);
+            sortedIndex.add(doc);
+        }
+
+        Set<JsonDoc> results=sortedIndex.find(new PrefixLookupSpec(spec,"field1:1",false));
+        Assert.assertEquals(11,results.size());
+        Assert.assertEquals(index.find(new PrefixLookupSpec(spec,"field1:1",false)),results);
+        Assert.assertEquals(index.find(new PrefixLookupSpec(spec,"FIELD1:1",true)),
+                            sortedIndex.find(new PrefixLookupSpec(spec,"FIELD1:1",true)));
+        Assert.assertTrue(sortedIndex.find(new PrefixLookupSpec(spec,"x",false)).isEmpty());
+    }
+
     @Test
     public void prefixLookupTest() throws Exception {
         EntityMetadata md=getMd("testMetadata.json");
@@ -1,5 +1,8 @@
 package com.redhat.lightblue.extensions.valuegenerator;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.redhat.lightblue.extensions.Extension;
 
 import com.redhat.lightblue.metadata.ValueGenerator;
@@ -22,4 +25,18 @@ public interface ValueGeneratorSupport extends Extension {
      */
     Object generateValue(EntityMetadata md, ValueGenerator generator);
 
+    /**
+     * Generates n new values. The returned values are Java value objects.
+     *
+     * The default implementation calls generateValue n times. Back ends
+     * that can generate many values in one call should override this.
+     */
+    default List<Object> generateValues(EntityMetadata md, ValueGenerator generator, int n) {
+        List<Object> values = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            values.add(generateValue(md, generator));
+        }
+        return values;
+    }
+
 }
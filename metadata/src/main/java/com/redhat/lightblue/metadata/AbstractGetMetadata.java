@@ -91,8 +91,7 @@ public abstract class AbstractGetMetadata implements CompositeMetadata.GetMetada
                                       String version) {
         // See if injectionField is projected or used in a query
         LOGGER.debug("Check if {} is needed based on field {}",entityName,injectionField);
-        if (isProjected(injectionField)
-                || isQueried(injectionField)) {
+        if (isRequired(injectionField)) {
             LOGGER.debug("{} is needed based on field {}",entityName,injectionField);
             return retrieveMetadata(injectionField, entityName, version);
         }
@@ -100,6 +99,14 @@ public abstract class AbstractGetMetadata implements CompositeMetadata.GetMetada
         return null;
     }
 
+    /**
+     * Returns true if the entity referenced by the given field is required
+     * to evaluate the projections and queries
+     */
+    public boolean isRequired(Path injectionField) {
+        return isProjected(injectionField) || isQueried(injectionField);
+    }
+
     /**
      * The implementation should retrieve and return the metadata for the given
      * version of the given entity
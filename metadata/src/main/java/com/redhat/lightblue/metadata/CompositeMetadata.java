@@ -258,6 +258,7 @@ public class CompositeMetadata extends EntityMetadata {
         Error.push("compositeMetadata");
         try {
             CompositeMetadata cmd = buildCompositeMetadata(root, gmd, new Path(), null, new MutablePath());
+            cmd.getEntitySchema().buildResolutionIndex();
             return cmd;
         } finally {
             LOGGER.debug("end buildCompositeMetadata");
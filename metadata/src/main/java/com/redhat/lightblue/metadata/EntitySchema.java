@@ -51,6 +51,21 @@ public class EntitySchema extends MetadataObject {
 
         private static final long serialVersionUID = 1L;
 
+        /**
+         * All fields of the tree keyed by their path, with '*' for array
+         * elements. Built in one walk of the field tree when metadata is
+         * loaded, or on first resolution after the field tree changes.
+         */
+        private transient volatile Map<Path, FieldTreeNode> index;
+
+        /**
+         * Incremented when the field tree changes, so an index built
+         * concurrently with a change is not kept
+         */
+        private transient volatile int treeVersion;
+
+        private transient volatile WriteFields writeFields;
+
         @Override
         public String getName() {
             return "";
@@ -73,7 +88,52 @@ public class EntitySchema extends MetadataObject {
 
         @Override
         public FieldTreeNode resolve(Path p) {
-            return fields.resolve(p);
+            FieldTreeNode node = getResolved(p);
+            return node == null ? fields.resolve(p) : node;
+        }
+
+        /**
+         * Returns the node for the path if it is in the index, null otherwise
+         */
+        FieldTreeNode getResolved(Path p) {
+            Map<Path, FieldTreeNode> m = getIndex();
+            Path key = resolutionKey(p, m);
+            return key == null ? null : m.get(key);
+        }
+
+        Map<Path, FieldTreeNode> getIndex() {
+            Map<Path, FieldTreeNode> m = index;
+            if (m == null) {
+                int v = treeVersion;
+                m = new HashMap<>();
+                FieldCursor cursor = new FieldCursor(Path.EMPTY, this);
+                while (cursor.next()) {
+                    m.put(cursor.getCurrentPath().immutableCopy(), cursor.getCurrentNode());
+                }
+                m = Collections.unmodifiableMap(m);
+                synchronized (this) {
+                    if (v == treeVersion) {
+                        index = m;
+                    }
+                }
+            }
+            return m;
+        }
+
+        /**
+         * Drops the index and the collected write fields
+         */
+        synchronized void fieldsChanged() {
+            treeVersion++;
+            index = null;
+            writeFields = null;
+        }
+
+        /**
+         * Drops the collected write fields
+         */
+        void writeFieldsChanged() {
+            writeFields = null;
         }
 
         @Override
@@ -218,6 +278,7 @@ public class EntitySchema extends MetadataObject {
 
     protected void setFields(Fields fields) {
         this.fields = fields;
+        fieldsChanged(fieldRoot);
     }
 
     public FieldTreeNode getFieldTreeRoot() {
@@ -226,6 +287,109 @@ public class EntitySchema extends MetadataObject {
 
     protected void setFieldTreeRoot(FieldTreeNode fieldRoot) {
         this.fieldRoot = fieldRoot;
+        fieldsChanged(fieldRoot);
+    }
+
+    /**
+     * Called when the field tree under the given node changes. Drops the
+     * resolved paths of the root containing that node.
+     */
+    static void fieldsChanged(FieldTreeNode node) {
+        RootNode root = rootOf(node);
+        if (root != null) {
+            root.fieldsChanged();
+        }
+    }
+
+    /**
+     * Called when the constraints or the value generator of the given node
+     * change. Drops the write fields collected for the root containing that
+     * node.
+     */
+    static void writeFieldsChanged(FieldTreeNode node) {
+        RootNode root = rootOf(node);
+        if (root != null) {
+            root.writeFieldsChanged();
+        }
+    }
+
+    private static RootNode rootOf(FieldTreeNode node) {
+        for (FieldTreeNode n = node; n != null; n = n.getParent()) {
+            if (n instanceof RootNode) {
+                return (RootNode) n;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the key under which the node for p is stored in the index: p
+     * with array indexes replaced by '*'. A numeric segment is an array
+     * index only if its parent is an array, otherwise it is a field name.
+     * Returns null if the path cannot be looked up, that is, if it is empty,
+     * if it is a relative path, or if a prefix of it is not in the index.
+     */
+    private static Path resolutionKey(Path p, Map<Path, FieldTreeNode> index) {
+        int n = p.numSegments();
+        if (n == 0) {
+            return null;
+        }
+        boolean hasIndex = false;
+        for (int i = 0; i < n; i++) {
+            String s = p.head(i);
+            if (Path.PARENT.equals(s) || Path.THIS.equals(s)) {
+                return null;
+            }
+            if (p.isIndex(i)) {
+                hasIndex = true;
+            }
+        }
+        if (hasIndex) {
+            MutablePath mp = new MutablePath();
+            for (int i = 0; i < n; i++) {
+                if (p.isIndex(i)) {
+                    FieldTreeNode parent = i == 0 ? null : index.get(mp);
+                    if (i > 0 && parent == null) {
+                        return null;
+                    }
+                    mp.push(parent instanceof ArrayField ? Path.ANY : p.head(i));
+                } else {
+                    mp.push(p.head(i));
+                }
+            }
+            return mp.immutableCopy();
+        } else {
+            return p;
+        }
+    }
+
+    /**
+     * Builds the index used to resolve field paths. The index is otherwise
+     * built on the first resolution after the field tree changes. Called
+     * when the metadata is loaded, so it is not built during a request.
+     */
+    public void buildResolutionIndex() {
+        if (fieldRoot instanceof RootNode) {
+            ((RootNode) fieldRoot).getIndex();
+        }
+    }
+
+    /**
+     * Returns the fields initialized or maintained when documents are
+     * written. These are collected on first call, and collected again if
+     * fields are added to the schema, or if the constraints or the value
+     * generator of a field change.
+     */
+    public WriteFields getWriteFields() {
+        if (fieldRoot instanceof RootNode) {
+            RootNode root = (RootNode) fieldRoot;
+            WriteFields w = root.writeFields;
+            if (w == null) {
+                root.writeFields = w = new WriteFields(this);
+            }
+            return w;
+        }
+        return new WriteFields(this);
     }
 
     public FieldCursor getFieldCursor() {
@@ -246,9 +410,15 @@ public class EntitySchema extends MetadataObject {
     }
 
     public FieldTreeNode resolve(Path p) {
+        if (fieldRoot instanceof RootNode) {
+            FieldTreeNode node = ((RootNode) fieldRoot).getResolved(p);
+            if (node != null) {
+                return node;
+            }
+        }
         Error.push(name);
         try {
-            return fields.resolve(p);
+            return fieldRoot.resolve(p);
         } catch (Error e) {
             // rethrow lightblue error
             throw e;
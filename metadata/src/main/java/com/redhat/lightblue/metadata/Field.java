@@ -111,6 +111,7 @@ public abstract class Field extends MetadataObject implements FieldTreeNode {
         if (l != null) {
             constraints.addAll(l);
         }
+        EntitySchema.writeFieldsChanged(this);
     }
 
     @Override
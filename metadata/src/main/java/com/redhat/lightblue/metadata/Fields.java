@@ -75,6 +75,7 @@ public class Fields implements Serializable {
         f.setParent(parent);
         fieldMap.put(name, f);
         fields.add(f);
+        EntitySchema.fieldsChanged(parent);
     }
 
     public void put(Field f) {
@@ -93,6 +94,7 @@ public class Fields implements Serializable {
         }
         f.setParent(parent);
         fieldMap.put(name, f);
+        EntitySchema.fieldsChanged(parent);
     }
 
     public FieldTreeNode resolve(Path p) {
@@ -71,30 +71,22 @@ public final class PredefinedFields {
         for (ParentNewChild x : l) {
             x.parent.addNew(x.newChild);
         }
+        md.getEntitySchema().buildResolutionIndex();
     }
 
     /**
      * Updates all array size values in the given document
      */
     public static void updateArraySizes(EntityMetadata md, JsonNodeFactory factory, JsonDoc doc) {
-        FieldCursor cursor = md.getFieldCursor();
-        while (cursor.next()) {
-            FieldTreeNode f = cursor.getCurrentNode();
-            if (doesFieldNameMatchArrayCountPattern(f.getName())) {
-                Path lengthField = cursor.getCurrentPath();
-                String ls = lengthField.toString();
-                Path arrField = new Path(ls.substring(0, ls.length() - 1));
-                try {
-                    if (md.resolve(arrField) != null) {
-                        JsonNode arrNode = doc.get(arrField);
-                        if (arrNode == null || arrNode instanceof NullNode) {
-                            doc.modify(lengthField, factory.numberNode(0), false);
-                        } else {
-                            doc.modify(lengthField, factory.numberNode(arrNode.size()), false);
-                        }
-                    }
-                } catch (Exception e) {
+        for (WriteFields.ArrayCountField f : md.getEntitySchema().getWriteFields().getArrayCountFields()) {
+            try {
+                JsonNode arrNode = doc.get(f.getArrayField());
+                if (arrNode == null || arrNode instanceof NullNode) {
+                    doc.modify(f.getCountField(), factory.numberNode(0), false);
+                } else {
+                    doc.modify(f.getCountField(), factory.numberNode(arrNode.size()), false);
                 }
+            } catch (Exception e) {
             }
         }
     }
@@ -51,6 +51,7 @@ public class SimpleArrayElement extends ArrayElement {
         if (l != null) {
             constraints.addAll(l);
         }
+        EntitySchema.writeFieldsChanged(this);
     }
 
     @Override
@@ -45,6 +45,7 @@ public class SimpleField extends Field {
     public SimpleField(String name, Type type, ValueGenerator valueGenerator) {
         this(name, type);
         this.valueGenerator = valueGenerator;
+        EntitySchema.writeFieldsChanged(this);
     }
 
     @Override
@@ -82,6 +83,7 @@ public class SimpleField extends Field {
 
     public void setValueGenerator(ValueGenerator valueGenerator) {
         this.valueGenerator = valueGenerator;
+        EntitySchema.writeFieldsChanged(this);
     }
 
 }
@@ -48,28 +48,24 @@ public final class UIDFields {
     private static final Logger LOGGER = LoggerFactory.getLogger(UIDFields.class);
 
     public static void initializeUIDFields(JsonNodeFactory factory, EntityMetadata md, JsonDoc doc) {
-        FieldCursor cursor = md.getFieldCursor();
-        while (cursor.next()) {
-            FieldTreeNode node = cursor.getCurrentNode();
-            // Process all UID fields
-            if (node.getType().equals(UIDType.TYPE)) {
-                Path p = cursor.getCurrentPath();
-                LOGGER.debug("Processing UID field {}", p);
-                if (node instanceof Field && required((Field) node)) {
-                    LOGGER.debug("Field {} is required", p);
-                    setRequiredField(factory, doc, p, 1, null);
-                } else {
-                    // Here, node could be a field or an array
-                    LOGGER.debug("Field {} is not required", p);
-                    KeyValueCursor<Path, JsonNode> nodeCursor = doc.getAllNodes(p);
-                    while (nodeCursor.hasNext()) {
-                        nodeCursor.next();
-                        JsonNode valueNode = nodeCursor.getCurrentValue();
-                        if (valueNode.isNull() || valueNode.asText().length() == 0) {
-                            String value = UIDType.newValue();
-                            LOGGER.debug("Setting {} to {}", nodeCursor.getCurrentKey(), value);
-                            doc.modify(nodeCursor.getCurrentKey(), factory.textNode(value), true);
-                        }
+        // Process all UID fields
+        for (WriteFields.WriteField<FieldTreeNode> field : md.getEntitySchema().getWriteFields().getUIDFields()) {
+            Path p = field.getPath();
+            LOGGER.debug("Processing UID field {}", p);
+            if (field.isRequired()) {
+                LOGGER.debug("Field {} is required", p);
+                setRequiredField(factory, doc, p, 1, null);
+            } else {
+                // Here, node could be a field or an array
+                LOGGER.debug("Field {} is not required", p);
+                KeyValueCursor<Path, JsonNode> nodeCursor = doc.getAllNodes(p);
+                while (nodeCursor.hasNext()) {
+                    nodeCursor.next();
+                    JsonNode valueNode = nodeCursor.getCurrentValue();
+                    if (valueNode.isNull() || valueNode.asText().length() == 0) {
+                        String value = UIDType.newValue();
+                        LOGGER.debug("Setting {} to {}", nodeCursor.getCurrentKey(), value);
+                        doc.modify(nodeCursor.getCurrentKey(), factory.textNode(value), true);
                     }
                 }
             }
@@ -122,7 +118,7 @@ public final class UIDFields {
         }
     }
 
-    private static boolean required(Field f) {
+    static boolean required(Field f) {
         List<FieldConstraint> constraints = f.getConstraints();
         if (constraints != null) {
             for (FieldConstraint c : constraints) {
@@ -0,0 +1,180 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.metadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.redhat.lightblue.metadata.constraints.ArrayElementIdConstraint;
+import com.redhat.lightblue.metadata.constraints.IdentityConstraint;
+import com.redhat.lightblue.metadata.constraints.RequiredConstraint;
+import com.redhat.lightblue.metadata.types.UIDType;
+import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.Path;
+
+/**
+ * The fields of an entity that are initialized or maintained when a document
+ * is written: UID fields, array count fields, and generated fields. These are
+ * collected once per entity schema, so the documents can be processed without
+ * walking the whole field tree for each document. The collected fields are
+ * dropped from the schema when fields are added, or when the constraints or
+ * the value generator of a field change.
+ */
+public final class WriteFields {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteFields.class);
+
+    /**
+     * A field with its path, and whether it is required
+     */
+    public static final class WriteField<T extends FieldTreeNode> {
+        private final Path path;
+        private final T node;
+        private final boolean required;
+
+        WriteField(Path path, T node, boolean required) {
+            this.path = path;
+            this.node = node;
+            this.required = required;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public T getNode() {
+            return node;
+        }
+
+        public boolean isRequired() {
+            return required;
+        }
+
+        @Override
+        public String toString() {
+            return path + (required ? "(required)" : "");
+        }
+    }
+
+    /**
+     * An array count field, and the array it counts
+     */
+    public static final class ArrayCountField {
+        private final Path countField;
+        private final Path arrayField;
+
+        ArrayCountField(Path countField, Path arrayField) {
+            this.countField = countField;
+            this.arrayField = arrayField;
+        }
+
+        public Path getCountField() {
+            return countField;
+        }
+
+        public Path getArrayField() {
+            return arrayField;
+        }
+
+        @Override
+        public String toString() {
+            return countField.toString();
+        }
+    }
+
+    private final List<WriteField<FieldTreeNode>> uidFields;
+    private final List<ArrayCountField> arrayCountFields;
+    private final List<WriteField<SimpleField>> generatedFields;
+
+    /**
+     * Collects the write fields of the given schema
+     */
+    public WriteFields(EntitySchema schema) {
+        List<WriteField<FieldTreeNode>> uids = new ArrayList<>();
+        List<ArrayCountField> counts = new ArrayList<>();
+        List<WriteField<SimpleField>> generated = new ArrayList<>();
+        FieldCursor cursor = schema.getFieldCursor();
+        while (cursor.next()) {
+            FieldTreeNode node = cursor.getCurrentNode();
+            Path p = cursor.getCurrentPath().immutableCopy();
+            if (node.getType().equals(UIDType.TYPE)) {
+                uids.add(new WriteField<>(p, node, node instanceof Field && UIDFields.required((Field) node)));
+            }
+            if (PredefinedFields.doesFieldNameMatchArrayCountPattern(node.getName())) {
+                String ls = p.toString();
+                Path arrField = new Path(ls.substring(0, ls.length() - 1));
+                try {
+                    if (schema.resolve(arrField) != null) {
+                        counts.add(new ArrayCountField(p, arrField));
+                    }
+                } catch (Error e) {
+                    LOGGER.debug("No array for count field {}: {}", p, e.getMsg());
+                }
+            }
+            if (node instanceof SimpleField && ((SimpleField) node).getValueGenerator() != null) {
+                generated.add(new WriteField<>(p, (SimpleField) node, generatedRequired((SimpleField) node)));
+            }
+        }
+        this.uidFields = Collections.unmodifiableList(uids);
+        this.arrayCountFields = Collections.unmodifiableList(counts);
+        this.generatedFields = Collections.unmodifiableList(generated);
+    }
+
+    /**
+     * Returns the UID fields. The node of a UID field is a field, or a
+     * simple array element.
+     */
+    public List<WriteField<FieldTreeNode>> getUIDFields() {
+        return uidFields;
+    }
+
+    /**
+     * Returns the array count fields whose arrays exist
+     */
+    public List<ArrayCountField> getArrayCountFields() {
+        return arrayCountFields;
+    }
+
+    /**
+     * Returns the fields with value generators
+     */
+    public List<WriteField<SimpleField>> getGeneratedFields() {
+        return generatedFields;
+    }
+
+    private static boolean generatedRequired(SimpleField f) {
+        List<FieldConstraint> constraints = f.getConstraints();
+        if (constraints != null) {
+            for (FieldConstraint c : constraints) {
+                if (c instanceof RequiredConstraint) {
+                    return ((RequiredConstraint) c).getValue();
+                } else if (c instanceof IdentityConstraint) {
+                    return ((IdentityConstraint) c).isValidForFieldType(f.getType());
+                } else if (c instanceof ArrayElementIdConstraint) {
+                    return ((ArrayElementIdConstraint) c).isValidForFieldType(f.getType());
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -144,6 +144,54 @@ public class PathResolverTest {
         Assert.assertEquals("nested", node.getName());
     }
 
+    @Test
+    public void testRepeatedResolution() throws Exception {
+        EntityMetadata md = getMD1();
+        FieldTreeNode node = md.resolve(new Path("obj1.nested.objArr.1.nestedArrObjString"));
+        Assert.assertSame(node, md.resolve(new Path("obj1.nested.objArr.2.nestedArrObjString")));
+        Assert.assertSame(node, md.resolve(new Path("obj1.nested.objArr.*.nestedArrObjString")));
+        Assert.assertSame(node, md.getFieldTreeRoot().resolve(new Path("obj1.nested.objArr.3.nestedArrObjString")));
+        invalid(md, "obj1.nested.objArr.1.blah", MetadataConstants.ERR_INVALID_FIELD_REFERENCE);
+        invalid(md, "obj1.nested.objArr.1.blah", MetadataConstants.ERR_INVALID_FIELD_REFERENCE);
+    }
+
+    @Test
+    public void testResolutionAfterFieldChange() throws Exception {
+        EntityMetadata md = getMD1();
+        ObjectField obj1 = (ObjectField) md.resolve(new Path("obj1"));
+        invalid(md, "obj1.newField", MetadataConstants.ERR_INVALID_FIELD_REFERENCE);
+        obj1.getFields().addNew(new SimpleField("newField", StringType.TYPE));
+        Assert.assertEquals("newField", ((Field) md.resolve(new Path("obj1.newField"))).getName());
+
+        ArrayField arr = (ArrayField) md.resolve(new Path("obj1.nested.simpleArr"));
+        Assert.assertTrue(md.resolve(new Path("obj1.nested.simpleArr.0")) instanceof SimpleArrayElement);
+        ObjectArrayElement el = new ObjectArrayElement();
+        el.getFields().addNew(new SimpleField("x", StringType.TYPE));
+        arr.setElement(el);
+        Assert.assertSame(el, md.resolve(new Path("obj1.nested.simpleArr.0")));
+        Assert.assertEquals("x", ((Field) md.resolve(new Path("obj1.nested.simpleArr.*.x"))).getName());
+
+        md.getFields().put(new SimpleField("obj1", StringType.TYPE));
+        Assert.assertTrue(md.resolve(new Path("obj1")) instanceof SimpleField);
+        invalid(md, "obj1.newField", MetadataConstants.ERR_INVALID_FIELD_REFERENCE);
+    }
+
+    @Test
+    public void testNumericFieldNames() throws Exception {
+        EntityMetadata md = getMD1();
+        ObjectField obj1 = (ObjectField) md.resolve(new Path("obj1"));
+        obj1.getFields().addNew(new SimpleField("1", StringType.TYPE));
+        md.getEntitySchema().buildResolutionIndex();
+
+        FieldTreeNode element = md.resolve(new Path("obj1.nested.simpleArr.1"));
+        Assert.assertTrue(element instanceof SimpleArrayElement);
+        FieldTreeNode field = md.resolve(new Path("obj1.1"));
+        Assert.assertTrue(field instanceof SimpleField);
+        Assert.assertEquals("1", field.getName());
+        Assert.assertSame(element, md.resolve(new Path("obj1.nested.simpleArr.1")));
+        invalid(md, "obj1.2", MetadataConstants.ERR_INVALID_ARRAY_REFERENCE);
+    }
+
     private void invalid(EntityMetadata md, String p, String errCode) {
         try {
             md.resolve(new Path(p));
@@ -85,4 +85,39 @@ public class UIDFieldsTest {
         // verify uid is not null
         Assert.assertNotNull(doc.get(new Path("simpleUID")));
     }
+
+    @Test
+    public void uidFieldAddedAfterInitialization() throws Exception {
+        EntityMetadata entityMetadata = new EntityMetadata("test");
+        entityMetadata.getFields().addNew(new SimpleField("uid1", UIDType.TYPE));
+
+        ObjectNode node = nodeFactory.objectNode();
+        node.put("uid1", "");
+        node.put("uid2", "");
+        JsonDoc doc = new JsonDoc(node);
+        UIDFields.initializeUIDFields(nodeFactory, entityMetadata, doc);
+        Assert.assertNotEquals("", doc.get(new Path("uid1")).asText());
+        Assert.assertEquals("", doc.get(new Path("uid2")).asText());
+
+        entityMetadata.getFields().addNew(new SimpleField("uid2", UIDType.TYPE));
+        UIDFields.initializeUIDFields(nodeFactory, entityMetadata, doc);
+        Assert.assertNotEquals("", doc.get(new Path("uid2")).asText());
+    }
+
+    @Test
+    public void uidFieldConstraintsChangedAfterInitialization() throws Exception {
+        EntityMetadata entityMetadata = new EntityMetadata("test");
+        SimpleField f = new SimpleField("uid1", UIDType.TYPE);
+        entityMetadata.getFields().addNew(f);
+
+        JsonDoc doc = new JsonDoc(nodeFactory.objectNode());
+        UIDFields.initializeUIDFields(nodeFactory, entityMetadata, doc);
+        Assert.assertNull(doc.get(new Path("uid1")));
+
+        List<FieldConstraint> lfc = new ArrayList<>();
+        lfc.add(new RequiredConstraint());
+        f.setConstraints(lfc);
+        UIDFields.initializeUIDFields(nodeFactory, entityMetadata, doc);
+        Assert.assertNotNull(doc.get(new Path("uid1")));
+    }
 }
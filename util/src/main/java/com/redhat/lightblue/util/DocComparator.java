@@ -18,9 +18,11 @@
  */
 package com.redhat.lightblue.util;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.ListIterator;
@@ -410,6 +412,7 @@ public abstract class DocComparator<BaseType, ValueType, ObjectType, ArrayType>
     }
 
     private final Map<Path, ArrayIdentityFields> arrayIdentities = new HashMap<>();
+    private List<Path> comparedFields;
 
     protected abstract boolean isValue(BaseType value);
 
@@ -470,6 +473,47 @@ public abstract class DocComparator<BaseType, ValueType, ObjectType, ArrayType>
         return arrayIdentities;
     }
 
+    /**
+     * Limits the comparison to the given fields. Object fields that are
+     * neither an ancestor nor a descendant of one of the given fields are not
+     * compared, so changes to them are not reported. Elements of arrays
+     * without identities are compared completely, so they are associated the
+     * same way as an unlimited comparison would. If fields is null, all fields
+     * are compared.
+     *
+     * @param fields Field names, with '*' for array indexes
+     */
+    public void setComparedFields(Collection<Path> fields) {
+        comparedFields = fields == null ? null : new ArrayList<>(fields);
+    }
+
+    public List<Path> getComparedFields() {
+        return comparedFields;
+    }
+
+    /**
+     * Returns if the field is compared, based on the compared fields
+     */
+    protected boolean isComparedField(Path field) {
+        if (comparedFields == null) {
+            return true;
+        }
+        Path f = field.immutableCopy();
+        int n = f.numSegments();
+        for (int i = 0; i < n; i++) {
+            if (f.isIndex(i) && getArrayIdentityExtractor(f.prefix(i)) == null) {
+                // Inside an array without identities
+                return true;
+            }
+        }
+        for (Path x : comparedFields) {
+            if (f.matchingPrefix(x) || f.matchingDescendant(x)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Compares two documents and returns the difference
      */
@@ -514,11 +558,16 @@ public abstract class DocComparator<BaseType, ValueType, ObjectType, ArrayType>
             BaseType value1 = field.getValue();
 
             if (hasField(node2, fieldName)) {
-                // If both obj1 and obj2 have the same field, compare recursively
-                field2.push(fieldName);
-                BaseType value2 = getField(node2, fieldName);
-                ret.add(compareNodes(field1, value1, field2, value2));
-                field2.pop();
+                if (isComparedField(field1)) {
+                    // If both obj1 and obj2 have the same field, compare recursively
+                    field2.push(fieldName);
+                    BaseType value2 = getField(node2, fieldName);
+                    ret.add(compareNodes(field1, value1, field2, value2));
+                    field2.pop();
+                } else {
+                    // Field is not compared, count it as unchanged
+                    ret.add(new Difference<BaseType>(1));
+                }
             } else {
                 // obj1.field1 exists, obj2.field1 does not, so it is removed
                 ret.add(new Removal(field1, value1));
@@ -619,31 +668,15 @@ public abstract class DocComparator<BaseType, ValueType, ObjectType, ArrayType>
         return ret;
     }
 
-    private static class Pair {
-        private final int i1, i2;
-
-        public int hashCode() {
-            return i1 * 1001 + i2;
-        }
-
-        public boolean equals(Object o) {
-            try {
-                return ((Pair) o).i1 == i1
-                        && ((Pair) o).i2 == i2;
-            } catch (Exception e) {
-                return false;
-            }
-        }
-
-        public Pair(int i1, int i2) {
-            this.i1 = i1;
-            this.i2 = i2;
-        }
-    }
-
     /**
      * Computes difference between arrays by comparing every element recursively
-     * and trying to find the closest match
+     * and trying to find the closest match.
+     *
+     * Exact matches are found first: elements of the second array are
+     * bucketed by their structural hash, and an element of the first array
+     * is only compared to the elements of the second array with the same
+     * hash. The remaining elements are then compared to each other, and the
+     * closest matches are associated.
      */
     public Difference<BaseType> compareArraysNoId(MutablePath field1,
                                                   ArrayType node1,
@@ -651,91 +684,94 @@ public abstract class DocComparator<BaseType, ValueType, ObjectType, ArrayType>
                                                   ArrayType node2)
             throws InvalidArrayIdentity, DuplicateArrayIdentity {
         Difference<BaseType> ret = new Difference<>();
-        IndexAssoc assoc = new IndexAssoc(size(node1), size(node2));
-        HashSet<Pair> comparedPairs = new HashSet<>();
-
-        // First associate exact matches
-        // We loop through the unassociated elements of node1, and node2
-        // If the nodes are equal, we associate them
-        // if they are not, we note the distance between the two, so later
-        // we don't need to re-compare them
-        for (assoc.start1(); assoc.hasNext1();) {
-            int index1 = assoc.next1();
+        int size1 = size(node1);
+        int size2 = size(node2);
+        // assoc1[index1] is the index of the node2 element associated with
+        // the node1 element at index1, or -1
+        int[] assoc1 = new int[size1];
+        Arrays.fill(assoc1, -1);
+        boolean[] associated2 = new boolean[size2];
+
+        // First associate exact matches. Equal elements have the same
+        // structural hash, so each element of node1 is associated to the
+        // first unassociated equal element of node2 with the same hash
+        Map<Integer, ArrayDeque<Integer>> buckets2 = new HashMap<>();
+        for (int index2 = 0; index2 < size2; index2++) {
+            buckets2.computeIfAbsent(structuralHash(getElement(node2, index2)), k -> new ArrayDeque<>()).add(index2);
+        }
+        for (int index1 = 0; index1 < size1; index1++) {
             BaseType element1 = getElement(node1, index1);
-            field1.push(index1);
-
-            for (assoc.start2(); assoc.hasNext2();) {
-                int index2 = assoc.next2();
-                BaseType element2 = getElement(node2, index2);
-                field2.push(index2);
-
-                comparedPairs.add(new Pair(index1, index2));
-
-                Difference diff = compareNodes(field1, element1, field2, element2);
-                if (diff.same()) {
-                    assoc.associate(index1, index2);
+            ArrayDeque<Integer> bucket = buckets2.get(structuralHash(element1));
+            if (bucket != null) {
+                field1.push(index1);
+                for (Iterator<Integer> itr = bucket.iterator(); itr.hasNext();) {
+                    int index2 = itr.next();
+                    field2.push(index2);
+                    Difference diff = compareNodes(field1, element1, field2, getElement(node2, index2));
                     field2.pop();
-                    break;
-                } else {
-                    assoc.recordDistance(index1, index2, diff);
+                    if (diff.same()) {
+                        assoc1[index1] = index2;
+                        associated2[index2] = true;
+                        itr.remove();
+                        break;
+                    }
                 }
-                field2.pop();
+                field1.pop();
             }
-            field1.pop();
         }
 
         // Here, we associated all exact matching nodes
         // All remaining nodes need to be compared to each other
-        // First compare all node1 elements to node2 elements
-        for (assoc.start1(); assoc.hasNext1();) {
-            int index1 = assoc.next1();
-            BaseType element1 = getElement(node1, index1);
-            field1.push(index1);
-
-            for (assoc.start2(); assoc.hasNext2();) {
-                int index2 = assoc.next2();
-                BaseType element2 = getElement(node2, index2);
-                field2.push(index2);
-
-                Pair p = new Pair(index1, index2);
-                // Do we have a distance recorded for these nodes?
-                if (comparedPairs.contains(p)) {
-                    // No distance: compare the nodes
-                    Difference diff = compareNodes(field1, element1, field2, element2);
-                    assoc.recordDistance(index1, index2, diff);
-                    comparedPairs.add(p);
-                }
-                field2.pop();
+        List<Integer> remaining2 = new ArrayList<>();
+        for (int index2 = 0; index2 < size2; index2++) {
+            if (!associated2[index2]) {
+                remaining2.add(index2);
             }
-            IxDiff ixdiff = assoc.getMin(index1);
-            // If an object has changed more that 0.5 (more than half
-            // of its fields are changed), then it is not a match
-            if (ixdiff == null || ixdiff.change > 0.5) {
-                // No matching node for node1
-                ret.add(new Removal(field1, element1));
-                assoc.remove1(index1);
-            } else {
-                // Matching node
-                assoc.associate(index1, ixdiff.index2);
-                ret.add(ixdiff.diff);
+        }
+        for (int index1 = 0; index1 < size1; index1++) {
+            if (assoc1[index1] == -1) {
+                BaseType element1 = getElement(node1, index1);
+                field1.push(index1);
+                IxDiff<BaseType> min = null;
+                for (int index2 : remaining2) {
+                    if (!associated2[index2]) {
+                        field2.push(index2);
+                        Difference<BaseType> diff = compareNodes(field1, element1, field2, getElement(node2, index2));
+                        field2.pop();
+                        double change = diff.getChangeAmount();
+                        if (min == null || min.change > change) {
+                            min = new IxDiff<>(diff, change, index1, index2);
+                        }
+                    }
+                }
+                // If an object has changed more that 0.5 (more than half
+                // of its fields are changed), then it is not a match
+                if (min == null || min.change > 0.5) {
+                    // No matching node for node1
+                    ret.add(new Removal(field1, element1));
+                } else {
+                    // Matching node
+                    assoc1[index1] = min.index2;
+                    associated2[min.index2] = true;
+                    ret.add(min.diff);
+                }
+                field1.pop();
             }
-            field1.pop();
         }
         // Anything remaining on node2 are nodes that are added
-        for (assoc.start2(); assoc.hasNext2();) {
-            int index = assoc.next2();
-            BaseType element2 = getElement(node2, index);
-            field2.push(index);
-            ret.add(new Addition(field2, element2));
-            field2.pop();
+        for (int index2 : remaining2) {
+            if (!associated2[index2]) {
+                field2.push(index2);
+                ret.add(new Addition(field2, getElement(node2, index2)));
+                field2.pop();
+            }
         }
         // Look at associations for moved nodes
-        for (Map.Entry<Integer, Integer> entry : assoc.assoc.entrySet()) {
-            if (entry.getKey().intValue() != entry.getValue().intValue()) {
-                field1.push(entry.getKey());
-                field2.push(entry.getValue());
-                BaseType node = getElement(node1, entry.getKey());
-                ret.add(new Move(field1, field2, node));
+        for (int index1 = 0; index1 < size1; index1++) {
+            if (assoc1[index1] != -1 && assoc1[index1] != index1) {
+                field1.push(index1);
+                field2.push(assoc1[index1]);
+                ret.add(new Move(field1, field2, getElement(node1, index1)));
                 field2.pop();
                 field1.pop();
             }
@@ -743,6 +779,43 @@ public abstract class DocComparator<BaseType, ValueType, ObjectType, ArrayType>
         return ret;
     }
 
+    /**
+     * Returns a hash of the node contents. Nodes that compare the same have
+     * the same structural hash. Object fields are hashed independent of their
+     * order, array elements are hashed in order.
+     */
+    protected int structuralHash(BaseType node) {
+        if (isNull(node)) {
+            return 0;
+        } else if (isValue(node)) {
+            return hashValue(asValue(node));
+        } else if (isArray(node)) {
+            ArrayType arr = asArray(node);
+            int n = size(arr);
+            int h = 1;
+            for (int i = 0; i < n; i++) {
+                h = 31 * h + structuralHash(getElement(arr, i));
+            }
+            return h;
+        } else if (isObject(node)) {
+            int h = 7;
+            for (Iterator<Map.Entry<String, BaseType>> fields = getFields(asObject(node)); fields.hasNext();) {
+                Map.Entry<String, BaseType> field = fields.next();
+                h += field.getKey().hashCode() ^ (31 * structuralHash(field.getValue()));
+            }
+            return h;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the hash of a value. Values that are equal according to
+     * equals(ValueType, ValueType) must have the same hash.
+     */
+    protected int hashValue(ValueType value) {
+        return value.hashCode();
+    }
+
     /**
      * Keeps the distance between two array indexes.
      */
@@ -762,124 +835,6 @@ public abstract class DocComparator<BaseType, ValueType, ObjectType, ArrayType>
         }
     }
 
-    /**
-     * Keeps associations between array indexes
-     */
-    private static class IndexAssoc {
-        private final ArrayList<Integer> ix1 = new ArrayList<>();
-        private final ArrayList<Integer> ix2 = new ArrayList<>();
-        private int itr1;
-        private int itr2;
-        private int last1, last2;
-        private final Map<Integer, Integer> assoc = new HashMap<>();
-        /**
-         * Keeps the IxDiff with the minimum change between index1 and index2,
-         * keyed on index1
-         */
-        private final Map<Integer, IxDiff> minimums1 = new HashMap<>();
-
-        /**
-         * Construct with two arrays of size1 and size2
-         */
-        public IndexAssoc(int size1, int size2) {
-            for (int i = 0; i < size1; i++) {
-                ix1.add(i);
-            }
-            for (int i = 0; i < size2; i++) {
-                ix2.add(i);
-            }
-        }
-
-        /**
-         * Start iterating the unassociated indexes of the first array
-         */
-        public void start1() {
-            itr1 = -1;
-        }
-
-        /**
-         * Returns true if the first array has more unassociated indexes
-         */
-        public boolean hasNext1() {
-            return (itr1 + 1) < ix1.size();
-        }
-
-        /**
-         * Returns the current unassociated index of the first array, moves to
-         * the next unassociated index
-         */
-        public int next1() {
-            itr1++;
-            return last1 = ix1.get(itr1);
-        }
-
-        public void remove1(int index) {
-            int l1 = ix1.indexOf(index);
-            if (l1 >= 0) {
-                ix1.remove(l1);
-                if (itr1 >= l1) {
-                    itr1--;
-                }
-            }
-        }
-
-        /**
-         * Start iterating the unassociated indexes of the second array
-         */
-        public void start2() {
-            itr2 = -1;
-        }
-
-        /**
-         * Returns true if the second array has more unassociated indexes
-         */
-        public boolean hasNext2() {
-            return (itr2 + 1) < ix2.size();
-        }
-
-        /**
-         * Returns the current unassociated index of the second array, moves to
-         * the next unassociated index
-         */
-        public int next2() {
-            itr2++;
-            return last2 = ix2.get(itr2);
-        }
-
-        public void remove2(int index) {
-            int l2 = ix2.indexOf(index);
-            if (l2 >= 0) {
-                ix2.remove(l2);
-                if (itr2 >= l2) {
-                    itr2--;
-                }
-            }
-
-        }
-
-        public void associate(int index1, int index2) {
-            remove1(index1);
-            remove2(index2);
-            assoc.put(index1, index2);
-        }
-
-        /**
-         * Records the amount of difference between the nodes last returned by
-         * next(). Also stores the minumum amount of difference for node1
-         */
-        public void recordDistance(int index1, int index2, Difference diff) {
-            double change = diff.getChangeAmount();
-            IxDiff m = minimums1.get(index1);
-            if (m == null || m.change > change) {
-                minimums1.put(index1, m = new IxDiff(diff, change, index1, index2));
-            }
-        }
-
-        public IxDiff getMin(int index1) {
-            return minimums1.get(index1);
-        }
-    }
-
     private Map<Object, Integer> getIdentityMap(Path field, ArrayType array, IdentityExtractor idex)
             throws InvalidArrayIdentity, DuplicateArrayIdentity {
         final int size = size(array);
@@ -19,6 +19,8 @@
 package com.redhat.lightblue.util;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
 
 import org.slf4j.Logger;
@@ -142,6 +144,20 @@ public final class Error extends RuntimeException {
         THREAD_CONTEXT.remove();
     }
 
+    /**
+     * Returns a copy of the stack thread context, outermost context first. A
+     * task running in another thread can push these to report errors in the
+     * same context.
+     */
+    public static List<String> getThreadContext() {
+        ArrayDeque<String> c = THREAD_CONTEXT.get();
+        List<String> ret = new ArrayList<>(c);
+        if (c.isEmpty()) {
+            reset();
+        }
+        return ret;
+    }
+
     private Error(String errorCode, String msg) {
         this.context = new ArrayDeque<>();
         this.errorCode = errorCode;
@@ -132,6 +132,16 @@ public class JsonCompare extends DocComparator<JsonNode, ValueNode, ObjectNode,
         }
     }
 
+    @Override
+    protected int hashValue(ValueNode value) {
+        // Numbers are compared using their text representation
+        if (value.isNumber()) {
+            return value.asText().hashCode();
+        } else {
+            return value.hashCode();
+        }
+    }
+
     @Override
     protected Iterator<Map.Entry<String, JsonNode>> getFields(ObjectNode node) {
         return node.fields();
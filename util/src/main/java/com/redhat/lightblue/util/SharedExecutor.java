@@ -0,0 +1,396 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * A process-wide, bounded thread pool shared by many requests.
+ *
+ * Requests do not submit to the pool directly. Instead, each request obtains
+ * a {@link Session} using {@link #newSession(int)}, which is an
+ * ExecutorService view of the pool that runs at most a given number of tasks
+ * of that request concurrently. Tasks that cannot be dispatched to the pool
+ * because the request reached its concurrency limit, or because the pool
+ * queue is full, are kept in the session, and dispatched as other tasks of
+ * the same request complete. If the pool queue is full and no other task of
+ * the request is running, the task is run by the submitting thread.
+ *
+ * Tasks submitted to a session may submit other tasks and wait for them. To
+ * prevent the pool from starving while its threads wait for tasks that are
+ * still queued, waiting for the result of a task that has not started yet
+ * runs that task in the waiting thread.
+ *
+ * Shutting down a session does not shut down the pool.
+ */
+public class SharedExecutor {
+
+    private final String name;
+    private final ThreadPoolExecutor pool;
+    private final AtomicInteger activeTasks = new AtomicInteger();
+    private final AtomicInteger deferredTasks = new AtomicInteger();
+    private final AtomicLong inlineTasks = new AtomicLong();
+
+    /**
+     * Constructs a shared executor
+     *
+     * @param name Name of the executor, used to name the threads
+     * @param poolSize Maximum number of threads
+     * @param queueSize Maximum number of tasks waiting in the pool queue
+     */
+    public SharedExecutor(String name, int poolSize, int queueSize) {
+        this.name = name;
+        pool = new ThreadPoolExecutor(Math.max(1, poolSize),
+                Math.max(1, poolSize),
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+                new DaemonThreadFactory(name));
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns a new executor view of this pool that runs at most
+     * maxConcurrency tasks concurrently
+     */
+    public Session newSession(int maxConcurrency) {
+        return new Session(maxConcurrency);
+    }
+
+    /**
+     * Number of tasks waiting in the pool queue
+     */
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * Number of tasks running
+     */
+    public int getActiveTasks() {
+        return activeTasks.get();
+    }
+
+    /**
+     * Number of tasks held back by sessions because of per-session
+     * concurrency limits or a full pool queue
+     */
+    public int getDeferredTasks() {
+        return deferredTasks.get();
+    }
+
+    /**
+     * Number of tasks run by the threads waiting for them, instead of the
+     * pool threads
+     */
+    public long getInlineTasks() {
+        return inlineTasks.get();
+    }
+
+    public int getPoolSize() {
+        return pool.getPoolSize();
+    }
+
+    public int getMaxPoolSize() {
+        return pool.getMaximumPoolSize();
+    }
+
+    public long getCompletedTasks() {
+        return pool.getCompletedTaskCount();
+    }
+
+    /**
+     * Registers gauges for the pool statistics under the given prefix
+     */
+    public void registerGauges(MetricRegistry registry, String prefix) {
+        registerGauge(registry, MetricRegistry.name(prefix, "queueDepth"), this::getQueueDepth);
+        registerGauge(registry, MetricRegistry.name(prefix, "activeTasks"), this::getActiveTasks);
+        registerGauge(registry, MetricRegistry.name(prefix, "deferredTasks"), this::getDeferredTasks);
+        registerGauge(registry, MetricRegistry.name(prefix, "inlineTasks"), this::getInlineTasks);
+        registerGauge(registry, MetricRegistry.name(prefix, "poolSize"), this::getPoolSize);
+        registerGauge(registry, MetricRegistry.name(prefix, "completedTasks"), this::getCompletedTasks);
+    }
+
+    private static <T> void registerGauge(MetricRegistry registry, String name, Gauge<T> gauge) {
+        if (!registry.getGauges().containsKey(name)) {
+            registry.register(name, gauge);
+        }
+    }
+
+    /**
+     * Shuts down the pool. Tasks already submitted are run to completion.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return name + "[poolSize=" + getPoolSize() + ", activeTasks=" + getActiveTasks()
+                + ", queueDepth=" + getQueueDepth() + ", deferredTasks=" + getDeferredTasks() + "]";
+    }
+
+    /**
+     * A task that is run by the thread waiting for its result if it has not
+     * started yet
+     */
+    private class SessionTask<T> extends FutureTask<T> {
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        public SessionTask(Callable<T> c) {
+            super(c);
+        }
+
+        public SessionTask(Runnable r, T value) {
+            super(r, value);
+        }
+
+        @Override
+        public void run() {
+            if (started.compareAndSet(false, true)) {
+                super.run();
+            }
+        }
+
+        private void help() {
+            if (started.compareAndSet(false, true)) {
+                inlineTasks.incrementAndGet();
+                super.run();
+            }
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            help();
+            return super.get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            help();
+            return super.get(timeout, unit);
+        }
+    }
+
+    /**
+     * An executor service view of the shared pool with a concurrency limit
+     */
+    public class Session extends AbstractExecutorService {
+
+        private final int maxConcurrency;
+        private final Deque<Runnable> pending = new ArrayDeque<>();
+        private int running = 0;
+        private boolean shutdown = false;
+
+        private Session(int maxConcurrency) {
+            this.maxConcurrency = Math.max(1, maxConcurrency);
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+            return new SessionTask<>(callable);
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+            return new SessionTask<>(runnable, value);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            synchronized (this) {
+                if (shutdown) {
+                    throw new RejectedExecutionException(name + " session is shut down");
+                }
+                if (running >= maxConcurrency) {
+                    defer(command);
+                    return;
+                }
+                running++;
+            }
+            dispatch(command);
+        }
+
+        private void defer(Runnable command) {
+            pending.addLast(command);
+            deferredTasks.incrementAndGet();
+        }
+
+        /**
+         * Sends the command to the pool. Must be called after the command
+         * acquired a running slot.
+         */
+        private void dispatch(Runnable command) {
+            while (command != null) {
+                final Runnable task = command;
+                try {
+                    pool.execute(() -> {
+                        activeTasks.incrementAndGet();
+                        try {
+                            task.run();
+                        } finally {
+                            activeTasks.decrementAndGet();
+                            taskCompleted();
+                        }
+                    });
+                    return;
+                } catch (RejectedExecutionException e) {
+                    synchronized (this) {
+                        if (running > 1) {
+                            // Pool queue is full. Keep the task, it'll be
+                            // dispatched when one of the other tasks of
+                            // this session completes, or run by the
+                            // thread waiting for it
+                            running--;
+                            defer(task);
+                            return;
+                        }
+                    }
+                    // No other task of this session is running to
+                    // dispatch the deferred tasks. Run it in this thread,
+                    // keeping the running slot.
+                    inlineTasks.incrementAndGet();
+                    activeTasks.incrementAndGet();
+                    boolean completed = false;
+                    try {
+                        task.run();
+                        completed = true;
+                    } finally {
+                        activeTasks.decrementAndGet();
+                        if (!completed) {
+                            // Pass the slot on before the exception propagates
+                            taskCompleted();
+                        }
+                    }
+                    command = nextTask();
+                }
+            }
+        }
+
+        private void taskCompleted() {
+            Runnable next = nextTask();
+            if (next != null) {
+                dispatch(next);
+            }
+        }
+
+        /**
+         * Called when a task releases its running slot. Returns the next
+         * deferred task, which takes over the running slot, or null if
+         * there isn't one.
+         */
+        private Runnable nextTask() {
+            synchronized (this) {
+                Runnable next = pending.pollFirst();
+                if (next == null) {
+                    running--;
+                    notifyAll();
+                    return null;
+                }
+                deferredTasks.decrementAndGet();
+                return next;
+            }
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            shutdown = true;
+            notifyAll();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            List<Runnable> ret;
+            synchronized (this) {
+                shutdown = true;
+                ret = new ArrayList<>(pending);
+                deferredTasks.addAndGet(-pending.size());
+                pending.clear();
+                notifyAll();
+            }
+            return ret;
+        }
+
+        @Override
+        public synchronized boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public synchronized boolean isTerminated() {
+            return shutdown && running == 0 && pending.isEmpty();
+        }
+
+        @Override
+        public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!isTerminated()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
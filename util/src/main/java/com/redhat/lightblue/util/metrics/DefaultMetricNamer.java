@@ -66,6 +66,11 @@ public class DefaultMetricNamer implements DropwizardRequestMetrics.MetricNamer,
                     properties.put("savedSearch", metricTokens.nextToken());
                     properties.put("version", metricTokens.nextToken());
                     break;
+                case "cache":
+                    properties = new Hashtable<>(4);
+                    properties.put("cache", metricTokens.nextToken());
+                    properties.put("result", metricTokens.nextToken());
+                    break;
                 case "generate":
                     properties = new Hashtable<>(5);
                     properties.put("entity", metricTokens.nextToken());
@@ -155,6 +160,13 @@ public class DefaultMetricNamer implements DropwizardRequestMetrics.MetricNamer,
                 escape(field));
     }
 
+    // metrics:type=counters,cache=compositeQueryPlan,result=hits
+    // app.api.cache.${cache}.${result}
+    @Override
+    public RequestMetric cache(String cacheName) {
+        return new ParseableMetric(PREFIX_TOKEN, "cache", escape(cacheName));
+    }
+
     private static class ParseableMetric implements RequestMetric {
         private final String base;
 
@@ -182,6 +194,11 @@ public class DefaultMetricNamer implements DropwizardRequestMetrics.MetricNamer,
             return registry.meter(name(base, ERROR_TOKEN, escapeErrorTypeOrCode(errorTypeOrCode)));
         }
 
+        @Override
+        public final Counter counter(MetricRegistry registry, String counterName) {
+            return registry.counter(name(base, escape(counterName)));
+        }
+
         private static String escapeErrorTypeOrCode(String errorTypeOrCode) {
             return escape(errorTypeOrCode);
         }
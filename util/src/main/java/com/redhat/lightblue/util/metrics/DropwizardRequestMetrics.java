@@ -50,6 +50,7 @@ public class DropwizardRequestMetrics implements RequestMetrics {
         RequestMetric health();
         RequestMetric bulk();
         RequestMetric generate(String entity, String version, String field);
+        RequestMetric cache(String cacheName);
     }
 
     public static DropwizardRequestMetrics withDefaultMBeans(MetricRegistry registry) {
@@ -115,6 +116,16 @@ public class DropwizardRequestMetrics implements RequestMetrics {
         return new DropwizardContext(metricNamer.generate(entity, version, field));
     }
 
+    @Override
+    public void markCacheHit(String cacheName) {
+        metricNamer.cache(cacheName).counter(metricRegistry, "hits").inc();
+    }
+
+    @Override
+    public void markCacheMiss(String cacheName) {
+        metricNamer.cache(cacheName).counter(metricRegistry, "misses").inc();
+    }
+
     private class DropwizardContext implements Context {
         private final RequestMetric metric;
         private final Timer.Context context;
@@ -11,4 +11,6 @@ public interface RequestMetric {
     Counter activeRequestCounter(MetricRegistry registry);
 
     Meter errorMeter(MetricRegistry registry, String errorTypeOrCode);
+
+    Counter counter(MetricRegistry registry, String counterName);
 }
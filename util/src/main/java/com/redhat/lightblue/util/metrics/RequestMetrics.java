@@ -77,6 +77,20 @@ public interface RequestMetrics {
 
     Context startGenerateRequest(String entity, String version, String field);
 
+    /**
+     * Records a lookup that found its value in the named cache. Does nothing
+     * by default.
+     */
+    default void markCacheHit(String cacheName) {
+    }
+
+    /**
+     * Records a lookup that did not find its value in the named cache. Does
+     * nothing by default.
+     */
+    default void markCacheMiss(String cacheName) {
+    }
+
     /**
      * Context information for a request. Context is created when monitoring starts for any request 
      * and is further monitoring actions on that request are tracked using this context.
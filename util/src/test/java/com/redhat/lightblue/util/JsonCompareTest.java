@@ -18,6 +18,7 @@
  */
 package com.redhat.lightblue.util;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -27,6 +28,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 public class JsonCompareTest {
 
@@ -152,6 +154,76 @@ public class JsonCompareTest {
         Assert.assertTrue(hasDelta(diff.getDelta(), JsonCompare.Move.class, "d.2", "d.3"));
     }
 
+    /**
+     * Equal elements are matched regardless of field order and number
+     * representation
+     */
+    @Test
+    public void testObjectArrayDiff_equalElements() throws Exception {
+        JsonCompare cmp = new JsonCompare();
+        JsonNode doc1 = json("{'d':[ {'q':1,'w':'2'}, {'q':3,'w':[1,2]}, {'q':3,'w':[1,2]}]}");
+        JsonNode doc2 = json("{'d':[ {'w':[1,2],'q':3}, {'w':'2','q':1}, {'q':3,'w':[1,2]}]}");
+        ((ObjectNode) doc2.get("d").get(1)).put("q", 1L);
+        JsonCompare.Difference diff = cmp.compareNodes(doc1, doc2);
+        Assert.assertEquals(2, diff.getDelta().size());
+        Assert.assertTrue(hasDelta(diff.getDelta(), JsonCompare.Move.class, "d.0", "d.1"));
+        Assert.assertTrue(hasDelta(diff.getDelta(), JsonCompare.Move.class, "d.1", "d.0"));
+    }
+
+    /**
+     * Modifications to a large array of objects without id
+     */
+    @Test(timeout = 10000)
+    public void testLargeObjectArrayDiff() throws Exception {
+        JsonCompare cmp = new JsonCompare();
+        StringBuilder bld1 = new StringBuilder("{'d':[");
+        StringBuilder bld2 = new StringBuilder("{'d':[");
+        int n = 5000;
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                bld1.append(',');
+                bld2.append(',');
+            }
+            bld1.append("{'q':").append(i).append(",'w':'x").append(i).append("','e':[").append(i).append("]}");
+            if (i == 10) {
+                // Modified
+                bld2.append("{'q':").append(i).append(",'w':'y','e':[").append(i).append("]}");
+            } else if (i == 20) {
+                // Replaced
+                bld2.append("{'z':1}");
+            } else {
+                bld2.append("{'q':").append(i).append(",'w':'x").append(i).append("','e':[").append(i).append("]}");
+            }
+        }
+        bld1.append("]}");
+        bld2.append("]}");
+        JsonCompare.Difference diff = cmp.compareNodes(json(bld1.toString()), json(bld2.toString()));
+        Assert.assertEquals(3, diff.getDelta().size());
+        Assert.assertTrue(hasDelta(diff.getDelta(), JsonCompare.Modification.class, "d.10.w", "d.10.w"));
+        Assert.assertTrue(hasDelta(diff.getDelta(), JsonCompare.Removal.class, "d.20", null));
+        Assert.assertTrue(hasDelta(diff.getDelta(), JsonCompare.Addition.class, null, "d.20"));
+    }
+
+    /**
+     * Only the subtrees containing the compared fields are compared
+     */
+    @Test
+    public void testComparedFields() throws Exception {
+        JsonCompare cmp = new JsonCompare();
+        cmp.addArrayIdentity(new Path("w"), new Path("id"));
+        cmp.setComparedFields(Arrays.asList(new Path("a.b"), new Path("w.*.x"), new Path("d")));
+        JsonNode doc1 = json("{'a':{'b':1,'c':1},'e':{'f':1},'d':[{'q':1,'r':1}],'w':[{'id':1,'x':1,'y':1}]}");
+        JsonNode doc2 = json("{'a':{'b':2,'c':2},'e':{'f':2},'d':[{'q':1,'r':2}],'w':[{'id':1,'x':2,'y':2}]}");
+        JsonCompare.Difference diff = cmp.compareNodes(doc1, doc2);
+        Assert.assertEquals(3, diff.getDelta().size());
+        Assert.assertTrue(hasDelta(diff.getDelta(), JsonCompare.Modification.class, "a.b", "a.b"));
+        Assert.assertTrue(hasDelta(diff.getDelta(), JsonCompare.Modification.class, "d.0.r", "d.0.r"));
+        Assert.assertTrue(hasDelta(diff.getDelta(), JsonCompare.Modification.class, "w.0.x", "w.0.x"));
+
+        cmp.setComparedFields(null);
+        Assert.assertEquals(6, cmp.compareNodes(doc1, doc2).getDelta().size());
+    }
+
     /**
      * Modifications to array of objects w/id
      */
@@ -0,0 +1,174 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class SharedExecutorTest {
+
+    @Test
+    public void testSessionConcurrencyLimit() throws Exception {
+        SharedExecutor executor = new SharedExecutor("test", 8, 100);
+        ExecutorService session = executor.newSession(2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(session.submit(() -> {
+                int n = running.incrementAndGet();
+                maxRunning.accumulateAndGet(n, Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                }
+                running.decrementAndGet();
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        // The thread waiting for the results may run one more task
+        Assert.assertTrue(maxRunning.get() <= 3);
+        session.shutdown();
+        Assert.assertTrue(session.awaitTermination(1, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSessionRunsAtMostMaxConcurrencyTasks() throws Exception {
+        SharedExecutor executor = new SharedExecutor("test", 8, 100);
+        int n = 3;
+        ExecutorService session = executor.newSession(n);
+        CountDownLatch started = new CountDownLatch(n);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < n; i++) {
+            session.submit(() -> {
+                started.countDown();
+                release.await();
+                return null;
+            });
+        }
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // Threads are available in the pool, but the session is at its limit
+        CountDownLatch extraStarted = new CountDownLatch(1);
+        session.submit(extraStarted::countDown);
+        Assert.assertFalse(extraStarted.await(200, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(n, executor.getActiveTasks());
+        Assert.assertEquals(1, executor.getDeferredTasks());
+
+        release.countDown();
+        Assert.assertTrue(extraStarted.await(10, TimeUnit.SECONDS));
+        session.shutdown();
+        Assert.assertTrue(session.awaitTermination(10, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testNestedTasksDoNotStarve() throws Exception {
+        // Single thread, nested tasks waiting for each other
+        SharedExecutor executor = new SharedExecutor("test", 1, 1);
+        ExecutorService session = executor.newSession(4);
+        Future<Integer> f = session.submit(() -> {
+            List<Future<Integer>> nested = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                final int x = i;
+                nested.add(session.submit(() -> x));
+            }
+            int sum = 0;
+            for (Future<Integer> n : nested) {
+                sum += n.get();
+            }
+            return sum;
+        });
+        Assert.assertEquals(10, f.get(10, TimeUnit.SECONDS).intValue());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSessionShutdown() throws Exception {
+        SharedExecutor executor = new SharedExecutor("test", 2, 10);
+        ExecutorService session = executor.newSession(2);
+        Assert.assertEquals(1, session.submit(() -> 1).get().intValue());
+        session.shutdown();
+        try {
+            session.submit(() -> 2);
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+        }
+        // Other sessions are not affected
+        Assert.assertEquals(3, executor.newSession(1).submit(() -> 3).get().intValue());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testGauges() throws Exception {
+        SharedExecutor executor = new SharedExecutor("test", 2, 10);
+        MetricRegistry registry = new MetricRegistry();
+        executor.registerGauges(registry, "executor.test");
+        executor.registerGauges(registry, "executor.test");
+        Assert.assertEquals(0, registry.getGauges().get("executor.test.activeTasks").getValue());
+        Assert.assertEquals(0, registry.getGauges().get("executor.test.queueDepth").getValue());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSaturatedPoolDoesNotStrandTasks() throws Exception {
+        SharedExecutor executor = new SharedExecutor("test", 1, 1);
+        // Another session occupies the only thread and the queue
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        ExecutorService busy = executor.newSession(2);
+        busy.submit(() -> {
+            started.countDown();
+            release.await();
+            return null;
+        });
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        busy.submit(() -> {
+            release.await();
+            return null;
+        });
+
+        // Nobody waits for these futures, so the session has to run them
+        ExecutorService session = executor.newSession(4);
+        int n = 20;
+        CountDownLatch done = new CountDownLatch(n);
+        for (int i = 0; i < n; i++) {
+            session.submit(done::countDown);
+        }
+        release.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        session.shutdown();
+        Assert.assertTrue(session.awaitTermination(10, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+}
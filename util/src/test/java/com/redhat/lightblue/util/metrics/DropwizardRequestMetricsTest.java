@@ -29,6 +29,8 @@ import org.junit.Test;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.management.ObjectName;
+
 public class DropwizardRequestMetricsTest {
     // Use fresh registry for each test
     private MetricRegistry metricsRegistry = new MetricRegistry();
@@ -135,5 +137,25 @@ public class DropwizardRequestMetricsTest {
         Assert.assertEquals(1, restExceptionMeter.getCount());
         Assert.assertEquals(1, mongoExceptionMeter.getCount());
     }    
-}
 
+    @Test
+    public void testCacheHitsAndMisses() {
+        requestMetrics.markCacheHit("plans");
+        requestMetrics.markCacheHit("plans");
+        requestMetrics.markCacheMiss("plans");
+
+        Assert.assertEquals(2, metricsRegistry.counter("request.cache.plans.hits").getCount());
+        Assert.assertEquals(1, metricsRegistry.counter("request.cache.plans.misses").getCount());
+    }
+
+    @Test
+    public void testObjectNames() throws Exception {
+        DefaultMetricNamer namer = new DefaultMetricNamer();
+        // Generate metrics are named by operation only
+        ObjectName name = namer.createName("timers", "metrics", "request.generate.name.1_0_0.field");
+        Assert.assertEquals(new ObjectName("metrics:type=timers,operation=generate"), name);
+
+        name = namer.createName("counters", "metrics", "request.cache.plans.hits");
+        Assert.assertEquals(new ObjectName("metrics:type=counters,cache=plans,result=hits"), name);
+    }
+}